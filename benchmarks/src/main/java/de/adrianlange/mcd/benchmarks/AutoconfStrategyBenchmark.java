@@ -0,0 +1,129 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext;
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder;
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolver;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader;
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers;
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfMailserverConfigurationDiscoveryStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the Mozilla Autoconf strategy without any I/O: the autoconf document is parsed from memory for each URL,
+ * s.th. the numbers cover parsing, scoping and replacing placeholders of all lookups of an email address.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class AutoconfStrategyBenchmark {
+
+  private MozillaAutoconfMailserverConfigurationDiscoveryStrategy strategy;
+
+  private EmailAddress emailAddress;
+
+
+  @Setup
+  public void setup() throws IOException {
+
+    byte[] document;
+    try( var inputStream = AutoconfStrategyBenchmark.class.getResourceAsStream( "/autoconf/mozilla-example.xml" ) ) {
+      document = inputStream.readAllBytes();
+    }
+
+    MailserverConfigurationDiscoveryContext context = new MailserverConfigurationDiscoveryContextBuilder().build();
+    TxtDnsResolver txtDnsResolver = domain -> CompletableFuture.completedFuture( Collections.emptyList() );
+    strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context, txtDnsResolver,
+        new InMemoryXmlDocumentUrlReader( document ) );
+    emailAddress = EmailAddress.of( "john.doe@example.com" );
+  }
+
+
+  @Benchmark
+  public List<MailserverService> discover() {
+
+    List<MailserverService> mailserverServices = new ArrayList<>();
+    for( var completableFuture : strategy.getMailserverServices( emailAddress ) )
+      mailserverServices.addAll( completableFuture.join() );
+    return mailserverServices;
+  }
+
+
+  /**
+   * Reader returning the same document for every URL.
+   */
+  private static class InMemoryXmlDocumentUrlReader implements XmlDocumentUrlReader {
+
+    private final byte[] document;
+
+
+    private InMemoryXmlDocumentUrlReader( byte[] document ) {
+
+      this.document = document;
+    }
+
+
+    @Override
+    public CompletableFuture<Optional<Document>> getDocumentAsync( String url ) {
+
+      try {
+        return CompletableFuture.completedFuture(
+            Optional.of( XmlParsers.parseDocument( new ByteArrayInputStream( document ) ) ) );
+      } catch( Exception e ) {
+        return CompletableFuture.failedFuture( e );
+      }
+    }
+
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> parseDocumentAsync( String url, XmlStreamParser<T> parser ) {
+
+      try {
+        var reader = XmlParsers.createXmlStreamReader( new ByteArrayInputStream( document ) );
+        try {
+          return CompletableFuture.completedFuture( Optional.ofNullable( parser.parse( reader ) ) );
+        } finally {
+          reader.close();
+        }
+      } catch( XMLStreamException e ) {
+        return CompletableFuture.failedFuture( e );
+      }
+    }
+
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> postDocumentAsync( String url, String requestBody,
+                                                                  XmlStreamParser<T> parser ) {
+
+      return parseDocumentAsync( url, parser );
+    }
+  }
+}
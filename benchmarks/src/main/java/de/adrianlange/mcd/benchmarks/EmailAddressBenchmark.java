@@ -0,0 +1,57 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.strategy.EmailAddress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures parsing and validating email addresses and converting domain parts to their IDN form, which is done for
+ * every discovery and every URL and DNS name derived from it.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class EmailAddressBenchmark {
+
+  private String asciiEmailAddress = "john.doe@example.com";
+
+  private String unicodeEmailAddress = "j\u00fcrgen@b\u00fccher.de";
+
+  private String unicodeDomainPart = "b\u00fccher.de";
+
+
+  @Benchmark
+  public EmailAddress ofAscii() {
+
+    return EmailAddress.of( asciiEmailAddress );
+  }
+
+
+  @Benchmark
+  public EmailAddress ofUnicode() {
+
+    return EmailAddress.of( unicodeEmailAddress );
+  }
+
+
+  @Benchmark
+  public String domainPartToIdn() {
+
+    return EmailAddress.DomainPart.of( unicodeDomainPart ).toIdn();
+  }
+}
@@ -0,0 +1,104 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder;
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryEngine;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.testsupport.FakeDnsServer;
+import de.adrianlange.mcd.testsupport.FakeHttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.SRVRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures complete discoveries by an engine against an in-process DNS server publishing SRV records and an
+ * in-process HTTP server serving autoconf documents, both on the loopback address. DNS and result caching are
+ * disabled, s.th. every discovery performs all lookups.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class EndToEndDiscoveryBenchmark {
+
+  private FakeDnsServer dnsServer;
+
+  private FakeHttpServer httpServer;
+
+  private MailserverConfigurationDiscoveryEngine engine;
+
+  private EmailAddress emailAddress;
+
+
+  @Setup
+  public void setup() throws IOException {
+
+    dnsServer = new FakeDnsServer();
+    dnsServer.addRecord( new SRVRecord( Name.fromString( "_imaps._tcp.example.com." ), DClass.IN, 3600, 0, 10, 993,
+        Name.fromString( "imap.example.com." ) ) );
+    dnsServer.addRecord( new SRVRecord( Name.fromString( "_submission._tcp.example.com." ), DClass.IN, 3600, 0, 10,
+        587, Name.fromString( "smtp.example.com." ) ) );
+
+    String document;
+    try( var inputStream = EndToEndDiscoveryBenchmark.class.getResourceAsStream( "/autoconf/mozilla-example.xml" ) ) {
+      document = new String( inputStream.readAllBytes(), StandardCharsets.UTF_8 );
+    }
+    httpServer = new FakeHttpServer();
+    httpServer.addDocument( "autoconfig.example.com", "/mail/config-v1.1.xml", document );
+
+    var context = new MailserverConfigurationDiscoveryContextBuilder()
+        .withDnsServer( dnsServer.getHost(), dnsServer.getPort() )
+        .withDnsCacheSize( 0 )
+        .withHttpProxy( httpServer.getProxySelector() )
+        .build();
+    engine = new MailserverConfigurationDiscoveryEngine( context );
+    emailAddress = EmailAddress.of( "john.doe@example.com" );
+
+    if( engine.discover( emailAddress ).isEmpty() )
+      throw new IllegalStateException( "Discovery against the fake servers found no mailserver services!" );
+  }
+
+
+  @TearDown
+  public void tearDown() {
+
+    engine.getContext().close();
+    httpServer.close();
+    dnsServer.close();
+  }
+
+
+  @Benchmark
+  public Set<MailserverService> discover() {
+
+    return engine.discover( emailAddress );
+  }
+
+
+  @Benchmark
+  public Set<MailserverService> discoverAsync() {
+
+    return engine.discoverAsync( emailAddress ).join();
+  }
+}
@@ -0,0 +1,101 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder;
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryEngine;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase;
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabaseCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures merging the results of finished lookups by an engine. The only configuration method is the provider
+ * database, whose lookups are completed without any I/O, s.th. the numbers cover starting the discovery, merging the
+ * results and removing duplicates. The provider lists every server twice.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class MergeBenchmark {
+
+  @Param( { "1", "10", "50" } )
+  private int servers;
+
+  private MailserverConfigurationDiscoveryEngine engine;
+
+  private EmailAddress emailAddress;
+
+
+  @Setup
+  public void setup() throws IOException {
+
+    var document = new StringBuilder( "<clientConfig version=\"1.1\"><emailProvider id=\"example.com\">" );
+    document.append( "<domain>example.com</domain>" );
+    for( int i = 0; i < 2 * servers; i++ )
+      document.append( "<incomingServer type=\"imap\"><hostname>imap" ).append( i % servers ).append(
+          ".example.com</hostname><port>993</port><socketType>SSL</socketType>" ).append(
+          "<username>%EMAILADDRESS%</username></incomingServer>" );
+    document.append( "</emailProvider></clientConfig>" );
+
+    var compiler = new ProviderDatabaseCompiler();
+    compiler.addDocument( new ByteArrayInputStream( document.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+    var bytes = new ByteArrayOutputStream();
+    compiler.write( bytes );
+
+    var context = new MailserverConfigurationDiscoveryContextBuilder()
+        .withConfigurationMethods( ConfigurationMethod.MOZILLA_ISPDB )
+        .withProviderDatabase( ProviderDatabase.read( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+        .build();
+    engine = new MailserverConfigurationDiscoveryEngine( context );
+    emailAddress = EmailAddress.of( "john.doe@example.com" );
+
+    if( engine.discover( emailAddress ).size() != servers )
+      throw new IllegalStateException( "Discovery from the provider database did not merge the servers!" );
+  }
+
+
+  @TearDown
+  public void tearDown() {
+
+    engine.getContext().close();
+  }
+
+
+  @Benchmark
+  public Set<MailserverService> discover() {
+
+    return engine.discover( emailAddress );
+  }
+
+
+  @Benchmark
+  public Set<MailserverService> discoverAsync() {
+
+    return engine.discoverAsync( emailAddress ).join();
+  }
+}
@@ -0,0 +1,78 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder;
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolver;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.srvrecord.SrvRecordMailserverConfigurationDiscoveryStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.TextParseException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures mapping SRV records to mailserver services without any I/O, the resolver answers every query with the same
+ * records.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class SrvRecordMappingBenchmark {
+
+  @Param( { "1", "10" } )
+  private int recordsPerQuery;
+
+  private SrvRecordMailserverConfigurationDiscoveryStrategy strategy;
+
+  private EmailAddress.DomainPart domainPart;
+
+
+  @Setup
+  public void setup() throws TextParseException {
+
+    Collection<SRVRecord> srvRecords = new ArrayList<>();
+    var name = Name.fromString( "_imaps._tcp.example.com." );
+    for( int i = 0; i < recordsPerQuery; i++ ) {
+      var target = Name.fromString( "mail" + i + ".example.com." );
+      srvRecords.add( new SRVRecord( name, DClass.IN, 3600, i, 10, 993, target ) );
+    }
+
+    SrvDnsResolver srvDnsResolver = ( domain, protocolPrefix ) -> CompletableFuture.completedFuture( srvRecords );
+    strategy = new SrvRecordMailserverConfigurationDiscoveryStrategy(
+        new MailserverConfigurationDiscoveryContextBuilder().build(), srvDnsResolver );
+    domainPart = EmailAddress.DomainPart.of( "example.com" );
+  }
+
+
+  @Benchmark
+  public List<MailserverService> discover() {
+
+    List<MailserverService> mailserverServices = new ArrayList<>();
+    for( var completableFuture : strategy.getMailserverServices( domainPart ) )
+      mailserverServices.addAll( completableFuture.join() );
+    return mailserverServices;
+  }
+}
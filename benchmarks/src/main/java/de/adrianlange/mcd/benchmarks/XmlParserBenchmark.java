@@ -0,0 +1,98 @@
+package de.adrianlange.mcd.benchmarks;
+
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfDocumentParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares parsing an autoconf document with parser factories created per document against the shared factories and
+ * thread-confined document builders of {@link XmlParsers}.
+ *
+ * @author Adrian Lange
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class XmlParserBenchmark {
+
+  private static final MozillaAutoconfDocumentParser DOCUMENT_PARSER = new MozillaAutoconfDocumentParser();
+
+  private byte[] document;
+
+
+  @Setup
+  public void setup() throws IOException {
+
+    try( var inputStream = XmlParserBenchmark.class.getResourceAsStream( "/autoconf/mozilla-example.xml" ) ) {
+      document = inputStream.readAllBytes();
+    }
+  }
+
+
+  @Benchmark
+  public Document domNewFactory() throws Exception {
+
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
+    dbf.setFeature( "http://apache.org/xml/features/disallow-doctype-decl", true );
+    return dbf.newDocumentBuilder().parse( new ByteArrayInputStream( document ) );
+  }
+
+
+  @Benchmark
+  public Document domShared() throws Exception {
+
+    return XmlParsers.parseDocument( new ByteArrayInputStream( document ) );
+  }
+
+
+  @Benchmark
+  public List<MailserverService> staxNewFactory() throws Exception {
+
+    XMLInputFactory xif = XMLInputFactory.newInstance();
+    xif.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    xif.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    xif.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, false );
+    var reader = xif.createXMLStreamReader( new ByteArrayInputStream( document ) );
+    try {
+      return DOCUMENT_PARSER.parse( reader );
+    } finally {
+      reader.close();
+    }
+  }
+
+
+  @Benchmark
+  public List<MailserverService> staxShared() throws Exception {
+
+    var reader = XmlParsers.createXmlStreamReader( new ByteArrayInputStream( document ) );
+    try {
+      return DOCUMENT_PARSER.parse( reader );
+    } finally {
+      reader.close();
+    }
+  }
+}
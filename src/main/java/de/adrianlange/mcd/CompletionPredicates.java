@@ -0,0 +1,83 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.model.SocketType;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+
+/**
+ * Completion predicates for {@link MailserverConfigurationDiscoveryEngine#discover(String, java.time.Duration,
+ * Predicate)}, which end a discovery as soon as the mailserver services found so far are sufficient.
+ *
+ * @author Adrian Lange
+ */
+public final class CompletionPredicates {
+
+  private CompletionPredicates() {
+
+  }
+
+
+  /**
+   * Returns a predicate, which is met if there is at least one usable mailserver service for each of the given
+   * discovery scopes. A mailserver service is usable if it has a host, its socket type is not checked, s.th. services
+   * without a socket type, e.g. those of SRV records, are usable as well.
+   *
+   * @param discoveryScopes Discovery scopes, which need a mailserver service each
+   * @return Completion predicate
+   */
+  public static Predicate<Set<MailserverService>> containsEach( DiscoveryScope... discoveryScopes ) {
+
+    return create( null, discoveryScopes );
+  }
+
+
+  /**
+   * Returns a predicate, which is met if there is at least one usable mailserver service with one of the given socket
+   * types for each of the given discovery scopes, e.g. one SSL service for reception and one for submission. A
+   * mailserver service is usable if it has a host.
+   *
+   * @param socketTypes     Accepted socket types
+   * @param discoveryScopes Discovery scopes, which need a mailserver service each
+   * @return Completion predicate
+   */
+  public static Predicate<Set<MailserverService>> containsEach( Set<SocketType> socketTypes,
+                                                                DiscoveryScope... discoveryScopes ) {
+
+    if( socketTypes == null || socketTypes.stream().anyMatch( Objects::isNull ) )
+      throw new IllegalArgumentException( "Socket types must not be null!" );
+
+    return create( socketTypes.isEmpty() ? EnumSet.noneOf( SocketType.class ) : EnumSet.copyOf( socketTypes ),
+        discoveryScopes );
+  }
+
+
+  /**
+   * Creates the predicate for the given socket types, <code>null</code> to accept any socket type including none.
+   */
+  private static Predicate<Set<MailserverService>> create( Set<SocketType> acceptedSocketTypes,
+                                                           DiscoveryScope... discoveryScopes ) {
+
+    if( discoveryScopes == null || Arrays.asList( discoveryScopes ).contains( null ) )
+      throw new IllegalArgumentException( "Discovery scopes must not be null!" );
+
+    var requiredDiscoveryScopes = discoveryScopes.length == 0 ? EnumSet.noneOf( DiscoveryScope.class ) :
+        EnumSet.copyOf( Arrays.asList( discoveryScopes ) );
+
+    return mailserverServices -> {
+      var missingDiscoveryScopes = EnumSet.copyOf( requiredDiscoveryScopes );
+      for( var mailserverService : mailserverServices ) {
+        if( mailserverService.getHost() != null && ( acceptedSocketTypes == null || acceptedSocketTypes.contains(
+            mailserverService.getSocketType() ) ) )
+          missingDiscoveryScopes.remove( DiscoveryScope.get( mailserverService.getProtocol() ) );
+      }
+      return missingDiscoveryScopes.isEmpty();
+    };
+  }
+}
@@ -0,0 +1,235 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+
+/**
+ * Publisher emitting the mailserver services of a discovery as soon as the lookup they have been found by finishes.
+ * Each subscription starts its own lookups, services found by several lookups are emitted once only.<p>Services are
+ * only emitted as requested by the subscriber, services found in the meantime are buffered. Cancelling the
+ * subscription cancels the remaining lookups. If a timeout is given, the remaining lookups are cancelled when it is
+ * reached and the subscription completes with the services found so far.
+ */
+class DiscoveryPublisher implements Flow.Publisher<MailserverService> {
+
+  private final Supplier<List<CompletableFuture<List<MailserverService>>>> lookup;
+
+  private final Duration timeout;
+
+  private final Consumer<Set<MailserverService>> completeResultConsumer;
+
+  private final Runnable terminationHandler;
+
+
+  /**
+   * Creates a new publisher.
+   *
+   * @param lookup                 Starts the lookups of a discovery
+   * @param timeout                Timeout for the discovery, <code>null</code> to wait for all lookups
+   * @param completeResultConsumer Consumer of all found services, if all lookups finished, may be <code>null</code>
+   * @param terminationHandler     Called once a subscription is completed, failed or cancelled, may be
+   *                               <code>null</code>
+   */
+  DiscoveryPublisher( Supplier<List<CompletableFuture<List<MailserverService>>>> lookup, Duration timeout,
+                      Consumer<Set<MailserverService>> completeResultConsumer, Runnable terminationHandler ) {
+
+    this.lookup = lookup;
+    this.timeout = timeout;
+    this.completeResultConsumer = completeResultConsumer;
+    this.terminationHandler = terminationHandler;
+  }
+
+
+  @Override
+  public void subscribe( Flow.Subscriber<? super MailserverService> subscriber ) {
+
+    if( subscriber == null )
+      throw new NullPointerException( "Subscriber must not be null!" );
+
+    var subscription = new DiscoverySubscription( subscriber );
+    subscriber.onSubscribe( subscription );
+    subscription.start();
+  }
+
+
+  private class DiscoverySubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super MailserverService> subscriber;
+
+    private final Queue<MailserverService> queue = new ConcurrentLinkedQueue<>();
+
+    private final Set<MailserverService> found = ConcurrentHashMap.newKeySet();
+
+    private final List<CompletableFuture<List<MailserverService>>> completableFutures = new ArrayList<>();
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private volatile boolean lookupsDone = false;
+
+    private volatile boolean timedOut = false;
+
+    private volatile boolean cancelled = false;
+
+    private volatile Throwable error;
+
+    private boolean terminated = false;
+
+
+    private DiscoverySubscription( Flow.Subscriber<? super MailserverService> subscriber ) {
+
+      this.subscriber = subscriber;
+    }
+
+
+    private void start() {
+
+      if( cancelled || lookupsDone )
+        return;
+
+      try {
+        completableFutures.addAll( lookup.get() );
+      } catch( RuntimeException e ) {
+        error = e;
+        lookupsDone = true;
+        drain();
+        return;
+      }
+
+      remaining.set( completableFutures.size() );
+      if( completableFutures.isEmpty() ) {
+        lookupsDone = true;
+        drain();
+        return;
+      }
+
+      if( timeout != null ) {
+        CompletableFuture.delayedExecutor( timeout.toNanos(), TimeUnit.NANOSECONDS ).execute( () -> {
+          if( lookupsDone )
+            return;
+          timedOut = true;
+          lookupsDone = true;
+          completableFutures.forEach( f -> f.cancel( false ) );
+          drain();
+        } );
+      }
+
+      for( var completableFuture : completableFutures )
+        completableFuture.whenComplete( this::onLookupComplete );
+    }
+
+
+    private void onLookupComplete( List<MailserverService> mailserverServices, Throwable t ) {
+
+      var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+      if( cause != null && !( cause instanceof CancellationException ) && error == null )
+        error = cause;
+
+      if( mailserverServices != null ) {
+        for( var mailserverService : mailserverServices ) {
+          if( found.add( mailserverService ) )
+            queue.offer( mailserverService );
+        }
+      }
+
+      if( remaining.decrementAndGet() == 0 ) {
+        if( !lookupsDone && !timedOut && error == null && !cancelled && completeResultConsumer != null )
+          completeResultConsumer.accept( Set.copyOf( found ) );
+        lookupsDone = true;
+      }
+      drain();
+    }
+
+
+    @Override
+    public void request( long n ) {
+
+      if( n <= 0 ) {
+        error = new IllegalArgumentException( "Number of requested services must be positive!" );
+        lookupsDone = true;
+        queue.clear();
+        completableFutures.forEach( f -> f.cancel( false ) );
+      } else {
+        requested.getAndUpdate( r -> r + n < 0 ? Long.MAX_VALUE : r + n );
+      }
+      drain();
+    }
+
+
+    @Override
+    public void cancel() {
+
+      if( cancelled )
+        return;
+      cancelled = true;
+      completableFutures.forEach( f -> f.cancel( false ) );
+      drain();
+    }
+
+
+    /**
+     * Emits buffered services as requested and terminates the subscription once all lookups are done. Signals are
+     * only sent from one thread at a time.
+     */
+    private void drain() {
+
+      if( wip.getAndIncrement() != 0 )
+        return;
+
+      do {
+        if( terminated )
+          continue;
+        if( cancelled ) {
+          queue.clear();
+          terminate();
+          continue;
+        }
+
+        while( requested.get() > 0 && !cancelled ) {
+          var mailserverService = queue.poll();
+          if( mailserverService == null )
+            break;
+          requested.decrementAndGet();
+          subscriber.onNext( mailserverService );
+        }
+
+        if( !cancelled && lookupsDone && error != null ) {
+          queue.clear();
+          terminate();
+          subscriber.onError( error );
+        } else if( !cancelled && lookupsDone && queue.isEmpty() ) {
+          terminate();
+          subscriber.onComplete();
+        }
+      } while( wip.decrementAndGet() != 0 );
+    }
+
+
+    private void terminate() {
+
+      terminated = true;
+      if( terminationHandler != null )
+        terminationHandler.run();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+
+/**
+ * Result of a mailserver configuration discovery. If the discovery ran into its deadline, the result contains the
+ * mailserver services found so far and the configuration methods whose lookups did not finish in time. If the discovery
+ * ended early because its completion predicate was met, the remaining lookups have been cancelled and the result only
+ * contains the mailserver services found until then.
+ *
+ * @author Adrian Lange
+ */
+public class DiscoveryResult {
+
+  private final Set<MailserverService> mailserverServices;
+
+  private final Set<ConfigurationMethod> timedOutConfigurationMethods;
+
+  private final boolean completionPredicateMet;
+
+
+  DiscoveryResult( Set<MailserverService> mailserverServices, Set<ConfigurationMethod> timedOutConfigurationMethods ) {
+
+    this( mailserverServices, timedOutConfigurationMethods, false );
+  }
+
+
+  DiscoveryResult( Set<MailserverService> mailserverServices, Set<ConfigurationMethod> timedOutConfigurationMethods,
+                   boolean completionPredicateMet ) {
+
+    this.mailserverServices = Collections.unmodifiableSet( mailserverServices );
+    this.timedOutConfigurationMethods = Collections.unmodifiableSet(
+        timedOutConfigurationMethods.isEmpty() ? EnumSet.noneOf( ConfigurationMethod.class ) :
+            EnumSet.copyOf( timedOutConfigurationMethods ) );
+    this.completionPredicateMet = completionPredicateMet;
+  }
+
+
+  /**
+   * Returns the discovered mailserver services.
+   *
+   * @return A set of mailserver configurations, may be empty if none was found
+   */
+  public Set<MailserverService> getMailserverServices() {
+
+    return mailserverServices;
+  }
+
+
+  /**
+   * Returns the configuration methods with at least one lookup, which did not finish before the deadline.
+   *
+   * @return Configuration methods which timed out, empty if the discovery is complete
+   */
+  public Set<ConfigurationMethod> getTimedOutConfigurationMethods() {
+
+    return timedOutConfigurationMethods;
+  }
+
+
+  /**
+   * Returns if the discovery ended early, because its completion predicate was met before all lookups finished.
+   *
+   * @return True if remaining lookups have been cancelled after the completion predicate was met
+   */
+  public boolean isCompletionPredicateMet() {
+
+    return completionPredicateMet;
+  }
+
+
+  /**
+   * Returns if all lookups finished before the deadline and the discovery did not end early.
+   *
+   * @return True if the result contains the mailserver services of all lookups
+   */
+  public boolean isComplete() {
+
+    return timedOutConfigurationMethods.isEmpty() && !completionPredicateMet;
+  }
+
+
+  @Override
+  public String toString() {
+
+    return "mailserverServices=" + mailserverServices + ", timedOutConfigurationMethods=" +
+        timedOutConfigurationMethods + ", completionPredicateMet=" + completionPredicateMet;
+  }
+}
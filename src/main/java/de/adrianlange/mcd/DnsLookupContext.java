@@ -1,5 +1,10 @@
 package de.adrianlange.mcd;
 
+import de.adrianlange.mcd.infrastructure.dns.DnsCache;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import org.xbill.DNS.Resolver;
+
+import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.Collection;
 
@@ -18,6 +23,15 @@ public interface DnsLookupContext {
   Collection<String> getDnsServers();
 
 
+  /**
+   * Returns the socket addresses of the configured DNS servers, including their ports. If nothing is set the hosts
+   * default DNS server is used.
+   *
+   * @return A collection of DNS server addresses or <code>null</code> if none is configured.
+   */
+  Collection<InetSocketAddress> getDnsServerAddresses();
+
+
   /**
    * Returns the duration until a request runs into a timeout.
    *
@@ -40,4 +54,28 @@ public interface DnsLookupContext {
    * @return True if TCP should be used, false otherwise
    */
   boolean isTcp();
+
+
+  /**
+   * Returns the cache for DNS answers, which is shared by all DNS lookups using this context.
+   *
+   * @return DNS cache or <code>null</code> if caching is disabled
+   */
+  DnsCache getCache();
+
+
+  /**
+   * Returns the resolver sending the DNS queries, which is shared by all DNS lookups using this context.
+   *
+   * @return Resolver
+   */
+  Resolver getResolver();
+
+
+  /**
+   * Returns the metrics DNS queries and cache lookups are recorded in.
+   *
+   * @return Metrics, {@link DiscoveryMetrics#NONE} if metrics are disabled
+   */
+  DiscoveryMetrics getMetrics();
 }
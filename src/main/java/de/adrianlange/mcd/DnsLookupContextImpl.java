@@ -1,11 +1,19 @@
 package de.adrianlange.mcd;
 
+import de.adrianlange.mcd.infrastructure.dns.AbstractDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.dns.DnsCache;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
+
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 
@@ -13,22 +21,73 @@ public class DnsLookupContextImpl implements DnsLookupContext {
 
   private final Set<String> dnsServers = new HashSet<>();
 
+  private final Set<InetSocketAddress> dnsServerAddresses = new LinkedHashSet<>();
+
   private Duration timeout = Duration.ofSeconds( 10 );
 
   private int retries = 3;
 
   private boolean tcp = false;
 
+  private int cacheMaxEntries = 10_000;
+
+  private boolean retainAnswers = false;
+
+  private DnsCache cache;
+
+  private Resolver resolver;
+
+  private DiscoveryMetrics metrics = DiscoveryMetrics.NONE;
+
+  private final boolean built;
+
 
   protected DnsLookupContextImpl() {
 
+    this.built = false;
+  }
+
+
+  /**
+   * Creates a copy of the given DNS lookup context. The copy uses its own cache.
+   *
+   * @param dnsLookupContext DNS lookup context to copy
+   */
+  protected DnsLookupContextImpl( DnsLookupContextImpl dnsLookupContext ) {
+
+    this.dnsServers.addAll( dnsLookupContext.dnsServers );
+    this.dnsServerAddresses.addAll( dnsLookupContext.dnsServerAddresses );
+    this.timeout = dnsLookupContext.timeout;
+    this.retries = dnsLookupContext.retries;
+    this.tcp = dnsLookupContext.tcp;
+    this.cacheMaxEntries = dnsLookupContext.cacheMaxEntries;
+    this.retainAnswers = dnsLookupContext.retainAnswers;
+    this.metrics = dnsLookupContext.metrics;
+    this.built = true;
   }
 
 
+  /**
+   * Adds a DNS server listening on the default port. Contexts returned by the builder are immutable.
+   *
+   * @param dnsServer DNS server address
+   * @throws UnknownHostException  if DNS server host name is invalid (see {@link java.net.InetAddress})
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#withDnsServer(String)} instead.
+   */
+  @Deprecated
   public void addDnsServer( String dnsServer ) throws UnknownHostException {
 
-    InetAddress.getByName( dnsServer );
+    ensureNotBuilt();
+    addDnsServer( dnsServer, SimpleResolver.DEFAULT_PORT );
+  }
+
+
+  void addDnsServer( String dnsServer, int port ) throws UnknownHostException {
+
+    var address = InetAddress.getByName( dnsServer );
     dnsServers.add( dnsServer );
+    dnsServerAddresses.add( new InetSocketAddress( address, port ) );
   }
 
 
@@ -39,6 +98,13 @@ public class DnsLookupContextImpl implements DnsLookupContext {
   }
 
 
+  @Override
+  public Collection<InetSocketAddress> getDnsServerAddresses() {
+
+    return dnsServerAddresses.isEmpty() ? null : Collections.unmodifiableCollection( dnsServerAddresses );
+  }
+
+
   @Override
   public Duration getTimeout() {
 
@@ -46,8 +112,23 @@ public class DnsLookupContextImpl implements DnsLookupContext {
   }
 
 
+  /**
+   * Sets the duration until a request runs into a timeout. Contexts returned by the builder are immutable.
+   *
+   * @param timeout Timeout
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#withDnsLookupTimeout(Duration)} instead.
+   */
+  @Deprecated
   public void setTimeout( Duration timeout ) {
 
+    ensureNotBuilt();
+    useTimeout( timeout );
+  }
+
+
+  void useTimeout( Duration timeout ) {
+
     this.timeout = timeout;
   }
 
@@ -59,8 +140,23 @@ public class DnsLookupContextImpl implements DnsLookupContext {
   }
 
 
+  /**
+   * Sets the number of retries. Contexts returned by the builder are immutable.
+   *
+   * @param retries Number of retries
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#withDnsLookupRetries(int)} instead.
+   */
+  @Deprecated
   public void setRetries( int retries ) {
 
+    ensureNotBuilt();
+    useRetries( retries );
+  }
+
+
+  void useRetries( int retries ) {
+
     this.retries = retries;
   }
 
@@ -72,8 +168,98 @@ public class DnsLookupContextImpl implements DnsLookupContext {
   }
 
 
+  /**
+   * Sets if DNS lookups use TCP. Contexts returned by the builder are immutable.
+   *
+   * @param tcp True to use TCP
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#useTcpForDnsLookups(boolean)} instead.
+   */
+  @Deprecated
   public void setTcp( boolean tcp ) {
 
+    ensureNotBuilt();
+    useTcp( tcp );
+  }
+
+
+  void useTcp( boolean tcp ) {
+
     this.tcp = tcp;
   }
+
+
+  @Override
+  public synchronized DnsCache getCache() {
+
+    if( cacheMaxEntries <= 0 )
+      return null;
+    if( cache == null )
+      cache = new DnsCache( cacheMaxEntries, retainAnswers, metrics );
+    return cache;
+  }
+
+
+  /**
+   * Returns the resolver sending the DNS queries. It is created on first use and shared by all lookups of the context.
+   *
+   * @return Resolver
+   */
+  @Override
+  public synchronized Resolver getResolver() {
+
+    if( resolver == null )
+      resolver = AbstractDnsResolverImpl.createResolver( this );
+    return resolver;
+  }
+
+
+  /**
+   * Releases the resolver of this context. A new one is created, if the context is used again.
+   */
+  synchronized void releaseResolver() {
+
+    resolver = null;
+  }
+
+
+  public int getCacheMaxEntries() {
+
+    return cacheMaxEntries;
+  }
+
+
+  synchronized void setCacheMaxEntries( int cacheMaxEntries ) {
+
+    this.cacheMaxEntries = cacheMaxEntries;
+    this.cache = null;
+  }
+
+
+  synchronized void setRetainAnswers( boolean retainAnswers ) {
+
+    this.retainAnswers = retainAnswers;
+    this.cache = null;
+  }
+
+
+  @Override
+  public DiscoveryMetrics getMetrics() {
+
+    return metrics;
+  }
+
+
+  synchronized void setMetrics( DiscoveryMetrics metrics ) {
+
+    this.metrics = metrics;
+    this.cache = null;
+  }
+
+
+  private void ensureNotBuilt() {
+
+    if( built )
+      throw new IllegalStateException( "Context returned by the builder must not be changed!" );
+  }
 }
@@ -0,0 +1,105 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.infrastructure.concurrent.HostRequestLimiter;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+
+/**
+ * Configuration context for HTTP lookups of configuration documents.
+ */
+public interface HttpLookupContext {
+
+  /**
+   * Returns the duration until a connection attempt runs into a timeout.
+   *
+   * @return duration until connection attempt runs into timeout
+   */
+  Duration getConnectTimeout();
+
+
+  /**
+   * Returns the duration until a request runs into a timeout, if no response has been received.
+   *
+   * @return duration until request runs into timeout
+   */
+  Duration getRequestTimeout();
+
+
+  /**
+   * Returns the proxy selector used for HTTP requests.
+   *
+   * @return Proxy selector or <code>null</code> if the system default is used
+   */
+  ProxySelector getProxySelector();
+
+
+  /**
+   * Returns the HTTP client sending the requests, which is shared by all HTTP lookups using this context, s.th.
+   * connections are kept alive and reused across lookups.
+   *
+   * @return HTTP client
+   */
+  HttpClient getHttpClient();
+
+
+  /**
+   * Returns the metrics HTTP fetches are recorded in.
+   *
+   * @return Metrics, {@link DiscoveryMetrics#NONE} if metrics are disabled
+   */
+  DiscoveryMetrics getMetrics();
+
+
+  /**
+   * Returns the policy for fetching configuration documents, which are published at plain HTTP URLs.
+   *
+   * @return Fetch policy
+   */
+  FetchPolicy getFetchPolicy();
+
+
+  /**
+   * Returns the delay after which the HTTP URL is requested, if the HTTPS URL has not answered with a valid document
+   * yet, see {@link FetchPolicy#HTTPS_FIRST}.
+   *
+   * @return HTTP fallback delay
+   */
+  Duration getHttpFallbackDelay();
+
+
+  /**
+   * Returns the limiter bounding the concurrency and rate of the requests sent to each host.
+   *
+   * @return Host request limiter or <code>null</code> if requests are not limited
+   */
+  HostRequestLimiter getHostRequestLimiter();
+
+
+  /**
+   * Policies for fetching configuration documents, which are published at plain HTTP URLs. Many hosts redirect to HTTPS
+   * or only answer there, which costs an additional round trip or runs into a connect timeout, if port 80 is filtered.
+   * With all policies except {@link #HTTP_ONLY} the first valid document wins and the other request is cancelled.
+   */
+  enum FetchPolicy {
+
+    /**
+     * Only the HTTP URL is requested.
+     */
+    HTTP_ONLY,
+
+    /**
+     * The HTTPS and the HTTP URL are requested concurrently.
+     */
+    RACE,
+
+    /**
+     * The HTTPS URL is requested first. The HTTP URL is requested, if the HTTPS URL has not answered with a valid
+     * document within the HTTP fallback delay or has failed before.
+     */
+    HTTPS_FIRST
+  }
+}
@@ -0,0 +1,217 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.infrastructure.concurrent.DefaultExecutor;
+import de.adrianlange.mcd.infrastructure.concurrent.HostRequestLimiter;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReaderImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+
+public class HttpLookupContextImpl implements HttpLookupContext {
+
+  private static final Logger LOG = LoggerFactory.getLogger( HttpLookupContextImpl.class );
+
+  private Duration connectTimeout = Duration.ofSeconds( 10 );
+
+  private Duration requestTimeout = Duration.ofSeconds( 10 );
+
+  private ProxySelector proxySelector;
+
+  private DiscoveryMetrics metrics = DiscoveryMetrics.NONE;
+
+  private FetchPolicy fetchPolicy = FetchPolicy.HTTP_ONLY;
+
+  private Duration httpFallbackDelay = Duration.ofMillis( 300 );
+
+  private int maxConcurrentRequestsPerHost = 0;
+
+  private double requestsPerSecondPerHost = 0;
+
+  private int requestBurstPerHost = 0;
+
+  private Executor executor = DefaultExecutor.get();
+
+  private HostRequestLimiter hostRequestLimiter;
+
+  private HttpClient httpClient;
+
+
+  protected HttpLookupContextImpl() {
+
+  }
+
+
+  /**
+   * Creates a copy of the given HTTP lookup context.
+   *
+   * @param httpLookupContext HTTP lookup context to copy
+   */
+  protected HttpLookupContextImpl( HttpLookupContextImpl httpLookupContext ) {
+
+    this.connectTimeout = httpLookupContext.connectTimeout;
+    this.requestTimeout = httpLookupContext.requestTimeout;
+    this.proxySelector = httpLookupContext.proxySelector;
+    this.metrics = httpLookupContext.metrics;
+    this.fetchPolicy = httpLookupContext.fetchPolicy;
+    this.httpFallbackDelay = httpLookupContext.httpFallbackDelay;
+    this.maxConcurrentRequestsPerHost = httpLookupContext.maxConcurrentRequestsPerHost;
+    this.requestsPerSecondPerHost = httpLookupContext.requestsPerSecondPerHost;
+    this.requestBurstPerHost = httpLookupContext.requestBurstPerHost;
+  }
+
+
+  @Override
+  public Duration getConnectTimeout() {
+
+    return connectTimeout;
+  }
+
+
+  void setConnectTimeout( Duration connectTimeout ) {
+
+    this.connectTimeout = connectTimeout;
+  }
+
+
+  @Override
+  public Duration getRequestTimeout() {
+
+    return requestTimeout;
+  }
+
+
+  void setRequestTimeout( Duration requestTimeout ) {
+
+    this.requestTimeout = requestTimeout;
+  }
+
+
+  @Override
+  public ProxySelector getProxySelector() {
+
+    return proxySelector;
+  }
+
+
+  void setProxySelector( ProxySelector proxySelector ) {
+
+    this.proxySelector = proxySelector;
+  }
+
+
+  /**
+   * Returns the HTTP client sending the requests. It is created on first use and shared by all lookups of the context.
+   *
+   * @return HTTP client
+   */
+  @Override
+  public synchronized HttpClient getHttpClient() {
+
+    if( httpClient == null )
+      httpClient = XmlDocumentUrlReaderImpl.createHttpClient( this );
+    return httpClient;
+  }
+
+
+  /**
+   * Releases the HTTP client of this context. On Java 21 and later the client is closed, which releases its connections
+   * and its selector thread without waiting for the garbage collector. A new client is created, if the context is used
+   * again.
+   */
+  synchronized void releaseHttpClient() {
+
+    if( httpClient instanceof AutoCloseable ) {
+      try {
+        ( ( AutoCloseable ) httpClient ).close();
+      } catch( Exception e ) {
+        LOG.debug( "Could not close HTTP client", e );
+      }
+    }
+    httpClient = null;
+  }
+
+
+  @Override
+  public DiscoveryMetrics getMetrics() {
+
+    return metrics;
+  }
+
+
+  void setMetrics( DiscoveryMetrics metrics ) {
+
+    this.metrics = metrics;
+  }
+
+
+  @Override
+  public FetchPolicy getFetchPolicy() {
+
+    return fetchPolicy;
+  }
+
+
+  void setFetchPolicy( FetchPolicy fetchPolicy ) {
+
+    this.fetchPolicy = fetchPolicy;
+  }
+
+
+  @Override
+  public Duration getHttpFallbackDelay() {
+
+    return httpFallbackDelay;
+  }
+
+
+  void setHttpFallbackDelay( Duration httpFallbackDelay ) {
+
+    this.httpFallbackDelay = httpFallbackDelay;
+  }
+
+
+  /**
+   * Returns the limiter bounding the requests sent to each host. It is created on first use and shared by all lookups
+   * of the context.
+   *
+   * @return Host request limiter or <code>null</code> if requests are not limited
+   */
+  @Override
+  public synchronized HostRequestLimiter getHostRequestLimiter() {
+
+    if( maxConcurrentRequestsPerHost == 0 && requestsPerSecondPerHost == 0 )
+      return null;
+    if( hostRequestLimiter == null )
+      hostRequestLimiter = new HostRequestLimiter( maxConcurrentRequestsPerHost, requestsPerSecondPerHost,
+          requestBurstPerHost, executor );
+    return hostRequestLimiter;
+  }
+
+
+  synchronized void setHostRequestLimits( int maxConcurrentRequests, double requestsPerSecond, int burst ) {
+
+    this.maxConcurrentRequestsPerHost = maxConcurrentRequests;
+    this.requestsPerSecondPerHost = requestsPerSecond;
+    this.requestBurstPerHost = burst;
+    this.hostRequestLimiter = null;
+  }
+
+
+  /**
+   * Sets the executor the host request limiter starts delayed requests on. It is set by the discovery context owning
+   * this context to its own executor and is not copied with the context.
+   *
+   * @param executor Executor
+   */
+  synchronized void setExecutor( Executor executor ) {
+
+    this.executor = executor;
+    this.hostRequestLimiter = null;
+  }
+}
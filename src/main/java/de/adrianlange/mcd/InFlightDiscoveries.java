@@ -0,0 +1,170 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+
+/**
+ * Discoveries currently running, s.th. concurrent discoveries of the same domain or email address with the same
+ * configuration methods and discovery scopes share their lookups instead of starting them again.<p>Each caller
+ * attaches to the running discovery and gets its own copies of the lookup futures, which it may cancel without
+ * affecting other callers. The shared lookups are cancelled and removed when the last caller detaches. The bookkeeping
+ * is done by atomic operations of a {@link ConcurrentHashMap}, which only lock the affected bin. The lookups are
+ * started and cancelled outside of these operations, s.th. neither blocks the bin while strategies run.
+ */
+class InFlightDiscoveries {
+
+  private final ConcurrentHashMap<DiscoveryResultCache.Key, InFlightDiscovery> discoveries =
+      new ConcurrentHashMap<>();
+
+
+  /**
+   * Attaches to the running discovery for the given key or starts a new one. A discovery whose lookups are all finished
+   * is not attached to, even if its callers have not detached yet, s.th. no caller gets a result older than its call.
+   *
+   * @param key    Key of the discovery
+   * @param lookup Starts the lookups, if no discovery is running for the key
+   * @return Attachment, which has to be closed when the caller does not need the lookups anymore
+   */
+  Attachment attach( DiscoveryResultCache.Key key, Supplier<PendingDiscovery> lookup ) {
+
+    var created = new InFlightDiscovery();
+    var discovery = discoveries.compute( key, ( k, d ) -> {
+      var result = d == null || d.isDone() ? created : d;
+      result.attachments++;
+      return result;
+    } );
+    if( discovery == created )
+      start( key, created, lookup );
+    return new Attachment( key, discovery, getPendingDiscovery( discovery ) );
+  }
+
+
+  /**
+   * Returns the number of running discoveries.
+   *
+   * @return Number of running discoveries
+   */
+  int getSize() {
+
+    return discoveries.size();
+  }
+
+
+  private void start( DiscoveryResultCache.Key key, InFlightDiscovery discovery, Supplier<PendingDiscovery> lookup ) {
+
+    try {
+      discovery.pendingDiscovery.complete( lookup.get() );
+    } catch( RuntimeException | Error e ) {
+      discoveries.remove( key, discovery );
+      discovery.pendingDiscovery.completeExceptionally( e );
+      throw e;
+    }
+  }
+
+
+  /**
+   * Waits until the lookups of the discovery are started by the caller who created it. Starting them only takes as
+   * long as the strategies need to submit their lookups.
+   */
+  private static PendingDiscovery getPendingDiscovery( InFlightDiscovery discovery ) {
+
+    try {
+      return discovery.pendingDiscovery.join();
+    } catch( CompletionException e ) {
+      if( e.getCause() instanceof RuntimeException )
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+
+  private void detach( DiscoveryResultCache.Key key, InFlightDiscovery discovery ) {
+
+    discoveries.computeIfPresent( key, ( k, d ) -> {
+      if( d != discovery || --d.attachments > 0 )
+        return d;
+      d.removed = true;
+      return null;
+    } );
+    if( discovery.removed )
+      discovery.pendingDiscovery.thenAccept( PendingDiscovery::cancel );
+  }
+
+
+  private static class InFlightDiscovery {
+
+    /**
+     * Completed with the started lookups by the caller who created the discovery, outside of the map operation.
+     */
+    private final CompletableFuture<PendingDiscovery> pendingDiscovery = new CompletableFuture<>();
+
+    private int attachments = 0;
+
+    private boolean removed = false;
+
+
+    /**
+     * Returns if the lookups failed to start or are all finished. A discovery whose lookups are still being started is
+     * not done.
+     */
+    private boolean isDone() {
+
+      if( !pendingDiscovery.isDone() )
+        return false;
+      return pendingDiscovery.isCompletedExceptionally() || pendingDiscovery.join().isDone();
+    }
+  }
+
+
+  /**
+   * Attachment of a caller to a running discovery.
+   */
+  class Attachment implements AutoCloseable {
+
+    private final DiscoveryResultCache.Key key;
+
+    private final InFlightDiscovery discovery;
+
+    private final PendingDiscovery pendingDiscovery;
+
+    private boolean closed = false;
+
+
+    private Attachment( DiscoveryResultCache.Key key, InFlightDiscovery discovery, PendingDiscovery pendingDiscovery ) {
+
+      this.key = key;
+      this.discovery = discovery;
+      this.pendingDiscovery = pendingDiscovery.copy();
+    }
+
+
+    /**
+     * Returns the copies of the lookups of the running discovery for this caller.
+     *
+     * @return Pending discovery
+     */
+    PendingDiscovery getPendingDiscovery() {
+
+      return pendingDiscovery;
+    }
+
+
+    /**
+     * Detaches from the running discovery. The copies of the lookups are cancelled.
+     */
+    @Override
+    public synchronized void close() {
+
+      if( closed )
+        return;
+      closed = true;
+      pendingDiscovery.cancel();
+      detach( key, discovery );
+    }
+  }
+}
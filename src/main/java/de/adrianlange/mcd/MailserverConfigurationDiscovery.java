@@ -1,18 +1,13 @@
 package de.adrianlange.mcd;
 
-import de.adrianlange.mcd.model.ConfigurationMethod;
 import de.adrianlange.mcd.model.MailserverService;
 import de.adrianlange.mcd.strategy.EmailAddress;
-import de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy;
-import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfMailserverConfigurationDiscoveryStrategy;
-import de.adrianlange.mcd.strategy.srvrecord.SrvRecordMailserverConfigurationDiscoveryStrategy;
 
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Flow;
 
 
 /**
@@ -28,7 +23,8 @@ public class MailserverConfigurationDiscovery {
 
   /**
    * Discover mailserver configurations for an email address based on the given context.<p>Use
-   * {@link MailserverConfigurationDiscoveryContextBuilder} to create a new context.
+   * {@link MailserverConfigurationDiscoveryContextBuilder} to create a new context. If many lookups are made with the
+   * same context, use a {@link MailserverConfigurationDiscoveryEngine} instead.
    *
    * @param emailAddress Email address to lookup mailserver configurations for
    * @param context      Context for the discovery of mailserver configurations
@@ -42,14 +38,16 @@ public class MailserverConfigurationDiscovery {
     if( context == null )
       throw new IllegalArgumentException( "Context must not be null!" );
 
-    var stream = getStrategies( context ).stream().map( s -> s.getMailserverServices( emailAddress ) );
-    return waitForAllAndMerge( stream );
+    try( var engine = new MailserverConfigurationDiscoveryEngine( context ) ) {
+      return engine.discover( emailAddress );
+    }
   }
 
 
   /**
    * Discover mailserver configurations for a domain part based on the given context.<p>Use
-   * {@link MailserverConfigurationDiscoveryContextBuilder} to create a new context.
+   * {@link MailserverConfigurationDiscoveryContextBuilder} to create a new context. If many lookups are made with the
+   * same context, use a {@link MailserverConfigurationDiscoveryEngine} instead.
    *
    * @param domain  Domain to lookup mailserver configurations for
    * @param context Context for the discovery of mailserver configurations
@@ -62,14 +60,14 @@ public class MailserverConfigurationDiscovery {
     if( context == null )
       throw new IllegalArgumentException( "Context must not be null!" );
 
-    var stream =
-        getStrategies( context ).stream().map( s -> s.getMailserverServices( EmailAddress.DomainPart.of( domain ) ) );
-    return waitForAllAndMerge( stream );
+    try( var engine = new MailserverConfigurationDiscoveryEngine( context ) ) {
+      return engine.discover( domain );
+    }
   }
 
 
   /**
-   * Discover mailserver configurations for an email address based on the given context.<p>Use
+   * Discover mailserver configurations for an email address based on the default context.<p>Use
    * {@link #discover(EmailAddress, MailserverConfigurationDiscoveryContext)} customize the lookup.
    *
    * @param emailAddress Email address to lookup mailserver configurations for
@@ -77,8 +75,7 @@ public class MailserverConfigurationDiscovery {
    */
   public static Set<MailserverService> discover( EmailAddress emailAddress ) {
 
-    var context = new MailserverConfigurationDiscoveryContextBuilder().build();
-    return discover( emailAddress, context );
+    return DefaultEngineHolder.ENGINE.discover( emailAddress );
   }
 
 
@@ -91,41 +88,199 @@ public class MailserverConfigurationDiscovery {
    */
   public static Set<MailserverService> discover( String domain ) {
 
-    var context = new MailserverConfigurationDiscoveryContextBuilder().build();
-    return discover( domain, context );
+    return DefaultEngineHolder.ENGINE.discover( domain );
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address based on the given context without blocking the calling
+   * thread. The engine created for the lookup is closed when the returned future completes.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @param context      Context for the discovery of mailserver configurations
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public static CompletableFuture<Set<MailserverService>> discoverAsync( EmailAddress emailAddress,
+                                                                         MailserverConfigurationDiscoveryContext context ) {
+
+    if( emailAddress == null )
+      throw new IllegalArgumentException( "Email address must not be null!" );
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    var engine = new MailserverConfigurationDiscoveryEngine( context );
+    var result = engine.discoverAsync( emailAddress );
+    result.whenComplete( ( r, t ) -> engine.close() );
+    return result;
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain based on the given context without blocking the calling thread.
+   * The engine created for the lookup is closed when the returned future completes.
+   *
+   * @param domain  Domain to lookup mailserver configurations for
+   * @param context Context for the discovery of mailserver configurations
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public static CompletableFuture<Set<MailserverService>> discoverAsync( String domain,
+                                                                         MailserverConfigurationDiscoveryContext context ) {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    var engine = new MailserverConfigurationDiscoveryEngine( context );
+    var result = engine.discoverAsync( domain );
+    result.whenComplete( ( r, t ) -> engine.close() );
+    return result;
   }
 
 
-  private static Set<MailserverConfigurationDiscoveryStrategy> getStrategies( MailserverConfigurationDiscoveryContext context ) {
-    Set<MailserverConfigurationDiscoveryStrategy> strategies = new HashSet<>();
+  /**
+   * Discover mailserver configurations for an email address based on the default context without blocking the calling
+   * thread.<p>Use {@link #discoverAsync(EmailAddress, MailserverConfigurationDiscoveryContext)} customize the lookup.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public static CompletableFuture<Set<MailserverService>> discoverAsync( EmailAddress emailAddress ) {
 
-    if( context.getConfigurationMethods().contains( ConfigurationMethod.MOZILLA_AUTOCONF ) )
-      strategies.add( new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context ) );
+    return DefaultEngineHolder.ENGINE.discoverAsync( emailAddress );
+  }
 
-    if( context.getConfigurationMethods().contains( ConfigurationMethod.RFC_61186 ) )
-      strategies.add( new SrvRecordMailserverConfigurationDiscoveryStrategy( context ) );
 
-    // TODO add autodiscover method
+  /**
+   * Discover mailserver configurations for a domain based on the default context without blocking the calling thread.
+   * <p>Use {@link #discoverAsync(String, MailserverConfigurationDiscoveryContext)} customize the lookup.
+   *
+   * @param domain Domain to lookup mailserver configurations for
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public static CompletableFuture<Set<MailserverService>> discoverAsync( String domain ) {
 
-    return strategies;
+    return DefaultEngineHolder.ENGINE.discoverAsync( domain );
   }
 
 
   /**
-   * Waits for all given {@link CompletableFuture} and merges them into a List of {@link MailserverService}.
+   * Discover mailserver configurations for an email address based on the given context and emit each one as soon as
+   * the lookup it has been found by finishes. Each subscription starts its own discovery with its own engine, which is
+   * closed when the subscription ends. Mailserver configurations found by several lookups are emitted once.
    *
-   * @param stream Result of a {@link de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy}
-   * @param <T>    An implementation of {@link MailserverService}
-   * @return A list of {@link MailserverService}
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @param context      Context for the discovery of mailserver configurations
+   * @return Publisher of mailserver configurations, supporting backpressure
    */
-  private static <T extends MailserverService> Set<T> waitForAllAndMerge( Stream<List<CompletableFuture<List<T>>>> stream ) {
-
-    //@formatter:off
-    return stream
-        .flatMap( List::stream )
-        .map( CompletableFuture::join )
-        .flatMap( List::stream )
-        .collect( Collectors.toSet() );
-    //@formatter:on
+  public static Flow.Publisher<MailserverService> publish( EmailAddress emailAddress,
+                                                           MailserverConfigurationDiscoveryContext context ) {
+
+    if( emailAddress == null )
+      throw new IllegalArgumentException( "Email address must not be null!" );
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    return subscriber -> {
+      var engine = new MailserverConfigurationDiscoveryEngine( context );
+      engine.publish( emailAddress, engine::close ).subscribe( subscriber );
+    };
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain based on the given context and emit each one as soon as the lookup
+   * it has been found by finishes. Each subscription starts its own discovery with its own engine, which is closed when
+   * the subscription ends. Mailserver configurations found by several lookups are emitted once.
+   *
+   * @param domain  Domain to lookup mailserver configurations for
+   * @param context Context for the discovery of mailserver configurations
+   * @return Publisher of mailserver configurations, supporting backpressure
+   */
+  public static Flow.Publisher<MailserverService> publish( String domain,
+                                                           MailserverConfigurationDiscoveryContext context ) {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    return subscriber -> {
+      var engine = new MailserverConfigurationDiscoveryEngine( context );
+      engine.publish( domain, engine::close ).subscribe( subscriber );
+    };
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address based on the default context and emit each one as soon as
+   * the lookup it has been found by finishes.<p>Use {@link #publish(EmailAddress, MailserverConfigurationDiscoveryContext)}
+   * customize the lookup.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @return Publisher of mailserver configurations, supporting backpressure
+   */
+  public static Flow.Publisher<MailserverService> publish( EmailAddress emailAddress ) {
+
+    return DefaultEngineHolder.ENGINE.publish( emailAddress );
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain based on the default context and emit each one as soon as the
+   * lookup it has been found by finishes.<p>Use {@link #publish(String, MailserverConfigurationDiscoveryContext)}
+   * customize the lookup.
+   *
+   * @param domain Domain to lookup mailserver configurations for
+   * @return Publisher of mailserver configurations, supporting backpressure
+   */
+  public static Flow.Publisher<MailserverService> publish( String domain ) {
+
+    return DefaultEngineHolder.ENGINE.publish( domain );
+  }
+
+
+  /**
+   * Discover mailserver configurations for several email addresses based on the given context. Lookups only depending
+   * on the domain part are made once per domain.<p>Use {@link MailserverConfigurationDiscoveryContextBuilder} to
+   * create a new context.
+   *
+   * @param emailAddresses Email addresses to lookup mailserver configurations for
+   * @param context        Context for the discovery of mailserver configurations
+   * @return A map with a set of mailserver configurations for each distinct email address
+   */
+  public static Map<EmailAddress, Set<MailserverService>> discoverAll( Collection<EmailAddress> emailAddresses,
+                                                                       MailserverConfigurationDiscoveryContext context ) {
+
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    try( var engine = new MailserverConfigurationDiscoveryEngine( context ) ) {
+      return engine.discoverAll( emailAddresses );
+    }
+  }
+
+
+  /**
+   * Discover mailserver configurations for several email addresses based on the default context. Lookups only
+   * depending on the domain part are made once per domain.<p>Use
+   * {@link #discoverAll(Collection, MailserverConfigurationDiscoveryContext)} customize the lookup.
+   *
+   * @param emailAddresses Email addresses to lookup mailserver configurations for
+   * @return A map with a set of mailserver configurations for each distinct email address
+   */
+  public static Map<EmailAddress, Set<MailserverService>> discoverAll( Collection<EmailAddress> emailAddresses ) {
+
+    return DefaultEngineHolder.ENGINE.discoverAll( emailAddresses );
+  }
+
+
+  /**
+   * Lazily initialized engine with the default context, shared by all lookups without a context.
+   */
+  private static class DefaultEngineHolder {
+
+    private static final MailserverConfigurationDiscoveryEngine ENGINE =
+        new MailserverConfigurationDiscoveryEngine( new MailserverConfigurationDiscoveryContextBuilder().build() );
   }
 }
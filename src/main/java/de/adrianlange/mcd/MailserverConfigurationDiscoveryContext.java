@@ -1,8 +1,14 @@
 package de.adrianlange.mcd;
 
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache;
+import de.adrianlange.mcd.infrastructure.cache.ProviderResultCache;
+import de.adrianlange.mcd.infrastructure.dns.PublicSuffixList;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
 import de.adrianlange.mcd.model.ConfigurationMethod;
 import de.adrianlange.mcd.model.Protocol;
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase;
 
+import java.time.Duration;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -11,7 +17,7 @@ import java.util.concurrent.Executor;
  * Main context for mailserver configuration discovery. Use builder
  * {@link MailserverConfigurationDiscoveryContextBuilder} to build it.
  */
-public interface MailserverConfigurationDiscoveryContext {
+public interface MailserverConfigurationDiscoveryContext extends AutoCloseable {
 
   /**
    * Returns the DNS lookup context.
@@ -21,6 +27,14 @@ public interface MailserverConfigurationDiscoveryContext {
   DnsLookupContext getDnsLookupContext();
 
 
+  /**
+   * Returns the HTTP lookup context.
+   *
+   * @return HTTP lookup context
+   */
+  HttpLookupContext getHttpLookupContext();
+
+
   /**
    * Returns the set of discovery scopes for what kind of mailserver configurations should be discovered.
    *
@@ -45,6 +59,63 @@ public interface MailserverConfigurationDiscoveryContext {
   Executor getExecutor();
 
 
+  /**
+   * Releases the resources owned by this context, like its caches. Executors given to the context are not shut down.
+   */
+  @Override
+  void close();
+
+
+  /**
+   * Returns the timeout for a whole discovery. If it is reached, the mailserver services found so far are returned and
+   * the remaining lookups are cancelled.
+   *
+   * @return Discovery timeout or <code>null</code> if discoveries wait for all lookups
+   */
+  Duration getDiscoveryTimeout();
+
+
+  /**
+   * Returns the cache for complete discovery results.
+   *
+   * @return Result cache or null if result caching is disabled
+   */
+  DiscoveryResultCache getResultCache();
+
+
+  /**
+   * Returns the metrics discoveries, strategies, lookups and executor tasks are recorded in.
+   *
+   * @return Metrics, {@link DiscoveryMetrics#NONE} if metrics are disabled
+   */
+  DiscoveryMetrics getMetrics();
+
+
+  /**
+   * Returns the provider database looked up by the {@link ConfigurationMethod#MOZILLA_ISPDB} configuration method.
+   *
+   * @return Provider database or <code>null</code> if there is none
+   */
+  ProviderDatabase getProviderDatabase();
+
+
+  /**
+   * Returns the cache for the results of the email providers found by the {@link ConfigurationMethod#MX_PROVIDER}
+   * configuration method.
+   *
+   * @return Provider result cache or null if provider result caching is disabled
+   */
+  ProviderResultCache getProviderResultCache();
+
+
+  /**
+   * Returns the public suffix list the base domains of email providers are derived by.
+   *
+   * @return Public suffix list
+   */
+  PublicSuffixList getPublicSuffixList();
+
+
   enum DiscoveryScope {
     SUBMISSION, RECEPTION;
 
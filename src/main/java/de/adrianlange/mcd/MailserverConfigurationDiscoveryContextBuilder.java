@@ -1,8 +1,20 @@
 package de.adrianlange.mcd;
 
+import de.adrianlange.mcd.infrastructure.concurrent.VirtualThreadExecutor;
+import de.adrianlange.mcd.infrastructure.dns.PublicSuffixList;
+import de.adrianlange.mcd.infrastructure.metrics.DefaultDiscoveryMetrics;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
 import de.adrianlange.mcd.model.ConfigurationMethod;
-
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase;
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabaseCompiler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.SimpleResolver;
+
+import java.io.IOException;
+import java.net.ProxySelector;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
@@ -16,6 +28,8 @@ import java.util.stream.Collectors;
  */
 public class MailserverConfigurationDiscoveryContextBuilder {
 
+  private static final Logger LOG = LoggerFactory.getLogger( MailserverConfigurationDiscoveryContextBuilder.class );
+
   private final MailserverConfigurationDiscoveryContextImpl context;
 
 
@@ -36,20 +50,21 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder withDiscoveryScopes( MailserverConfigurationDiscoveryContext.DiscoveryScope... discoveryScopes ) {
 
-    context.setDiscoveryScopes( toSet( discoveryScopes ) );
+    context.useDiscoveryScopes( toSet( discoveryScopes ) );
     return this;
   }
 
 
   /**
-   * Sets the configuration methods to declare which configuration method should be considered for discovery.
+   * Sets the configuration methods to declare which configuration method should be considered for discovery. All
+   * configuration methods except {@link ConfigurationMethod#MX_PROVIDER} are considered by default.
    *
    * @param configurationMethods Configuration methods to consider
    * @return builder
    */
   public MailserverConfigurationDiscoveryContextBuilder withConfigurationMethods( ConfigurationMethod... configurationMethods ) {
 
-    context.setConfigurationMethods( toSet( configurationMethods ) );
+    context.useConfigurationMethods( toSet( configurationMethods ) );
     return this;
   }
 
@@ -62,7 +77,27 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder withExecutor( Executor executor ) {
 
-    context.setExecutor( executor );
+    context.useExecutor( executor );
+    return this;
+  }
+
+
+  /**
+   * Runs concurrent configuration discovery in virtual threads, one per task, instead of a thread pool. Virtual threads
+   * are available from Java 21 on, on older Java versions the default executor is used and a warning is logged. The
+   * same applies if the library is not loaded as multi-release JAR, e.g. from a repackaged JAR without the
+   * <code>Multi-Release</code> manifest entry. {@link VirtualThreadExecutor#isSupported()} tells if virtual threads are
+   * used.<p>Replaces an executor set by {@link #withExecutor(Executor)}.
+   *
+   * @param enabled True to use virtual threads
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withVirtualThreads( boolean enabled ) {
+
+    if( enabled && !VirtualThreadExecutor.isSupported() )
+      LOG.warn( "Virtual threads are not supported, the default executor is used instead" );
+
+    context.setVirtualThreads( enabled );
     return this;
   }
 
@@ -76,7 +111,25 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder withDnsServer( String dnsServer ) throws UnknownHostException {
 
-    context.getDnsLookupContext().addDnsServer( dnsServer );
+    return withDnsServer( dnsServer, SimpleResolver.DEFAULT_PORT );
+  }
+
+
+  /**
+   * Adds a DNS server listening on the given port.
+   *
+   * @param dnsServer DNS server address
+   * @param port      Port of the DNS server
+   * @return builder
+   * @throws UnknownHostException if DNS server host name is invalid (see {@link java.net.InetAddress})
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withDnsServer( String dnsServer, int port )
+      throws UnknownHostException {
+
+    if( port < 1 || port > 65535 )
+      throw new IllegalArgumentException( "Port must be between 1 and 65535!" );
+
+    context.getDnsLookupContext().addDnsServer( dnsServer, port );
     return this;
   }
 
@@ -89,7 +142,7 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder withDnsLookupTimeout( Duration timeout ) {
 
-    context.getDnsLookupContext().setTimeout( timeout );
+    context.getDnsLookupContext().useTimeout( timeout );
     return this;
   }
 
@@ -102,7 +155,7 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder withDnsLookupRetries( int retries ) {
 
-    context.getDnsLookupContext().setRetries( retries );
+    context.getDnsLookupContext().useRetries( retries );
     return this;
   }
 
@@ -115,19 +168,320 @@ public class MailserverConfigurationDiscoveryContextBuilder {
    */
   public MailserverConfigurationDiscoveryContextBuilder useTcpForDnsLookups( boolean useTcp ) {
 
-    context.getDnsLookupContext().setTcp( useTcp );
+    context.getDnsLookupContext().useTcp( useTcp );
+    return this;
+  }
+
+
+  /**
+   * Sets the timeout for connecting to HTTP servers when fetching configuration documents.
+   *
+   * @param timeout Timeout for HTTP connection attempts
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpConnectTimeout( Duration timeout ) {
+
+    if( timeout == null || timeout.isNegative() || timeout.isZero() )
+      throw new IllegalArgumentException( "Timeout must be positive!" );
+
+    context.getHttpLookupContext().setConnectTimeout( timeout );
+    return this;
+  }
+
+
+  /**
+   * Sets the timeout for HTTP requests fetching configuration documents.
+   *
+   * @param timeout Timeout for HTTP requests
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpRequestTimeout( Duration timeout ) {
+
+    if( timeout == null || timeout.isNegative() || timeout.isZero() )
+      throw new IllegalArgumentException( "Timeout must be positive!" );
+
+    context.getHttpLookupContext().setRequestTimeout( timeout );
+    return this;
+  }
+
+
+  /**
+   * Sets the proxy selector for HTTP requests fetching configuration documents.
+   *
+   * @param proxySelector Proxy selector, <code>null</code> to use the system default
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpProxy( ProxySelector proxySelector ) {
+
+    context.getHttpLookupContext().setProxySelector( proxySelector );
+    return this;
+  }
+
+
+  /**
+   * Sets the policy for fetching configuration documents published at plain HTTP URLs, like the Mozilla Autoconf
+   * documents of a domain. By default only the HTTP URL is requested. With
+   * {@link HttpLookupContext.FetchPolicy#HTTPS_FIRST} the HTTP URL is requested after the default fallback delay of
+   * 300 ms.
+   *
+   * @param fetchPolicy Fetch policy
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpFetchPolicy( HttpLookupContext.FetchPolicy fetchPolicy ) {
+
+    if( fetchPolicy == null )
+      throw new IllegalArgumentException( "Fetch policy must not be null!" );
+
+    context.getHttpLookupContext().setFetchPolicy( fetchPolicy );
+    return this;
+  }
+
+
+  /**
+   * Sets the policy for fetching configuration documents published at plain HTTP URLs and the delay after which the
+   * HTTP URL is requested with {@link HttpLookupContext.FetchPolicy#HTTPS_FIRST}, see
+   * {@link #withHttpFetchPolicy(HttpLookupContext.FetchPolicy)}.
+   *
+   * @param fetchPolicy       Fetch policy
+   * @param httpFallbackDelay Delay after which the HTTP URL is requested, if HTTPS has not answered yet
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpFetchPolicy( HttpLookupContext.FetchPolicy fetchPolicy,
+                                                                             Duration httpFallbackDelay ) {
+
+    if( httpFallbackDelay == null || httpFallbackDelay.isNegative() )
+      throw new IllegalArgumentException( "HTTP fallback delay must not be null or negative!" );
+
+    withHttpFetchPolicy( fetchPolicy );
+    context.getHttpLookupContext().setHttpFallbackDelay( httpFallbackDelay );
+    return this;
+  }
+
+
+  /**
+   * Limits the HTTP requests sent to each host, s.th. bulk lookups of many domains served by the same host stay below
+   * the limits of its provider instead of being throttled or blocked. At most the given number of requests to a host
+   * run concurrently, their rate is bounded by a token bucket, which allows bursts of the given size. Requests exceeding
+   * the limits wait without blocking a thread. Requests are not limited by default.
+   *
+   * @param maxConcurrentRequests Maximum number of concurrent requests per host, 0 for no limit
+   * @param requestsPerSecond     Maximum sustained requests per second and host, 0 for no limit
+   * @param burst                 Number of requests per host, which may be sent at once after an idle period
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withHttpHostLimits( int maxConcurrentRequests,
+                                                                            double requestsPerSecond, int burst ) {
+
+    if( maxConcurrentRequests < 0 || requestsPerSecond < 0 || burst < 0 )
+      throw new IllegalArgumentException( "Limits must not be negative!" );
+    if( requestsPerSecond > 0 && burst < 1 )
+      throw new IllegalArgumentException( "Burst must be positive if the rate is limited!" );
+
+    context.getHttpLookupContext().setHostRequestLimits( maxConcurrentRequests, requestsPerSecond, burst );
+    return this;
+  }
+
+
+  /**
+   * Sets the maximum number of record sets kept in the DNS cache. Cached answers are used as long as their TTL allows,
+   * negative answers as long as the minimum TTL of the zone's SOA record allows.
+   *
+   * @param maxEntries Maximum number of cached record sets, 0 to disable caching
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withDnsCacheSize( int maxEntries ) {
+
+    if( maxEntries < 0 )
+      throw new IllegalArgumentException( "Cache size must not be negative!" );
+
+    context.getDnsLookupContext().setCacheMaxEntries( maxEntries );
+    return this;
+  }
+
+
+  /**
+   * Sets the timeout for a whole discovery. If it is reached, the mailserver services found so far are returned and the
+   * remaining lookups are cancelled. Use {@link MailserverConfigurationDiscoveryEngine#discover(String, Duration)} to
+   * find out which configuration methods timed out.
+   *
+   * @param timeout Timeout for a discovery, <code>null</code> to wait for all lookups
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withDiscoveryTimeout( Duration timeout ) {
+
+    if( timeout != null && ( timeout.isNegative() || timeout.isZero() ) )
+      throw new IllegalArgumentException( "Timeout must be positive!" );
+
+    context.setDiscoveryTimeout( timeout );
+    return this;
+  }
+
+
+  /**
+   * Enables caching of complete discovery results per domain or email address, configuration methods and discovery
+   * scopes. Results containing mailserver services are cached for the positive TTL, empty results for the negative TTL.
+   * The cache is bounded by the summed weight of its entries, where each entry weighs the number of its mailserver
+   * services plus one. If the maximum weight is exceeded, the least recently used entries are evicted.<p>Result caching
+   * is disabled by default.
+   *
+   * @param maxWeight   Maximum summed weight of all cached results, 0 to disable result caching
+   * @param positiveTtl Duration non-empty results are cached
+   * @param negativeTtl Duration empty results are cached, {@link Duration#ZERO} to not cache empty results
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withResultCache( long maxWeight, Duration positiveTtl,
+                                                                         Duration negativeTtl ) {
+
+    if( maxWeight < 0 )
+      throw new IllegalArgumentException( "Maximum weight must not be negative!" );
+    if( positiveTtl == null || positiveTtl.isNegative() || negativeTtl == null || negativeTtl.isNegative() )
+      throw new IllegalArgumentException( "TTLs must not be null or negative!" );
+
+    context.setResultCache( maxWeight, positiveTtl, negativeTtl );
+    return this;
+  }
+
+
+  /**
+   * Enables snapshots of the result cache and optionally of the DNS cache, s.th. a restarted process starts with warm
+   * caches instead of sending all lookups again. The snapshot file is read when the context is built, written
+   * periodically and when the context is closed. Restored entries keep their remaining TTLs, entries expired in the
+   * meantime are skipped. A missing or corrupt snapshot file is ignored.<p>The snapshot contains the discovered
+   * configurations, including usernames and passwords found in autoconfig documents, so it should be stored where
+   * only the process can read it.
+   *
+   * @param file              Snapshot file, <code>null</code> to disable snapshots
+   * @param interval          Interval between snapshots
+   * @param includeDnsAnswers True to include the DNS cache
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withCacheSnapshot( Path file, Duration interval,
+                                                                           boolean includeDnsAnswers ) {
+
+    if( file != null && ( interval == null || interval.isNegative() || interval.isZero() ) )
+      throw new IllegalArgumentException( "Interval must be positive!" );
+
+    context.setCacheSnapshot( file, interval, includeDnsAnswers );
+    return this;
+  }
+
+
+  /**
+   * Sets the provider database, which is looked up by the {@link ConfigurationMethod#MOZILLA_ISPDB} configuration
+   * method without any network I/O. It runs before the other configuration methods, which are not started if the
+   * domain is found in the provider database with mailserver services for all discovery scopes.
+   *
+   * @param providerDatabase Provider database, <code>null</code> to disable provider database lookups
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withProviderDatabase( ProviderDatabase providerDatabase ) {
+
+    context.setProviderDatabase( providerDatabase );
+    return this;
+  }
+
+
+  /**
+   * Opens the provider database file, see {@link #withProviderDatabase(ProviderDatabase)}. The file is mapped into
+   * memory and compiled by {@link ProviderDatabaseCompiler}.
+   *
+   * @param file Provider database file
+   * @return builder
+   * @throws IOException if the file cannot be read or is no provider database
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withProviderDatabase( Path file ) throws IOException {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    return withProviderDatabase( ProviderDatabase.open( file ) );
+  }
+
+
+  /**
+   * Sets the cache for the results of the email providers found by the {@link ConfigurationMethod#MX_PROVIDER}
+   * configuration method, s.th. all domains whose MX records point to the same provider share one lookup of it.
+   * Results containing mailserver services are cached for the positive TTL, empty results for the negative TTL. If the
+   * maximum number of entries is exceeded, the least recently used entries are evicted.<p>By default up to 1000
+   * providers are cached for one hour, empty results for five minutes.
+   *
+   * @param maxEntries  Maximum number of cached providers, 0 to disable provider result caching
+   * @param positiveTtl Duration non-empty results are cached
+   * @param negativeTtl Duration empty results are cached, {@link Duration#ZERO} to not cache empty results
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withProviderResultCache( int maxEntries, Duration positiveTtl,
+                                                                                 Duration negativeTtl ) {
+
+    if( maxEntries < 0 )
+      throw new IllegalArgumentException( "Maximum entries must not be negative!" );
+    if( positiveTtl == null || positiveTtl.isNegative() || negativeTtl == null || negativeTtl.isNegative() )
+      throw new IllegalArgumentException( "TTLs must not be null or negative!" );
+
+    context.setProviderResultCache( maxEntries, positiveTtl, negativeTtl );
+    return this;
+  }
+
+
+  /**
+   * Sets the public suffix list the base domains of email providers are derived by for the
+   * {@link ConfigurationMethod#MX_PROVIDER} configuration method. The default list only covers common suffixes.
+   *
+   * @param publicSuffixList Public suffix list, <code>null</code> to use the default list
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withPublicSuffixList( PublicSuffixList publicSuffixList ) {
+
+    context.setPublicSuffixList( publicSuffixList );
+    return this;
+  }
+
+
+  /**
+   * Reads the public suffix list from the given file, see {@link #withPublicSuffixList(PublicSuffixList)}.
+   *
+   * @param file File in the format of the Public Suffix List, e.g. a download of <code>public_suffix_list.dat</code>
+   * @return builder
+   * @throws IOException if the file cannot be read
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withPublicSuffixList( Path file ) throws IOException {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    return withPublicSuffixList( PublicSuffixList.open( file ) );
+  }
+
+
+  /**
+   * Sets the metrics discoveries, strategies, DNS queries, HTTP fetches, cache lookups and executor tasks are recorded
+   * in. {@link DefaultDiscoveryMetrics} records them in counters and histograms without further dependencies, other
+   * implementations may forward them to a monitoring system.<p>Metrics are disabled by default.
+   *
+   * @param metrics Metrics, {@link DiscoveryMetrics#NONE} to disable metrics
+   * @return builder
+   */
+  public MailserverConfigurationDiscoveryContextBuilder withMetrics( DiscoveryMetrics metrics ) {
+
+    if( metrics == null )
+      throw new IllegalArgumentException( "Metrics must not be null!" );
+
+    context.setMetrics( metrics );
     return this;
   }
 
 
   /**
-   * Builds the context object.
+   * Builds the context object. The context is immutable, subsequent changes to the builder will not affect it. If cache
+   * snapshots are enabled, the caches are restored from the snapshot file.
    *
    * @return Context object
    */
   public MailserverConfigurationDiscoveryContext build() {
 
-    return context;
+    var result = new MailserverConfigurationDiscoveryContextImpl( context );
+    result.startCacheSnapshot();
+    return result;
   }
 
 
@@ -1,31 +1,124 @@
 package de.adrianlange.mcd;
 
+import de.adrianlange.mcd.infrastructure.cache.CacheSnapshot;
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache;
+import de.adrianlange.mcd.infrastructure.cache.ProviderResultCache;
+import de.adrianlange.mcd.infrastructure.concurrent.DefaultExecutor;
+import de.adrianlange.mcd.infrastructure.concurrent.VirtualThreadExecutor;
+import de.adrianlange.mcd.infrastructure.dns.PublicSuffixList;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import de.adrianlange.mcd.infrastructure.metrics.MeteredExecutor;
 import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ForkJoinPool;
 
 
 public class MailserverConfigurationDiscoveryContextImpl implements MailserverConfigurationDiscoveryContext {
 
+  private static final Logger LOG = LoggerFactory.getLogger( MailserverConfigurationDiscoveryContextImpl.class );
+
   private final DnsLookupContextImpl dnsLookupContext;
 
+  private final HttpLookupContextImpl httpLookupContext;
+
   private Set<DiscoveryScope> discoveryScopes;
 
   private Set<ConfigurationMethod> configurationMethods;
 
   private Executor executor;
 
+  private boolean virtualThreads = false;
+
+  private Duration discoveryTimeout;
+
+  private long resultCacheMaxWeight = 0;
+
+  private Duration resultCachePositiveTtl = Duration.ZERO;
+
+  private Duration resultCacheNegativeTtl = Duration.ZERO;
+
+  private DiscoveryResultCache resultCache;
+
+  private DiscoveryMetrics metrics = DiscoveryMetrics.NONE;
+
+  private Executor meteredExecutor;
+
+  /**
+   * Executor resolved once when the context is built, s.th. lookups need not lock the context to get it.
+   * <code>null</code> for contexts of the builder.
+   */
+  private final Executor builtExecutor;
+
+  private Path cacheSnapshotFile;
+
+  private Duration cacheSnapshotInterval;
+
+  private CacheSnapshot cacheSnapshot;
+
+  private ProviderDatabase providerDatabase;
+
+  private int providerResultCacheMaxEntries = 1000;
+
+  private Duration providerResultCachePositiveTtl = Duration.ofHours( 1 );
+
+  private Duration providerResultCacheNegativeTtl = Duration.ofMinutes( 5 );
+
+  private ProviderResultCache providerResultCache;
+
+  private PublicSuffixList publicSuffixList;
+
+  private final boolean built;
+
 
   protected MailserverConfigurationDiscoveryContextImpl() {
 
     this.dnsLookupContext = new DnsLookupContextImpl();
+    this.httpLookupContext = new HttpLookupContextImpl();
+    this.httpLookupContext.setExecutor( command -> getExecutor().execute( command ) );
     this.discoveryScopes = EnumSet.allOf( DiscoveryScope.class );
-    this.configurationMethods = EnumSet.allOf( ConfigurationMethod.class );
-    this.executor = new ForkJoinPool();
+    this.configurationMethods = EnumSet.complementOf( EnumSet.of( ConfigurationMethod.MX_PROVIDER ) );
+    this.builtExecutor = null;
+    this.built = false;
+  }
+
+
+  /**
+   * Creates a copy of the given context, which is not affected by subsequent changes to the given one.
+   *
+   * @param context Context to copy
+   */
+  protected MailserverConfigurationDiscoveryContextImpl( MailserverConfigurationDiscoveryContextImpl context ) {
+
+    this.dnsLookupContext = new DnsLookupContextImpl( context.dnsLookupContext );
+    this.httpLookupContext = new HttpLookupContextImpl( context.httpLookupContext );
+    this.discoveryScopes = copyOf( context.discoveryScopes, DiscoveryScope.class );
+    this.configurationMethods = copyOf( context.configurationMethods, ConfigurationMethod.class );
+    this.executor = context.executor;
+    this.virtualThreads = context.virtualThreads;
+    this.discoveryTimeout = context.discoveryTimeout;
+    this.resultCacheMaxWeight = context.resultCacheMaxWeight;
+    this.resultCachePositiveTtl = context.resultCachePositiveTtl;
+    this.resultCacheNegativeTtl = context.resultCacheNegativeTtl;
+    this.metrics = context.metrics;
+    this.cacheSnapshotFile = context.cacheSnapshotFile;
+    this.cacheSnapshotInterval = context.cacheSnapshotInterval;
+    this.providerDatabase = context.providerDatabase;
+    this.providerResultCacheMaxEntries = context.providerResultCacheMaxEntries;
+    this.providerResultCachePositiveTtl = context.providerResultCachePositiveTtl;
+    this.providerResultCacheNegativeTtl = context.providerResultCacheNegativeTtl;
+    this.publicSuffixList = context.publicSuffixList;
+    this.builtExecutor = resolveExecutor();
+    this.httpLookupContext.setExecutor( builtExecutor );
+    this.built = true;
   }
 
 
@@ -36,6 +129,13 @@ public class MailserverConfigurationDiscoveryContextImpl implements MailserverCo
   }
 
 
+  @Override
+  public HttpLookupContextImpl getHttpLookupContext() {
+
+    return httpLookupContext;
+  }
+
+
   @Override
   public Set<DiscoveryScope> getDiscoveryScopes() {
 
@@ -43,8 +143,24 @@ public class MailserverConfigurationDiscoveryContextImpl implements MailserverCo
   }
 
 
+  /**
+   * Sets the discovery scopes. Contexts returned by the builder are immutable.
+   *
+   * @param discoveryScopes Discovery scopes
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#withDiscoveryScopes(DiscoveryScope...)}
+   * instead.
+   */
+  @Deprecated
   public void setDiscoveryScopes( Set<DiscoveryScope> discoveryScopes ) {
 
+    ensureNotBuilt();
+    useDiscoveryScopes( discoveryScopes );
+  }
+
+
+  void useDiscoveryScopes( Set<DiscoveryScope> discoveryScopes ) {
+
     this.discoveryScopes = discoveryScopes;
   }
 
@@ -55,18 +171,276 @@ public class MailserverConfigurationDiscoveryContextImpl implements MailserverCo
   }
 
 
+  /**
+   * Sets the configuration methods. Contexts returned by the builder are immutable.
+   *
+   * @param configurationMethods Configuration methods
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use
+   * {@link MailserverConfigurationDiscoveryContextBuilder#withConfigurationMethods(ConfigurationMethod...)} instead.
+   */
+  @Deprecated
   public void setConfigurationMethods( Set<ConfigurationMethod> configurationMethods ) {
+
+    ensureNotBuilt();
+    useConfigurationMethods( configurationMethods );
+  }
+
+
+  void useConfigurationMethods( Set<ConfigurationMethod> configurationMethods ) {
+
     this.configurationMethods = configurationMethods;
   }
 
 
+  /**
+   * Returns the executor used for concurrent lookups. If none has been set, the shared {@link VirtualThreadExecutor} is
+   * used if virtual threads are enabled, the shared {@link DefaultExecutor} otherwise. If metrics are enabled, the
+   * executor is wrapped by a {@link MeteredExecutor}. Built contexts resolve it once.
+   *
+   * @return Executor
+   */
   @Override
   public Executor getExecutor() {
-    return executor;
+
+    if( builtExecutor != null )
+      return builtExecutor;
+    return resolveExecutor();
+  }
+
+
+  private synchronized Executor resolveExecutor() {
+
+    if( metrics == DiscoveryMetrics.NONE )
+      return getUnmeteredExecutor();
+    if( meteredExecutor == null )
+      meteredExecutor = new MeteredExecutor( getUnmeteredExecutor(), metrics );
+    return meteredExecutor;
   }
 
 
+  private Executor getUnmeteredExecutor() {
+
+    if( executor != null )
+      return executor;
+    return virtualThreads ? VirtualThreadExecutor.get() : DefaultExecutor.get();
+  }
+
+
+  /**
+   * Sets the executor used for concurrent lookups. Contexts returned by the builder are immutable.
+   *
+   * @param executor Executor
+   * @throws IllegalStateException if the context has been returned by the builder
+   * @deprecated Use {@link MailserverConfigurationDiscoveryContextBuilder#withExecutor(Executor)} instead.
+   */
+  @Deprecated
   public void setExecutor( Executor executor ) {
+
+    ensureNotBuilt();
+    useExecutor( executor );
+  }
+
+
+  synchronized void useExecutor( Executor executor ) {
+
     this.executor = executor;
+    this.virtualThreads = false;
+    this.meteredExecutor = null;
+  }
+
+
+  synchronized void setVirtualThreads( boolean virtualThreads ) {
+
+    this.virtualThreads = virtualThreads;
+    if( virtualThreads )
+      this.executor = null;
+    this.meteredExecutor = null;
+  }
+
+
+  @Override
+  public Duration getDiscoveryTimeout() {
+
+    return discoveryTimeout;
+  }
+
+
+  void setDiscoveryTimeout( Duration discoveryTimeout ) {
+
+    this.discoveryTimeout = discoveryTimeout;
+  }
+
+
+  @Override
+  public synchronized DiscoveryResultCache getResultCache() {
+
+    if( resultCacheMaxWeight <= 0 )
+      return null;
+    if( resultCache == null )
+      resultCache = new DiscoveryResultCache( resultCacheMaxWeight, resultCachePositiveTtl, resultCacheNegativeTtl );
+    return resultCache;
+  }
+
+
+  synchronized void setResultCache( long maxWeight, Duration positiveTtl, Duration negativeTtl ) {
+
+    this.resultCacheMaxWeight = maxWeight;
+    this.resultCachePositiveTtl = positiveTtl;
+    this.resultCacheNegativeTtl = negativeTtl;
+    this.resultCache = null;
+  }
+
+
+  @Override
+  public DiscoveryMetrics getMetrics() {
+
+    return metrics;
+  }
+
+
+  synchronized void setMetrics( DiscoveryMetrics metrics ) {
+
+    this.metrics = metrics;
+    this.meteredExecutor = null;
+    this.providerResultCache = null;
+    dnsLookupContext.setMetrics( metrics );
+    httpLookupContext.setMetrics( metrics );
+  }
+
+
+  @Override
+  public ProviderDatabase getProviderDatabase() {
+
+    return providerDatabase;
+  }
+
+
+  void setProviderDatabase( ProviderDatabase providerDatabase ) {
+
+    this.providerDatabase = providerDatabase;
+  }
+
+
+  @Override
+  public synchronized ProviderResultCache getProviderResultCache() {
+
+    if( providerResultCacheMaxEntries <= 0 )
+      return null;
+    if( providerResultCache == null )
+      providerResultCache = new ProviderResultCache( providerResultCacheMaxEntries, providerResultCachePositiveTtl,
+          providerResultCacheNegativeTtl, metrics );
+    return providerResultCache;
+  }
+
+
+  synchronized void setProviderResultCache( int maxEntries, Duration positiveTtl, Duration negativeTtl ) {
+
+    this.providerResultCacheMaxEntries = maxEntries;
+    this.providerResultCachePositiveTtl = positiveTtl;
+    this.providerResultCacheNegativeTtl = negativeTtl;
+    this.providerResultCache = null;
+  }
+
+
+  /**
+   * Returns the public suffix list the base domains of email providers are derived by. If none has been set, the
+   * default list is used.
+   *
+   * @return Public suffix list
+   */
+  @Override
+  public PublicSuffixList getPublicSuffixList() {
+
+    return publicSuffixList != null ? publicSuffixList : PublicSuffixList.getDefault();
+  }
+
+
+  void setPublicSuffixList( PublicSuffixList publicSuffixList ) {
+
+    this.publicSuffixList = publicSuffixList;
+  }
+
+
+  synchronized void setCacheSnapshot( Path file, Duration interval, boolean includeDnsAnswers ) {
+
+    this.cacheSnapshotFile = file;
+    this.cacheSnapshotInterval = interval;
+    dnsLookupContext.setRetainAnswers( file != null && includeDnsAnswers );
+  }
+
+
+  /**
+   * Returns the snapshot of the caches of this context.
+   *
+   * @return Cache snapshot or <code>null</code> if snapshots are disabled or have not been started
+   */
+  public synchronized CacheSnapshot getCacheSnapshot() {
+
+    return cacheSnapshot;
+  }
+
+
+  /**
+   * Restores the caches from the snapshot file and starts writing it periodically, if cache snapshots are enabled. A
+   * missing or unreadable snapshot file is not an error, the caches start empty then.
+   */
+  synchronized void startCacheSnapshot() {
+
+    if( cacheSnapshotFile == null || cacheSnapshot != null )
+      return;
+
+    var dnsCache = dnsLookupContext.getCache();
+    cacheSnapshot = new CacheSnapshot( cacheSnapshotFile, getResultCache(),
+        dnsCache != null && dnsCache.isRetainingAnswers() ? dnsCache : null );
+    try {
+      var restored = cacheSnapshot.read();
+      LOG.debug( "Restored {} cache entries from snapshot {}", restored, cacheSnapshotFile );
+    } catch( IOException | RuntimeException e ) {
+      LOG.warn( "Could not restore cache snapshot {}, starting with empty caches", cacheSnapshotFile, e );
+    }
+    cacheSnapshot.schedule( cacheSnapshotInterval );
+  }
+
+
+  /**
+   * Releases the caches, the DNS resolver and the HTTP client of this context. If cache snapshots are enabled, a last
+   * snapshot is written before. Lookups still running may fail. Executors are not owned by the context, neither the
+   * shared default executor nor one set explicitly is shut down.
+   */
+  @Override
+  public synchronized void close() {
+
+    if( cacheSnapshot != null ) {
+      cacheSnapshot.stop();
+      try {
+        cacheSnapshot.write();
+      } catch( IOException | RuntimeException e ) {
+        LOG.warn( "Could not write cache snapshot {}", cacheSnapshotFile, e );
+      }
+      cacheSnapshot = null;
+    }
+    if( resultCache != null )
+      resultCache.clear();
+    if( providerResultCache != null )
+      providerResultCache.clear();
+    var dnsCache = dnsLookupContext.getCache();
+    if( dnsCache != null )
+      dnsCache.clear();
+    dnsLookupContext.releaseResolver();
+    httpLookupContext.releaseHttpClient();
+  }
+
+
+  private static <T extends Enum<T>> Set<T> copyOf( Set<T> set, Class<T> type ) {
+
+    return set.isEmpty() ? EnumSet.noneOf( type ) : EnumSet.copyOf( set );
+  }
+
+
+  private void ensureNotBuilt() {
+
+    if( built )
+      throw new IllegalStateException( "Context returned by the builder must not be changed!" );
   }
 }
@@ -0,0 +1,639 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache;
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures;
+import de.adrianlange.mcd.infrastructure.dns.MxDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.jfr.StrategyEvent;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReaderImpl;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfMailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaIspdbMailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.msautodiscover.MsAutodiscoverMailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.mxprovider.MxProviderMailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.srvrecord.SrvRecordMailserverConfigurationDiscoveryStrategy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * Long-lived engine for the lookup of mailserver configurations. The engine is built once from a context and owns the
+ * discovery strategies, s.th. they are not created again for every lookup. The DNS resolver and the HTTP client with
+ * its pooled connections are owned by the context and shared by all engines of it. If the context does not define an
+ * executor, the shared default executor is used.<p>Local strategies, like the lookup in a provider database, run
+ * first. If they find mailserver services for all discovery scopes, the network strategies are not started.<p>If the
+ * context defines a result cache, complete results are looked up in and added to it. Concurrent discoveries of the
+ * same domain or email address share their lookups.<p>An engine is safe for concurrent use from multiple threads.
+ *
+ * @author Adrian Lange
+ */
+public class MailserverConfigurationDiscoveryEngine implements AutoCloseable {
+
+  private final MailserverConfigurationDiscoveryContext context;
+
+  private final List<MailserverConfigurationDiscoveryStrategy> strategies;
+
+  private final InFlightDiscoveries inFlightDiscoveries = new InFlightDiscoveries();
+
+  private volatile boolean closed = false;
+
+
+  /**
+   * Creates a new engine.<p>Use {@link MailserverConfigurationDiscoveryContextBuilder} to create a new context.
+   *
+   * @param context Context for the discovery of mailserver configurations
+   */
+  public MailserverConfigurationDiscoveryEngine( MailserverConfigurationDiscoveryContext context ) {
+
+    if( context == null )
+      throw new IllegalArgumentException( "Context must not be null!" );
+
+    this.context = context;
+    this.strategies = Collections.unmodifiableList( createStrategies( context ) );
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address. If the context defines a discovery timeout, the mailserver
+   * services found until the timeout are returned.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @return A set of mailserver configurations, may be empty if none was found
+   */
+  public Set<MailserverService> discover( EmailAddress emailAddress ) {
+
+    return discover( emailAddress, context.getDiscoveryTimeout() ).getMailserverServices();
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address within the given timeout. If the timeout is reached, the
+   * mailserver services found so far are returned and the remaining lookups are cancelled.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @param timeout      Timeout for the discovery, <code>null</code> to wait for all lookups
+   * @return Discovery result with the found mailserver configurations and the configuration methods which timed out
+   */
+  public DiscoveryResult discover( EmailAddress emailAddress, Duration timeout ) {
+
+    return discover( emailAddress, timeout, null );
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address until the completion predicate is met by the mailserver
+   * services found so far or the timeout is reached. The remaining lookups are cancelled then, s.th. fast lookups do
+   * not have to wait for slow ones.<p>Results ended early by the completion predicate are not added to the result
+   * cache, but complete cached results are returned.
+   *
+   * @param emailAddress        Email address to lookup mailserver configurations for
+   * @param timeout             Timeout for the discovery, <code>null</code> to wait for all lookups
+   * @param completionPredicate Predicate testing if the mailserver services found so far are sufficient,
+   *                            <code>null</code> to wait for all lookups, see {@link CompletionPredicates}
+   * @return Discovery result with the found mailserver configurations and the configuration methods which timed out
+   */
+  public DiscoveryResult discover( EmailAddress emailAddress, Duration timeout,
+                                   Predicate<Set<MailserverService>> completionPredicate ) {
+
+    if( emailAddress == null )
+      throw new IllegalArgumentException( "Email address must not be null!" );
+    ensureOpen();
+
+    var subject = emailAddress.toIdn();
+    return cached( subject,
+        () -> await( subject, s -> s.getMailserverServices( emailAddress ), timeout, completionPredicate ) );
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain. If the context defines a discovery timeout, the mailserver
+   * services found until the timeout are returned.
+   *
+   * @param domain Domain to lookup mailserver configurations for
+   * @return A set of mailserver configurations, may be empty if none was found
+   */
+  public Set<MailserverService> discover( String domain ) {
+
+    return discover( domain, context.getDiscoveryTimeout() ).getMailserverServices();
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain within the given timeout. If the timeout is reached, the mailserver
+   * services found so far are returned and the remaining lookups are cancelled.
+   *
+   * @param domain  Domain to lookup mailserver configurations for
+   * @param timeout Timeout for the discovery, <code>null</code> to wait for all lookups
+   * @return Discovery result with the found mailserver configurations and the configuration methods which timed out
+   */
+  public DiscoveryResult discover( String domain, Duration timeout ) {
+
+    return discover( domain, timeout, null );
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain until the completion predicate is met by the mailserver services
+   * found so far or the timeout is reached. The remaining lookups are cancelled then, s.th. fast lookups do not have
+   * to wait for slow ones.<p>Results ended early by the completion predicate are not added to the result cache, but
+   * complete cached results are returned.
+   *
+   * @param domain              Domain to lookup mailserver configurations for
+   * @param timeout             Timeout for the discovery, <code>null</code> to wait for all lookups
+   * @param completionPredicate Predicate testing if the mailserver services found so far are sufficient,
+   *                            <code>null</code> to wait for all lookups, see {@link CompletionPredicates}
+   * @return Discovery result with the found mailserver configurations and the configuration methods which timed out
+   */
+  public DiscoveryResult discover( String domain, Duration timeout,
+                                   Predicate<Set<MailserverService>> completionPredicate ) {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+    ensureOpen();
+
+    var domainPart = EmailAddress.DomainPart.of( domain );
+    var subject = domainPart.toIdn();
+    return cached( subject,
+        () -> await( subject, s -> s.getMailserverServices( domainPart ), timeout, completionPredicate ) );
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address without blocking the calling thread. The results of the
+   * lookups are merged when the last one finishes. If the context defines a discovery timeout, the future is completed
+   * with the mailserver services found until the timeout. Cancelling the future cancels the remaining lookups.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public CompletableFuture<Set<MailserverService>> discoverAsync( EmailAddress emailAddress ) {
+
+    if( emailAddress == null )
+      throw new IllegalArgumentException( "Email address must not be null!" );
+    ensureOpen();
+
+    return cachedAsync( emailAddress.toIdn(), s -> s.getMailserverServices( emailAddress ) );
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain without blocking the calling thread. The results of the lookups are
+   * merged when the last one finishes. If the context defines a discovery timeout, the future is completed with the
+   * mailserver services found until the timeout. Cancelling the future cancels the remaining lookups.
+   *
+   * @param domain Domain to lookup mailserver configurations for
+   * @return Future of a set of mailserver configurations, may be empty if none was found
+   */
+  public CompletableFuture<Set<MailserverService>> discoverAsync( String domain ) {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+    ensureOpen();
+
+    var domainPart = EmailAddress.DomainPart.of( domain );
+    return cachedAsync( domainPart.toIdn(), s -> s.getMailserverServices( domainPart ) );
+  }
+
+
+  /**
+   * Discover mailserver configurations for an email address and emit each one as soon as the lookup it has been found
+   * by finishes. Each subscription starts its own discovery, mailserver configurations found by several lookups are
+   * emitted once. If the context defines a discovery timeout, the remaining lookups are cancelled when it is reached and
+   * the subscription completes.
+   *
+   * @param emailAddress Email address to lookup mailserver configurations for
+   * @return Publisher of mailserver configurations, supporting backpressure
+   */
+  public Flow.Publisher<MailserverService> publish( EmailAddress emailAddress ) {
+
+    if( emailAddress == null )
+      throw new IllegalArgumentException( "Email address must not be null!" );
+
+    return publish( emailAddress, null );
+  }
+
+
+  /**
+   * Discover mailserver configurations for a domain and emit each one as soon as the lookup it has been found by
+   * finishes. Each subscription starts its own discovery, mailserver configurations found by several lookups are emitted
+   * once. If the context defines a discovery timeout, the remaining lookups are cancelled when it is reached and the
+   * subscription completes.
+   *
+   * @param domain Domain to lookup mailserver configurations for
+   * @return Publisher of mailserver configurations, supporting backpressure
+   */
+  public Flow.Publisher<MailserverService> publish( String domain ) {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+
+    return publish( domain, null );
+  }
+
+
+  Flow.Publisher<MailserverService> publish( EmailAddress emailAddress, Runnable terminationHandler ) {
+
+    return publish( emailAddress.toIdn(), s -> s.getMailserverServices( emailAddress ), terminationHandler );
+  }
+
+
+  Flow.Publisher<MailserverService> publish( String domain, Runnable terminationHandler ) {
+
+    var domainPart = EmailAddress.DomainPart.of( domain );
+    return publish( domainPart.toIdn(), s -> s.getMailserverServices( domainPart ), terminationHandler );
+  }
+
+
+  /**
+   * Discover mailserver configurations for several email addresses. The email addresses are grouped by their domain
+   * part, s.th. lookups only depending on the domain part are made once per domain. Email addresses with a cached
+   * result are not looked up again. If the context defines a discovery timeout, it applies to the whole batch.
+   *
+   * @param emailAddresses Email addresses to lookup mailserver configurations for
+   * @return A map with a set of mailserver configurations for each distinct email address, sets may be empty if none
+   * was found
+   */
+  public Map<EmailAddress, Set<MailserverService>> discoverAll( Collection<EmailAddress> emailAddresses ) {
+
+    if( emailAddresses == null || emailAddresses.contains( null ) )
+      throw new IllegalArgumentException( "Email addresses must not be null!" );
+    ensureOpen();
+
+    var start = System.nanoTime();
+    var deadlineNanos = PendingDiscovery.getDeadlineNanos( context.getDiscoveryTimeout() );
+    var metrics = context.getMetrics();
+
+    var resultCache = context.getResultCache();
+    Map<EmailAddress, Set<MailserverService>> cachedResults = new LinkedHashMap<>();
+    if( resultCache != null ) {
+      for( var emailAddress : new LinkedHashSet<>( emailAddresses ) ) {
+        var cachedResult = resultCache.get( createCacheKey( emailAddress.toIdn() ) );
+        metrics.recordCacheLookup( DiscoveryMetrics.Cache.RESULT, cachedResult.isPresent() );
+        cachedResult.ifPresent( r -> cachedResults.put( emailAddress, r ) );
+      }
+    }
+
+    // @formatter:off
+    Map<EmailAddress.DomainPart, List<EmailAddress>> emailAddressesByDomainPart = emailAddresses.stream()
+        .distinct()
+        .filter( e -> !cachedResults.containsKey( e ) )
+        .collect( Collectors.groupingBy( EmailAddress::getDomainPart, LinkedHashMap::new, Collectors.toList() ) );
+    // @formatter:on
+
+    Map<EmailAddress, PendingDiscovery> pendingDiscoveries = new LinkedHashMap<>();
+    emailAddressesByDomainPart.forEach( ( domainPart, domainEmailAddresses ) -> {
+      Set<EmailAddress> found = new HashSet<>();
+      for( var strategy : strategies ) {
+        // @formatter:off
+        var remainingEmailAddresses = domainEmailAddresses.stream()
+            .filter( e -> strategy.isLocal() || !found.contains( e ) )
+            .collect( Collectors.toList() );
+        // @formatter:on
+        if( remainingEmailAddresses.isEmpty() )
+          break;
+        var strategyExecution = new StrategyExecution( strategy, domainPart.toIdn() );
+        var strategyCompletableFutures = strategy.getMailserverServices( domainPart, remainingEmailAddresses );
+        // @formatter:off
+        strategyExecution.record( strategyCompletableFutures.values().stream()
+            .flatMap( List::stream )
+            .collect( Collectors.toList() ) );
+        // @formatter:on
+        strategyCompletableFutures.forEach( ( emailAddress, futures ) -> {
+          pendingDiscoveries.computeIfAbsent( emailAddress, e -> new PendingDiscovery() ).add(
+              strategy.getConfigurationMethod(), futures );
+          if( strategy.isLocal() && isFound( futures ) )
+            found.add( emailAddress );
+        } );
+      }
+    } );
+
+    Map<EmailAddress, Set<MailserverService>> result = new LinkedHashMap<>();
+    try {
+      for( var emailAddress : emailAddresses ) {
+        if( result.containsKey( emailAddress ) )
+          continue;
+        var cachedResult = cachedResults.get( emailAddress );
+        if( cachedResult != null ) {
+          metrics.recordDiscovery( System.nanoTime() - start, true );
+          result.put( emailAddress, cachedResult );
+          continue;
+        }
+        var pendingDiscovery = pendingDiscoveries.getOrDefault( emailAddress, new PendingDiscovery() );
+        var discoveryResult = pendingDiscovery.await( deadlineNanos );
+        metrics.recordDiscovery( System.nanoTime() - start, discoveryResult.isComplete() );
+        if( resultCache != null && discoveryResult.isComplete() )
+          resultCache.put( createCacheKey( emailAddress.toIdn() ), discoveryResult.getMailserverServices() );
+        result.put( emailAddress, discoveryResult.getMailserverServices() );
+      }
+    } finally {
+      pendingDiscoveries.values().forEach( PendingDiscovery::cancel );
+    }
+    return result;
+  }
+
+
+  /**
+   * Returns the context of this engine.
+   *
+   * @return Context
+   */
+  public MailserverConfigurationDiscoveryContext getContext() {
+
+    return context;
+  }
+
+
+  /**
+   * Closes the engine. Running lookups are completed, new lookups are rejected. The executor of the context is not shut
+   * down.
+   */
+  @Override
+  public void close() {
+
+    closed = true;
+  }
+
+
+  /**
+   * Attaches to the running discovery of the subject or starts the lookups of all strategies and waits for them until
+   * the timeout is reached or the completion predicate is met. Lookups not completed by then are cancelled, unless
+   * other callers are still waiting for them.
+   */
+  private DiscoveryResult await( String subject, Function<MailserverConfigurationDiscoveryStrategy, List<CompletableFuture<List<MailserverService>>>> lookup,
+                                 Duration timeout, Predicate<Set<MailserverService>> completionPredicate ) {
+
+    var deadlineNanos = PendingDiscovery.getDeadlineNanos( timeout );
+    try( var attachment = attach( subject, lookup ) ) {
+      return attachment.getPendingDiscovery().await( deadlineNanos, completionPredicate );
+    }
+  }
+
+
+  /**
+   * Creates a publisher for the lookups of all strategies. If the result cache contains a result, the publisher emits
+   * the cached mailserver services instead.
+   */
+  private Flow.Publisher<MailserverService> publish(
+      String subject,
+      Function<MailserverConfigurationDiscoveryStrategy, List<CompletableFuture<List<MailserverService>>>> lookup,
+      Runnable terminationHandler ) {
+
+    ensureOpen();
+
+    var resultCache = context.getResultCache();
+    if( resultCache == null )
+      return new DiscoveryPublisher( () -> startLookups( subject, lookup ), context.getDiscoveryTimeout(), null,
+          terminationHandler );
+
+    var key = createCacheKey( subject );
+    var cachedResult = resultCache.get( key );
+    context.getMetrics().recordCacheLookup( DiscoveryMetrics.Cache.RESULT, cachedResult.isPresent() );
+    if( cachedResult.isPresent() ) {
+      List<MailserverService> mailserverServices = new ArrayList<>( cachedResult.get() );
+      return new DiscoveryPublisher( () -> List.of( CompletableFuture.completedFuture( mailserverServices ) ), null,
+          null, terminationHandler );
+    }
+    return new DiscoveryPublisher( () -> startLookups( subject, lookup ), context.getDiscoveryTimeout(),
+        r -> resultCache.put( key, r ), terminationHandler );
+  }
+
+
+  /**
+   * Attaches to the running discovery of the subject or starts the lookups of all strategies. The attachment is closed
+   * when all returned lookups are finished or cancelled.
+   */
+  private List<CompletableFuture<List<MailserverService>>> startLookups( String subject, Function<MailserverConfigurationDiscoveryStrategy, List<CompletableFuture<List<MailserverService>>>> lookup ) {
+
+    ensureOpen();
+
+    var attachment = attach( subject, lookup );
+    var completableFutures = attachment.getPendingDiscovery().getCompletableFutures();
+    CompletableFuture.allOf( completableFutures.toArray( new CompletableFuture[0] ) ).whenComplete(
+        ( v, t ) -> attachment.close() );
+    return completableFutures;
+  }
+
+
+  /**
+   * Attaches to the running discovery of the subject with the configuration methods and discovery scopes of the
+   * context or starts the lookups of all strategies.
+   */
+  private InFlightDiscoveries.Attachment attach( String subject, Function<MailserverConfigurationDiscoveryStrategy, List<CompletableFuture<List<MailserverService>>>> lookup ) {
+
+    return inFlightDiscoveries.attach( createCacheKey( subject ), () -> {
+      var pendingDiscovery = new PendingDiscovery();
+      var found = false;
+      for( var strategy : strategies ) {
+        if( found && !strategy.isLocal() )
+          break;
+        var strategyExecution = new StrategyExecution( strategy, subject );
+        var completableFutures = lookup.apply( strategy );
+        strategyExecution.record( completableFutures );
+        pendingDiscovery.add( strategy.getConfigurationMethod(), completableFutures );
+        found |= strategy.isLocal() && isFound( completableFutures );
+      }
+      return pendingDiscovery;
+    } );
+  }
+
+
+  /**
+   * Returns if the given lookups of a local strategy have already found mailserver services for all discovery scopes
+   * of the context, s.th. the other strategies need not be started.
+   */
+  private boolean isFound( List<CompletableFuture<List<MailserverService>>> completableFutures ) {
+
+    // @formatter:off
+    var discoveryScopes = completableFutures.stream()
+        .filter( f -> f.isDone() && !f.isCompletedExceptionally() )
+        .flatMap( f -> f.join().stream() )
+        .map( s -> MailserverConfigurationDiscoveryContext.DiscoveryScope.get( s.getProtocol() ) )
+        .collect( Collectors.toSet() );
+    // @formatter:on
+    return !discoveryScopes.isEmpty() && discoveryScopes.containsAll( context.getDiscoveryScopes() );
+  }
+
+
+  /**
+   * Looks up the result in the result cache, if there is one. Otherwise the lookups of all strategies are started or a
+   * running discovery is attached to and the complete result is added to the cache.
+   */
+  private CompletableFuture<Set<MailserverService>> cachedAsync(
+      String subject,
+      Function<MailserverConfigurationDiscoveryStrategy, List<CompletableFuture<List<MailserverService>>>> lookup ) {
+
+    var start = System.nanoTime();
+    var metrics = context.getMetrics();
+    var resultCache = context.getResultCache();
+    var key = createCacheKey( subject );
+    if( resultCache != null ) {
+      var cachedResult = resultCache.get( key );
+      metrics.recordCacheLookup( DiscoveryMetrics.Cache.RESULT, cachedResult.isPresent() );
+      if( cachedResult.isPresent() ) {
+        metrics.recordDiscovery( System.nanoTime() - start, true );
+        return CompletableFuture.completedFuture( cachedResult.get() );
+      }
+    }
+
+    var attachment = attach( subject, lookup );
+    var resultFuture = attachment.getPendingDiscovery().awaitAsync( context.getDiscoveryTimeout(),
+        context.getExecutor() );
+    resultFuture.whenComplete( ( r, t ) -> attachment.close() );
+    // @formatter:off
+    return CompletableFutures.propagateCancellation( resultFuture, resultFuture.thenApply( r -> {
+      metrics.recordDiscovery( System.nanoTime() - start, r.isComplete() );
+      if( resultCache != null && r.isComplete() )
+        resultCache.put( key, r.getMailserverServices() );
+      return r.getMailserverServices();
+    } ) );
+    // @formatter:on
+  }
+
+
+  /**
+   * Looks up the result in the result cache, if there is one. Otherwise the lookup is run and its result is added to
+   * the cache, if it is complete.
+   */
+  private DiscoveryResult cached( String subject, Supplier<DiscoveryResult> lookup ) {
+
+    var start = System.nanoTime();
+    var metrics = context.getMetrics();
+    var resultCache = context.getResultCache();
+    if( resultCache == null ) {
+      var result = lookup.get();
+      metrics.recordDiscovery( System.nanoTime() - start, result.isComplete() );
+      return result;
+    }
+
+    var key = createCacheKey( subject );
+    var cachedResult = resultCache.get( key );
+    metrics.recordCacheLookup( DiscoveryMetrics.Cache.RESULT, cachedResult.isPresent() );
+    if( cachedResult.isPresent() ) {
+      metrics.recordDiscovery( System.nanoTime() - start, true );
+      return new DiscoveryResult( cachedResult.get(), Collections.emptySet() );
+    }
+
+    var result = lookup.get();
+    metrics.recordDiscovery( System.nanoTime() - start, result.isComplete() );
+    if( result.isComplete() )
+      resultCache.put( key, result.getMailserverServices() );
+    return result;
+  }
+
+
+  private DiscoveryResultCache.Key createCacheKey( String subject ) {
+
+    return new DiscoveryResultCache.Key( subject, context.getConfigurationMethods(), context.getDiscoveryScopes() );
+  }
+
+
+  private void ensureOpen() {
+
+    if( closed )
+      throw new IllegalStateException( "Engine has already been closed!" );
+  }
+
+
+  /**
+   * Execution of a strategy for a subject, which is recorded in the metrics of the context and as a flight recorder
+   * event, once all of its lookups are finished. Create it before the strategy starts its lookups.
+   */
+  private class StrategyExecution {
+
+    private final long start = System.nanoTime();
+
+    private final MailserverConfigurationDiscoveryStrategy strategy;
+
+    private final String subject;
+
+    private final StrategyEvent event = new StrategyEvent();
+
+
+    private StrategyExecution( MailserverConfigurationDiscoveryStrategy strategy, String subject ) {
+
+      this.strategy = strategy;
+      this.subject = subject;
+      event.begin();
+    }
+
+
+    private void record( List<CompletableFuture<List<MailserverService>>> completableFutures ) {
+
+      var metrics = context.getMetrics();
+      if( metrics == DiscoveryMetrics.NONE && !event.isEnabled() )
+        return;
+
+      CompletableFuture.allOf( completableFutures.toArray( new CompletableFuture[0] ) ).whenComplete( ( v, t ) -> {
+        var outcome = DiscoveryMetrics.Outcome.of( t );
+        event.end();
+        if( event.shouldCommit() ) {
+          event.configurationMethod = strategy.getConfigurationMethod().name();
+          event.subject = subject;
+          event.lookups = completableFutures.size();
+          event.outcome = outcome.name();
+          event.commit();
+        }
+
+        metrics.recordStrategy( strategy.getConfigurationMethod(), System.nanoTime() - start, outcome );
+      } );
+    }
+  }
+
+
+  /**
+   * Creates the strategies of the configured methods. They share the DNS resolver and the HTTP client of the context,
+   * s.th. engines created for the same context reuse their connections.
+   */
+  private static List<MailserverConfigurationDiscoveryStrategy> createStrategies( MailserverConfigurationDiscoveryContext context ) {
+
+    List<MailserverConfigurationDiscoveryStrategy> strategies = new ArrayList<>();
+    var dnsLookupContext = context.getDnsLookupContext();
+    var xmlDocumentUrlReader = new XmlDocumentUrlReaderImpl( context.getHttpLookupContext(), context.getExecutor() );
+
+    if( context.getConfigurationMethods().contains( ConfigurationMethod.MOZILLA_ISPDB ) &&
+        context.getProviderDatabase() != null )
+      strategies.add( new MozillaIspdbMailserverConfigurationDiscoveryStrategy( context ) );
+
+    if( context.getConfigurationMethods().contains( ConfigurationMethod.MOZILLA_AUTOCONF ) )
+      strategies.add( new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context,
+          new TxtDnsResolverImpl( dnsLookupContext ), xmlDocumentUrlReader ) );
+
+    if( context.getConfigurationMethods().contains( ConfigurationMethod.RFC_61186 ) )
+      strategies.add( new SrvRecordMailserverConfigurationDiscoveryStrategy( context,
+          new SrvDnsResolverImpl( dnsLookupContext ) ) );
+
+    if( context.getConfigurationMethods().contains( ConfigurationMethod.MS_AUTODISCOVER_V1 ) )
+      strategies.add( new MsAutodiscoverMailserverConfigurationDiscoveryStrategy( context,
+          new SrvDnsResolverImpl( dnsLookupContext ), xmlDocumentUrlReader ) );
+
+    if( context.getConfigurationMethods().contains( ConfigurationMethod.MX_PROVIDER ) )
+      strategies.add( new MxProviderMailserverConfigurationDiscoveryStrategy( context,
+          new MxDnsResolverImpl( dnsLookupContext ),
+          new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context,
+              new TxtDnsResolverImpl( dnsLookupContext ), xmlDocumentUrlReader ),
+          new SrvRecordMailserverConfigurationDiscoveryStrategy( context,
+              new SrvDnsResolverImpl( dnsLookupContext ) ) ) );
+
+    return strategies;
+  }
+}
@@ -0,0 +1,236 @@
+package de.adrianlange.mcd;
+
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+
+/**
+ * Running lookups of a discovery, each belonging to the configuration method of the strategy which started it.
+ */
+class PendingDiscovery {
+
+  private final List<ConfigurationMethod> configurationMethods = new ArrayList<>();
+
+  private final List<CompletableFuture<List<MailserverService>>> completableFutures = new ArrayList<>();
+
+
+  /**
+   * Adds the lookups of a strategy.
+   *
+   * @param configurationMethod Configuration method of the strategy
+   * @param completableFutures  Lookups started by the strategy
+   */
+  void add( ConfigurationMethod configurationMethod,
+            List<CompletableFuture<List<MailserverService>>> completableFutures ) {
+
+    for( var completableFuture : completableFutures ) {
+      this.configurationMethods.add( configurationMethod );
+      this.completableFutures.add( completableFuture );
+    }
+  }
+
+
+  /**
+   * Returns the lookups.
+   *
+   * @return Lookups of all strategies
+   */
+  List<CompletableFuture<List<MailserverService>>> getCompletableFutures() {
+
+    return Collections.unmodifiableList( completableFutures );
+  }
+
+
+  /**
+   * Returns whether all lookups are finished, either normally, exceptionally or by cancellation.
+   *
+   * @return True if all lookups are finished
+   */
+  boolean isDone() {
+
+    return completableFutures.stream().allMatch( CompletableFuture::isDone );
+  }
+
+
+  /**
+   * Returns a copy with dependent futures of all lookups. Cancelling the copy does not cancel the lookups of this
+   * pending discovery.
+   *
+   * @return Copy
+   */
+  PendingDiscovery copy() {
+
+    var copy = new PendingDiscovery();
+    for( int i = 0; i < completableFutures.size(); i++ )
+      copy.add( configurationMethods.get( i ), List.of( completableFutures.get( i ).thenApply( Function.identity() ) ) );
+    return copy;
+  }
+
+
+  /**
+   * Waits until all lookups are finished or the deadline is reached and merges the results of the finished lookups.
+   *
+   * @param deadlineNanos Deadline according to {@link System#nanoTime()}, <code>null</code> to wait without deadline
+   * @return Discovery result
+   */
+  DiscoveryResult await( Long deadlineNanos ) {
+
+    return await( deadlineNanos, null );
+  }
+
+
+  /**
+   * Waits until all lookups are finished, the completion predicate is met by the mailserver services found so far or
+   * the deadline is reached. The predicate is tested each time a lookup finishes.
+   *
+   * @param deadlineNanos       Deadline according to {@link System#nanoTime()}, <code>null</code> to wait without
+   *                            deadline
+   * @param completionPredicate Predicate which ends the discovery early, <code>null</code> to wait for all lookups
+   * @return Discovery result
+   */
+  DiscoveryResult await( Long deadlineNanos, Predicate<Set<MailserverService>> completionPredicate ) {
+
+    Set<MailserverService> mailserverServices = new HashSet<>();
+    // completed with whether the completion predicate ended the discovery before all lookups finished
+    var done = new CompletableFuture<Boolean>();
+    var remaining = new AtomicInteger( completableFutures.size() );
+
+    if( completableFutures.isEmpty() )
+      done.complete( false );
+    for( var completableFuture : completableFutures ) {
+      completableFuture.whenComplete( ( r, t ) -> {
+        var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if( cause != null && !( cause instanceof CancellationException ) ) {
+          done.completeExceptionally( t );
+          return;
+        }
+        boolean completionPredicateMet;
+        synchronized( mailserverServices ) {
+          if( r != null )
+            mailserverServices.addAll( r );
+          completionPredicateMet = completionPredicate != null && completionPredicate.test(
+              Collections.unmodifiableSet( mailserverServices ) );
+        }
+        if( remaining.decrementAndGet() == 0 )
+          done.complete( false );
+        else if( completionPredicateMet )
+          done.complete( true );
+      } );
+    }
+
+    boolean completionPredicateMet = false;
+    try {
+      if( deadlineNanos == null )
+        completionPredicateMet = done.join();
+      else
+        completionPredicateMet = done.get( deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS );
+    } catch( TimeoutException e ) {
+      // partial result
+    } catch( ExecutionException e ) {
+      throw new CompletionException( e.getCause() );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException( e );
+    }
+
+    return getResult( completionPredicateMet );
+  }
+
+
+  /**
+   * Returns a future completed with the merged results, when all lookups are finished or the timeout is reached. The
+   * results are merged by the thread finishing the last lookup, no thread is blocked while waiting. If the timeout is
+   * reached first, the results are merged on the given executor. The timeout is cancelled when the returned future
+   * completes, s.th. it does not keep the discovery reachable. Remaining lookups are cancelled when the returned future
+   * completes or is cancelled.
+   *
+   * @param timeout  Timeout, <code>null</code> to wait for all lookups
+   * @param executor Executor to merge the results on when the timeout is reached
+   * @return Future of the discovery result
+   */
+  CompletableFuture<DiscoveryResult> awaitAsync( Duration timeout, Executor executor ) {
+
+    var result = new CompletableFuture<DiscoveryResult>();
+    result.whenComplete( ( r, t ) -> cancel() );
+
+    CompletableFuture.allOf( completableFutures.toArray( new CompletableFuture[0] ) ).whenComplete( ( v, t ) -> {
+      var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+      if( cause != null && !( cause instanceof CancellationException ) )
+        result.completeExceptionally( cause );
+      else
+        result.complete( getResult( false ) );
+    } );
+
+    if( timeout != null && !result.isDone() ) {
+      // completeOnTimeout removes its scheduled task, when the future is completed otherwise
+      var timedOut = new CompletableFuture<Boolean>().completeOnTimeout( true, timeout.toNanos(),
+          TimeUnit.NANOSECONDS );
+      timedOut.thenAccept( expired -> {
+        if( expired )
+          executor.execute( () -> result.complete( getResult( false ) ) );
+      } );
+      result.whenComplete( ( r, t ) -> timedOut.complete( false ) );
+    }
+    return result;
+  }
+
+
+  /**
+   * Merges the results of all lookups finished so far.
+   */
+  private DiscoveryResult getResult( boolean completionPredicateMet ) {
+
+    Set<MailserverService> mailserverServices = new HashSet<>();
+    Set<ConfigurationMethod> unfinishedConfigurationMethods = EnumSet.noneOf( ConfigurationMethod.class );
+    for( int i = 0; i < completableFutures.size(); i++ ) {
+      var completableFuture = completableFutures.get( i );
+      if( !completableFuture.isDone() || completableFuture.isCompletedExceptionally() )
+        unfinishedConfigurationMethods.add( configurationMethods.get( i ) );
+      else
+        mailserverServices.addAll( completableFuture.join() );
+    }
+
+    if( completionPredicateMet )
+      return new DiscoveryResult( mailserverServices, Collections.emptySet(), true );
+    return new DiscoveryResult( mailserverServices, unfinishedConfigurationMethods, false );
+  }
+
+
+  /**
+   * Cancels all lookups, which are not finished yet.
+   */
+  void cancel() {
+
+    completableFutures.forEach( f -> f.cancel( false ) );
+  }
+
+
+  /**
+   * Returns the deadline for the given timeout.
+   *
+   * @param timeout Timeout, may be <code>null</code>
+   * @return Deadline according to {@link System#nanoTime()} or <code>null</code> if there is no timeout
+   */
+  static Long getDeadlineNanos( Duration timeout ) {
+
+    return timeout == null ? null : System.nanoTime() + timeout.toNanos();
+  }
+}
@@ -0,0 +1,275 @@
+package de.adrianlange.mcd.infrastructure.cache;
+
+import de.adrianlange.mcd.infrastructure.concurrent.DefaultExecutor;
+import de.adrianlange.mcd.infrastructure.dns.DnsCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * Snapshot of the result cache and the DNS cache in a binary file, s.th. a restarted process starts with warm caches
+ * instead of sending all lookups again. Entries keep their remaining TTLs, entries expired while the process was down
+ * are skipped when the snapshot is read.<p>The file consists of a header, the result cache section, the DNS cache
+ * section and a CRC32 checksum. It is written to a temporary file, which then replaces the snapshot atomically, s.th.
+ * readers never see a partially written snapshot. A snapshot, which is corrupt or has an unknown version, is rejected
+ * as a whole.
+ *
+ * @author Adrian Lange
+ */
+public final class CacheSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger( CacheSnapshot.class );
+
+  private static final int MAGIC = 0x4d434453;
+
+  private static final int VERSION = 1;
+
+  private final Path file;
+
+  private final DiscoveryResultCache resultCache;
+
+  private final DnsCache dnsCache;
+
+  private SnapshotTask snapshotTask;
+
+
+  /**
+   * Creates a new snapshot.
+   *
+   * @param file        Snapshot file
+   * @param resultCache Result cache to snapshot, may be null
+   * @param dnsCache    DNS cache to snapshot, may be null
+   */
+  public CacheSnapshot( Path file, DiscoveryResultCache resultCache, DnsCache dnsCache ) {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    this.file = file;
+    this.resultCache = resultCache;
+    this.dnsCache = dnsCache;
+  }
+
+
+  /**
+   * Writes the caches to the snapshot file, replacing a previous snapshot.
+   *
+   * @throws IOException if writing fails
+   */
+  public synchronized void write() throws IOException {
+
+    var directory = file.toAbsolutePath().getParent();
+    var temporaryFile = Files.createTempFile( directory, file.getFileName().toString(), ".tmp" );
+    try {
+      var crc = new CRC32();
+      try( var out = new DataOutputStream( new BufferedOutputStream( new CheckedOutputStream(
+          Files.newOutputStream( temporaryFile ), crc ) ) ) ) {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeLong( System.currentTimeMillis() );
+        writeSection( out, resultCache == null ? null : resultCache::writeSnapshot );
+        writeSection( out, dnsCache == null ? null : dnsCache::writeSnapshot );
+        out.flush();
+        out.writeLong( crc.getValue() );
+      }
+      move( temporaryFile, file );
+    } finally {
+      Files.deleteIfExists( temporaryFile );
+    }
+  }
+
+
+  /**
+   * Reads the snapshot file and adds its entries to the caches. Sections of caches, which are null, are skipped.
+   *
+   * @return Number of added entries, 0 if there is no snapshot file
+   * @throws IOException if reading fails or the snapshot is corrupt
+   */
+  public int read() throws IOException {
+
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes( file );
+    } catch( NoSuchFileException e ) {
+      return 0;
+    }
+
+    if( bytes.length < Long.BYTES )
+      throw new IOException( "Snapshot " + file + " is truncated!" );
+    var crc = new CRC32();
+    crc.update( bytes, 0, bytes.length - Long.BYTES );
+    if( crc.getValue() != ByteBuffer.wrap( bytes, bytes.length - Long.BYTES, Long.BYTES ).getLong() )
+      throw new IOException( "Snapshot " + file + " is corrupt!" );
+
+    var in = new DataInputStream( new ByteArrayInputStream( bytes, 0, bytes.length - Long.BYTES ) );
+    if( in.readInt() != MAGIC )
+      throw new IOException( "File " + file + " is not a cache snapshot!" );
+    var version = in.readInt();
+    if( version != VERSION )
+      throw new IOException( "Snapshot " + file + " has unsupported version " + version + "!" );
+    in.readLong();
+
+    int added = 0;
+    added += readSection( in, resultCache == null ? null : resultCache::readSnapshot );
+    added += readSection( in, dnsCache == null ? null : dnsCache::readSnapshot );
+    return added;
+  }
+
+
+  /**
+   * Writes the snapshot periodically on the default executor, until {@link #stop()} is called or the snapshot is not
+   * referenced anymore. Failures are logged, subsequent snapshots are still attempted.
+   *
+   * @param interval Interval between snapshots
+   */
+  public synchronized void schedule( Duration interval ) {
+
+    if( interval == null || interval.isNegative() || interval.isZero() )
+      throw new IllegalArgumentException( "Interval must be positive!" );
+
+    stop();
+    snapshotTask = new SnapshotTask( this, interval );
+    snapshotTask.scheduleNext();
+  }
+
+
+  /**
+   * Stops writing the snapshot periodically. A snapshot being written is completed.
+   */
+  public synchronized void stop() {
+
+    if( snapshotTask != null ) {
+      snapshotTask.cancelled = true;
+      snapshotTask = null;
+    }
+  }
+
+
+  /**
+   * Returns the snapshot file.
+   *
+   * @return Snapshot file
+   */
+  public Path getFile() {
+
+    return file;
+  }
+
+
+  /**
+   * Writes a section prefixed by its length, s.th. it can be skipped by readers without the corresponding cache.
+   */
+  private static void writeSection( DataOutputStream out, SectionWriter sectionWriter ) throws IOException {
+
+    if( sectionWriter == null ) {
+      out.writeInt( 0 );
+      return;
+    }
+
+    var section = new ByteArrayOutputStream();
+    var sectionOut = new DataOutputStream( section );
+    sectionWriter.write( sectionOut );
+    sectionOut.flush();
+    out.writeInt( section.size() );
+    section.writeTo( out );
+  }
+
+
+  private static int readSection( DataInputStream in, SectionReader sectionReader ) throws IOException {
+
+    var length = in.readInt();
+    if( length < 0 )
+      throw new IOException( "Invalid section length " + length + "!" );
+    var section = new byte[length];
+    in.readFully( section );
+    if( sectionReader == null || length == 0 )
+      return 0;
+    return sectionReader.read( new DataInputStream( new ByteArrayInputStream( section ) ) );
+  }
+
+
+  private static void move( Path source, Path target ) throws IOException {
+
+    try {
+      Files.move( source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    } catch( AtomicMoveNotSupportedException e ) {
+      Files.move( source, target, StandardCopyOption.REPLACE_EXISTING );
+    }
+  }
+
+
+  @FunctionalInterface
+  private interface SectionWriter {
+
+    void write( DataOutputStream out ) throws IOException;
+  }
+
+
+  @FunctionalInterface
+  private interface SectionReader {
+
+    int read( DataInputStream in ) throws IOException;
+  }
+
+
+  /**
+   * Task writing the snapshot and scheduling itself again. It only references the snapshot weakly, s.th. snapshots of
+   * contexts, which have not been closed, stop when the context is garbage collected.
+   */
+  private static class SnapshotTask implements Runnable {
+
+    private final WeakReference<CacheSnapshot> cacheSnapshot;
+
+    private final long intervalNanos;
+
+    private volatile boolean cancelled = false;
+
+
+    private SnapshotTask( CacheSnapshot cacheSnapshot, Duration interval ) {
+
+      this.cacheSnapshot = new WeakReference<>( cacheSnapshot );
+      this.intervalNanos = interval.toNanos();
+    }
+
+
+    private void scheduleNext() {
+
+      CompletableFuture.delayedExecutor( intervalNanos, TimeUnit.NANOSECONDS, DefaultExecutor.get() ).execute( this );
+    }
+
+
+    @Override
+    public void run() {
+
+      var snapshot = cacheSnapshot.get();
+      if( cancelled || snapshot == null )
+        return;
+      try {
+        snapshot.write();
+      } catch( IOException | RuntimeException e ) {
+        LOG.warn( "Could not write cache snapshot {}", snapshot.getFile(), e );
+      }
+      if( !cancelled )
+        scheduleNext();
+    }
+  }
+}
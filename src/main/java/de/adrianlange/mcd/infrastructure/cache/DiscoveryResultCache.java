@@ -0,0 +1,398 @@
+package de.adrianlange.mcd.infrastructure.cache;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Cache for complete discovery results. Non-empty results are kept for the positive TTL, empty results for the negative
+ * TTL.<p>The size of the cache is bounded by the summed weight of its entries, where the weight of an entry is the
+ * number of its mailserver services plus one. If the maximum weight is exceeded, the least recently used entries are
+ * evicted.
+ *
+ * @author Adrian Lange
+ */
+public class DiscoveryResultCache {
+
+  private final long maxWeight;
+
+  private final long positiveTtlNanos;
+
+  private final long negativeTtlNanos;
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+  private long weight = 0;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+
+  /**
+   * Creates a new result cache.
+   *
+   * @param maxWeight   Maximum summed weight of all entries
+   * @param positiveTtl Duration non-empty results are cached
+   * @param negativeTtl Duration empty results are cached
+   */
+  public DiscoveryResultCache( long maxWeight, Duration positiveTtl, Duration negativeTtl ) {
+
+    if( maxWeight <= 0 )
+      throw new IllegalArgumentException( "Maximum weight must be positive!" );
+    if( positiveTtl == null || positiveTtl.isNegative() || negativeTtl == null || negativeTtl.isNegative() )
+      throw new IllegalArgumentException( "TTLs must not be negative!" );
+
+    this.maxWeight = maxWeight;
+    this.positiveTtlNanos = positiveTtl.toNanos();
+    this.negativeTtlNanos = negativeTtl.toNanos();
+  }
+
+
+  /**
+   * Returns the cached result for the given key.
+   *
+   * @param key Cache key
+   * @return Optional of a copy of the cached result or an empty optional if nothing or only an expired result is cached
+   */
+  public Optional<Set<MailserverService>> get( Key key ) {
+
+    synchronized( entries ) {
+      var entry = entries.get( key );
+      if( entry != null && entry.isExpired( System.nanoTime() ) ) {
+        remove( key );
+        entry = null;
+      }
+      if( entry == null ) {
+        missCount.incrementAndGet();
+        return Optional.empty();
+      }
+      hitCount.incrementAndGet();
+      return Optional.of( new HashSet<>( entry.mailserverServices ) );
+    }
+  }
+
+
+  /**
+   * Adds a result to the cache.
+   *
+   * @param key                Cache key
+   * @param mailserverServices Discovered mailserver services, may be empty
+   */
+  public void put( Key key, Set<? extends MailserverService> mailserverServices ) {
+
+    put( key, mailserverServices, mailserverServices.isEmpty() ? negativeTtlNanos : positiveTtlNanos );
+  }
+
+
+  private void put( Key key, Set<? extends MailserverService> mailserverServices, long ttlNanos ) {
+
+    if( ttlNanos <= 0 )
+      return;
+
+    var entry = new Entry( Set.copyOf( mailserverServices ), System.nanoTime() + ttlNanos );
+    if( entry.weight > maxWeight )
+      return;
+
+    synchronized( entries ) {
+      remove( key );
+      entries.put( key, entry );
+      weight += entry.weight;
+      evict();
+    }
+  }
+
+
+  private void remove( Key key ) {
+
+    var removed = entries.remove( key );
+    if( removed != null )
+      weight -= removed.weight;
+  }
+
+
+  /**
+   * Evicts the least recently used entries until the maximum weight is met. Expired entries are not searched for, they
+   * are removed on access or when they become the least recently used ones.
+   */
+  private void evict() {
+
+    Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+    while( weight > maxWeight && iterator.hasNext() ) {
+      var eldest = iterator.next().getValue();
+      iterator.remove();
+      weight -= eldest.weight;
+    }
+  }
+
+
+  /**
+   * Returns the number of lookups that could be answered from the cache.
+   *
+   * @return Number of cache hits
+   */
+  public long getHitCount() {
+
+    return hitCount.get();
+  }
+
+
+  /**
+   * Returns the number of lookups that could not be answered from the cache.
+   *
+   * @return Number of cache misses
+   */
+  public long getMissCount() {
+
+    return missCount.get();
+  }
+
+
+  /**
+   * Returns the number of cached results.
+   *
+   * @return Number of cache entries
+   */
+  public int getSize() {
+
+    synchronized( entries ) {
+      return entries.size();
+    }
+  }
+
+
+  /**
+   * Returns the summed weight of all cached results.
+   *
+   * @return Weight of all cache entries
+   */
+  public long getWeight() {
+
+    synchronized( entries ) {
+      return weight;
+    }
+  }
+
+
+  /**
+   * Removes all entries from the cache. The hit and miss counters are not reset.
+   */
+  public void clear() {
+
+    synchronized( entries ) {
+      entries.clear();
+      weight = 0;
+    }
+  }
+
+
+  /**
+   * Writes the unexpired entries with their remaining TTLs, from the least to the most recently used one. Entries
+   * containing mailserver services which cannot be encoded are skipped.
+   *
+   * @param out Output to write to
+   * @throws IOException if writing fails
+   */
+  public void writeSnapshot( DataOutput out ) throws IOException {
+
+    List<Map.Entry<Key, Entry>> snapshot = new ArrayList<>();
+    synchronized( entries ) {
+      for( var e : entries.entrySet() )
+        snapshot.add( Map.entry( e.getKey(), e.getValue() ) );
+    }
+
+    var now = System.nanoTime();
+    var nowMillis = System.currentTimeMillis();
+    snapshot.removeIf( e -> e.getValue().isExpired( now ) ||
+        !e.getValue().mailserverServices.stream().allMatch( MailserverServiceCodec::isSupported ) );
+
+    out.writeInt( snapshot.size() );
+    for( var e : snapshot ) {
+      var key = e.getKey();
+      var entry = e.getValue();
+      out.writeUTF( key.subject );
+      out.writeInt( toBits( key.configurationMethods ) );
+      out.writeInt( toBits( key.discoveryScopes ) );
+      out.writeLong( nowMillis + ( entry.expiresAtNanos - now ) / 1_000_000 );
+      out.writeInt( entry.mailserverServices.size() );
+      for( var mailserverService : entry.mailserverServices )
+        MailserverServiceCodec.write( out, mailserverService );
+    }
+  }
+
+
+  /**
+   * Reads entries written by {@link #writeSnapshot(DataOutput)} and adds them with their remaining TTLs. Entries
+   * expired in the meantime are skipped. The TTLs of this cache do not apply to the added entries.
+   *
+   * @param in Input to read from
+   * @return Number of added entries
+   * @throws IOException if reading fails or the input is malformed
+   */
+  public int readSnapshot( DataInput in ) throws IOException {
+
+    var count = MailserverServiceCodec.readCount( in );
+    var nowMillis = System.currentTimeMillis();
+    int added = 0;
+    for( int i = 0; i < count; i++ ) {
+      var subject = in.readUTF();
+      var configurationMethods = fromBits( in.readInt(), ConfigurationMethod.class );
+      var discoveryScopes = fromBits( in.readInt(), DiscoveryScope.class );
+      var expiresAtMillis = in.readLong();
+      var serviceCount = MailserverServiceCodec.readCount( in );
+      Set<MailserverService> mailserverServices = new HashSet<>();
+      for( int j = 0; j < serviceCount; j++ )
+        mailserverServices.add( MailserverServiceCodec.read( in ) );
+
+      var ttlNanos = ( expiresAtMillis - nowMillis ) * 1_000_000;
+      if( ttlNanos > 0 ) {
+        put( new Key( subject, configurationMethods, discoveryScopes ), mailserverServices, ttlNanos );
+        added++;
+      }
+    }
+    return added;
+  }
+
+
+  private static int toBits( Set<? extends Enum<?>> set ) {
+
+    int bits = 0;
+    for( var value : set )
+      bits |= 1 << value.ordinal();
+    return bits;
+  }
+
+
+  private static <T extends Enum<T>> Set<T> fromBits( int bits, Class<T> type ) {
+
+    var set = EnumSet.noneOf( type );
+    for( var value : type.getEnumConstants() )
+      if( ( bits & 1 << value.ordinal() ) != 0 )
+        set.add( value );
+    return set;
+  }
+
+
+  private static class Entry {
+
+    private final Set<MailserverService> mailserverServices;
+
+    private final long expiresAtNanos;
+
+    private final long weight;
+
+
+    private Entry( Set<MailserverService> mailserverServices, long expiresAtNanos ) {
+
+      this.mailserverServices = mailserverServices;
+      this.expiresAtNanos = expiresAtNanos;
+      this.weight = mailserverServices.size() + 1L;
+    }
+
+
+    private boolean isExpired( long now ) {
+
+      return now - expiresAtNanos >= 0;
+    }
+  }
+
+
+  /**
+   * Key of a cached result, consisting of the looked up domain or email address, the configuration methods and the
+   * discovery scopes.
+   */
+  public static final class Key {
+
+    private final String subject;
+
+    private final Set<ConfigurationMethod> configurationMethods;
+
+    private final Set<DiscoveryScope> discoveryScopes;
+
+
+    /**
+     * Creates a new key.
+     *
+     * @param subject              IDN representation of the looked up domain or email address
+     * @param configurationMethods Configuration methods used for the lookup
+     * @param discoveryScopes      Discovery scopes used for the lookup
+     */
+    public Key( String subject, Set<ConfigurationMethod> configurationMethods, Set<DiscoveryScope> discoveryScopes ) {
+
+      this.subject = subject;
+      this.configurationMethods =
+          Collections.unmodifiableSet( copyOf( configurationMethods, ConfigurationMethod.class ) );
+      this.discoveryScopes = Collections.unmodifiableSet( copyOf( discoveryScopes, DiscoveryScope.class ) );
+    }
+
+
+    public String getSubject() {
+
+      return subject;
+    }
+
+
+    public Set<ConfigurationMethod> getConfigurationMethods() {
+
+      return configurationMethods;
+    }
+
+
+    public Set<DiscoveryScope> getDiscoveryScopes() {
+
+      return discoveryScopes;
+    }
+
+
+    private static <T extends Enum<T>> EnumSet<T> copyOf( Set<T> set, Class<T> type ) {
+
+      return set.isEmpty() ? EnumSet.noneOf( type ) : EnumSet.copyOf( set );
+    }
+
+
+    @Override
+    public boolean equals( Object o ) {
+
+      if( this == o )
+        return true;
+      if( o == null || getClass() != o.getClass() )
+        return false;
+      Key key = (Key) o;
+      return subject.equals( key.subject ) && configurationMethods.equals( key.configurationMethods ) &&
+          discoveryScopes.equals( key.discoveryScopes );
+    }
+
+
+    @Override
+    public int hashCode() {
+
+      return Objects.hash( subject, configurationMethods, discoveryScopes );
+    }
+
+
+    @Override
+    public String toString() {
+
+      return "subject='" + subject + "', configurationMethods=" + configurationMethods + ", discoveryScopes=" +
+          discoveryScopes;
+    }
+  }
+}
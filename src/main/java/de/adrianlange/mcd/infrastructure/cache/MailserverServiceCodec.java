@@ -0,0 +1,243 @@
+package de.adrianlange.mcd.infrastructure.cache;
+
+import de.adrianlange.mcd.model.Authentication;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.model.OAuth2;
+import de.adrianlange.mcd.model.Protocol;
+import de.adrianlange.mcd.model.SocketType;
+import de.adrianlange.mcd.model.impl.MozillaAutoconfMailserverServiceImpl;
+import de.adrianlange.mcd.model.impl.MsAutodiscoverMailserverServiceImpl;
+import de.adrianlange.mcd.model.impl.OAuth2Impl;
+import de.adrianlange.mcd.model.impl.SrvRecordMailserverServiceImpl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Binary encoding of mailserver services for cache snapshots and provider databases. Enum constants are encoded by
+ * their ordinal, s.th. constants may be appended, but not reordered without changing the file format versions.
+ *
+ * @author Adrian Lange
+ */
+public final class MailserverServiceCodec {
+
+  private static final byte SRV_RECORD = 1;
+
+  private static final byte MOZILLA_AUTOCONF = 2;
+
+  private static final byte MS_AUTODISCOVER = 3;
+
+
+  private MailserverServiceCodec() {
+
+  }
+
+
+  /**
+   * Returns if the given mailserver service can be encoded.
+   *
+   * @param mailserverService Mailserver service
+   * @return True if the implementation of the mailserver service is supported
+   */
+  public static boolean isSupported( MailserverService mailserverService ) {
+
+    return mailserverService instanceof SrvRecordMailserverServiceImpl ||
+        mailserverService instanceof MozillaAutoconfMailserverServiceImpl ||
+        mailserverService instanceof MsAutodiscoverMailserverServiceImpl;
+  }
+
+
+  /**
+   * Writes the given mailserver service.
+   *
+   * @param out               Output
+   * @param mailserverService Mailserver service, see {@link #isSupported(MailserverService)}
+   * @throws IOException if writing fails
+   */
+  public static void write( DataOutput out, MailserverService mailserverService ) throws IOException {
+
+    if( mailserverService instanceof SrvRecordMailserverServiceImpl ) {
+      var srvRecordMailserverService = ( SrvRecordMailserverServiceImpl ) mailserverService;
+      out.writeByte( SRV_RECORD );
+      writeCommon( out, mailserverService );
+      writeInteger( out, srvRecordMailserverService.getPriority() );
+      writeInteger( out, srvRecordMailserverService.getWeight() );
+    } else if( mailserverService instanceof MozillaAutoconfMailserverServiceImpl ) {
+      var mozillaAutoconfMailserverService = ( MozillaAutoconfMailserverServiceImpl ) mailserverService;
+      out.writeByte( MOZILLA_AUTOCONF );
+      writeCommon( out, mailserverService );
+      writeString( out, mozillaAutoconfMailserverService.getUsername() );
+      writeString( out, mozillaAutoconfMailserverService.getPassword() );
+      writeAuthentications( out, mozillaAutoconfMailserverService.getAuthentications() );
+      out.writeInt( mozillaAutoconfMailserverService.getOAuth2s().size() );
+      for( var oAuth2 : mozillaAutoconfMailserverService.getOAuth2s() ) {
+        writeString( out, oAuth2.getIssuer() );
+        writeString( out, oAuth2.getScope() );
+        writeString( out, oAuth2.getAuthUrl() );
+        writeString( out, oAuth2.getTokenUrl() );
+      }
+    } else if( mailserverService instanceof MsAutodiscoverMailserverServiceImpl ) {
+      var msAutodiscoverMailserverService = ( MsAutodiscoverMailserverServiceImpl ) mailserverService;
+      out.writeByte( MS_AUTODISCOVER );
+      writeCommon( out, mailserverService );
+      writeString( out, msAutodiscoverMailserverService.getUsername() );
+      out.writeBoolean( msAutodiscoverMailserverService.isDomainRequired() );
+      writeAuthentications( out, msAutodiscoverMailserverService.getAuthentications() );
+    } else
+      throw new IllegalArgumentException( "Mailserver service " + mailserverService.getClass() + " not supported!" );
+  }
+
+
+  /**
+   * Reads a mailserver service written by {@link #write(DataOutput, MailserverService)}.
+   *
+   * @param in Input
+   * @return Mailserver service
+   * @throws IOException if reading fails or the input is invalid
+   */
+  public static MailserverService read( DataInput in ) throws IOException {
+
+    var type = in.readByte();
+    var protocol = readEnum( in, Protocol.values() );
+    var socketType = readEnum( in, SocketType.values() );
+    var host = readString( in );
+    var port = readInteger( in );
+
+    switch( type ) {
+      case SRV_RECORD:
+        var srvRecordMailserverService = new SrvRecordMailserverServiceImpl( protocol, socketType, host, port, null );
+        srvRecordMailserverService.setPriority( readInteger( in ) );
+        srvRecordMailserverService.setWeight( readInteger( in ) );
+        return srvRecordMailserverService;
+      case MOZILLA_AUTOCONF:
+        var mozillaAutoconfMailserverService = new MozillaAutoconfMailserverServiceImpl();
+        mozillaAutoconfMailserverService.setProtocol( protocol );
+        mozillaAutoconfMailserverService.setSocketType( socketType );
+        mozillaAutoconfMailserverService.setHost( host );
+        mozillaAutoconfMailserverService.setPort( port );
+        mozillaAutoconfMailserverService.setUsername( readString( in ) );
+        mozillaAutoconfMailserverService.setPassword( readString( in ) );
+        readAuthentications( in ).forEach( mozillaAutoconfMailserverService::addAuthentication );
+        var oAuth2Count = readCount( in );
+        List<OAuth2> oAuth2s = new ArrayList<>( oAuth2Count );
+        for( int i = 0; i < oAuth2Count; i++ ) {
+          var oAuth2 = new OAuth2Impl();
+          oAuth2.setIssuer( readString( in ) );
+          oAuth2.setScope( readString( in ) );
+          oAuth2.setAuthUrl( readString( in ) );
+          oAuth2.setTokenUrl( readString( in ) );
+          oAuth2s.add( oAuth2 );
+        }
+        mozillaAutoconfMailserverService.addAllOAuth2s( oAuth2s );
+        return mozillaAutoconfMailserverService;
+      case MS_AUTODISCOVER:
+        var msAutodiscoverMailserverService = new MsAutodiscoverMailserverServiceImpl();
+        msAutodiscoverMailserverService.setProtocol( protocol );
+        msAutodiscoverMailserverService.setSocketType( socketType );
+        msAutodiscoverMailserverService.setHost( host );
+        msAutodiscoverMailserverService.setPort( port );
+        msAutodiscoverMailserverService.setUsername( readString( in ) );
+        msAutodiscoverMailserverService.setDomainRequired( in.readBoolean() );
+        readAuthentications( in ).forEach( msAutodiscoverMailserverService::addAuthentication );
+        return msAutodiscoverMailserverService;
+      default:
+        throw new IOException( "Unknown mailserver service type " + type + "!" );
+    }
+  }
+
+
+  /**
+   * Reads a count of following items, which must not be negative.
+   *
+   * @param in Input
+   * @return Count
+   * @throws IOException if reading fails or the count is negative
+   */
+  public static int readCount( DataInput in ) throws IOException {
+
+    var count = in.readInt();
+    if( count < 0 )
+      throw new IOException( "Invalid count " + count + "!" );
+    return count;
+  }
+
+
+  private static void writeCommon( DataOutput out, MailserverService mailserverService ) throws IOException {
+
+    writeEnum( out, mailserverService.getProtocol() );
+    writeEnum( out, mailserverService.getSocketType() );
+    writeString( out, mailserverService.getHost() );
+    writeInteger( out, mailserverService.getPort() );
+  }
+
+
+  private static void writeAuthentications( DataOutput out, Set<Authentication> authentications ) throws IOException {
+
+    int bits = 0;
+    for( var authentication : authentications )
+      bits |= 1 << authentication.ordinal();
+    out.writeInt( bits );
+  }
+
+
+  private static Set<Authentication> readAuthentications( DataInput in ) throws IOException {
+
+    var bits = in.readInt();
+    Set<Authentication> authentications = EnumSet.noneOf( Authentication.class );
+    for( var authentication : Authentication.values() )
+      if( ( bits & 1 << authentication.ordinal() ) != 0 )
+        authentications.add( authentication );
+    return authentications;
+  }
+
+
+  private static void writeEnum( DataOutput out, Enum<?> value ) throws IOException {
+
+    out.writeByte( value == null ? -1 : value.ordinal() );
+  }
+
+
+  private static <T extends Enum<T>> T readEnum( DataInput in, T[] values ) throws IOException {
+
+    var ordinal = in.readByte();
+    if( ordinal == -1 )
+      return null;
+    if( ordinal < 0 || ordinal >= values.length )
+      throw new IOException( "Invalid ordinal " + ordinal + "!" );
+    return values[ordinal];
+  }
+
+
+  private static void writeString( DataOutput out, String value ) throws IOException {
+
+    out.writeBoolean( value != null );
+    if( value != null )
+      out.writeUTF( value );
+  }
+
+
+  private static String readString( DataInput in ) throws IOException {
+
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+
+  private static void writeInteger( DataOutput out, Integer value ) throws IOException {
+
+    out.writeBoolean( value != null );
+    if( value != null )
+      out.writeInt( value );
+  }
+
+
+  private static Integer readInteger( DataInput in ) throws IOException {
+
+    return in.readBoolean() ? in.readInt() : null;
+  }
+}
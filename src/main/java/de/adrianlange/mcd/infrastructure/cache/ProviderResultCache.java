@@ -0,0 +1,163 @@
+package de.adrianlange.mcd.infrastructure.cache;
+
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+/**
+ * Cache for the discovery results of email providers, which are shared by all domains whose mail is handled by the
+ * provider. Running lookups are cached as well, s.th. concurrent discoveries of domains of the same provider look it
+ * up once. The lookup is started after the cache is unlocked and completes the future of its entry. Non-empty
+ * results are kept for the positive TTL, empty results for the negative TTL, failed lookups are not kept.<p>The
+ * cache is bounded by the number of its entries. If it is exceeded, the least recently used entries are evicted.
+ *
+ * @author Adrian Lange
+ */
+public class ProviderResultCache {
+
+  private final int maxEntries;
+
+  private final long positiveTtlNanos;
+
+  private final long negativeTtlNanos;
+
+  private final DiscoveryMetrics metrics;
+
+  private final LinkedHashMap<String, Entry> entries;
+
+
+  /**
+   * Creates a new provider result cache.
+   *
+   * @param maxEntries  Maximum number of cached providers
+   * @param positiveTtl Duration non-empty results are cached
+   * @param negativeTtl Duration empty results are cached
+   * @param metrics     Metrics cache lookups are recorded in
+   */
+  public ProviderResultCache( int maxEntries, Duration positiveTtl, Duration negativeTtl, DiscoveryMetrics metrics ) {
+
+    if( maxEntries <= 0 )
+      throw new IllegalArgumentException( "Maximum entries must be positive!" );
+    if( positiveTtl == null || positiveTtl.isNegative() || negativeTtl == null || negativeTtl.isNegative() )
+      throw new IllegalArgumentException( "TTLs must not be negative!" );
+
+    this.maxEntries = maxEntries;
+    this.positiveTtlNanos = positiveTtl.toNanos();
+    this.negativeTtlNanos = negativeTtl.toNanos();
+    this.metrics = metrics == null ? DiscoveryMetrics.NONE : metrics;
+    this.entries = new LinkedHashMap<>( 16, 0.75f, true ) {
+
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String, ProviderResultCache.Entry> eldest ) {
+
+        return size() > ProviderResultCache.this.maxEntries;
+      }
+    };
+  }
+
+
+  /**
+   * Returns the result of the given provider. If it is neither cached nor being looked up, the lookup is started.
+   *
+   * @param provider Base domain of the provider
+   * @param lookup   Starts the lookup of the provider
+   * @return Future of the mailserver services of the provider, which may be cancelled without affecting other callers
+   */
+  public CompletableFuture<List<MailserverService>> get( String provider,
+                                                         Supplier<CompletableFuture<List<MailserverService>>> lookup ) {
+
+    Entry entry;
+    boolean cached;
+    synchronized( entries ) {
+      entry = entries.get( provider );
+      cached = entry != null && !entry.isExpired( System.nanoTime() );
+      if( !cached ) {
+        entry = new Entry();
+        entries.put( provider, entry );
+      }
+    }
+
+    if( !cached )
+      start( provider, entry, lookup );
+    metrics.recordCacheLookup( DiscoveryMetrics.Cache.PROVIDER, cached );
+    return entry.future.thenApply( Function.identity() );
+  }
+
+
+  /**
+   * Returns the number of cached providers, including expired ones not removed yet.
+   *
+   * @return Number of entries
+   */
+  public int getSize() {
+
+    synchronized( entries ) {
+      return entries.size();
+    }
+  }
+
+
+  /**
+   * Removes all entries.
+   */
+  public void clear() {
+
+    synchronized( entries ) {
+      entries.clear();
+    }
+  }
+
+
+  private void start( String provider, Entry entry, Supplier<CompletableFuture<List<MailserverService>>> lookup ) {
+
+    entry.future.whenComplete( ( r, t ) -> complete( provider, entry, r, t ) );
+    try {
+      lookup.get().whenComplete( ( r, t ) -> {
+        if( t != null )
+          entry.future.completeExceptionally( t );
+        else
+          entry.future.complete( r );
+      } );
+    } catch( RuntimeException | Error e ) {
+      entry.future.completeExceptionally( e );
+      throw e;
+    }
+  }
+
+
+  private void complete( String provider, Entry entry, List<MailserverService> mailserverServices, Throwable t ) {
+
+    var ttlNanos = t != null ? 0 : mailserverServices.isEmpty() ? negativeTtlNanos : positiveTtlNanos;
+    synchronized( entries ) {
+      if( ttlNanos <= 0 )
+        entries.remove( provider, entry );
+      else
+        entry.expiresAtNanos = System.nanoTime() + ttlNanos;
+    }
+  }
+
+
+  private static class Entry {
+
+    /**
+     * Completed by the lookup, which is started by the caller who created the entry.
+     */
+    private final CompletableFuture<List<MailserverService>> future = new CompletableFuture<>();
+
+    private Long expiresAtNanos;
+
+
+    private boolean isExpired( long nowNanos ) {
+
+      return expiresAtNanos != null && expiresAtNanos - nowNanos <= 0;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package de.adrianlange.mcd.infrastructure.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+
+/**
+ * Utilities for completable futures.
+ *
+ * @author Adrian Lange
+ */
+public final class CompletableFutures {
+
+  private CompletableFutures() {
+
+  }
+
+
+  /**
+   * Cancels the source future, when the dependent future is cancelled. Completable futures do not propagate
+   * cancellation to the stages they depend on, s.th. cancelling a derived future would not stop e.g. a running HTTP
+   * request otherwise.
+   *
+   * @param source    Future the dependent future has been derived from
+   * @param dependent Derived future
+   * @param <T>       Result type of the dependent future
+   * @return The dependent future
+   */
+  public static <T> CompletableFuture<T> propagateCancellation( CompletableFuture<?> source,
+                                                                CompletableFuture<T> dependent ) {
+
+    dependent.whenComplete( ( r, t ) -> {
+      if( dependent.isCancelled() )
+        source.cancel( true );
+    } );
+    return dependent;
+  }
+
+
+  /**
+   * Composes the source future with the future created by the given function like
+   * {@link CompletableFuture#thenCompose(Function)}, but cancelling the returned future cancels both the source future
+   * and the composed future, if it has been created already.
+   *
+   * @param source Future to compose
+   * @param fn     Function creating the composed future from the result of the source future
+   * @param <T>    Result type of the source future
+   * @param <U>    Result type of the composed future
+   * @return Future completed with the result of the composed future
+   */
+  public static <T, U> CompletableFuture<U> thenCompose( CompletableFuture<T> source,
+                                                         Function<? super T, ? extends CompletableFuture<U>> fn ) {
+
+    var result = new CompletableFuture<U>();
+    source.whenComplete( ( r, t ) -> {
+      if( t != null ) {
+        result.completeExceptionally( t );
+        return;
+      }
+
+      CompletableFuture<U> composed;
+      try {
+        composed = fn.apply( r );
+      } catch( RuntimeException e ) {
+        result.completeExceptionally( e );
+        return;
+      }
+      propagateCancellation( composed, result );
+      composed.whenComplete( ( u, e ) -> {
+        if( e != null )
+          result.completeExceptionally( e );
+        else
+          result.complete( u );
+      } );
+    } );
+    return propagateCancellation( source, result );
+  }
+
+
+  /**
+   * Races the given futures. The returned future is completed with the first result matching the predicate and all
+   * other futures are cancelled. Failed futures are treated like non-matching results. If no result matches, the
+   * returned future is completed with the default value once all futures are done. Cancelling the returned future
+   * cancels all futures.
+   *
+   * @param futures      Futures to race
+   * @param predicate    Predicate a result must match to win the race
+   * @param defaultValue Result if no result matches
+   * @param <T>          Result type
+   * @return Future of the first matching result or the default value
+   */
+  public static <T> CompletableFuture<T> firstMatching( List<? extends CompletableFuture<T>> futures,
+                                                        Predicate<? super T> predicate, T defaultValue ) {
+
+    var result = new CompletableFuture<T>();
+    var remaining = new AtomicInteger( futures.size() );
+    var decided = new AtomicBoolean();
+    for( var future : futures ) {
+      future.whenComplete( ( r, t ) -> {
+        if( t == null && predicate.test( r ) && decided.compareAndSet( false, true ) ) {
+          // the other futures are cancelled first, s.th. they are done when the result is observed
+          futures.forEach( f -> f.cancel( true ) );
+          result.complete( r );
+        } else if( remaining.decrementAndGet() == 0 )
+          result.complete( defaultValue );
+      } );
+    }
+    if( futures.isEmpty() )
+      result.complete( defaultValue );
+
+    result.whenComplete( ( r, t ) -> {
+      if( result.isCancelled() )
+        futures.forEach( f -> f.cancel( true ) );
+    } );
+    return result;
+  }
+}
@@ -0,0 +1,83 @@
+package de.adrianlange.mcd.infrastructure.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Executor shared by all contexts, which do not define an executor of their own. It is created on first use and never
+ * shut down.<p>Lookups mostly wait for DNS answers and HTTP responses, so the pool has more threads than there are
+ * processors, but their number is bounded. Threads are daemon threads named <code>mcd-worker-N</code>, they are
+ * terminated after being idle for a minute, s.th. an unused executor does not keep any threads.
+ *
+ * @author Adrian Lange
+ */
+public final class DefaultExecutor {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+
+  private DefaultExecutor() {
+
+  }
+
+
+  /**
+   * Returns the shared default executor.
+   *
+   * @return Executor
+   */
+  public static Executor get() {
+
+    return Holder.EXECUTOR;
+  }
+
+
+  /**
+   * Returns the maximum number of threads of the default executor.
+   *
+   * @return Number of threads
+   */
+  public static int getPoolSize() {
+
+    return Math.min( 64, Math.max( 8, Runtime.getRuntime().availableProcessors() * 4 ) );
+  }
+
+
+  private static ThreadPoolExecutor createExecutor() {
+
+    var poolSize = getPoolSize();
+    var executor = new ThreadPoolExecutor( poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), new WorkerThreadFactory() );
+    executor.allowCoreThreadTimeOut( true );
+    return executor;
+  }
+
+
+  /**
+   * Lazily initialized executor.
+   */
+  private static class Holder {
+
+    private static final Executor EXECUTOR = createExecutor()::execute;
+  }
+
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+
+    @Override
+    public Thread newThread( Runnable runnable ) {
+
+      var thread = new Thread( runnable, "mcd-worker-" + threadNumber.getAndIncrement() );
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package de.adrianlange.mcd.infrastructure.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Limits the requests sent to each remote host by a bulkhead, which bounds the number of concurrent requests, and a
+ * token bucket, which bounds the rate of requests while allowing short bursts. Requests exceeding the limits wait in
+ * a queue per host without blocking a thread, they are started as soon as a running request of the host completes or
+ * the bucket has been refilled.<p>A limit of 0 disables the respective limit. Hosts without running or waiting requests
+ * are removed once their bucket is full again, s.th. bulk lookups of many hosts do not accumulate state.<p>The state
+ * of each host is guarded by its own lock, s.th. requests to different hosts do not contend with each other.
+ *
+ * @author Adrian Lange
+ */
+public class HostRequestLimiter {
+
+  private static final int SWEEP_INTERVAL = 1024;
+
+  private final int maxConcurrentRequests;
+
+  private final double requestsPerSecond;
+
+  private final int burst;
+
+  private final Executor executor;
+
+  private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+  private final AtomicInteger acquires = new AtomicInteger();
+
+
+  /**
+   * Creates a new host request limiter.
+   *
+   * @param maxConcurrentRequests Maximum number of concurrent requests per host, 0 for no limit
+   * @param requestsPerSecond     Requests per second and host the bucket is refilled with, 0 for no limit
+   * @param burst                 Capacity of the bucket of each host, at least 1 if the rate is limited
+   * @param executor              Executor to start delayed requests on
+   */
+  public HostRequestLimiter( int maxConcurrentRequests, double requestsPerSecond, int burst, Executor executor ) {
+
+    if( maxConcurrentRequests < 0 || requestsPerSecond < 0 || burst < 0 )
+      throw new IllegalArgumentException( "Limits must not be negative!" );
+    if( requestsPerSecond > 0 && burst < 1 )
+      throw new IllegalArgumentException( "Burst must be positive if the rate is limited!" );
+    if( executor == null )
+      throw new IllegalArgumentException( "Executor must not be null!" );
+
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.requestsPerSecond = requestsPerSecond;
+    this.burst = burst;
+    this.executor = executor;
+  }
+
+
+  /**
+   * Acquires a permit to send a request to the given host. The permit must be released, when the request has been
+   * completed. Cancelling the returned future removes the request from the queue of the host.
+   *
+   * @param host Host name
+   * @return Future completed with the permit as soon as the limits of the host allow another request
+   */
+  public CompletableFuture<Permit> acquire( String host ) {
+
+    var key = host == null ? "" : host.toLowerCase( Locale.ROOT );
+    var waiter = new CompletableFuture<Permit>();
+    if( acquires.incrementAndGet() % SWEEP_INTERVAL == 0 )
+      sweep();
+
+    Host h;
+    do {
+      h = hosts.computeIfAbsent( key, k -> new Host() );
+    } while( !h.addWaiter( waiter ) );
+    drain( h );
+    return waiter;
+  }
+
+
+  /**
+   * Returns the number of hosts with state, i.e. running or waiting requests or a bucket not refilled yet.
+   *
+   * @return Number of hosts
+   */
+  public int getHostCount() {
+
+    return hosts.size();
+  }
+
+
+  /**
+   * Grants permits to the waiting requests of the given host as far as its limits allow. If the bucket is empty, the
+   * next drain is scheduled for when it holds the next token.
+   */
+  private void drain( Host host ) {
+
+    List<CompletableFuture<Permit>> granted = new ArrayList<>();
+    long delayNanos = 0;
+    synchronized( host ) {
+      host.refill( System.nanoTime() );
+      while( !host.waiters.isEmpty() ) {
+        var waiter = host.waiters.peek();
+        if( waiter.isDone() ) {
+          host.waiters.poll();
+          continue;
+        }
+        if( maxConcurrentRequests > 0 && host.running >= maxConcurrentRequests )
+          break;
+        if( requestsPerSecond > 0 && host.tokens < 1 ) {
+          delayNanos = Math.max( 1, (long) Math.ceil( ( 1 - host.tokens ) * 1e9 / requestsPerSecond ) );
+          break;
+        }
+
+        host.waiters.poll();
+        host.running++;
+        if( requestsPerSecond > 0 )
+          host.tokens--;
+        granted.add( waiter );
+      }
+
+      if( delayNanos > 0 && !host.drainScheduled )
+        host.drainScheduled = true;
+      else
+        delayNanos = 0;
+    }
+
+    for( var waiter : granted ) {
+      var permit = new Permit( this, host );
+      if( !waiter.complete( permit ) )
+        revoke( host );
+    }
+
+    if( delayNanos > 0 )
+      CompletableFuture.delayedExecutor( delayNanos, TimeUnit.NANOSECONDS, executor ).execute( () -> {
+        synchronized( host ) {
+          host.drainScheduled = false;
+        }
+        drain( host );
+      } );
+  }
+
+
+  private void release( Host host ) {
+
+    synchronized( host ) {
+      host.running--;
+    }
+    drain( host );
+  }
+
+
+  /**
+   * Returns the permit and the token of a waiter, which has been cancelled while the permit was granted.
+   */
+  private void revoke( Host host ) {
+
+    synchronized( host ) {
+      host.running--;
+      if( requestsPerSecond > 0 )
+        host.tokens = Math.min( burst, host.tokens + 1 );
+    }
+    drain( host );
+  }
+
+
+  /**
+   * Removes the hosts without running or waiting requests whose bucket is full. A removed host is marked, s.th. a
+   * concurrent acquire, which has just looked it up, retries with a new one.
+   */
+  private void sweep() {
+
+    var now = System.nanoTime();
+    for( var entry : hosts.entrySet() ) {
+      var h = entry.getValue();
+      synchronized( h ) {
+        h.refill( now );
+        if( h.running == 0 && h.waiters.isEmpty() && !h.drainScheduled && ( requestsPerSecond == 0 ||
+            h.tokens >= burst ) ) {
+          h.removed = true;
+          hosts.remove( entry.getKey(), h );
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Permit to send one request to a host.
+   */
+  public static final class Permit {
+
+    private final HostRequestLimiter limiter;
+
+    private final Host host;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+
+    private Permit( HostRequestLimiter limiter, Host host ) {
+
+      this.limiter = limiter;
+      this.host = host;
+    }
+
+
+    /**
+     * Releases the permit, s.th. the next waiting request of the host may be sent. Further calls have no effect.
+     */
+    public void release() {
+
+      if( released.compareAndSet( false, true ) )
+        limiter.release( host );
+    }
+  }
+
+
+  /**
+   * State of a host, guarded by the host itself.
+   */
+  private final class Host {
+
+    private final Queue<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    private int running = 0;
+
+    private double tokens = burst;
+
+    private long refilledAtNanos = System.nanoTime();
+
+    private boolean drainScheduled = false;
+
+    private boolean removed = false;
+
+
+    /**
+     * Adds a waiting request, unless the host has been removed by a sweep in the meantime.
+     */
+    private synchronized boolean addWaiter( CompletableFuture<Permit> waiter ) {
+
+      if( removed )
+        return false;
+      waiters.add( waiter );
+      return true;
+    }
+
+
+    private void refill( long nowNanos ) {
+
+      if( requestsPerSecond > 0 )
+        tokens = Math.min( burst, tokens + ( nowNanos - refilledAtNanos ) * requestsPerSecond / 1e9 );
+      refilledAtNanos = nowNanos;
+    }
+  }
+}
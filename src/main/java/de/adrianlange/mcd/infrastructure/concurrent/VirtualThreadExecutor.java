@@ -0,0 +1,41 @@
+package de.adrianlange.mcd.infrastructure.concurrent;
+
+import java.util.concurrent.Executor;
+
+
+/**
+ * Executor running each task in a new virtual thread. Virtual threads are available from Java 21 on, this library
+ * is shipped as multi-release JAR containing an implementation for Java 21 and later. On older Java versions, this
+ * class falls back to the {@link DefaultExecutor}.
+ *
+ * @author Adrian Lange
+ */
+public final class VirtualThreadExecutor {
+
+  private VirtualThreadExecutor() {
+
+  }
+
+
+  /**
+   * Returns if virtual threads are supported by the running Java version.
+   *
+   * @return True if tasks are run in virtual threads
+   */
+  public static boolean isSupported() {
+
+    return false;
+  }
+
+
+  /**
+   * Returns the shared executor running each task in a new virtual thread, or the {@link DefaultExecutor} if virtual
+   * threads are not supported.
+   *
+   * @return Executor
+   */
+  public static Executor get() {
+
+    return DefaultExecutor.get();
+  }
+}
@@ -1,17 +1,28 @@
 package de.adrianlange.mcd.infrastructure.dns;
 
 import de.adrianlange.mcd.DnsLookupContext;
+import de.adrianlange.mcd.infrastructure.jfr.DnsQueryEvent;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xbill.DNS.ExtendedResolver;
-import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.lookup.LookupResult;
+import org.xbill.DNS.lookup.LookupSession;
+import org.xbill.DNS.lookup.NoSuchDomainException;
+import org.xbill.DNS.lookup.NoSuchRRSetException;
 
-import java.net.UnknownHostException;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 
@@ -19,46 +30,131 @@ public abstract class AbstractDnsResolverImpl {
 
   private static final Logger LOG = LoggerFactory.getLogger( AbstractDnsResolverImpl.class );
 
-  protected final ExtendedResolver resolver;
+  protected final Resolver resolver;
 
+  private final LookupSession lookupSession;
 
+
+  /**
+   * Creates a new resolver sending its queries by the resolver of the given DNS lookup context.
+   *
+   * @param dnsLookupContext DNS lookup context
+   */
   public AbstractDnsResolverImpl( DnsLookupContext dnsLookupContext ) {
 
+    this( dnsLookupContext, getResolver( dnsLookupContext ) );
+  }
+
+
+  protected AbstractDnsResolverImpl( DnsLookupContext dnsLookupContext, Resolver resolver ) {
+
+    if( dnsLookupContext == null )
+      throw new AssertionError( "Context must not be null!" );
+
+    this.resolver = resolver;
+    var cache = dnsLookupContext.getCache();
+    var metrics = dnsLookupContext.getMetrics() == null ? DiscoveryMetrics.NONE : dnsLookupContext.getMetrics();
+
+    var lookupSessionBuilder = LookupSession.builder().resolver(
+        metrics == DiscoveryMetrics.NONE ? resolver : new MeteredResolver( resolver, metrics ) );
+    if( cache != null )
+      lookupSessionBuilder.cache( cache.getCache() );
+    this.lookupSession = lookupSessionBuilder.build();
+  }
+
+
+  private static Resolver getResolver( DnsLookupContext dnsLookupContext ) {
+
+    if( dnsLookupContext == null )
+      throw new AssertionError( "Context must not be null!" );
+    return dnsLookupContext.getResolver();
+  }
+
+
+  /**
+   * Creates a resolver configured according to the given DNS lookup context. The timeout of the context applies to each
+   * query sent to a DNS server, the resolver gives up once all servers have been queried as often as the retries of the
+   * context allow. Queries to each DNS server are recorded as {@link DnsQueryEvent}s, if the event is enabled in a
+   * flight recording.
+   *
+   * @param dnsLookupContext DNS lookup context
+   * @return Resolver
+   */
+  public static Resolver createResolver( DnsLookupContext dnsLookupContext ) {
+
     if( dnsLookupContext == null )
       throw new AssertionError( "Context must not be null!" );
 
-    if( dnsLookupContext.getDnsServers() == null )
-      resolver = new ExtendedResolver();
+    List<Resolver> serverResolvers;
+    if( dnsLookupContext.getDnsServerAddresses() == null )
+      serverResolvers = Arrays.asList( new ExtendedResolver().getResolvers() );
     else {
-      var servers = dnsLookupContext.getDnsServers().toArray( new String[0] );
-      try {
-        resolver = new ExtendedResolver( servers );
-      } catch( UnknownHostException uhe ) {
-        LOG.error( "Given DNS servers may not exist: {}", dnsLookupContext.getDnsServers(), uhe );
-        // is handled when defining the context
-        throw new RuntimeException( uhe );
-      }
+      // @formatter:off
+      serverResolvers = dnsLookupContext.getDnsServerAddresses().stream()
+          .map( SimpleResolver::new )
+          .collect( Collectors.toList() );
+      // @formatter:on
     }
-    resolver.setTimeout( dnsLookupContext.getTimeout() );
+    // @formatter:off
+    var resolver = new ExtendedResolver( serverResolvers.stream()
+        .map( FlightRecordingResolver::new )
+        .collect( Collectors.toList() ) );
+    // @formatter:on
+    var resolvers = resolver.getResolvers();
+    for( var r : resolvers )
+      r.setTimeout( dnsLookupContext.getTimeout() );
+    var attempts = Math.max( 1, dnsLookupContext.getRetries() ) * Math.max( 1, resolvers.length );
+    resolver.setTimeout( dnsLookupContext.getTimeout().multipliedBy( attempts ) );
     resolver.setRetries( dnsLookupContext.getRetries() );
     resolver.setTCP( dnsLookupContext.isTcp() );
+    return resolver;
   }
 
 
-  protected Collection<Record> getRecords( String lookupDomain, int type ) {
+  /**
+   * Looks up the records of the given domain and type. The query is sent without blocking a thread while waiting for
+   * the answer. Answers cached by the lookup session are used as long as their TTLs allow. Negative answers, timeouts
+   * and other failures result in an empty list.
+   *
+   * @param lookupDomain Domain to look up
+   * @param type         Record type, see {@link org.xbill.DNS.Type}
+   * @return Completion stage of the found records
+   */
+  protected CompletionStage<List<Record>> getRecordsAsync( String lookupDomain, int type ) {
 
+    Name name;
     try {
-      var lookup = new Lookup( lookupDomain, type );
-      lookup.setResolver( resolver );
-      var lookupResult = lookup.run();
-
-      if( lookupResult == null )
-        return Collections.emptyList();
-
-      return Arrays.stream( lookupResult ).filter( r -> r.getType() == type ).collect( Collectors.toList() );
+      name = Name.fromString( lookupDomain, Name.root );
     } catch( TextParseException e ) {
       LOG.error( "Could not lookup domain {}", lookupDomain, e );
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+    }
+
+    return lookupSession.lookupAsync( name, type ).handle( ( r, t ) -> getRecords( r, t, name, type ) );
+  }
+
+
+  private static List<Record> getRecords( LookupResult lookupResult, Throwable t, Name name, int type ) {
+
+    if( t != null ) {
+      var cause = unwrap( t );
+      if( !isNegativeAnswer( cause ) )
+        LOG.debug( "Could not lookup {} records of {}", Type.string( type ), name, cause );
+      return Collections.emptyList();
     }
-    return Collections.emptyList();
+
+    return lookupResult.getRecords().stream().filter( r -> r.getType() == type ).collect( Collectors.toList() );
+  }
+
+
+  private static boolean isNegativeAnswer( Throwable t ) {
+
+    return t instanceof NoSuchDomainException || t instanceof NoSuchRRSetException;
+  }
+
+
+  private static Throwable unwrap( Throwable t ) {
+
+    return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
   }
 }
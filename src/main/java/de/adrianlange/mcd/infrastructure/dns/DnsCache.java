@@ -0,0 +1,392 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SetResponse;
+import org.xbill.DNS.Type;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bounded cache for DNS answers, shared by all resolvers of a {@link de.adrianlange.mcd.DnsLookupContext}.<p>Positive
+ * answers are kept as long as the TTL of their records allows, negative answers (NXDOMAIN and NODATA) for the minimum
+ * TTL of the SOA record of the zone. If the maximum number of entries is reached, the least recently used entries are
+ * evicted.<p>The cache is consulted and filled by the lookup sessions of the resolvers, which count as hit or miss
+ * each time they look up a name and type.<p>If answers are retained, the responses added to the cache are kept as
+ * well, s.th. they can be written to a snapshot and added to the cache of another process with their remaining TTLs.
+ * They are bounded by the maximum number of entries as well and the least recently used responses are evicted.
+ *
+ * @author Adrian Lange
+ */
+public class DnsCache {
+
+  private static final int MAX_MESSAGE_LENGTH = 65535;
+
+  private final Cache cache;
+
+  private final Map<Record, RetainedAnswer> retainedAnswers;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final DiscoveryMetrics metrics;
+
+
+  /**
+   * Creates a new DNS cache.
+   *
+   * @param maxEntries Maximum number of cached record sets
+   */
+  public DnsCache( int maxEntries ) {
+
+    this( maxEntries, false, DiscoveryMetrics.NONE );
+  }
+
+
+  /**
+   * Creates a new DNS cache.
+   *
+   * @param maxEntries    Maximum number of cached record sets
+   * @param retainAnswers True to keep the responses added to the cache for snapshots
+   */
+  public DnsCache( int maxEntries, boolean retainAnswers ) {
+
+    this( maxEntries, retainAnswers, DiscoveryMetrics.NONE );
+  }
+
+
+  /**
+   * Creates a new DNS cache.
+   *
+   * @param maxEntries    Maximum number of cached record sets
+   * @param retainAnswers True to keep the responses added to the cache for snapshots
+   * @param metrics       Metrics cache lookups are recorded in
+   */
+  public DnsCache( int maxEntries, boolean retainAnswers, DiscoveryMetrics metrics ) {
+
+    if( maxEntries <= 0 )
+      throw new IllegalArgumentException( "Maximum number of entries must be positive!" );
+
+    this.metrics = metrics == null ? DiscoveryMetrics.NONE : metrics;
+
+    if( retainAnswers ) {
+      retainedAnswers = new LinkedHashMap<>( 16, 0.75f, true ) {
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Record, RetainedAnswer> eldest ) {
+
+          return size() > maxEntries;
+        }
+      };
+      cache = new AnswerRetainingCache();
+    } else {
+      retainedAnswers = null;
+      cache = new CountingCache();
+    }
+    cache.setMaxEntries( maxEntries );
+  }
+
+
+  /**
+   * Returns the underlying dnsjava cache, which is filled by the lookups.
+   *
+   * @return dnsjava cache
+   */
+  Cache getCache() {
+
+    return cache;
+  }
+
+
+  /**
+   * Returns the number of lookups that could be answered from the cache.
+   *
+   * @return Number of cache hits
+   */
+  public long getHitCount() {
+
+    return hitCount.get();
+  }
+
+
+  /**
+   * Returns the number of lookups that had to be sent to a DNS server.
+   *
+   * @return Number of cache misses
+   */
+  public long getMissCount() {
+
+    return missCount.get();
+  }
+
+
+  /**
+   * Returns the number of currently cached record sets.
+   *
+   * @return Number of cache entries
+   */
+  public int getSize() {
+
+    return cache.getSize();
+  }
+
+
+  /**
+   * Returns the maximum number of cached record sets.
+   *
+   * @return Maximum number of cache entries
+   */
+  public int getMaxEntries() {
+
+    return cache.getMaxEntries();
+  }
+
+
+  /**
+   * Removes all entries from the cache. The hit and miss counters are not reset.
+   */
+  public void clear() {
+
+    cache.clearCache();
+    if( retainedAnswers != null ) {
+      synchronized( retainedAnswers ) {
+        retainedAnswers.clear();
+      }
+    }
+  }
+
+
+  /**
+   * Returns if responses added to the cache are retained for snapshots.
+   *
+   * @return True if answers are retained
+   */
+  public boolean isRetainingAnswers() {
+
+    return retainedAnswers != null;
+  }
+
+
+  /**
+   * Writes the retained responses, which are not expired yet, in wire format together with the time they have been
+   * received.
+   *
+   * @param out Output to write to
+   * @throws IOException if writing fails
+   */
+  public void writeSnapshot( DataOutput out ) throws IOException {
+
+    List<RetainedAnswer> snapshot = new ArrayList<>();
+    if( retainedAnswers != null ) {
+      synchronized( retainedAnswers ) {
+        snapshot.addAll( retainedAnswers.values() );
+      }
+    }
+
+    var nowMillis = System.currentTimeMillis();
+    snapshot.removeIf( a -> getTtl( a.message ) * 1000 <= nowMillis - a.receivedAtMillis );
+
+    out.writeInt( snapshot.size() );
+    for( var answer : snapshot ) {
+      var wire = answer.message.toWire();
+      out.writeLong( answer.receivedAtMillis );
+      out.writeInt( wire.length );
+      out.write( wire );
+    }
+  }
+
+
+  /**
+   * Reads responses written by {@link #writeSnapshot(DataOutput)} and adds them to the cache, after their TTLs have been
+   * reduced by the time passed since they have been received. Expired responses are skipped.
+   *
+   * @param in Input to read from
+   * @return Number of added responses
+   * @throws IOException if reading fails or the input is malformed
+   */
+  public int readSnapshot( DataInput in ) throws IOException {
+
+    var count = in.readInt();
+    if( count < 0 )
+      throw new IOException( "Invalid count " + count + "!" );
+
+    var nowMillis = System.currentTimeMillis();
+    int added = 0;
+    for( int i = 0; i < count; i++ ) {
+      var receivedAtMillis = in.readLong();
+      var length = in.readInt();
+      if( length < 0 || length > MAX_MESSAGE_LENGTH )
+        throw new IOException( "Invalid message length " + length + "!" );
+      var wire = new byte[length];
+      in.readFully( wire );
+
+      var elapsedSeconds = Math.max( 0, ( nowMillis - receivedAtMillis + 999 ) / 1000 );
+      var message = reduceTtls( new Message( wire ), elapsedSeconds );
+      if( message != null ) {
+        cache.addMessage( message );
+        added++;
+      }
+    }
+    return added;
+  }
+
+
+  /**
+   * Returns the TTL of a response, which is the minimum TTL of its answer and authority records. The TTL of an SOA
+   * record is limited by its minimum TTL, which applies to negative answers.
+   */
+  private static long getTtl( Message message ) {
+
+    long ttl = Long.MAX_VALUE;
+    for( var section : new int[]{ Section.ANSWER, Section.AUTHORITY } )
+      for( var record : message.getSection( section ) )
+        ttl = Math.min( ttl, getTtl( record ) );
+    return ttl == Long.MAX_VALUE ? 0 : ttl;
+  }
+
+
+  private static long getTtl( Record record ) {
+
+    if( record instanceof SOARecord )
+      return Math.min( record.getTTL(), ( ( SOARecord ) record ).getMinimum() );
+    return record.getTTL();
+  }
+
+
+  /**
+   * Reduces the TTLs of all records of the response by the given number of seconds. Additional records expired in the
+   * meantime and the OPT record are removed.
+   *
+   * @return The response or null, if it is expired
+   */
+  private static Message reduceTtls( Message message, long elapsedSeconds ) {
+
+    if( getTtl( message ) <= elapsedSeconds )
+      return null;
+
+    for( var section : new int[]{ Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL } ) {
+      var records = message.getSection( section );
+      message.removeAllRecords( section );
+      for( var record : records ) {
+        if( record.getType() != Type.OPT && getTtl( record ) > elapsedSeconds )
+          message.addRecord( reduceTtl( record, elapsedSeconds ), section );
+      }
+    }
+    return message;
+  }
+
+
+  private static Record reduceTtl( Record record, long elapsedSeconds ) {
+
+    var ttl = record.getTTL() - elapsedSeconds;
+    if( record instanceof SOARecord ) {
+      var soa = ( SOARecord ) record;
+      return new SOARecord( soa.getName(), soa.getDClass(), ttl, soa.getHost(), soa.getAdmin(), soa.getSerial(),
+          soa.getRefresh(), soa.getRetry(), soa.getExpire(), soa.getMinimum() - elapsedSeconds );
+    }
+
+    // the TTL follows the owner name, type and class in the uncompressed wire format
+    var wire = record.toWire( Section.ANSWER );
+    var offset = record.getName().length() + 4;
+    wire[offset] = ( byte ) ( ttl >>> 24 );
+    wire[offset + 1] = ( byte ) ( ttl >>> 16 );
+    wire[offset + 2] = ( byte ) ( ttl >>> 8 );
+    wire[offset + 3] = ( byte ) ttl;
+    try {
+      return Record.fromWire( wire, Section.ANSWER );
+    } catch( IOException e ) {
+      throw new IllegalStateException( "Could not parse record " + record + "!", e );
+    }
+  }
+
+
+  /**
+   * Response added to the cache.
+   */
+  private static class RetainedAnswer {
+
+    private final Message message;
+
+    private final long receivedAtMillis;
+
+
+    private RetainedAnswer( Message message, long receivedAtMillis ) {
+
+      this.message = message;
+      this.receivedAtMillis = receivedAtMillis;
+    }
+  }
+
+
+  /**
+   * Cache counting the lookups of lookup sessions as hits, if they can be answered from the cache, including cached
+   * negative answers and aliases, and as misses otherwise.
+   */
+  private class CountingCache extends Cache {
+
+    private CountingCache() {
+
+      super( DClass.IN );
+    }
+
+
+    @Override
+    public SetResponse lookupRecords( Name name, int type, int minCred ) {
+
+      var response = super.lookupRecords( name, type, minCred );
+      var hit = !response.isUnknown() && !response.isDelegation();
+      ( hit ? hitCount : missCount ).incrementAndGet();
+      metrics.recordCacheLookup( DiscoveryMetrics.Cache.DNS, hit );
+      return response;
+    }
+  }
+
+
+  /**
+   * Cache retaining the responses added by lookup sessions. Looking up a retained response marks it as recently used.
+   */
+  private class AnswerRetainingCache extends CountingCache {
+
+    @Override
+    public SetResponse lookupRecords( Name name, int type, int minCred ) {
+
+      var response = super.lookupRecords( name, type, minCred );
+      if( !response.isUnknown() && !response.isDelegation() ) {
+        var question = Record.newRecord( name, type, DClass.IN );
+        synchronized( retainedAnswers ) {
+          retainedAnswers.get( question );
+        }
+      }
+      return response;
+    }
+
+
+    @Override
+    public SetResponse addMessage( Message in ) {
+
+      var response = super.addMessage( in );
+      var question = in.getQuestion();
+      if( question != null ) {
+        synchronized( retainedAnswers ) {
+          retainedAnswers.put( question, new RetainedAnswer( in, System.currentTimeMillis() ) );
+        }
+      }
+      return response;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import de.adrianlange.mcd.infrastructure.jfr.DnsQueryEvent;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.Type;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Resolver recording a {@link DnsQueryEvent} for each query sent by the wrapped resolver of a single DNS server. If the
+ * event is not enabled in a running recording, queries are passed through without recording.
+ */
+class FlightRecordingResolver implements Resolver {
+
+  private final Resolver resolver;
+
+  private boolean tcp = false;
+
+
+  FlightRecordingResolver( Resolver resolver ) {
+
+    this.resolver = resolver;
+  }
+
+
+  @Override
+  public void setPort( int port ) {
+
+    resolver.setPort( port );
+  }
+
+
+  @Override
+  public void setTCP( boolean flag ) {
+
+    tcp = flag;
+    resolver.setTCP( flag );
+  }
+
+
+  @Override
+  public void setIgnoreTruncation( boolean flag ) {
+
+    resolver.setIgnoreTruncation( flag );
+  }
+
+
+  @Override
+  public void setEDNS( int version, int payloadSize, int flags, List<EDNSOption> options ) {
+
+    resolver.setEDNS( version, payloadSize, flags, options );
+  }
+
+
+  @Override
+  public void setTSIGKey( TSIG key ) {
+
+    resolver.setTSIGKey( key );
+  }
+
+
+  @Override
+  public void setTimeout( Duration timeout ) {
+
+    resolver.setTimeout( timeout );
+  }
+
+
+  @Override
+  public Duration getTimeout() {
+
+    return resolver.getTimeout();
+  }
+
+
+  @Override
+  public CompletionStage<Message> sendAsync( Message query ) {
+
+    return sendAsync( query, ForkJoinPool.commonPool() );
+  }
+
+
+  @Override
+  public CompletionStage<Message> sendAsync( Message query, Executor executor ) {
+
+    var event = new DnsQueryEvent();
+    if( !event.isEnabled() )
+      return resolver.sendAsync( query, executor );
+
+    event.begin();
+    return resolver.sendAsync( query, executor ).whenComplete( ( response, t ) -> {
+      event.end();
+      if( !event.shouldCommit() )
+        return;
+      var question = query.getQuestion();
+      if( question != null ) {
+        event.name = question.getName().toString();
+        event.type = Type.string( question.getType() );
+      }
+      event.server = resolver instanceof SimpleResolver ? ( ( SimpleResolver ) resolver ).getAddress().toString() :
+          resolver.toString();
+      event.tcp = tcp;
+      event.rcode = response == null ? null : Rcode.string( response.getRcode() );
+      event.outcome = DiscoveryMetrics.Outcome.of( t ).name();
+      event.commit();
+    } );
+  }
+
+
+  @Override
+  public String toString() {
+
+    return resolver.toString();
+  }
+}
@@ -0,0 +1,119 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TSIG;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Resolver recording the queries sent by the wrapped resolver in {@link DiscoveryMetrics}. Lookups answered from the
+ * cache of a lookup session do not reach the resolver and are not recorded as queries. Negative answers are successful
+ * queries.
+ */
+class MeteredResolver implements Resolver {
+
+  private final Resolver resolver;
+
+  private final DiscoveryMetrics metrics;
+
+
+  MeteredResolver( Resolver resolver, DiscoveryMetrics metrics ) {
+
+    this.resolver = resolver;
+    this.metrics = metrics;
+  }
+
+
+  @Override
+  public void setPort( int port ) {
+
+    resolver.setPort( port );
+  }
+
+
+  @Override
+  public void setTCP( boolean flag ) {
+
+    resolver.setTCP( flag );
+  }
+
+
+  @Override
+  public void setIgnoreTruncation( boolean flag ) {
+
+    resolver.setIgnoreTruncation( flag );
+  }
+
+
+  @Override
+  public void setEDNS( int version, int payloadSize, int flags, List<EDNSOption> options ) {
+
+    resolver.setEDNS( version, payloadSize, flags, options );
+  }
+
+
+  @Override
+  public void setTSIGKey( TSIG key ) {
+
+    resolver.setTSIGKey( key );
+  }
+
+
+  @Override
+  public void setTimeout( Duration timeout ) {
+
+    resolver.setTimeout( timeout );
+  }
+
+
+  @Override
+  public Duration getTimeout() {
+
+    return resolver.getTimeout();
+  }
+
+
+  @Override
+  public CompletionStage<Message> sendAsync( Message query ) {
+
+    return sendAsync( query, ForkJoinPool.commonPool() );
+  }
+
+
+  @Override
+  public CompletionStage<Message> sendAsync( Message query, Executor executor ) {
+
+    var start = System.nanoTime();
+    return resolver.sendAsync( query, executor ).whenComplete( ( response, t ) -> {
+      var question = query.getQuestion();
+      if( question != null )
+        metrics.recordDnsQuery( question.getType(), System.nanoTime() - start, getOutcome( response, t ) );
+    } );
+  }
+
+
+  @Override
+  public String toString() {
+
+    return resolver.toString();
+  }
+
+
+  private static DiscoveryMetrics.Outcome getOutcome( Message response, Throwable t ) {
+
+    if( t != null )
+      return DiscoveryMetrics.Outcome.of( t );
+    var rcode = response.getRcode();
+    return rcode == Rcode.NOERROR || rcode == Rcode.NXDOMAIN ? DiscoveryMetrics.Outcome.SUCCESS :
+        DiscoveryMetrics.Outcome.ERROR;
+  }
+}
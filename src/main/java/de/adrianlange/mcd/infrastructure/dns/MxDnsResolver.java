@@ -0,0 +1,30 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import org.xbill.DNS.MXRecord;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+
+public interface MxDnsResolver {
+
+  /**
+   * Looks up the MX records of the given domain without blocking a thread while waiting for the answer.
+   *
+   * @param domain Domain to look up
+   * @return Completion stage of the found records, which are empty if none were found or the lookup failed
+   */
+  CompletionStage<Collection<MXRecord>> getMxRecordsAsync( String domain );
+
+
+  /**
+   * Looks up the MX records of the given domain and waits for the answer.
+   *
+   * @param domain Domain to look up
+   * @return Found records, empty if none were found or the lookup failed
+   */
+  default Collection<MXRecord> getMxRecords( String domain ) {
+
+    return getMxRecordsAsync( domain ).toCompletableFuture().join();
+  }
+}
@@ -0,0 +1,33 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import de.adrianlange.mcd.DnsLookupContext;
+import org.xbill.DNS.MXRecord;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.Type;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+
+public class MxDnsResolverImpl extends AbstractDnsResolverImpl implements MxDnsResolver {
+
+  public MxDnsResolverImpl( DnsLookupContext dnsLookupContext ) {
+
+    super( dnsLookupContext );
+  }
+
+
+  public MxDnsResolverImpl( DnsLookupContext dnsLookupContext, Resolver resolver ) {
+
+    super( dnsLookupContext, resolver );
+  }
+
+
+  @Override
+  public CompletionStage<Collection<MXRecord>> getMxRecordsAsync( String domain ) {
+
+    return getRecordsAsync( domain, Type.MX ).thenApply(
+        r -> r.stream().map( MXRecord.class::cast ).collect( Collectors.toList() ) );
+  }
+}
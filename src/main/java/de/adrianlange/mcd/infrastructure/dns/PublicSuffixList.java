@@ -0,0 +1,158 @@
+package de.adrianlange.mcd.infrastructure.dns;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Rules of the <a href="https://publicsuffix.org/">Public Suffix List</a>, which tell the registrable domain of a host
+ * name, e.g. <i>example.co.uk</i> for <i>mx.mail.example.co.uk</i>. Normal, wildcard and exception rules are supported,
+ * the implicit rule <code>*</code> applies to unlisted top level domains.<p>The default list bundled with the library
+ * contains common second level suffixes of country code top level domains only, like <i>co.uk</i> or <i>com.au</i>.
+ * The complete list can be read with {@link #open(Path)}.
+ *
+ * @author Adrian Lange
+ */
+public final class PublicSuffixList {
+
+  private static final String DEFAULT_RESOURCE = "public_suffix_list.dat";
+
+  private static volatile PublicSuffixList defaultList;
+
+  private final Set<String> rules = new HashSet<>();
+
+  private final Set<String> wildcardRules = new HashSet<>();
+
+  private final Set<String> exceptionRules = new HashSet<>();
+
+
+  private PublicSuffixList() {
+
+  }
+
+
+  /**
+   * Returns the list bundled with the library.
+   *
+   * @return Default public suffix list
+   */
+  public static PublicSuffixList getDefault() {
+
+    var result = defaultList;
+    if( result == null ) {
+      try( var inputStream = PublicSuffixList.class.getResourceAsStream( DEFAULT_RESOURCE ) ) {
+        if( inputStream == null )
+          throw new IllegalStateException( "Resource " + DEFAULT_RESOURCE + " is missing!" );
+        result = read( inputStream );
+      } catch( IOException e ) {
+        throw new UncheckedIOException( e );
+      }
+      defaultList = result;
+    }
+    return result;
+  }
+
+
+  /**
+   * Reads a list in the format of the Public Suffix List from the given file.
+   *
+   * @param file File, e.g. a download of <code>public_suffix_list.dat</code>
+   * @return Public suffix list
+   * @throws IOException if the file cannot be read
+   */
+  public static PublicSuffixList open( Path file ) throws IOException {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    try( var inputStream = Files.newInputStream( file ) ) {
+      return read( inputStream );
+    }
+  }
+
+
+  /**
+   * Reads a list in the format of the Public Suffix List from the given input stream.
+   *
+   * @param inputStream Input stream of the list, which is not closed
+   * @return Public suffix list
+   * @throws IOException if the input stream cannot be read
+   */
+  public static PublicSuffixList read( InputStream inputStream ) throws IOException {
+
+    if( inputStream == null )
+      throw new IllegalArgumentException( "Input stream must not be null!" );
+
+    var result = new PublicSuffixList();
+    var reader = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) );
+    String line;
+    while( ( line = reader.readLine() ) != null ) {
+      line = line.strip();
+      if( line.isEmpty() || line.startsWith( "//" ) )
+        continue;
+      var rule = line.split( "\\s", 2 )[0];
+      try {
+        if( rule.startsWith( "!" ) )
+          result.exceptionRules.add( normalize( rule.substring( 1 ) ) );
+        else if( rule.startsWith( "*." ) )
+          result.wildcardRules.add( normalize( rule.substring( 2 ) ) );
+        else
+          result.rules.add( normalize( rule ) );
+      } catch( IllegalArgumentException e ) {
+        throw new IOException( "Invalid rule " + rule + "!", e );
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * Returns the registrable domain of the given host name, which is its public suffix and the label in front of it.
+   *
+   * @param hostName Host name, either IDN or unicode
+   * @return Registrable domain as lower case IDN or <code>null</code> if the host name is a public suffix itself
+   */
+  public String getRegistrableDomain( String hostName ) {
+
+    if( hostName == null )
+      throw new IllegalArgumentException( "Host name must not be null!" );
+
+    var name = normalize( hostName );
+    if( name.isEmpty() )
+      return null;
+
+    var labels = name.split( "\\." );
+    for( int i = 0; i < labels.length; i++ ) {
+      var suffix = join( labels, i );
+      if( exceptionRules.contains( suffix ) )
+        return suffix;
+      if( rules.contains( suffix ) || ( i + 1 < labels.length && wildcardRules.contains( join( labels, i + 1 ) ) ) )
+        return i > 0 ? join( labels, i - 1 ) : null;
+    }
+    return labels.length > 1 ? join( labels, labels.length - 2 ) : null;
+  }
+
+
+  private static String join( String[] labels, int from ) {
+
+    return String.join( ".", Arrays.asList( labels ).subList( from, labels.length ) );
+  }
+
+
+  private static String normalize( String name ) {
+
+    var result = IDN.toASCII( name, IDN.ALLOW_UNASSIGNED ).toLowerCase( Locale.ROOT );
+    return result.endsWith( "." ) ? result.substring( 0, result.length() - 1 ) : result;
+  }
+}
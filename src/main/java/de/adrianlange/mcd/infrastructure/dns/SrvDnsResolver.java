@@ -3,9 +3,30 @@ package de.adrianlange.mcd.infrastructure.dns;
 import org.xbill.DNS.SRVRecord;
 
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 
 
 public interface SrvDnsResolver {
 
-  Collection<SRVRecord> getSrvRecords( String domain, String protocolPrefix );
+  /**
+   * Looks up the SRV records of the given domain without blocking a thread while waiting for the answer.
+   *
+   * @param domain         Domain to look up
+   * @param protocolPrefix Service and protocol prefix, e.g. <code>_imaps</code>
+   * @return Completion stage of the found records, which are empty if none were found or the lookup failed
+   */
+  CompletionStage<Collection<SRVRecord>> getSrvRecordsAsync( String domain, String protocolPrefix );
+
+
+  /**
+   * Looks up the SRV records of the given domain and waits for the answer.
+   *
+   * @param domain         Domain to look up
+   * @param protocolPrefix Service and protocol prefix, e.g. <code>_imaps</code>
+   * @return Found records, empty if none were found or the lookup failed
+   */
+  default Collection<SRVRecord> getSrvRecords( String domain, String protocolPrefix ) {
+
+    return getSrvRecordsAsync( domain, protocolPrefix ).toCompletableFuture().join();
+  }
 }
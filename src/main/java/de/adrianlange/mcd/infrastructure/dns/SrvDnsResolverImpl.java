@@ -2,9 +2,11 @@ package de.adrianlange.mcd.infrastructure.dns;
 
 import de.adrianlange.mcd.DnsLookupContext;
 import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Resolver;
 import org.xbill.DNS.Type;
 
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 
@@ -16,9 +18,17 @@ public class SrvDnsResolverImpl extends AbstractDnsResolverImpl implements SrvDn
   }
 
 
-  public Collection<SRVRecord> getSrvRecords( String domain, String protocolPrefix ) {
+  public SrvDnsResolverImpl( DnsLookupContext dnsLookupContext, Resolver resolver ) {
+
+    super( dnsLookupContext, resolver );
+  }
+
+
+  @Override
+  public CompletionStage<Collection<SRVRecord>> getSrvRecordsAsync( String domain, String protocolPrefix ) {
 
     var lookupDomain = protocolPrefix + "._tcp." + domain;
-    return getRecords( lookupDomain, Type.SRV ).stream().map( SRVRecord.class::cast ).collect( Collectors.toList() );
+    return getRecordsAsync( lookupDomain, Type.SRV ).thenApply(
+        r -> r.stream().map( SRVRecord.class::cast ).collect( Collectors.toList() ) );
   }
 }
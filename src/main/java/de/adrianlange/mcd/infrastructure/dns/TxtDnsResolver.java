@@ -3,9 +3,28 @@ package de.adrianlange.mcd.infrastructure.dns;
 import org.xbill.DNS.TXTRecord;
 
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 
 
 public interface TxtDnsResolver {
 
-  Collection<TXTRecord> getTxtRecords( String domain );
+  /**
+   * Looks up the TXT records of the given domain without blocking a thread while waiting for the answer.
+   *
+   * @param domain Domain to look up
+   * @return Completion stage of the found records, which are empty if none were found or the lookup failed
+   */
+  CompletionStage<Collection<TXTRecord>> getTxtRecordsAsync( String domain );
+
+
+  /**
+   * Looks up the TXT records of the given domain and waits for the answer.
+   *
+   * @param domain Domain to look up
+   * @return Found records, empty if none were found or the lookup failed
+   */
+  default Collection<TXTRecord> getTxtRecords( String domain ) {
+
+    return getTxtRecordsAsync( domain ).toCompletableFuture().join();
+  }
 }
@@ -1,10 +1,12 @@
 package de.adrianlange.mcd.infrastructure.dns;
 
 import de.adrianlange.mcd.DnsLookupContext;
+import org.xbill.DNS.Resolver;
 import org.xbill.DNS.TXTRecord;
 import org.xbill.DNS.Type;
 
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 
@@ -16,9 +18,16 @@ public class TxtDnsResolverImpl extends AbstractDnsResolverImpl implements TxtDn
   }
 
 
+  public TxtDnsResolverImpl( DnsLookupContext dnsLookupContext, Resolver resolver ) {
+
+    super( dnsLookupContext, resolver );
+  }
+
+
   @Override
-  public Collection<TXTRecord> getTxtRecords( String domain ) {
+  public CompletionStage<Collection<TXTRecord>> getTxtRecordsAsync( String domain ) {
 
-    return getRecords( domain, Type.SRV ).stream().map( TXTRecord.class::cast ).collect( Collectors.toList() );
+    return getRecordsAsync( domain, Type.TXT ).thenApply(
+        r -> r.stream().map( TXTRecord.class::cast ).collect( Collectors.toList() ) );
   }
 }
@@ -0,0 +1,44 @@
+package de.adrianlange.mcd.infrastructure.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for a DNS query sent to a DNS server. Answers from the DNS cache are not sent and not recorded.
+ * The event is disabled by default, enable <code>de.adrianlange.mcd.DnsQuery</code> in the recording settings.
+ *
+ * @author Adrian Lange
+ */
+@Name( "de.adrianlange.mcd.DnsQuery" )
+@Label( "DNS Query" )
+@Description( "DNS query sent to a DNS server" )
+@Category( { "Mailserver Configuration Discovery" } )
+@Enabled( false )
+@StackTrace( false )
+public final class DnsQueryEvent extends jdk.jfr.Event {
+
+  @Label( "Name" )
+  public String name;
+
+  @Label( "Type" )
+  public String type;
+
+  @Label( "Server" )
+  public String server;
+
+  @Label( "TCP" )
+  @Description( "Query sent over TCP only, truncated answers over UDP are retried over TCP within the same query" )
+  public boolean tcp;
+
+  @Label( "Response Code" )
+  @Description( "Response code of the answer, null if no answer was received" )
+  public String rcode;
+
+  @Label( "Outcome" )
+  public String outcome;
+}
@@ -0,0 +1,40 @@
+package de.adrianlange.mcd.infrastructure.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for an HTTP fetch of a configuration document, lasting until the document has been parsed or
+ * the fetch failed. The event is disabled by default, enable <code>de.adrianlange.mcd.HttpFetch</code> in the recording
+ * settings.
+ *
+ * @author Adrian Lange
+ */
+@Name( "de.adrianlange.mcd.HttpFetch" )
+@Label( "HTTP Fetch" )
+@Description( "HTTP fetch of a configuration document" )
+@Category( { "Mailserver Configuration Discovery" } )
+@Enabled( false )
+@StackTrace( false )
+public final class HttpFetchEvent extends jdk.jfr.Event {
+
+  @Label( "URL" )
+  public String url;
+
+  @Label( "Status Code" )
+  @Description( "HTTP status code, -1 if no response was received" )
+  public int statusCode = -1;
+
+  @Label( "Bytes" )
+  @DataAmount
+  public long bytes;
+
+  @Label( "Outcome" )
+  public String outcome;
+}
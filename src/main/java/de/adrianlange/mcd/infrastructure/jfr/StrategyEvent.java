@@ -0,0 +1,38 @@
+package de.adrianlange.mcd.infrastructure.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for the lookups of a strategy for a domain or email address, lasting until all of them are
+ * finished. The event is disabled by default, enable <code>de.adrianlange.mcd.Strategy</code> in the recording
+ * settings.
+ *
+ * @author Adrian Lange
+ */
+@Name( "de.adrianlange.mcd.Strategy" )
+@Label( "Discovery Strategy" )
+@Description( "Lookups of a discovery strategy for a domain or email address" )
+@Category( { "Mailserver Configuration Discovery" } )
+@Enabled( false )
+@StackTrace( false )
+public final class StrategyEvent extends jdk.jfr.Event {
+
+  @Label( "Configuration Method" )
+  public String configurationMethod;
+
+  @Label( "Subject" )
+  @Description( "Domain or email address looked up" )
+  public String subject;
+
+  @Label( "Lookups" )
+  public int lookups;
+
+  @Label( "Outcome" )
+  public String outcome;
+}
@@ -0,0 +1,353 @@
+package de.adrianlange.mcd.infrastructure.metrics;
+
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import org.xbill.DNS.Type;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Dependency-free metrics based on {@link LongAdder} counters and {@link LatencyHistogram}s, which are cheap enough to
+ * be left enabled in production. The metrics can be read at any time, e.g. to export them to a monitoring system.
+ *
+ * @author Adrian Lange
+ */
+public class DefaultDiscoveryMetrics implements DiscoveryMetrics {
+
+  private final LatencyHistogram discoveryLatency = new LatencyHistogram();
+
+  private final LongAdder incompleteDiscoveryCount = new LongAdder();
+
+  private final Map<ConfigurationMethod, OutcomeMetrics> strategyMetrics = new EnumMap<>( ConfigurationMethod.class );
+
+  private final Map<Integer, OutcomeMetrics> dnsQueryMetrics = new ConcurrentHashMap<>();
+
+  private final OutcomeMetrics httpFetchMetrics = new OutcomeMetrics();
+
+  private final Map<Integer, LongAdder> httpStatusCounts = new ConcurrentHashMap<>();
+
+  private final LongAdder httpBytes = new LongAdder();
+
+  private final Map<Cache, LongAdder> cacheHitCounts = new EnumMap<>( Cache.class );
+
+  private final Map<Cache, LongAdder> cacheMissCounts = new EnumMap<>( Cache.class );
+
+  private final LongAdder queuedTaskCount = new LongAdder();
+
+  private final LongAdder startedTaskCount = new LongAdder();
+
+  private final LatencyHistogram taskQueueLatency = new LatencyHistogram();
+
+
+  public DefaultDiscoveryMetrics() {
+
+    for( var configurationMethod : ConfigurationMethod.values() )
+      strategyMetrics.put( configurationMethod, new OutcomeMetrics() );
+    for( var cache : Cache.values() ) {
+      cacheHitCounts.put( cache, new LongAdder() );
+      cacheMissCounts.put( cache, new LongAdder() );
+    }
+  }
+
+
+  @Override
+  public void recordDiscovery( long durationNanos, boolean complete ) {
+
+    discoveryLatency.record( durationNanos );
+    if( !complete )
+      incompleteDiscoveryCount.increment();
+  }
+
+
+  @Override
+  public void recordStrategy( ConfigurationMethod configurationMethod, long durationNanos, Outcome outcome ) {
+
+    strategyMetrics.get( configurationMethod ).record( durationNanos, outcome );
+  }
+
+
+  @Override
+  public void recordDnsQuery( int type, long durationNanos, Outcome outcome ) {
+
+    dnsQueryMetrics.computeIfAbsent( type, t -> new OutcomeMetrics() ).record( durationNanos, outcome );
+  }
+
+
+  @Override
+  public void recordHttpFetch( int statusCode, long bytes, long durationNanos, Outcome outcome ) {
+
+    httpFetchMetrics.record( durationNanos, outcome );
+    httpBytes.add( bytes );
+    if( statusCode >= 0 )
+      httpStatusCounts.computeIfAbsent( statusCode, s -> new LongAdder() ).increment();
+  }
+
+
+  @Override
+  public void recordCacheLookup( Cache cache, boolean hit ) {
+
+    ( hit ? cacheHitCounts : cacheMissCounts ).get( cache ).increment();
+  }
+
+
+  @Override
+  public void recordTaskQueued() {
+
+    queuedTaskCount.increment();
+  }
+
+
+  @Override
+  public void recordTaskStarted( long queuedNanos ) {
+
+    startedTaskCount.increment();
+    taskQueueLatency.record( queuedNanos );
+  }
+
+
+  /**
+   * Returns the durations of all discoveries.
+   *
+   * @return Histogram of durations
+   */
+  public LatencyHistogram getDiscoveryLatency() {
+
+    return discoveryLatency;
+  }
+
+
+  /**
+   * Returns the number of discoveries, which timed out or were ended early by a completion predicate.
+   *
+   * @return Number of incomplete discoveries
+   */
+  public long getIncompleteDiscoveryCount() {
+
+    return incompleteDiscoveryCount.sum();
+  }
+
+
+  /**
+   * Returns the durations of the lookups of a strategy.
+   *
+   * @param configurationMethod Configuration method of the strategy
+   * @return Histogram of durations
+   */
+  public LatencyHistogram getStrategyLatency( ConfigurationMethod configurationMethod ) {
+
+    return strategyMetrics.get( configurationMethod ).latency;
+  }
+
+
+  /**
+   * Returns the number of lookups of a strategy with the given outcome.
+   *
+   * @param configurationMethod Configuration method of the strategy
+   * @param outcome             Outcome
+   * @return Number of lookups
+   */
+  public long getStrategyCount( ConfigurationMethod configurationMethod, Outcome outcome ) {
+
+    return strategyMetrics.get( configurationMethod ).getCount( outcome );
+  }
+
+
+  /**
+   * Returns the durations of DNS queries of a record type.
+   *
+   * @param type Record type, see {@link Type}
+   * @return Histogram of durations, empty if no query of the type has been sent
+   */
+  public LatencyHistogram getDnsQueryLatency( int type ) {
+
+    var metrics = dnsQueryMetrics.get( type );
+    return metrics == null ? new LatencyHistogram() : metrics.latency;
+  }
+
+
+  /**
+   * Returns the number of DNS queries of a record type with the given outcome.
+   *
+   * @param type    Record type, see {@link Type}
+   * @param outcome Outcome
+   * @return Number of queries
+   */
+  public long getDnsQueryCount( int type, Outcome outcome ) {
+
+    var metrics = dnsQueryMetrics.get( type );
+    return metrics == null ? 0 : metrics.getCount( outcome );
+  }
+
+
+  /**
+   * Returns the durations of HTTP fetches.
+   *
+   * @return Histogram of durations
+   */
+  public LatencyHistogram getHttpFetchLatency() {
+
+    return httpFetchMetrics.latency;
+  }
+
+
+  /**
+   * Returns the number of HTTP fetches with the given outcome.
+   *
+   * @param outcome Outcome
+   * @return Number of fetches
+   */
+  public long getHttpFetchCount( Outcome outcome ) {
+
+    return httpFetchMetrics.getCount( outcome );
+  }
+
+
+  /**
+   * Returns the number of HTTP responses with the given status code.
+   *
+   * @param statusCode HTTP status code
+   * @return Number of responses
+   */
+  public long getHttpStatusCount( int statusCode ) {
+
+    var count = httpStatusCounts.get( statusCode );
+    return count == null ? 0 : count.sum();
+  }
+
+
+  /**
+   * Returns the number of bytes of all HTTP response bodies read.
+   *
+   * @return Number of bytes
+   */
+  public long getHttpBytes() {
+
+    return httpBytes.sum();
+  }
+
+
+  public long getCacheHitCount( Cache cache ) {
+
+    return cacheHitCounts.get( cache ).sum();
+  }
+
+
+  public long getCacheMissCount( Cache cache ) {
+
+    return cacheMissCounts.get( cache ).sum();
+  }
+
+
+  /**
+   * Returns the number of tasks currently waiting in the queue of the executor.
+   *
+   * @return Number of waiting tasks
+   */
+  public long getExecutorQueueDepth() {
+
+    // read started first, s.th. a task started in between does not lead to a negative depth
+    var started = startedTaskCount.sum();
+    return Math.max( 0, queuedTaskCount.sum() - started );
+  }
+
+
+  /**
+   * Returns the durations tasks have been waiting in the queue of the executor.
+   *
+   * @return Histogram of durations
+   */
+  public LatencyHistogram getExecutorQueueLatency() {
+
+    return taskQueueLatency;
+  }
+
+
+  /**
+   * Returns the number of timed out DNS queries, HTTP fetches and strategies.
+   *
+   * @return Number of timeouts
+   */
+  public long getTimeoutCount() {
+
+    return getCount( Outcome.TIMEOUT );
+  }
+
+
+  /**
+   * Returns the number of failed DNS queries, HTTP fetches and strategies.
+   *
+   * @return Number of errors
+   */
+  public long getErrorCount() {
+
+    return getCount( Outcome.ERROR );
+  }
+
+
+  private long getCount( Outcome outcome ) {
+
+    long count = httpFetchMetrics.getCount( outcome );
+    for( var metrics : dnsQueryMetrics.values() )
+      count += metrics.getCount( outcome );
+    for( var metrics : strategyMetrics.values() )
+      count += metrics.getCount( outcome );
+    return count;
+  }
+
+
+  @Override
+  public String toString() {
+
+    var sb = new StringBuilder( "DefaultDiscoveryMetrics{discoveries=" ).append( discoveryLatency );
+    sb.append( ", incompleteDiscoveries=" ).append( getIncompleteDiscoveryCount() );
+    strategyMetrics.forEach( ( m, s ) -> sb.append( ", " ).append( m ).append( '=' ).append( s ) );
+    dnsQueryMetrics.forEach( ( t, s ) -> sb.append( ", DNS " ).append( Type.string( t ) ).append( '=' ).append( s ) );
+    sb.append( ", HTTP=" ).append( httpFetchMetrics ).append( ", HTTP bytes=" ).append( getHttpBytes() );
+    sb.append( ", executorQueueDepth=" ).append( getExecutorQueueDepth() );
+    return sb.append( '}' ).toString();
+  }
+
+
+  /**
+   * Latency and counts per outcome of one kind of lookup.
+   */
+  private static class OutcomeMetrics {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder[] counts = new LongAdder[Outcome.values().length];
+
+
+    private OutcomeMetrics() {
+
+      for( int i = 0; i < counts.length; i++ )
+        counts[i] = new LongAdder();
+    }
+
+
+    private void record( long durationNanos, Outcome outcome ) {
+
+      latency.record( durationNanos );
+      counts[outcome.ordinal()].increment();
+    }
+
+
+    private long getCount( Outcome outcome ) {
+
+      return counts[outcome.ordinal()].sum();
+    }
+
+
+    @Override
+    public String toString() {
+
+      var sb = new StringBuilder( "{" ).append( latency );
+      for( var outcome : Outcome.values() )
+        sb.append( ", " ).append( outcome ).append( '=' ).append( getCount( outcome ) );
+      return sb.append( '}' ).toString();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package de.adrianlange.mcd.infrastructure.metrics;
+
+import de.adrianlange.mcd.model.ConfigurationMethod;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Service provider interface for metrics of discoveries, their strategies, DNS queries, HTTP fetches, caches and the
+ * executor. All methods do nothing by default, s.th. implementations only override what they are interested in. They
+ * are called concurrently from the threads performing the lookups and must neither block nor throw.<p>Unless a context
+ * is configured with metrics, {@link #NONE} is used and lookups skip measuring altogether. See
+ * {@link DefaultDiscoveryMetrics} for a dependency-free implementation.
+ *
+ * @author Adrian Lange
+ */
+public interface DiscoveryMetrics {
+
+  /**
+   * Metrics ignoring everything.
+   */
+  DiscoveryMetrics NONE = new DiscoveryMetrics() {
+  };
+
+
+  /**
+   * Records a finished discovery of a domain or email address.
+   *
+   * @param durationNanos Duration of the discovery
+   * @param complete      False if the discovery timed out or was ended early by a completion predicate
+   */
+  default void recordDiscovery( long durationNanos, boolean complete ) {
+
+  }
+
+
+  /**
+   * Records the lookups of a strategy for a domain or email address, which are finished once all of them are.
+   *
+   * @param configurationMethod Configuration method of the strategy
+   * @param durationNanos       Duration until all lookups were finished
+   * @param outcome             Outcome of the lookups
+   */
+  default void recordStrategy( ConfigurationMethod configurationMethod, long durationNanos, Outcome outcome ) {
+
+  }
+
+
+  /**
+   * Records a DNS lookup sent to a DNS server, which is not answered from the cache. Negative answers are successful
+   * lookups.
+   *
+   * @param type          Record type, see {@link org.xbill.DNS.Type}
+   * @param durationNanos Duration until the answer was received or the lookup failed
+   * @param outcome       Outcome of the lookup
+   */
+  default void recordDnsQuery( int type, long durationNanos, Outcome outcome ) {
+
+  }
+
+
+  /**
+   * Records an HTTP fetch of a configuration document.
+   *
+   * @param statusCode    HTTP status code, -1 if no response was received
+   * @param bytes         Number of bytes of the response body read
+   * @param durationNanos Duration until the document was parsed or the fetch failed
+   * @param outcome       Outcome of the fetch, responses with any status code are successful fetches
+   */
+  default void recordHttpFetch( int statusCode, long bytes, long durationNanos, Outcome outcome ) {
+
+  }
+
+
+  /**
+   * Records a lookup in a cache.
+   *
+   * @param cache Cache looked up in
+   * @param hit   True if the cache contained an entry
+   */
+  default void recordCacheLookup( Cache cache, boolean hit ) {
+
+  }
+
+
+  /**
+   * Records a task submitted to the executor of the context.
+   */
+  default void recordTaskQueued() {
+
+  }
+
+
+  /**
+   * Records a task of the executor of the context being started, or being rejected, after it has been queued.
+   *
+   * @param queuedNanos Duration the task has been waiting in the queue
+   */
+  default void recordTaskStarted( long queuedNanos ) {
+
+  }
+
+
+  /**
+   * Outcome of a lookup.
+   */
+  enum Outcome {
+    SUCCESS, TIMEOUT, ERROR, CANCELLED;
+
+
+    /**
+     * Returns the outcome of a lookup completed with the given exception.
+     *
+     * @param t Exception, <code>null</code> if the lookup completed normally
+     * @return Outcome
+     */
+    public static Outcome of( Throwable t ) {
+
+      if( t == null )
+        return SUCCESS;
+
+      var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+      if( cause instanceof CancellationException )
+        return CANCELLED;
+      if( cause instanceof TimeoutException || cause instanceof HttpTimeoutException ||
+          cause instanceof SocketTimeoutException )
+        return TIMEOUT;
+      // dnsjava signals timeouts by plain IOExceptions
+      if( cause instanceof IOException && cause.getMessage() != null && cause.getMessage().startsWith( "Timed out" ) )
+        return TIMEOUT;
+      return ERROR;
+    }
+  }
+
+
+  /**
+   * Caches of a context.
+   */
+  enum Cache {
+    DNS, RESULT, PROVIDER
+  }
+}
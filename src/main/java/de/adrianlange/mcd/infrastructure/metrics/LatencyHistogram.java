@@ -0,0 +1,144 @@
+package de.adrianlange.mcd.infrastructure.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets like an HDR histogram: each power of two is divided
+ * into 32 buckets, s.th. the relative error of a percentile is at most about 3%. Durations up to about 2.4 hours are
+ * distinguished, longer ones are counted as that maximum.<p>Recording is lock-free and does not allocate, reading
+ * percentiles while values are recorded yields a consistent approximation.
+ *
+ * @author Adrian Lange
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int MAX_EXPONENT = 42;
+
+  private static final long MAX_VALUE = ( 1L << ( MAX_EXPONENT + 1 ) ) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(
+      ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKET_COUNT );
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator( Long::max, 0 );
+
+
+  /**
+   * Records a duration. Negative durations are recorded as 0.
+   *
+   * @param nanos Duration in nanoseconds
+   */
+  public void record( long nanos ) {
+
+    var value = Math.min( Math.max( nanos, 0 ), MAX_VALUE );
+    counts.incrementAndGet( getIndex( value ) );
+    count.increment();
+    sum.add( value );
+    max.accumulate( value );
+  }
+
+
+  /**
+   * Returns the number of recorded durations.
+   *
+   * @return Number of durations
+   */
+  public long getCount() {
+
+    return count.sum();
+  }
+
+
+  /**
+   * Returns the mean of all recorded durations.
+   *
+   * @return Mean in nanoseconds, 0 if nothing has been recorded
+   */
+  public long getMean() {
+
+    var n = count.sum();
+    return n == 0 ? 0 : sum.sum() / n;
+  }
+
+
+  /**
+   * Returns the maximum of all recorded durations.
+   *
+   * @return Maximum in nanoseconds, 0 if nothing has been recorded
+   */
+  public long getMax() {
+
+    return max.get();
+  }
+
+
+  /**
+   * Returns the duration the given percentage of recorded durations is less than or equal to. The duration is the
+   * upper bound of the bucket containing the percentile, but not greater than the maximum.
+   *
+   * @param percentile Percentile between 0 and 100
+   * @return Duration in nanoseconds, 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile( double percentile ) {
+
+    if( percentile < 0 || percentile > 100 )
+      throw new IllegalArgumentException( "Percentile must be between 0 and 100!" );
+
+    long total = 0;
+    var snapshot = new long[counts.length()];
+    for( int i = 0; i < snapshot.length; i++ ) {
+      snapshot[i] = counts.get( i );
+      total += snapshot[i];
+    }
+    if( total == 0 )
+      return 0;
+
+    var rank = Math.max( 1, ( long ) Math.ceil( percentile / 100 * total ) );
+    long cumulated = 0;
+    for( int i = 0; i < snapshot.length; i++ ) {
+      cumulated += snapshot[i];
+      if( cumulated >= rank )
+        return Math.min( getUpperBound( i ), getMax() );
+    }
+    return getMax();
+  }
+
+
+  @Override
+  public String toString() {
+
+    return "LatencyHistogram{count=" + getCount() + ", mean=" + getMean() + ", p50=" + getValueAtPercentile( 50 ) +
+        ", p99=" + getValueAtPercentile( 99 ) + ", max=" + getMax() + "}";
+  }
+
+
+  static int getIndex( long value ) {
+
+    if( value < SUB_BUCKET_COUNT )
+      return ( int ) value;
+    var exponent = 63 - Long.numberOfLeadingZeros( value );
+    var subBucket = ( int ) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKET_COUNT - 1 );
+    return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+
+  static long getUpperBound( int index ) {
+
+    if( index < SUB_BUCKET_COUNT )
+      return index;
+    var exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    var subBucket = index % SUB_BUCKET_COUNT;
+    var shift = exponent - SUB_BUCKET_BITS;
+    return ( ( ( long ) SUB_BUCKET_COUNT + subBucket ) << shift ) + ( 1L << shift ) - 1;
+  }
+}
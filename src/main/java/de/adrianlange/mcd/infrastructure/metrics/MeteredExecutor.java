@@ -0,0 +1,50 @@
+package de.adrianlange.mcd.infrastructure.metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Executor recording the tasks waiting to be run by the wrapped executor and how long they have been waiting.
+ *
+ * @author Adrian Lange
+ */
+public final class MeteredExecutor implements Executor {
+
+  private final Executor executor;
+
+  private final DiscoveryMetrics metrics;
+
+
+  /**
+   * Creates a new executor.
+   *
+   * @param executor Executor to run the tasks
+   * @param metrics  Metrics to record the tasks in
+   */
+  public MeteredExecutor( Executor executor, DiscoveryMetrics metrics ) {
+
+    if( executor == null || metrics == null )
+      throw new IllegalArgumentException( "Executor and metrics must not be null!" );
+
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
+
+  @Override
+  public void execute( Runnable command ) {
+
+    var queued = System.nanoTime();
+    metrics.recordTaskQueued();
+    try {
+      executor.execute( () -> {
+        metrics.recordTaskStarted( System.nanoTime() - queued );
+        command.run();
+      } );
+    } catch( RejectedExecutionException e ) {
+      metrics.recordTaskStarted( System.nanoTime() - queued );
+      throw e;
+    }
+  }
+}
@@ -3,15 +3,55 @@ package de.adrianlange.mcd.infrastructure.xml;
 import org.w3c.dom.Document;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 public interface XmlDocumentUrlReader {
 
+  /**
+   * Returns a future of an optional of a DOM {@link Document} object for the given URL. No thread is blocked while
+   * waiting for the response.
+   *
+   * @param url URL to read XML file from
+   * @return Future of an optional of Document or empty optional, if URL cannot be read
+   */
+  CompletableFuture<Optional<Document>> getDocumentAsync( String url );
+
+
+  /**
+   * Returns a future of an optional of the object parsed from the XML document at the given URL. The document is parsed
+   * in a single pass while it is received, without building a DOM. No thread is blocked while waiting for the response.
+   *
+   * @param url    URL to read XML file from
+   * @param parser Parser creating the object from the document
+   * @param <T>    Type of the parsed object
+   * @return Future of an optional of the parsed object or empty optional, if URL cannot be read or parsed
+   */
+  <T> CompletableFuture<Optional<T>> parseDocumentAsync( String url, XmlStreamParser<T> parser );
+
+
+  /**
+   * Returns a future of an optional of the object parsed from the XML document the given URL responds with to a POST
+   * request with the given XML request body. The document is parsed like in
+   * {@link #parseDocumentAsync(String, XmlStreamParser)}.
+   *
+   * @param url         URL to post the request body to
+   * @param requestBody XML request body
+   * @param parser      Parser creating the object from the response document
+   * @param <T>         Type of the parsed object
+   * @return Future of an optional of the parsed object or empty optional, if URL cannot be read or parsed
+   */
+  <T> CompletableFuture<Optional<T>> postDocumentAsync( String url, String requestBody, XmlStreamParser<T> parser );
+
+
   /**
    * Returns an optional of a DOM {@link Document} object for the given URL.
    *
    * @param url URL to read XML file from
    * @return Optional of Document or empty optional, if URL cannot be read
    */
-  Optional<Document> getDocument( String url );
+  default Optional<Document> getDocument( String url ) {
+
+    return getDocumentAsync( url ).join();
+  }
 }
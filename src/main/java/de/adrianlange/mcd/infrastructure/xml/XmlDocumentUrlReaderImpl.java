@@ -1,43 +1,363 @@
 package de.adrianlange.mcd.infrastructure.xml;
 
+import de.adrianlange.mcd.HttpLookupContext;
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures;
+import de.adrianlange.mcd.infrastructure.concurrent.DefaultExecutor;
+import de.adrianlange.mcd.infrastructure.concurrent.HostRequestLimiter;
+import de.adrianlange.mcd.infrastructure.jfr.HttpFetchEvent;
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.net.URL;
-import java.net.UnknownHostException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 
+/**
+ * Reads XML documents via a shared {@link HttpClient}, s.th. connections are kept alive and reused per host and HTTP/2
+ * is used if the server supports it. Requests are sent asynchronously, the response body is parsed on the given
+ * executor while it is received, either with a single-pass {@link XmlStreamParser} or into a DOM.
+ */
 public class XmlDocumentUrlReaderImpl implements XmlDocumentUrlReader {
 
   private static final Logger LOG = LoggerFactory.getLogger( XmlDocumentUrlReaderImpl.class );
 
+  private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds( 10 );
+
+  private final HttpClient httpClient;
+
+  private final Duration requestTimeout;
+
+  private final Executor executor;
+
+  private final DiscoveryMetrics metrics;
+
+  private final HostRequestLimiter hostRequestLimiter;
+
 
   public XmlDocumentUrlReaderImpl() {
+
+    this( createHttpClient( null ), DEFAULT_TIMEOUT, DefaultExecutor.get() );
+  }
+
+
+  /**
+   * Creates a new reader configured according to the given HTTP lookup context, which uses the HTTP client of the
+   * context.
+   *
+   * @param httpLookupContext HTTP lookup context
+   * @param executor          Executor to parse the received documents on
+   */
+  public XmlDocumentUrlReaderImpl( HttpLookupContext httpLookupContext, Executor executor ) {
+
+    this( httpLookupContext.getHttpClient(), httpLookupContext.getRequestTimeout(), executor,
+        httpLookupContext.getMetrics() == null ? DiscoveryMetrics.NONE : httpLookupContext.getMetrics(),
+        httpLookupContext.getHostRequestLimiter() );
+  }
+
+
+  /**
+   * Creates a new reader using the given HTTP client.
+   *
+   * @param httpClient     HTTP client to send requests with
+   * @param requestTimeout Timeout for requests
+   * @param executor       Executor to parse the received documents on
+   */
+  public XmlDocumentUrlReaderImpl( HttpClient httpClient, Duration requestTimeout, Executor executor ) {
+
+    this( httpClient, requestTimeout, executor, DiscoveryMetrics.NONE );
+  }
+
+
+  /**
+   * Creates a new reader using the given HTTP client, which records its fetches in the given metrics.
+   *
+   * @param httpClient     HTTP client to send requests with
+   * @param requestTimeout Timeout for requests
+   * @param executor       Executor to parse the received documents on
+   * @param metrics        Metrics to record fetches in
+   */
+  public XmlDocumentUrlReaderImpl( HttpClient httpClient, Duration requestTimeout, Executor executor,
+                                   DiscoveryMetrics metrics ) {
+
+    this( httpClient, requestTimeout, executor, metrics, null );
+  }
+
+
+  /**
+   * Creates a new reader using the given HTTP client, which records its fetches in the given metrics and limits the
+   * requests sent to each host by the given limiter.
+   *
+   * @param httpClient         HTTP client to send requests with
+   * @param requestTimeout     Timeout for requests
+   * @param executor           Executor to parse the received documents on
+   * @param metrics            Metrics to record fetches in
+   * @param hostRequestLimiter Limiter for the requests sent to each host, may be null to not limit requests
+   */
+  public XmlDocumentUrlReaderImpl( HttpClient httpClient, Duration requestTimeout, Executor executor,
+                                   DiscoveryMetrics metrics, HostRequestLimiter hostRequestLimiter ) {
+
+    if( httpClient == null || requestTimeout == null || executor == null || metrics == null )
+      throw new IllegalArgumentException( "HTTP client, request timeout, executor and metrics must not be null!" );
+
+    this.httpClient = httpClient;
+    this.requestTimeout = requestTimeout;
+    this.executor = executor;
+    this.metrics = metrics;
+    this.hostRequestLimiter = hostRequestLimiter;
+  }
+
+
+  /**
+   * Creates an HTTP client configured according to the given HTTP lookup context.
+   *
+   * @param httpLookupContext HTTP lookup context, may be null to use the defaults
+   * @return HTTP client
+   */
+  public static HttpClient createHttpClient( HttpLookupContext httpLookupContext ) {
+
+    // @formatter:off
+    var builder = HttpClient.newBuilder()
+        .version( HttpClient.Version.HTTP_2 )
+        .followRedirects( HttpClient.Redirect.NORMAL )
+        .connectTimeout( httpLookupContext == null ? DEFAULT_TIMEOUT : httpLookupContext.getConnectTimeout() );
+    // @formatter:on
+    if( httpLookupContext != null && httpLookupContext.getProxySelector() != null )
+      builder.proxy( httpLookupContext.getProxySelector() );
+    return builder.build();
   }
 
 
   @Override
-  public Optional<Document> getDocument( String url ) {
+  public <T> CompletableFuture<Optional<T>> parseDocumentAsync( String url, XmlStreamParser<T> parser ) {
+
+    return fetchAsync( url, null, toBodyParser( parser ) );
+  }
+
+
+  @Override
+  public <T> CompletableFuture<Optional<T>> postDocumentAsync( String url, String requestBody,
+                                                               XmlStreamParser<T> parser ) {
+
+    if( requestBody == null )
+      throw new IllegalArgumentException( "Request body must not be null!" );
+
+    return fetchAsync( url, requestBody, toBodyParser( parser ) );
+  }
+
+
+  @Override
+  public CompletableFuture<Optional<Document>> getDocumentAsync( String url ) {
+
+    return fetchAsync( url, null, XmlParsers::parseDocument );
+  }
+
+
+  private static <T> BodyParser<T> toBodyParser( XmlStreamParser<T> parser ) {
+
+    return inputStream -> {
+      var reader = XmlParsers.createXmlStreamReader( inputStream );
+      try {
+        return parser.parse( reader );
+      } finally {
+        reader.close();
+      }
+    };
+  }
+
+
+  /**
+   * Fetches the document at the given URL, with a GET request if there is no request body and a POST request
+   * otherwise.
+   */
+  private <T> CompletableFuture<Optional<T>> fetchAsync( String url, String requestBody, BodyParser<T> bodyParser ) {
 
     if( !url.startsWith( "http" ) )
-      return Optional.empty();
+      return CompletableFuture.completedFuture( Optional.empty() );
 
+    HttpRequest request;
     try {
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      dbf.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
-      dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      return Optional.ofNullable( db.parse( new URL( url ).openStream() ) );
-    } catch( UnknownHostException uhe ) {
-      LOG.debug( "Host not found!", uhe );
+      var builder = HttpRequest.newBuilder( URI.create( url ) ).timeout( requestTimeout );
+      if( requestBody == null )
+        builder.GET();
+      else
+        builder.header( "Content-Type", "text/xml; charset=utf-8" ).POST(
+            HttpRequest.BodyPublishers.ofString( requestBody, StandardCharsets.UTF_8 ) );
+      request = builder.build();
+    } catch( IllegalArgumentException iae ) {
+      LOG.debug( "Invalid URL {}, document will be ignored!", url, iae );
+      return CompletableFuture.completedFuture( Optional.empty() );
+    }
+
+    if( hostRequestLimiter == null )
+      return sendAsync( url, request, bodyParser );
+
+    return CompletableFutures.thenCompose( hostRequestLimiter.acquire( request.uri().getHost() ), permit -> {
+      var future = sendAsync( url, request, bodyParser );
+      future.whenComplete( ( r, t ) -> permit.release() );
+      return future;
+    } );
+  }
+
+
+  private <T> CompletableFuture<Optional<T>> sendAsync( String url, HttpRequest request, BodyParser<T> bodyParser ) {
+
+    var event = new HttpFetchEvent();
+    if( metrics == DiscoveryMetrics.NONE && !event.isEnabled() ) {
+      var responseFuture = httpClient.sendAsync( request, HttpResponse.BodyHandlers.ofInputStream() );
+      // @formatter:off
+      return CompletableFutures.propagateCancellation( responseFuture, responseFuture
+          .thenApplyAsync( r -> parse( url, r, r.body(), bodyParser ), executor )
+          .exceptionally( t -> handleException( url, t ) ) );
+      // @formatter:on
+    }
+
+    var fetch = new Fetch( url, event );
+    var responseFuture = httpClient.sendAsync( request, HttpResponse.BodyHandlers.ofInputStream() );
+    // @formatter:off
+    return CompletableFutures.propagateCancellation( responseFuture, responseFuture
+        .thenApplyAsync( r -> parse( url, r, fetch.count( r ), bodyParser ), executor )
+        .whenComplete( ( r, t ) -> fetch.record( metrics, t ) )
+        .exceptionally( t -> handleException( url, t ) ) );
+    // @formatter:on
+  }
+
+
+  private static <T> Optional<T> parse( String url, HttpResponse<InputStream> response, InputStream body,
+                                        BodyParser<T> bodyParser ) {
+
+    try( var inputStream = body ) {
+      if( response.statusCode() / 100 != 2 ) {
+        LOG.debug( "Document {} could not be read, status code {}", url, response.statusCode() );
+        return Optional.empty();
+      }
+
+      return Optional.ofNullable( bodyParser.parse( inputStream ) );
     } catch( Exception e ) {
-      LOG.error( "Unexpected exception, document {} will be ignored!", url, e );
+      throw new CompletionException( e );
     }
+  }
+
+
+  private static <T> Optional<T> handleException( String url, Throwable t ) {
+
+    var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    if( cause instanceof IOException )
+      LOG.debug( "Document {} could not be fetched!", url, cause );
+    else
+      LOG.error( "Unexpected exception, document {} will be ignored!", url, cause );
     return Optional.empty();
   }
+
+
+  /**
+   * Measurement of a single fetch, counting the bytes of the response body read by the parser. It is recorded in the
+   * metrics and as a flight recorder event, if that is enabled.
+   */
+  private static class Fetch {
+
+    private final long start = System.nanoTime();
+
+    private final String url;
+
+    private final HttpFetchEvent event;
+
+    private volatile int statusCode = -1;
+
+    private volatile CountingInputStream body;
+
+
+    private Fetch( String url, HttpFetchEvent event ) {
+
+      this.url = url;
+      this.event = event;
+      event.begin();
+    }
+
+
+    private InputStream count( HttpResponse<InputStream> response ) {
+
+      statusCode = response.statusCode();
+      body = new CountingInputStream( response.body() );
+      return body;
+    }
+
+
+    private void record( DiscoveryMetrics metrics, Throwable t ) {
+
+      var b = body;
+      var bytes = b == null ? 0 : b.count;
+      var outcome = DiscoveryMetrics.Outcome.of( t );
+      event.end();
+      if( event.shouldCommit() ) {
+        event.url = url;
+        event.statusCode = statusCode;
+        event.bytes = bytes;
+        event.outcome = outcome.name();
+        event.commit();
+      }
+
+      metrics.recordHttpFetch( statusCode, bytes, System.nanoTime() - start, outcome );
+    }
+  }
+
+
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+
+    private CountingInputStream( InputStream in ) {
+
+      super( in );
+    }
+
+
+    @Override
+    public int read() throws IOException {
+
+      var b = super.read();
+      if( b >= 0 )
+        count++;
+      return b;
+    }
+
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+
+      var n = super.read( b, off, len );
+      if( n > 0 )
+        count += n;
+      return n;
+    }
+
+
+    @Override
+    public long skip( long n ) throws IOException {
+
+      var skipped = super.skip( n );
+      count += skipped;
+      return skipped;
+    }
+  }
+
+
+  @FunctionalInterface
+  private interface BodyParser<T> {
+
+    T parse( InputStream inputStream ) throws Exception;
+  }
 }
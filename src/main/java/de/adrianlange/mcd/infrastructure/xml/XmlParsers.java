@@ -0,0 +1,175 @@
+package de.adrianlange.mcd.infrastructure.xml;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Securely configured XML parsers. The factories are configured once and shared, document builders are confined to the
+ * thread using them, s.th. no factory lookup and configuration is needed per document.<p>DTDs and external entities
+ * are not supported, documents containing a document type declaration are rejected.
+ *
+ * @author Adrian Lange
+ */
+public final class XmlParsers {
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+
+  private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial( () -> {
+    try {
+      return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+    } catch( ParserConfigurationException e ) {
+      throw new IllegalStateException( e );
+    }
+  } );
+
+
+  private XmlParsers() {
+
+  }
+
+
+  /**
+   * Creates a reader for the given XML input stream.
+   *
+   * @param inputStream Input stream to read the XML document from
+   * @return Stream reader
+   * @throws XMLStreamException if the reader cannot be created
+   */
+  public static XMLStreamReader createXmlStreamReader( InputStream inputStream ) throws XMLStreamException {
+
+    return new StreamReaderDelegate( XML_INPUT_FACTORY.createXMLStreamReader( inputStream ) ) {
+
+      @Override
+      public int next() throws XMLStreamException {
+
+        var event = super.next();
+        if( event == XMLStreamConstants.DTD )
+          throw new XMLStreamException( "Document type declarations are not allowed!", getLocation() );
+        return event;
+      }
+    };
+  }
+
+
+  /**
+   * Parses the given XML input stream into a DOM.
+   *
+   * @param inputStream Input stream to read the XML document from
+   * @return Document
+   * @throws SAXException if the document is not well-formed or contains a document type declaration
+   * @throws IOException  if the input stream cannot be read
+   */
+  public static Document parseDocument( InputStream inputStream ) throws SAXException, IOException {
+
+    var documentBuilder = DOCUMENT_BUILDER.get();
+    try {
+      return documentBuilder.parse( inputStream );
+    } finally {
+      documentBuilder.reset();
+    }
+  }
+
+
+  /**
+   * Moves the reader to the start of the next child element of the current element.
+   *
+   * @param reader Reader positioned at the start of the parent element or at the end of a previous child element
+   * @return True if the reader is positioned at the start of a child element, false if the end of the parent element
+   * or document has been reached
+   * @throws XMLStreamException if the document is not well-formed
+   */
+  public static boolean nextElement( XMLStreamReader reader ) throws XMLStreamException {
+
+    while( reader.hasNext() ) {
+      var event = reader.next();
+      if( event == XMLStreamConstants.START_ELEMENT )
+        return true;
+      if( event == XMLStreamConstants.END_ELEMENT )
+        return false;
+    }
+    return false;
+  }
+
+
+  /**
+   * Returns the text content of the current element including the text of all descendants and moves the reader to the
+   * end of the element.
+   *
+   * @param reader Reader positioned at the start of an element
+   * @return Text content of the element
+   * @throws XMLStreamException if the document is not well-formed
+   */
+  public static String getText( XMLStreamReader reader ) throws XMLStreamException {
+
+    var text = new StringBuilder();
+    var depth = 1;
+    while( depth > 0 ) {
+      var event = reader.next();
+      if( event == XMLStreamConstants.START_ELEMENT )
+        depth++;
+      else if( event == XMLStreamConstants.END_ELEMENT )
+        depth--;
+      else if( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+          event == XMLStreamConstants.SPACE )
+        text.append( reader.getText() );
+    }
+    return text.toString();
+  }
+
+
+  /**
+   * Moves the reader to the end of the current element, skipping all its descendants.
+   *
+   * @param reader Reader positioned at the start of an element
+   * @throws XMLStreamException if the document is not well-formed
+   */
+  public static void skipElement( XMLStreamReader reader ) throws XMLStreamException {
+
+    var depth = 1;
+    while( depth > 0 ) {
+      var event = reader.next();
+      if( event == XMLStreamConstants.START_ELEMENT )
+        depth++;
+      else if( event == XMLStreamConstants.END_ELEMENT )
+        depth--;
+    }
+  }
+
+
+  private static XMLInputFactory createXmlInputFactory() {
+
+    XMLInputFactory xif = XMLInputFactory.newInstance();
+    xif.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    xif.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    xif.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, false );
+    return xif;
+  }
+
+
+  private static DocumentBuilderFactory createDocumentBuilderFactory() {
+
+    try {
+      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+      dbf.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
+      dbf.setFeature( "http://apache.org/xml/features/disallow-doctype-decl", true );
+      return dbf;
+    } catch( ParserConfigurationException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+}
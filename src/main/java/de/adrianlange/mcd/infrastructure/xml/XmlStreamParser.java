@@ -0,0 +1,23 @@
+package de.adrianlange.mcd.infrastructure.xml;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Parser creating an object from an XML document in a single pass.
+ *
+ * @param <T> Type of the parsed object
+ */
+@FunctionalInterface
+public interface XmlStreamParser<T> {
+
+  /**
+   * Parses the document of the given reader, which is positioned at the start of the document.
+   *
+   * @param reader Reader of the XML document
+   * @return Parsed object, may be null if the document does not contain anything of interest
+   * @throws XMLStreamException if the document is not well-formed or cannot be read
+   */
+  T parse( XMLStreamReader reader ) throws XMLStreamException;
+}
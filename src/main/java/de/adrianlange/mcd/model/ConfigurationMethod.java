@@ -2,5 +2,5 @@ package de.adrianlange.mcd.model;
 
 public enum ConfigurationMethod {
 
-  RFC_61186, MOZILLA_AUTOCONF, MS_AUTODISCOVER_V1
+  RFC_61186, MOZILLA_AUTOCONF, MS_AUTODISCOVER_V1, MOZILLA_ISPDB, MX_PROVIDER
 }
@@ -0,0 +1,40 @@
+package de.adrianlange.mcd.model;
+
+import java.util.Set;
+
+
+/**
+ * Representation of a mailserver configuration according to Microsoft Office Autodiscover v1, which is returned as
+ * plain old XML by Exchange servers and many hosting providers for a POST request containing the email address.<p>See
+ * <a href="https://learn.microsoft.com/en-us/exchange/client-developer/web-service-reference/pox-autodiscover-web-service-reference-for-exchange">here</a>
+ * for more information.
+ *
+ * @author Adrian Lange
+ */
+public interface MsAutodiscoverMailserverService extends MailserverService {
+
+  /**
+   * Returns the username to log in with, which has been determined by the server for the looked up email address.
+   *
+   * @return Username or null if not specified
+   */
+  String getUsername();
+
+
+  /**
+   * Returns if the domain name must be prepended to the username, e.g. <i>DOMAIN\\username</i>.
+   *
+   * @return True if the domain is required
+   */
+  boolean isDomainRequired();
+
+
+  /**
+   * Returns the authentication methods to use. {@link Authentication#NTLM} is returned if Secure Password
+   * Authentication (SPA) is required, {@link Authentication#NONE} if no authentication is required and
+   * {@link Authentication#PASSWORD_CLEARTEXT} otherwise.
+   *
+   * @return Authentication methods
+   */
+  Set<Authentication> getAuthentications();
+}
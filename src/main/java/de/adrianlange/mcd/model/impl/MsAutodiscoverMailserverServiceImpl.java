@@ -0,0 +1,92 @@
+package de.adrianlange.mcd.model.impl;
+
+import de.adrianlange.mcd.model.Authentication;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MsAutodiscoverMailserverService;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+
+public class MsAutodiscoverMailserverServiceImpl extends AbstractMailserverService implements MsAutodiscoverMailserverService {
+
+  private String username = null;
+
+  private boolean domainRequired = false;
+
+  private final Set<Authentication> authentications = new HashSet<>();
+
+
+  public MsAutodiscoverMailserverServiceImpl() {
+
+    super( ConfigurationMethod.MS_AUTODISCOVER_V1, null, null, null, null );
+  }
+
+
+  @Override
+  public String getUsername() {
+    return username;
+  }
+
+
+  public void setUsername( String username ) {
+    this.username = username;
+  }
+
+
+  @Override
+  public boolean isDomainRequired() {
+    return domainRequired;
+  }
+
+
+  public void setDomainRequired( boolean domainRequired ) {
+    this.domainRequired = domainRequired;
+  }
+
+
+  @Override
+  public Set<Authentication> getAuthentications() {
+    return Collections.unmodifiableSet( authentications );
+  }
+
+
+  public void addAuthentication( Authentication authentication ) {
+    this.authentications.add( authentication );
+  }
+
+
+  @Override
+  public String toString() {
+
+    var sb = new StringBuilder( super.toString() );
+    if( username != null )
+      sb.append( ", username='" ).append( username ).append( "'" );
+    if( domainRequired )
+      sb.append( ", domainRequired=true" );
+    if( !authentications.isEmpty() )
+      sb.append( ", authentications=" ).append( authentications );
+    return sb.toString();
+  }
+
+
+  @Override
+  public boolean equals( Object o ) {
+    if( this == o )
+      return true;
+    if( o == null || getClass() != o.getClass() )
+      return false;
+    if( !super.equals( o ) )
+      return false;
+    MsAutodiscoverMailserverServiceImpl that = (MsAutodiscoverMailserverServiceImpl) o;
+    return domainRequired == that.domainRequired && Objects.equals( username, that.username ) && Objects.equals( authentications, that.authentications );
+  }
+
+
+  @Override
+  public int hashCode() {
+    return Objects.hash( super.hashCode(), username, domainRequired, authentications );
+  }
+}
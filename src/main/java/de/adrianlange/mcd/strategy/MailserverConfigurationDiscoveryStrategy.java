@@ -1,8 +1,12 @@
 package de.adrianlange.mcd.strategy;
 
+import de.adrianlange.mcd.model.ConfigurationMethod;
 import de.adrianlange.mcd.model.MailserverService;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 
@@ -13,6 +17,26 @@ import java.util.concurrent.CompletableFuture;
  */
 public interface MailserverConfigurationDiscoveryStrategy {
 
+  /**
+   * Returns the configuration method implemented by this strategy.
+   *
+   * @return Configuration method
+   */
+  ConfigurationMethod getConfigurationMethod();
+
+
+  /**
+   * Returns if this strategy looks up mailserver configurations without network I/O. Local strategies run before the
+   * other strategies, which are not started if a local strategy finds mailserver services for all discovery scopes.
+   *
+   * @return True if the strategy is local, false by default
+   */
+  default boolean isLocal() {
+
+    return false;
+  }
+
+
   /**
    * Get a list of MailserverServices representing a specific mailserver protocol configuration for submission and
    * reception of emails. If only the domain part is known or should be used for the lookup, please use
@@ -35,4 +59,22 @@ public interface MailserverConfigurationDiscoveryStrategy {
    * methods, like SRV resource records or Mozilla Autoconf.
    */
   List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress.DomainPart domainPart );
+
+
+  /**
+   * Get lists of MailserverServices for several email addresses sharing the same domain part. Lookups only depending on
+   * the domain part should be made once and shared by all email addresses.
+   *
+   * @param domainPart     Domain part shared by all given email addresses
+   * @param emailAddresses Email addresses to get mailserver configurations for
+   * @return A map with a list of mailserver services for each email address
+   */
+  default Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> getMailserverServices( EmailAddress.DomainPart domainPart,
+                                                                                                    Collection<EmailAddress> emailAddresses ) {
+
+    Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> result = new LinkedHashMap<>();
+    for( var emailAddress : emailAddresses )
+      result.put( emailAddress, getMailserverServices( emailAddress ) );
+    return result;
+  }
 }
@@ -0,0 +1,178 @@
+package de.adrianlange.mcd.strategy.mozillaautoconf;
+
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers;
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser;
+import de.adrianlange.mcd.model.Authentication;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.model.OAuth2;
+import de.adrianlange.mcd.model.Protocol;
+import de.adrianlange.mcd.model.SocketType;
+import de.adrianlange.mcd.model.impl.MozillaAutoconfMailserverServiceImpl;
+import de.adrianlange.mcd.model.impl.OAuth2Impl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Single-pass parser for Mozilla Autoconf documents. Mailserver services and OAuth2 definitions are created directly
+ * while reading the document, placeholders are kept as they are.
+ *
+ * @author Adrian Lange
+ */
+public class MozillaAutoconfDocumentParser implements XmlStreamParser<List<MailserverService>> {
+
+  private static final Logger LOG = LoggerFactory.getLogger( MozillaAutoconfDocumentParser.class );
+
+  private static final String EL_ROOT = "clientConfig";
+
+  private static final String EL_1_OAUTH2 = "oAuth2";
+
+  private static final String EL_2_ISSUER = "issuer";
+
+  private static final String EL_2_SCOPE = "scope";
+
+  private static final String EL_2_AUTH_URL = "authURL";
+
+  private static final String EL_2_TOKEN_URL = "tokenURL";
+
+  private static final String EL_1_EMAIL_PROVIDER = "emailProvider";
+
+  private static final String EL_2_INCOMING_SERVER = "incomingServer";
+
+  private static final String EL_2_OUTGOING_SERVER = "outgoingServer";
+
+  private static final String EL_3_HOSTNAME = "hostname";
+
+  private static final String EL_3_PORT = "port";
+
+  private static final String EL_3_SOCKET_TYPE = "socketType";
+
+  private static final String EL_3_AUTHENTICATION = "authentication";
+
+  private static final String EL_3_USERNAME = "username";
+
+  private static final String EL_3_PASSWORD = "password";
+
+  private static final String ATTR_TYPE = "type";
+
+
+  /**
+   * Parses a Mozilla Autoconf document. OAuth2 definitions are added to all mailserver services of the document.
+   *
+   * @param reader Reader of the XML document
+   * @return List of mailserver services, empty if the document is no Mozilla Autoconf document
+   * @throws XMLStreamException if the document is not well-formed or cannot be read
+   */
+  @Override
+  public List<MailserverService> parse( XMLStreamReader reader ) throws XMLStreamException {
+
+    if( !XmlParsers.nextElement( reader ) )
+      return Collections.emptyList();
+
+    if( !reader.getLocalName().equals( EL_ROOT ) ) {
+      LOG.debug( "Document root {} must equal {}!", reader.getLocalName(), EL_ROOT );
+      return Collections.emptyList();
+    }
+
+    List<MozillaAutoconfMailserverServiceImpl> mailserverServices = new ArrayList<>();
+    Set<OAuth2> oAuth2s = new LinkedHashSet<>();
+    while( XmlParsers.nextElement( reader ) ) {
+      if( reader.getLocalName().equalsIgnoreCase( EL_1_EMAIL_PROVIDER ) )
+        parseEmailProvider( reader, mailserverServices );
+      else if( reader.getLocalName().equalsIgnoreCase( EL_1_OAUTH2 ) )
+        oAuth2s.add( parseOAuth2( reader ) );
+      else
+        XmlParsers.skipElement( reader );
+    }
+
+    mailserverServices.forEach( s -> s.addAllOAuth2s( oAuth2s ) );
+    return new ArrayList<>( mailserverServices );
+  }
+
+
+  private static void parseEmailProvider( XMLStreamReader reader,
+                                          List<MozillaAutoconfMailserverServiceImpl> mailserverServices )
+      throws XMLStreamException {
+
+    while( XmlParsers.nextElement( reader ) ) {
+      var protocol = getProtocol( reader );
+      if( protocol == null )
+        XmlParsers.skipElement( reader );
+      else
+        mailserverServices.add( parseServer( reader, protocol ) );
+    }
+  }
+
+
+  private static MozillaAutoconfMailserverServiceImpl parseServer( XMLStreamReader reader,
+                                                                   Protocol protocol ) throws XMLStreamException {
+
+    var mailserverService = new MozillaAutoconfMailserverServiceImpl();
+    mailserverService.setProtocol( protocol );
+
+    while( XmlParsers.nextElement( reader ) ) {
+      var name = reader.getLocalName();
+      if( name.equalsIgnoreCase( EL_3_HOSTNAME ) )
+        mailserverService.setHost( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_3_PORT ) )
+        mailserverService.setPort( Integer.parseInt( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_3_SOCKET_TYPE ) )
+        mailserverService.setSocketType( SocketType.parse( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_3_AUTHENTICATION ) )
+        mailserverService.addAuthentication( Authentication.parse( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_3_USERNAME ) )
+        mailserverService.setUsername( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_3_PASSWORD ) )
+        mailserverService.setPassword( XmlParsers.getText( reader ) );
+      else
+        XmlParsers.skipElement( reader );
+    }
+    return mailserverService;
+  }
+
+
+  private static Protocol getProtocol( XMLStreamReader reader ) {
+
+    var type = reader.getAttributeValue( null, ATTR_TYPE );
+    if( type == null )
+      return null;
+
+    if( reader.getLocalName().equalsIgnoreCase( EL_2_INCOMING_SERVER ) ) {
+      if( type.equalsIgnoreCase( "imap" ) )
+        return Protocol.IMAP;
+      else if( type.equalsIgnoreCase( "pop3" ) )
+        return Protocol.POP3;
+    } else if( reader.getLocalName().equalsIgnoreCase( EL_2_OUTGOING_SERVER ) && type.equalsIgnoreCase( "smtp" ) ) {
+      return Protocol.SMTP;
+    }
+    return null;
+  }
+
+
+  private static OAuth2 parseOAuth2( XMLStreamReader reader ) throws XMLStreamException {
+
+    var oAuth2 = new OAuth2Impl();
+    while( XmlParsers.nextElement( reader ) ) {
+      var name = reader.getLocalName();
+      if( name.equalsIgnoreCase( EL_2_ISSUER ) )
+        oAuth2.setIssuer( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_2_SCOPE ) )
+        oAuth2.setScope( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_2_AUTH_URL ) )
+        oAuth2.setAuthUrl( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_2_TOKEN_URL ) )
+        oAuth2.setTokenUrl( XmlParsers.getText( reader ) );
+      else
+        XmlParsers.skipElement( reader );
+    }
+    return oAuth2;
+  }
+}
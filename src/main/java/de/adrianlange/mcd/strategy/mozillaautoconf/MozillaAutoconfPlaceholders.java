@@ -0,0 +1,152 @@
+package de.adrianlange.mcd.strategy.mozillaautoconf;
+
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.model.OAuth2;
+import de.adrianlange.mcd.model.impl.MozillaAutoconfMailserverServiceImpl;
+import de.adrianlange.mcd.model.impl.OAuth2Impl;
+import de.adrianlange.mcd.strategy.EmailAddress;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * Placeholders of Mozilla Autoconf documents, like <code>%EMAILLOCALPART%</code>, and their replacement in the
+ * mailserver services parsed from a document.
+ *
+ * @author Adrian Lange
+ */
+public final class MozillaAutoconfPlaceholders {
+
+  private static final String PLACEHOLDER_EMAIL_ADDRESS = "EMAILADDRESS";
+
+  private static final String PLACEHOLDER_EMAIL_LOCAL_PART = "EMAILLOCALPART";
+
+  private static final String PLACEHOLDER_EMAIL_DOMAIN = "EMAILDOMAIN";
+
+
+  private MozillaAutoconfPlaceholders() {
+
+  }
+
+
+  /**
+   * Returns the placeholders of the given email address.
+   *
+   * @param emailAddress Email address
+   * @return Values by placeholder
+   */
+  public static Map<String, String> of( EmailAddress emailAddress ) {
+
+    Map<String, String> placeholders = new HashMap<>();
+    placeholders.put( PLACEHOLDER_EMAIL_ADDRESS, emailAddress.toUnicode() );
+    placeholders.put( PLACEHOLDER_EMAIL_LOCAL_PART, emailAddress.getLocalPart() );
+    placeholders.put( PLACEHOLDER_EMAIL_DOMAIN, emailAddress.getDomainPart().toUnicode() );
+    return placeholders;
+  }
+
+
+  /**
+   * Returns the placeholders of the given domain, which only include the email domain.
+   *
+   * @param domainPart Domain
+   * @return Values by placeholder
+   */
+  public static Map<String, String> of( EmailAddress.DomainPart domainPart ) {
+
+    Map<String, String> placeholders = new HashMap<>();
+    placeholders.put( PLACEHOLDER_EMAIL_DOMAIN, domainPart.toUnicode() );
+    return placeholders;
+  }
+
+
+  /**
+   * Replaces the placeholders in the mailserver services of the given lookups, once they are finished.
+   *
+   * @param completableFutures Lookups
+   * @param placeholders       Values by placeholder
+   * @return Dependent lookups, cancelling them cancels the given ones
+   */
+  public static List<CompletableFuture<List<MailserverService>>> replaceAsync( List<CompletableFuture<List<MailserverService>>> completableFutures,
+                                                                       Map<String, String> placeholders ) {
+
+    // @formatter:off
+    return completableFutures.stream()
+        .map( f -> CompletableFutures.propagateCancellation( f,
+            f.thenApply( l -> replace( l, placeholders ) ) ) )
+        .collect( Collectors.toList() );
+    // @formatter:on
+  }
+
+
+  /**
+   * Returns copies of the given mailserver services with all placeholders replaced. Mailserver services not found by
+   * Mozilla Autoconf are returned as they are.
+   *
+   * @param mailserverServices Mailserver services which may contain placeholders
+   * @param placeholders       Values by placeholder
+   * @return New mailserver services
+   */
+  public static List<MailserverService> replace( List<MailserverService> mailserverServices,
+                                                 Map<String, String> placeholders ) {
+
+    // @formatter:off
+    return mailserverServices.stream()
+        .map( s -> s instanceof MozillaAutoconfMailserverServiceImpl ?
+            replace( ( MozillaAutoconfMailserverServiceImpl ) s, placeholders ) : s )
+        .collect( Collectors.toList() );
+    // @formatter:on
+  }
+
+
+  /**
+   * Returns a copy of the given mailserver service with all placeholders replaced.
+   *
+   * @param mailserverService Mailserver service which may contain placeholders
+   * @param placeholders      Placeholders to replace
+   * @return New mailserver service
+   */
+  private static MailserverService replace( MozillaAutoconfMailserverServiceImpl mailserverService,
+                                            Map<String, String> placeholders ) {
+
+    var result = new MozillaAutoconfMailserverServiceImpl();
+    result.setProtocol( mailserverService.getProtocol() );
+    result.setSocketType( mailserverService.getSocketType() );
+    result.setHost( replace( mailserverService.getHost(), placeholders ) );
+    result.setPort( mailserverService.getPort() );
+    result.setUsername( replace( mailserverService.getUsername(), placeholders ) );
+    result.setPassword( replace( mailserverService.getPassword(), placeholders ) );
+    mailserverService.getAuthentications().forEach( result::addAuthentication );
+    // @formatter:off
+    result.addAllOAuth2s( mailserverService.getOAuth2s().stream()
+        .map( o -> replace( o, placeholders ) )
+        .collect( Collectors.toList() ) );
+    // @formatter:on
+    return result;
+  }
+
+
+  private static OAuth2 replace( OAuth2 oAuth2, Map<String, String> placeholders ) {
+
+    var result = new OAuth2Impl();
+    result.setIssuer( replace( oAuth2.getIssuer(), placeholders ) );
+    result.setScope( replace( oAuth2.getScope(), placeholders ) );
+    result.setAuthUrl( replace( oAuth2.getAuthUrl(), placeholders ) );
+    result.setTokenUrl( replace( oAuth2.getTokenUrl(), placeholders ) );
+    return result;
+  }
+
+
+  private static String replace( String input, Map<String, String> placeholders ) {
+
+    if( input == null )
+      return null;
+    for( Map.Entry<String, String> p : placeholders.entrySet() )
+      input = input.replace( "%" + p.getKey() + "%", p.getValue() );
+    return input;
+  }
+}
@@ -0,0 +1,100 @@
+package de.adrianlange.mcd.strategy.mozillaautoconf;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext;
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * Looks up mailserver configurations in a {@link ProviderDatabase} without any network I/O. The lookups are completed
+ * when they are returned. A corrupt database entry is logged and treated like an unknown domain.
+ *
+ * @author Adrian Lange
+ */
+public class MozillaIspdbMailserverConfigurationDiscoveryStrategy implements MailserverConfigurationDiscoveryStrategy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      MozillaIspdbMailserverConfigurationDiscoveryStrategy.class );
+
+  private final MailserverConfigurationDiscoveryContext context;
+
+  private final ProviderDatabase providerDatabase;
+
+
+  public MozillaIspdbMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context ) {
+
+    this( context, context.getProviderDatabase() );
+  }
+
+
+  public MozillaIspdbMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context,
+                                                               ProviderDatabase providerDatabase ) {
+
+    if( providerDatabase == null )
+      throw new IllegalArgumentException( "Provider database must not be null!" );
+
+    this.context = context;
+    this.providerDatabase = providerDatabase;
+  }
+
+
+  @Override
+  public ConfigurationMethod getConfigurationMethod() {
+
+    return ConfigurationMethod.MOZILLA_ISPDB;
+  }
+
+
+  @Override
+  public boolean isLocal() {
+
+    return true;
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress emailAddress ) {
+
+    return lookup( emailAddress.getDomainPart(), MozillaAutoconfPlaceholders.of( emailAddress ) );
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress.DomainPart domainPart ) {
+
+    return lookup( domainPart, MozillaAutoconfPlaceholders.of( domainPart ) );
+  }
+
+
+  private List<CompletableFuture<List<MailserverService>>> lookup( EmailAddress.DomainPart domainPart,
+                                                                   Map<String, String> placeholders ) {
+
+    List<MailserverService> mailserverServices;
+    try {
+      mailserverServices = providerDatabase.getMailserverServices( domainPart.toIdn() );
+    } catch( IOException e ) {
+      LOG.warn( "Could not look up {} in provider database", domainPart, e );
+      mailserverServices = Collections.emptyList();
+    }
+
+    // @formatter:off
+    var scopedMailserverServices = mailserverServices.stream()
+        .filter( s -> context.getDiscoveryScopes().contains( DiscoveryScope.get( s.getProtocol() ) ) )
+        .collect( Collectors.toList() );
+    // @formatter:on
+    return List.of( CompletableFuture.completedFuture(
+        MozillaAutoconfPlaceholders.replace( scopedMailserverServices, placeholders ) ) );
+  }
+}
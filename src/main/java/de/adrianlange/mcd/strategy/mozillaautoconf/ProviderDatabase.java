@@ -0,0 +1,214 @@
+package de.adrianlange.mcd.strategy.mozillaautoconf;
+
+import de.adrianlange.mcd.infrastructure.cache.MailserverServiceCodec;
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.IDN;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Read-only database of email providers and their mailserver configurations, like the ISPDB shipped with Thunderbird.
+ * The database is compiled from Mozilla Autoconf documents by {@link ProviderDatabaseCompiler} into a compact binary
+ * file, which is memory-mapped, s.th. only the pages needed for lookups are loaded.<p>Domains are indexed by an open
+ * addressing hash table, a lookup reads one slot in the common case and decodes the mailserver services of the
+ * provider only. The file starts with a header of five integers, magic number, version, number of slots, number of
+ * domains and number of providers, followed by the slots of eight bytes each, the hash of the domain and the offset of
+ * its entry. A domain entry consists of the length of the domain, its ASCII bytes and the offset of the provider
+ * entry, which is shared by all domains of the provider. A provider entry consists of its length and the encoded
+ * mailserver services.<p>A provider database is safe for concurrent use from multiple threads.
+ *
+ * @author Adrian Lange
+ */
+public final class ProviderDatabase {
+
+  static final int MAGIC = 0x4d434450;
+
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 20;
+
+  static final int SLOT_SIZE = 8;
+
+  private final ByteBuffer buffer;
+
+  private final int slotCount;
+
+  private final int domainCount;
+
+  private final int providerCount;
+
+
+  private ProviderDatabase( ByteBuffer buffer ) throws IOException {
+
+    if( buffer.capacity() < HEADER_SIZE || buffer.getInt( 0 ) != MAGIC )
+      throw new IOException( "Not a provider database!" );
+    if( buffer.getInt( 4 ) != VERSION )
+      throw new IOException( "Unsupported provider database version " + buffer.getInt( 4 ) + "!" );
+
+    this.buffer = buffer;
+    this.slotCount = buffer.getInt( 8 );
+    this.domainCount = buffer.getInt( 12 );
+    this.providerCount = buffer.getInt( 16 );
+    if( slotCount <= 0 || Integer.bitCount( slotCount ) != 1 || domainCount < 0 || domainCount > slotCount ||
+        providerCount < 0 || HEADER_SIZE + (long) slotCount * SLOT_SIZE > buffer.capacity() )
+      throw new IOException( "Invalid provider database header!" );
+  }
+
+
+  /**
+   * Opens the provider database file by mapping it into memory.
+   *
+   * @param file Provider database file
+   * @return Provider database
+   * @throws IOException if the file cannot be read or is no provider database
+   */
+  public static ProviderDatabase open( Path file ) throws IOException {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    try( var channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+      return new ProviderDatabase( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+    }
+  }
+
+
+  /**
+   * Reads the provider database from the given input stream into memory, e.g. from a class path resource.
+   *
+   * @param inputStream Input stream of a provider database file, which is not closed
+   * @return Provider database
+   * @throws IOException if the input stream cannot be read or is no provider database
+   */
+  public static ProviderDatabase read( InputStream inputStream ) throws IOException {
+
+    if( inputStream == null )
+      throw new IllegalArgumentException( "Input stream must not be null!" );
+
+    return new ProviderDatabase( ByteBuffer.wrap( inputStream.readAllBytes() ) );
+  }
+
+
+  /**
+   * Returns the mailserver services of the provider of the given domain. The services may contain Mozilla Autoconf
+   * placeholders.
+   *
+   * @param domain Domain, either IDN or unicode
+   * @return Mailserver services, empty if the domain is unknown
+   * @throws IOException if the entry of the domain is corrupt
+   */
+  public List<MailserverService> getMailserverServices( String domain ) throws IOException {
+
+    if( domain == null )
+      throw new IllegalArgumentException( "Domain must not be null!" );
+
+    var key = toKey( domain );
+    var hash = hash( key );
+    var mask = slotCount - 1;
+    for( int i = 0, slot = hash & mask; i < slotCount; i++, slot = ( slot + 1 ) & mask ) {
+      var slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+      var domainOffset = buffer.getInt( slotOffset + 4 );
+      if( domainOffset == 0 )
+        return Collections.emptyList();
+      if( buffer.getInt( slotOffset ) == hash && matches( domainOffset, key ) )
+        return readProvider( buffer.getInt( domainOffset + 2 + key.length ) );
+    }
+    return Collections.emptyList();
+  }
+
+
+  /**
+   * Returns the number of domains in this database.
+   *
+   * @return Number of domains
+   */
+  public int getDomainCount() {
+
+    return domainCount;
+  }
+
+
+  /**
+   * Returns the number of providers in this database.
+   *
+   * @return Number of providers
+   */
+  public int getProviderCount() {
+
+    return providerCount;
+  }
+
+
+  private boolean matches( int domainOffset, byte[] key ) {
+
+    if( ( buffer.getShort( domainOffset ) & 0xffff ) != key.length )
+      return false;
+    for( int i = 0; i < key.length; i++ )
+      if( buffer.get( domainOffset + 2 + i ) != key[i] )
+        return false;
+    return true;
+  }
+
+
+  private List<MailserverService> readProvider( int providerOffset ) throws IOException {
+
+    try {
+      var bytes = new byte[buffer.getInt( providerOffset )];
+      buffer.duplicate().position( providerOffset + 4 ).get( bytes );
+
+      var in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+      var count = MailserverServiceCodec.readCount( in );
+      List<MailserverService> mailserverServices = new ArrayList<>( count );
+      for( int i = 0; i < count; i++ )
+        mailserverServices.add( MailserverServiceCodec.read( in ) );
+      return mailserverServices;
+    } catch( IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e ) {
+      throw new IOException( "Invalid provider entry at offset " + providerOffset + "!", e );
+    }
+  }
+
+
+  /**
+   * Returns the key a domain is indexed by, its lower case IDN without trailing dot.
+   *
+   * @param domain Domain
+   * @return ASCII bytes of the key
+   */
+  static byte[] toKey( String domain ) {
+
+    var idn = IDN.toASCII( domain ).toLowerCase( Locale.ROOT );
+    if( idn.endsWith( "." ) )
+      idn = idn.substring( 0, idn.length() - 1 );
+    return idn.getBytes( StandardCharsets.US_ASCII );
+  }
+
+
+  /**
+   * Returns the 32 bit FNV-1a hash of the given key.
+   *
+   * @param key Key
+   * @return Hash
+   */
+  static int hash( byte[] key ) {
+
+    var hash = 0x811c9dc5;
+    for( var b : key ) {
+      hash ^= b & 0xff;
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+}
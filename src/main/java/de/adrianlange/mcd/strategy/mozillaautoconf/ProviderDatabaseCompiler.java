@@ -0,0 +1,290 @@
+package de.adrianlange.mcd.strategy.mozillaautoconf;
+
+import de.adrianlange.mcd.infrastructure.cache.MailserverServiceCodec;
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers;
+import de.adrianlange.mcd.model.MailserverService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Compiles Mozilla Autoconf documents, like the files of the ISPDB shipped with Thunderbird, into a
+ * {@link ProviderDatabase} file. Each document is indexed by the <code>domain</code> elements of its email provider,
+ * documents without domains are skipped. If several documents declare the same domain, the first one wins.<p>The
+ * compiler can be run from the command line with the directory of the documents and the database file to write:
+ * <pre>java -cp ... de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabaseCompiler ispdb/ providers.db</pre>
+ *
+ * @author Adrian Lange
+ */
+public class ProviderDatabaseCompiler {
+
+  private static final Logger LOG = LoggerFactory.getLogger( ProviderDatabaseCompiler.class );
+
+  private static final MozillaAutoconfDocumentParser DOCUMENT_PARSER = new MozillaAutoconfDocumentParser();
+
+  private static final String EL_1_EMAIL_PROVIDER = "emailProvider";
+
+  private static final String EL_2_DOMAIN = "domain";
+
+  private final Map<String, Integer> providerIndexes = new LinkedHashMap<>();
+
+  private final List<byte[]> providers = new ArrayList<>();
+
+
+  /**
+   * Adds the email provider of the given Mozilla Autoconf document.
+   *
+   * @param inputStream Input stream of the document, which is not closed
+   * @return Number of domains added
+   * @throws IOException if the document cannot be read or parsed
+   */
+  public int addDocument( InputStream inputStream ) throws IOException {
+
+    if( inputStream == null )
+      throw new IllegalArgumentException( "Input stream must not be null!" );
+
+    var document = inputStream.readAllBytes();
+    List<MailserverService> mailserverServices;
+    Set<String> domains;
+    try {
+      domains = parseDomains( document );
+      mailserverServices = DOCUMENT_PARSER.parse( XmlParsers.createXmlStreamReader(
+          new ByteArrayInputStream( document ) ) );
+    } catch( XMLStreamException | IllegalArgumentException e ) {
+      throw new IOException( "Could not parse Mozilla Autoconf document!", e );
+    }
+    if( domains.isEmpty() || mailserverServices.isEmpty() )
+      return 0;
+
+    var providerIndex = providers.size();
+    var added = 0;
+    for( var domain : domains ) {
+      if( providerIndexes.putIfAbsent( domain, providerIndex ) == null )
+        added++;
+      else
+        LOG.debug( "Domain {} has already been added, skipping it", domain );
+    }
+    if( added > 0 )
+      providers.add( encode( mailserverServices ) );
+    return added;
+  }
+
+
+  /**
+   * Adds the email providers of all Mozilla Autoconf documents in the given directory, which is not searched
+   * recursively. Documents which cannot be parsed are skipped.
+   *
+   * @param directory Directory of the documents
+   * @return Number of domains added
+   * @throws IOException if the directory cannot be read
+   */
+  public int addDirectory( Path directory ) throws IOException {
+
+    if( directory == null )
+      throw new IllegalArgumentException( "Directory must not be null!" );
+
+    List<Path> files;
+    try( Stream<Path> stream = Files.list( directory ) ) {
+      files = stream.filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+    }
+
+    var added = 0;
+    for( var file : files ) {
+      try( var inputStream = Files.newInputStream( file ) ) {
+        added += addDocument( inputStream );
+      } catch( IOException e ) {
+        LOG.warn( "Could not add Mozilla Autoconf document {}", file, e );
+      }
+    }
+    return added;
+  }
+
+
+  /**
+   * Returns the number of domains added.
+   *
+   * @return Number of domains
+   */
+  public int getDomainCount() {
+
+    return providerIndexes.size();
+  }
+
+
+  /**
+   * Writes the provider database.
+   *
+   * @param outputStream Output stream to write to, which is not closed
+   * @throws IOException if writing fails or the database exceeds 2 GB
+   */
+  public void write( OutputStream outputStream ) throws IOException {
+
+    if( outputStream == null )
+      throw new IllegalArgumentException( "Output stream must not be null!" );
+
+    var slotCount = Integer.highestOneBit( Math.max( 1, providerIndexes.size() ) * 2 - 1 ) << 1;
+    var slotHashes = new int[slotCount];
+    var slotDomains = new String[slotCount];
+    var domainKeys = new LinkedHashMap<String, byte[]>();
+    for( var domain : providerIndexes.keySet() ) {
+      var key = ProviderDatabase.toKey( domain );
+      var hash = ProviderDatabase.hash( key );
+      var slot = hash & ( slotCount - 1 );
+      while( slotDomains[slot] != null )
+        slot = ( slot + 1 ) & ( slotCount - 1 );
+      slotHashes[slot] = hash;
+      slotDomains[slot] = domain;
+      domainKeys.put( domain, key );
+    }
+
+    long offset = ProviderDatabase.HEADER_SIZE + (long) slotCount * ProviderDatabase.SLOT_SIZE;
+    Map<String, Integer> domainOffsets = new LinkedHashMap<>();
+    for( var entry : domainKeys.entrySet() ) {
+      domainOffsets.put( entry.getKey(), toOffset( offset ) );
+      offset += 2 + entry.getValue().length + 4;
+    }
+    var providerOffsets = new int[providers.size()];
+    for( int i = 0; i < providers.size(); i++ ) {
+      providerOffsets[i] = toOffset( offset );
+      offset += 4 + providers.get( i ).length;
+    }
+    toOffset( offset );
+
+    var out = new DataOutputStream( new BufferedOutputStream( outputStream ) );
+    out.writeInt( ProviderDatabase.MAGIC );
+    out.writeInt( ProviderDatabase.VERSION );
+    out.writeInt( slotCount );
+    out.writeInt( providerIndexes.size() );
+    out.writeInt( providers.size() );
+    for( int i = 0; i < slotCount; i++ ) {
+      out.writeInt( slotHashes[i] );
+      out.writeInt( slotDomains[i] == null ? 0 : domainOffsets.get( slotDomains[i] ) );
+    }
+    for( var entry : domainKeys.entrySet() ) {
+      out.writeShort( entry.getValue().length );
+      out.write( entry.getValue() );
+      out.writeInt( providerOffsets[providerIndexes.get( entry.getKey() )] );
+    }
+    for( var provider : providers ) {
+      out.writeInt( provider.length );
+      out.write( provider );
+    }
+    out.flush();
+  }
+
+
+  /**
+   * Writes the provider database to the given file. The database is written to a temporary file first, which replaces
+   * the given file once it is complete.
+   *
+   * @param file File to write to
+   * @throws IOException if writing fails
+   */
+  public void write( Path file ) throws IOException {
+
+    if( file == null )
+      throw new IllegalArgumentException( "File must not be null!" );
+
+    var directory = file.toAbsolutePath().getParent();
+    var tempFile = Files.createTempFile( directory, file.getFileName().toString(), ".tmp" );
+    try {
+      try( var outputStream = Files.newOutputStream( tempFile ) ) {
+        write( outputStream );
+      }
+      Files.move( tempFile, file, StandardCopyOption.REPLACE_EXISTING );
+    } finally {
+      Files.deleteIfExists( tempFile );
+    }
+  }
+
+
+  /**
+   * Compiles the Mozilla Autoconf documents of a directory into a provider database file.
+   *
+   * @param args Directory of the documents and provider database file
+   * @throws IOException if reading the directory or writing the file fails
+   */
+  public static void main( String[] args ) throws IOException {
+
+    if( args.length != 2 ) {
+      System.err.println( "Usage: ProviderDatabaseCompiler <autoconf document directory> <provider database file>" );
+      System.exit( 1 );
+    }
+
+    var compiler = new ProviderDatabaseCompiler();
+    compiler.addDirectory( Path.of( args[0] ) );
+    compiler.write( Path.of( args[1] ) );
+    System.out.println( "Compiled " + compiler.getDomainCount() + " domains of " + compiler.providers.size() +
+        " providers into " + args[1] );
+  }
+
+
+  private static Set<String> parseDomains( byte[] document ) throws XMLStreamException {
+
+    Set<String> domains = new LinkedHashSet<>();
+    var reader = XmlParsers.createXmlStreamReader( new ByteArrayInputStream( document ) );
+    var depth = 0;
+    var inEmailProvider = false;
+    while( reader.hasNext() ) {
+      var event = reader.next();
+      if( event == XMLStreamConstants.START_ELEMENT ) {
+        depth++;
+        if( depth == 2 && reader.getLocalName().equalsIgnoreCase( EL_1_EMAIL_PROVIDER ) )
+          inEmailProvider = true;
+        else if( depth == 3 && inEmailProvider && reader.getLocalName().equalsIgnoreCase( EL_2_DOMAIN ) ) {
+          var domain = reader.getElementText().trim();
+          depth--;
+          if( !domain.isEmpty() )
+            domains.add( new String( ProviderDatabase.toKey( domain ), StandardCharsets.US_ASCII ) );
+        }
+      } else if( event == XMLStreamConstants.END_ELEMENT ) {
+        if( depth == 2 )
+          inEmailProvider = false;
+        depth--;
+      }
+    }
+    return domains;
+  }
+
+
+  private static byte[] encode( List<MailserverService> mailserverServices ) throws IOException {
+
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream( bytes );
+    out.writeInt( mailserverServices.size() );
+    for( var mailserverService : mailserverServices )
+      MailserverServiceCodec.write( out, mailserverService );
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+
+  private static int toOffset( long offset ) throws IOException {
+
+    if( offset > Integer.MAX_VALUE )
+      throw new IOException( "Provider database exceeds 2 GB!" );
+    return (int) offset;
+  }
+}
@@ -0,0 +1,199 @@
+package de.adrianlange.mcd.strategy.msautodiscover;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext;
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope;
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures;
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolver;
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReaderImpl;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.SRVRecord;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * Discovers mailserver configurations by Microsoft Office Autodiscover v1, which requires the email address to be
+ * posted to an endpoint. The candidate endpoints <i>https://domain/autodiscover/autodiscover.xml</i>,
+ * <i>https://autodiscover.domain/autodiscover/autodiscover.xml</i> and the target of the <i>_autodiscover._tcp</i> SRV
+ * record are requested concurrently instead of one after another. The first valid response wins and the requests to
+ * the other endpoints are cancelled. Redirects to other email addresses or endpoints are followed up to
+ * {@value #MAX_REDIRECTS} times.<p>Since the request must contain an email address, nothing is discovered for domain
+ * parts.
+ *
+ * @author Adrian Lange
+ */
+public class MsAutodiscoverMailserverConfigurationDiscoveryStrategy implements MailserverConfigurationDiscoveryStrategy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      MsAutodiscoverMailserverConfigurationDiscoveryStrategy.class );
+
+  private static final MsAutodiscoverResponseParser RESPONSE_PARSER = new MsAutodiscoverResponseParser();
+
+  private static final String PATH = "/autodiscover/autodiscover.xml";
+
+  private static final String SRV_PROTOCOL_PREFIX = "_autodiscover";
+
+  private static final int MAX_REDIRECTS = 2;
+
+  private final MailserverConfigurationDiscoveryContext context;
+
+  private final SrvDnsResolver srvDnsResolver;
+
+  private final XmlDocumentUrlReader xmlDocumentUrlReader;
+
+
+  public MsAutodiscoverMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context ) {
+
+    this( context, new SrvDnsResolverImpl( context.getDnsLookupContext() ),
+        new XmlDocumentUrlReaderImpl( context.getHttpLookupContext(), context.getExecutor() ) );
+  }
+
+
+  public MsAutodiscoverMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context,
+                                                                 SrvDnsResolver srvDnsResolver,
+                                                                 XmlDocumentUrlReader xmlDocumentUrlReader ) {
+
+    this.context = context;
+    this.srvDnsResolver = srvDnsResolver;
+    this.xmlDocumentUrlReader = xmlDocumentUrlReader;
+  }
+
+
+  @Override
+  public ConfigurationMethod getConfigurationMethod() {
+
+    return ConfigurationMethod.MS_AUTODISCOVER_V1;
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress emailAddress ) {
+
+    return List.of( discover( emailAddress, 0 ) );
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress.DomainPart domainPart ) {
+
+    return Collections.emptyList();
+  }
+
+
+  private CompletableFuture<List<MailserverService>> discover( EmailAddress emailAddress, int redirects ) {
+
+    var domain = emailAddress.getDomainPart().toIdn();
+    var srvFuture = srvDnsResolver.getSrvRecordsAsync( domain, SRV_PROTOCOL_PREFIX ).toCompletableFuture();
+
+    // @formatter:off
+    List<CompletableFuture<Optional<MsAutodiscoverResponse>>> candidates = List.of(
+        post( "https://" + domain + PATH, emailAddress ),
+        post( "https://autodiscover." + domain + PATH, emailAddress ),
+        CompletableFutures.thenCompose( srvFuture, r -> getSrvUrl( r )
+            .map( u -> post( u, emailAddress ) )
+            .orElseGet( () -> CompletableFuture.completedFuture( Optional.empty() ) ) ) );
+    // @formatter:on
+
+    var response = CompletableFutures.firstMatching( candidates,
+        r -> r.map( MsAutodiscoverResponse::isValid ).orElse( false ), Optional.empty() );
+    return CompletableFutures.thenCompose( response, r -> handleResponse( r, emailAddress, redirects ) );
+  }
+
+
+  private CompletableFuture<List<MailserverService>> handleResponse( Optional<MsAutodiscoverResponse> response,
+                                                                     EmailAddress emailAddress, int redirects ) {
+
+    if( response.isEmpty() )
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+
+    var redirectAddr = response.get().getRedirectAddr();
+    var redirectUrl = response.get().getRedirectUrl();
+    if( redirectAddr == null && redirectUrl == null )
+      return CompletableFuture.completedFuture( getScopedMailserverServices( response.get() ) );
+
+    if( redirects >= MAX_REDIRECTS ) {
+      LOG.debug( "Too many Autodiscover redirects for {}", emailAddress );
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+    }
+
+    if( redirectAddr != null ) {
+      EmailAddress redirectEmailAddress;
+      try {
+        redirectEmailAddress = EmailAddress.of( redirectAddr );
+      } catch( IllegalArgumentException e ) {
+        LOG.debug( "Invalid Autodiscover redirect address {} for {}", redirectAddr, emailAddress );
+        return CompletableFuture.completedFuture( Collections.emptyList() );
+      }
+      return discover( redirectEmailAddress, redirects + 1 );
+    }
+
+    if( !redirectUrl.startsWith( "https://" ) ) {
+      LOG.debug( "Ignoring Autodiscover redirect to {} for {}, only HTTPS is allowed", redirectUrl, emailAddress );
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+    }
+    return CompletableFutures.thenCompose( post( redirectUrl, emailAddress ),
+        r -> handleResponse( r.filter( MsAutodiscoverResponse::isValid ), emailAddress, redirects + 1 ) );
+  }
+
+
+  private CompletableFuture<Optional<MsAutodiscoverResponse>> post( String url, EmailAddress emailAddress ) {
+
+    return xmlDocumentUrlReader.postDocumentAsync( url, getRequestBody( emailAddress ), RESPONSE_PARSER );
+  }
+
+
+  private List<MailserverService> getScopedMailserverServices( MsAutodiscoverResponse response ) {
+
+    // @formatter:off
+    return response.getMailserverServices().stream()
+        .filter( s -> context.getDiscoveryScopes().contains( DiscoveryScope.get( s.getProtocol() ) ) )
+        .collect( Collectors.toList() );
+    // @formatter:on
+  }
+
+
+  /**
+   * Returns the endpoint URL of the SRV record with the lowest priority and highest weight.
+   */
+  private static Optional<String> getSrvUrl( Collection<SRVRecord> srvRecords ) {
+
+    // @formatter:off
+    return srvRecords.stream()
+        .filter( r -> r.getTarget().labels() > 1 )
+        .min( Comparator.comparingInt( SRVRecord::getPriority )
+            .thenComparing( Comparator.comparingInt( SRVRecord::getWeight ).reversed() ) )
+        .map( r -> "https://" + r.getTarget().toString( true ) + ( r.getPort() == 443 ? "" : ":" + r.getPort() ) +
+            PATH );
+    // @formatter:on
+  }
+
+
+  private static String getRequestBody( EmailAddress emailAddress ) {
+
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+        "<Autodiscover xmlns=\"http://schemas.microsoft.com/exchange/autodiscover/outlook/requestschema/2006\">" +
+        "<Request><EMailAddress>" + escape( emailAddress.toIdn() ) + "</EMailAddress>" +
+        "<AcceptableResponseSchema>" +
+        "http://schemas.microsoft.com/exchange/autodiscover/outlook/responseschema/2006a" +
+        "</AcceptableResponseSchema></Request></Autodiscover>";
+  }
+
+
+  private static String escape( String value ) {
+
+    return value.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" );
+  }
+}
@@ -0,0 +1,74 @@
+package de.adrianlange.mcd.strategy.msautodiscover;
+
+import de.adrianlange.mcd.model.MailserverService;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Response of an Autodiscover v1 endpoint, which either contains mailserver settings or redirects to another email
+ * address or endpoint URL.
+ *
+ * @author Adrian Lange
+ */
+public final class MsAutodiscoverResponse {
+
+  private final List<MailserverService> mailserverServices;
+
+  private final String redirectAddr;
+
+  private final String redirectUrl;
+
+
+  MsAutodiscoverResponse( List<MailserverService> mailserverServices, String redirectAddr, String redirectUrl ) {
+
+    this.mailserverServices = Collections.unmodifiableList( mailserverServices );
+    this.redirectAddr = redirectAddr;
+    this.redirectUrl = redirectUrl;
+  }
+
+
+  /**
+   * Returns the mailserver services of the response.
+   *
+   * @return Mailserver services, empty if the response is a redirect or contains no supported protocols
+   */
+  public List<MailserverService> getMailserverServices() {
+
+    return mailserverServices;
+  }
+
+
+  /**
+   * Returns the email address to look up instead, if the response is a <i>redirectAddr</i> response.
+   *
+   * @return Email address or null
+   */
+  public String getRedirectAddr() {
+
+    return redirectAddr;
+  }
+
+
+  /**
+   * Returns the endpoint URL to send the request to instead, if the response is a <i>redirectUrl</i> response.
+   *
+   * @return URL or null
+   */
+  public String getRedirectUrl() {
+
+    return redirectUrl;
+  }
+
+
+  /**
+   * Returns if the response contains mailserver services or a redirect.
+   *
+   * @return True if the response is of any use
+   */
+  public boolean isValid() {
+
+    return !mailserverServices.isEmpty() || redirectAddr != null || redirectUrl != null;
+  }
+}
@@ -0,0 +1,241 @@
+package de.adrianlange.mcd.strategy.msautodiscover;
+
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers;
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser;
+import de.adrianlange.mcd.model.Authentication;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.model.Protocol;
+import de.adrianlange.mcd.model.SocketType;
+import de.adrianlange.mcd.model.impl.MsAutodiscoverMailserverServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Single-pass parser for plain old XML (POX) responses of Autodiscover v1 endpoints. Only the <i>IMAP</i>, <i>POP3</i>
+ * and <i>SMTP</i> protocols of the email account are read, Exchange specific protocols are skipped.
+ *
+ * @author Adrian Lange
+ */
+public class MsAutodiscoverResponseParser implements XmlStreamParser<MsAutodiscoverResponse> {
+
+  private static final Logger LOG = LoggerFactory.getLogger( MsAutodiscoverResponseParser.class );
+
+  private static final String EL_ROOT = "Autodiscover";
+
+  private static final String EL_1_RESPONSE = "Response";
+
+  private static final String EL_2_ACCOUNT = "Account";
+
+  private static final String EL_3_ACTION = "Action";
+
+  private static final String EL_3_REDIRECT_ADDR = "RedirectAddr";
+
+  private static final String EL_3_REDIRECT_URL = "RedirectUrl";
+
+  private static final String EL_3_PROTOCOL = "Protocol";
+
+  private static final String EL_4_TYPE = "Type";
+
+  private static final String EL_4_SERVER = "Server";
+
+  private static final String EL_4_PORT = "Port";
+
+  private static final String EL_4_LOGIN_NAME = "LoginName";
+
+  private static final String EL_4_DOMAIN_REQUIRED = "DomainRequired";
+
+  private static final String EL_4_SPA = "SPA";
+
+  private static final String EL_4_SSL = "SSL";
+
+  private static final String EL_4_ENCRYPTION = "Encryption";
+
+  private static final String EL_4_AUTH_REQUIRED = "AuthRequired";
+
+  private static final String ACTION_REDIRECT_ADDR = "redirectAddr";
+
+  private static final String ACTION_REDIRECT_URL = "redirectUrl";
+
+
+  /**
+   * Parses an Autodiscover v1 response.
+   *
+   * @param reader Reader of the XML document
+   * @return Response, null if the document is no Autodiscover response
+   * @throws XMLStreamException if the document is not well-formed or cannot be read
+   */
+  @Override
+  public MsAutodiscoverResponse parse( XMLStreamReader reader ) throws XMLStreamException {
+
+    if( !XmlParsers.nextElement( reader ) )
+      return null;
+
+    if( !getLocalName( reader ).equals( EL_ROOT ) ) {
+      LOG.debug( "Document root {} must equal {}!", getLocalName( reader ), EL_ROOT );
+      return null;
+    }
+
+    var account = new Account();
+    while( XmlParsers.nextElement( reader ) ) {
+      if( getLocalName( reader ).equalsIgnoreCase( EL_1_RESPONSE ) )
+        parseResponse( reader, account );
+      else
+        XmlParsers.skipElement( reader );
+    }
+
+    if( ACTION_REDIRECT_ADDR.equalsIgnoreCase( account.action ) )
+      return new MsAutodiscoverResponse( List.of(), account.redirectAddr, null );
+    if( ACTION_REDIRECT_URL.equalsIgnoreCase( account.action ) )
+      return new MsAutodiscoverResponse( List.of(), null, account.redirectUrl );
+    return new MsAutodiscoverResponse( account.mailserverServices, null, null );
+  }
+
+
+  private static void parseResponse( XMLStreamReader reader, Account account ) throws XMLStreamException {
+
+    while( XmlParsers.nextElement( reader ) ) {
+      if( getLocalName( reader ).equalsIgnoreCase( EL_2_ACCOUNT ) )
+        parseAccount( reader, account );
+      else
+        XmlParsers.skipElement( reader );
+    }
+  }
+
+
+  private static void parseAccount( XMLStreamReader reader, Account account ) throws XMLStreamException {
+
+    while( XmlParsers.nextElement( reader ) ) {
+      var name = getLocalName( reader );
+      if( name.equalsIgnoreCase( EL_3_ACTION ) )
+        account.action = XmlParsers.getText( reader ).trim();
+      else if( name.equalsIgnoreCase( EL_3_REDIRECT_ADDR ) )
+        account.redirectAddr = XmlParsers.getText( reader ).trim();
+      else if( name.equalsIgnoreCase( EL_3_REDIRECT_URL ) )
+        account.redirectUrl = XmlParsers.getText( reader ).trim();
+      else if( name.equalsIgnoreCase( EL_3_PROTOCOL ) )
+        parseProtocol( reader, account.mailserverServices );
+      else
+        XmlParsers.skipElement( reader );
+    }
+  }
+
+
+  private static void parseProtocol( XMLStreamReader reader,
+                                     List<MailserverService> mailserverServices ) throws XMLStreamException {
+
+    var mailserverService = new MsAutodiscoverMailserverServiceImpl();
+    String encryption = null;
+    var ssl = true;
+    var spa = false;
+    var authRequired = true;
+
+    while( XmlParsers.nextElement( reader ) ) {
+      var name = getLocalName( reader );
+      if( name.equalsIgnoreCase( EL_4_TYPE ) )
+        mailserverService.setProtocol( getProtocol( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_4_SERVER ) )
+        mailserverService.setHost( XmlParsers.getText( reader ).trim() );
+      else if( name.equalsIgnoreCase( EL_4_PORT ) )
+        mailserverService.setPort( getPort( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_4_LOGIN_NAME ) )
+        mailserverService.setUsername( XmlParsers.getText( reader ).trim() );
+      else if( name.equalsIgnoreCase( EL_4_DOMAIN_REQUIRED ) )
+        mailserverService.setDomainRequired( isOn( XmlParsers.getText( reader ) ) );
+      else if( name.equalsIgnoreCase( EL_4_SPA ) )
+        spa = isOn( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_4_SSL ) )
+        ssl = isOn( XmlParsers.getText( reader ) );
+      else if( name.equalsIgnoreCase( EL_4_ENCRYPTION ) )
+        encryption = XmlParsers.getText( reader ).trim();
+      else if( name.equalsIgnoreCase( EL_4_AUTH_REQUIRED ) )
+        authRequired = isOn( XmlParsers.getText( reader ) );
+      else
+        XmlParsers.skipElement( reader );
+    }
+
+    if( mailserverService.getProtocol() == null || mailserverService.getHost() == null ||
+        mailserverService.getHost().isEmpty() )
+      return;
+
+    mailserverService.setSocketType( getSocketType( encryption, ssl ) );
+    mailserverService.addAuthentication(
+        !authRequired ? Authentication.NONE : spa ? Authentication.NTLM : Authentication.PASSWORD_CLEARTEXT );
+    mailserverServices.add( mailserverService );
+  }
+
+
+  private static Protocol getProtocol( String type ) {
+
+    switch( type.trim().toUpperCase() ) {
+      case "IMAP":
+        return Protocol.IMAP;
+      case "POP3":
+        return Protocol.POP3;
+      case "SMTP":
+        return Protocol.SMTP;
+      default:
+        return null;
+    }
+  }
+
+
+  /**
+   * The <i>Encryption</i> element overrides the <i>SSL</i> element, which defaults to <i>on</i>.
+   */
+  private static SocketType getSocketType( String encryption, boolean ssl ) {
+
+    if( encryption != null ) {
+      if( encryption.equalsIgnoreCase( "SSL" ) )
+        return SocketType.SSL;
+      if( encryption.equalsIgnoreCase( "TLS" ) )
+        return SocketType.STARTTLS;
+      if( encryption.equalsIgnoreCase( "None" ) )
+        return SocketType.PLAIN;
+    }
+    return ssl ? SocketType.SSL : SocketType.PLAIN;
+  }
+
+
+  private static Integer getPort( String port ) {
+
+    try {
+      return Integer.parseInt( port.trim() );
+    } catch( NumberFormatException e ) {
+      return null;
+    }
+  }
+
+
+  private static boolean isOn( String value ) {
+
+    return value.trim().equalsIgnoreCase( "on" );
+  }
+
+
+  /**
+   * Returns the local name of the current element without namespace prefix, since the reader is not namespace aware.
+   */
+  private static String getLocalName( XMLStreamReader reader ) {
+
+    var name = reader.getLocalName();
+    return name.substring( name.indexOf( ':' ) + 1 );
+  }
+
+
+  private static class Account {
+
+    private final List<MailserverService> mailserverServices = new ArrayList<>();
+
+    private String action;
+
+    private String redirectAddr;
+
+    private String redirectUrl;
+  }
+}
@@ -0,0 +1,213 @@
+package de.adrianlange.mcd.strategy.mxprovider;
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext;
+import de.adrianlange.mcd.infrastructure.cache.ProviderResultCache;
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures;
+import de.adrianlange.mcd.infrastructure.dns.MxDnsResolver;
+import de.adrianlange.mcd.infrastructure.dns.MxDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.dns.PublicSuffixList;
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolverImpl;
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReaderImpl;
+import de.adrianlange.mcd.model.ConfigurationMethod;
+import de.adrianlange.mcd.model.MailserverService;
+import de.adrianlange.mcd.strategy.EmailAddress;
+import de.adrianlange.mcd.strategy.MailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfMailserverConfigurationDiscoveryStrategy;
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfPlaceholders;
+import de.adrianlange.mcd.strategy.srvrecord.SrvRecordMailserverConfigurationDiscoveryStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.MXRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * Discovers the mailserver configurations of the email provider handling the mail of a domain. Many domains publish no
+ * configurations of their own, but their MX records point to a provider which does. The base domain of the provider
+ * is derived from the MX targets with the lowest preference by the {@link PublicSuffixList}, e.g. <i>google.com</i> for
+ * <i>aspmx.l.google.com</i>, and looked up by Mozilla Autoconf and SRV records. Providers in the domain of the looked
+ * up domain itself are skipped, they are covered by the other configuration methods.<p>The results of the providers
+ * are cached in the {@link ProviderResultCache} of the context, s.th. all domains of a provider share one lookup.
+ *
+ * @author Adrian Lange
+ */
+public class MxProviderMailserverConfigurationDiscoveryStrategy implements MailserverConfigurationDiscoveryStrategy {
+
+  private static final Logger LOG = LoggerFactory.getLogger( MxProviderMailserverConfigurationDiscoveryStrategy.class );
+
+  private final MailserverConfigurationDiscoveryContext context;
+
+  private final MxDnsResolver mxDnsResolver;
+
+  private final MozillaAutoconfMailserverConfigurationDiscoveryStrategy mozillaAutoconfStrategy;
+
+  private final SrvRecordMailserverConfigurationDiscoveryStrategy srvRecordStrategy;
+
+
+  public MxProviderMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context ) {
+
+    this( context, new MxDnsResolverImpl( context.getDnsLookupContext() ),
+        new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context,
+            new TxtDnsResolverImpl( context.getDnsLookupContext() ),
+            new XmlDocumentUrlReaderImpl( context.getHttpLookupContext(), context.getExecutor() ) ),
+        new SrvRecordMailserverConfigurationDiscoveryStrategy( context,
+            new SrvDnsResolverImpl( context.getDnsLookupContext() ) ) );
+  }
+
+
+  public MxProviderMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context,
+                                                             MxDnsResolver mxDnsResolver,
+                                                             MozillaAutoconfMailserverConfigurationDiscoveryStrategy mozillaAutoconfStrategy,
+                                                             SrvRecordMailserverConfigurationDiscoveryStrategy srvRecordStrategy ) {
+
+    this.context = context;
+    this.mxDnsResolver = mxDnsResolver;
+    this.mozillaAutoconfStrategy = mozillaAutoconfStrategy;
+    this.srvRecordStrategy = srvRecordStrategy;
+  }
+
+
+  @Override
+  public ConfigurationMethod getConfigurationMethod() {
+
+    return ConfigurationMethod.MX_PROVIDER;
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress emailAddress ) {
+
+    return MozillaAutoconfPlaceholders.replaceAsync( List.of( getProviderMailserverServices(
+        emailAddress.getDomainPart() ) ), MozillaAutoconfPlaceholders.of( emailAddress ) );
+  }
+
+
+  @Override
+  public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress.DomainPart domainPart ) {
+
+    return MozillaAutoconfPlaceholders.replaceAsync( List.of( getProviderMailserverServices( domainPart ) ),
+        MozillaAutoconfPlaceholders.of( domainPart ) );
+  }
+
+
+  /**
+   * The provider only depends on the domain part, so it is looked up once for all email addresses. The placeholders are
+   * replaced for each email address afterwards.
+   */
+  @Override
+  public Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> getMailserverServices( EmailAddress.DomainPart domainPart,
+                                                                                                   Collection<EmailAddress> emailAddresses ) {
+
+    var completableFutures = List.of( getProviderMailserverServices( domainPart ) );
+
+    Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> result = new LinkedHashMap<>();
+    for( var emailAddress : emailAddresses )
+      result.put( emailAddress, MozillaAutoconfPlaceholders.replaceAsync( completableFutures,
+          MozillaAutoconfPlaceholders.of( emailAddress ) ) );
+    return result;
+  }
+
+
+  /**
+   * Looks up the MX records of the domain and the mailserver services of the providers they point to, which still
+   * contain placeholders.
+   */
+  private CompletableFuture<List<MailserverService>> getProviderMailserverServices( EmailAddress.DomainPart domainPart ) {
+
+    var mxFuture = mxDnsResolver.getMxRecordsAsync( domainPart.toIdn() ).toCompletableFuture();
+    return CompletableFutures.propagateCancellation( mxFuture, mxFuture.thenCompose( mxRecords -> {
+      // @formatter:off
+      List<CompletableFuture<List<MailserverService>>> completableFutures = getProviders( domainPart, mxRecords ).stream()
+          .map( this::getProviderMailserverServices )
+          .collect( Collectors.toList() );
+
+      return CompletableFuture.allOf( completableFutures.toArray( new CompletableFuture[0] ) )
+          .thenApply( v -> completableFutures.stream()
+              .map( CompletableFuture::join )
+              .flatMap( List::stream )
+              .collect( Collectors.toList() ) );
+      // @formatter:on
+    } ) );
+  }
+
+
+  /**
+   * Returns the mailserver services of the provider from the provider result cache, if there is one. A failed lookup of
+   * the provider results in an empty list, s.th. the lookups of other providers are not affected.
+   */
+  private CompletableFuture<List<MailserverService>> getProviderMailserverServices( String provider ) {
+
+    var providerResultCache = context.getProviderResultCache();
+    var future = providerResultCache == null ? lookupProvider( provider ) :
+        providerResultCache.get( provider, () -> lookupProvider( provider ) );
+    return CompletableFutures.propagateCancellation( future, future.handle( ( r, t ) -> {
+      if( t == null )
+        return r;
+      LOG.debug( "Could not look up mailserver configurations of provider {}", provider, t );
+      return Collections.<MailserverService>emptyList();
+    } ) );
+  }
+
+
+  /**
+   * Looks up the mailserver services of the provider by Mozilla Autoconf and SRV records. Invalid provider domains
+   * result in an empty list. If a lookup fails, the returned future fails as well, s.th. the incomplete result is not
+   * kept in the provider result cache.
+   */
+  private CompletableFuture<List<MailserverService>> lookupProvider( String provider ) {
+
+    LOG.debug( "Looking up mailserver configurations of provider {}", provider );
+    EmailAddress.DomainPart providerDomainPart;
+    try {
+      providerDomainPart = EmailAddress.DomainPart.ofIdn( provider );
+    } catch( IllegalArgumentException e ) {
+      LOG.debug( "Skipping invalid provider domain {}", provider );
+      return CompletableFuture.completedFuture( Collections.emptyList() );
+    }
+    List<CompletableFuture<List<MailserverService>>> completableFutures = new ArrayList<>(
+        mozillaAutoconfStrategy.getMailserverServicesWithPlaceholders( providerDomainPart ) );
+    completableFutures.addAll( srvRecordStrategy.getMailserverServices( providerDomainPart ) );
+
+    // @formatter:off
+    return CompletableFuture.allOf( completableFutures.toArray( new CompletableFuture[0] ) )
+        .thenApply( v -> completableFutures.stream()
+            .map( CompletableFuture::join )
+            .flatMap( List::stream )
+            .collect( Collectors.toList() ) );
+    // @formatter:on
+  }
+
+
+  /**
+   * Returns the base domains of the providers the MX records with the lowest preference point to, except the base
+   * domain of the looked up domain itself. Null MX records, which declare that a domain accepts no mail, are skipped.
+   */
+  private List<String> getProviders( EmailAddress.DomainPart domainPart, Collection<MXRecord> mxRecords ) {
+
+    var publicSuffixList = context.getPublicSuffixList();
+    var ownBaseDomain = publicSuffixList.getRegistrableDomain( domainPart.toIdn() );
+    var minPriority = mxRecords.stream().mapToInt( MXRecord::getPriority ).min().orElse( 0 );
+
+    // @formatter:off
+    return mxRecords.stream()
+        .filter( r -> r.getPriority() == minPriority )
+        .map( r -> r.getTarget().toString( true ) )
+        .filter( t -> !t.isEmpty() && !t.equals( "." ) )
+        .map( publicSuffixList::getRegistrableDomain )
+        .filter( Objects::nonNull )
+        .filter( p -> !p.equals( ownBaseDomain ) )
+        .distinct()
+        .collect( Collectors.toList() );
+    // @formatter:on
+  }
+}
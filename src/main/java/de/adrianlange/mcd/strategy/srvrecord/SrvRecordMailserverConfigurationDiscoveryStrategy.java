@@ -3,6 +3,7 @@ package de.adrianlange.mcd.strategy.srvrecord;
 import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext;
 import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolver;
 import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl;
+import de.adrianlange.mcd.model.ConfigurationMethod;
 import de.adrianlange.mcd.model.MailserverService;
 import de.adrianlange.mcd.model.Protocol;
 import de.adrianlange.mcd.model.SocketType;
@@ -13,7 +14,10 @@ import org.xbill.DNS.SRVRecord;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
@@ -27,11 +31,25 @@ public class SrvRecordMailserverConfigurationDiscoveryStrategy implements Mailse
 
   public SrvRecordMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context ) {
 
-    srvDnsResolver = new SrvDnsResolverImpl( context.getDnsLookupContext() );
+    this( context, new SrvDnsResolverImpl( context.getDnsLookupContext() ) );
+  }
+
+
+  public SrvRecordMailserverConfigurationDiscoveryStrategy( MailserverConfigurationDiscoveryContext context,
+                                                            SrvDnsResolver srvDnsResolver ) {
+
+    this.srvDnsResolver = srvDnsResolver;
     this.context = context;
   }
 
 
+  @Override
+  public ConfigurationMethod getConfigurationMethod() {
+
+    return ConfigurationMethod.RFC_61186;
+  }
+
+
   @Override
   public List<CompletableFuture<List<MailserverService>>> getMailserverServices( EmailAddress emailAddress ) {
 
@@ -45,16 +63,40 @@ public class SrvRecordMailserverConfigurationDiscoveryStrategy implements Mailse
     //@formatter:off
     return Arrays.stream( SrvProtocol.values() )
         .filter( p -> context.getDiscoveryScopes().contains( p.discoveryScope ) )
-        .map( p -> CompletableFuture.supplyAsync( () -> getMailserverServicesForProtocol( domainPart.toIdn(), p ), context.getExecutor() ) )
+        .map( p -> getMailserverServicesForProtocol( domainPart.toIdn(), p ) )
         .collect( Collectors.toList() );
     //@formatter:on
   }
 
 
-  private List<MailserverService> getMailserverServicesForProtocol( String idnDomain, SrvProtocol srvProtocol ) {
+  /**
+   * SRV records only depend on the domain part, so they are looked up once for all email addresses.
+   */
+  @Override
+  public Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> getMailserverServices( EmailAddress.DomainPart domainPart,
+                                                                                                   Collection<EmailAddress> emailAddresses ) {
+
+    var completableFutures = getMailserverServices( domainPart );
+
+    Map<EmailAddress, List<CompletableFuture<List<MailserverService>>>> result = new LinkedHashMap<>();
+    for( var emailAddress : emailAddresses )
+      result.put( emailAddress, completableFutures );
+    return result;
+  }
+
+
+  private CompletableFuture<List<MailserverService>> getMailserverServicesForProtocol( String idnDomain,
+                                                                                       SrvProtocol srvProtocol ) {
+
+    var srvDnsRecords = srvDnsResolver.getSrvRecordsAsync( idnDomain, srvProtocol.protocolPrefix );
+    return srvDnsRecords.thenApply( r -> getMailserverServicesFromSrvRecords( r, srvProtocol ) ).toCompletableFuture();
+  }
+
+
+  private static List<MailserverService> getMailserverServicesFromSrvRecords( Collection<SRVRecord> srvDnsRecords,
+                                                                              SrvProtocol srvProtocol ) {
 
     List<MailserverService> mailserverServices = new ArrayList<>();
-    var srvDnsRecords = srvDnsResolver.getSrvRecords( idnDomain, srvProtocol.protocolPrefix );
     for( SRVRecord srvRecord : srvDnsRecords ) {
 
       if( srvRecord.getTarget().toString().equals( "." ) )
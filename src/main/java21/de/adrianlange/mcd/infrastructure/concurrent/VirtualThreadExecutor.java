@@ -0,0 +1,51 @@
+package de.adrianlange.mcd.infrastructure.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Executor running each task in a new virtual thread. Virtual threads are named <code>mcd-virtual-N</code>, the
+ * executor is shared and never shut down.
+ *
+ * @author Adrian Lange
+ */
+public final class VirtualThreadExecutor {
+
+  private VirtualThreadExecutor() {
+
+  }
+
+
+  /**
+   * Returns if virtual threads are supported by the running Java version.
+   *
+   * @return True if tasks are run in virtual threads
+   */
+  public static boolean isSupported() {
+
+    return true;
+  }
+
+
+  /**
+   * Returns the shared executor running each task in a new virtual thread.
+   *
+   * @return Executor
+   */
+  public static Executor get() {
+
+    return Holder.EXECUTOR::execute;
+  }
+
+
+  /**
+   * Lazily initialized executor.
+   */
+  private static class Holder {
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( "mcd-virtual-", 1 ).factory() );
+  }
+}
@@ -0,0 +1,53 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.CompletionPredicates
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope
+import de.adrianlange.mcd.model.MailserverService
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.model.SocketType
+import de.adrianlange.mcd.model.impl.SrvRecordMailserverServiceImpl
+import spock.lang.Specification
+
+class CompletionPredicatesSpec extends Specification {
+
+    def "test predicate requires a usable service for each discovery scope"() {
+
+        given:
+            def predicate = CompletionPredicates.containsEach( [ SocketType.SSL ] as Set, DiscoveryScope.RECEPTION,
+                    DiscoveryScope.SUBMISSION )
+            def imap = service( Protocol.IMAP, SocketType.SSL, "imap.example.com" )
+            def plainSmtp = service( Protocol.SMTP, SocketType.PLAIN, "smtp.example.com" )
+            def smtpWithoutHost = service( Protocol.SMTP, SocketType.SSL, null )
+            def smtp = service( Protocol.SMTP, SocketType.SSL, "smtp.example.com" )
+
+        expect:
+            !predicate.test( [] as Set )
+            !predicate.test( [ imap, plainSmtp, smtpWithoutHost ] as Set )
+            predicate.test( [ imap, plainSmtp, smtp ] as Set )
+            CompletionPredicates.containsEach( DiscoveryScope.SUBMISSION ).test( [ plainSmtp ] as Set )
+    }
+
+
+    def "test predicate accepts SRV services without a socket type for any socket type"() {
+
+        given:
+            def imap = new SrvRecordMailserverServiceImpl( Protocol.IMAP, null, "imap.example.com", 143, 10 )
+            def submission = new SrvRecordMailserverServiceImpl( Protocol.SMTP, null, "smtp.example.com", 587, 10 )
+
+        expect:
+            CompletionPredicates.containsEach( DiscoveryScope.RECEPTION, DiscoveryScope.SUBMISSION ).test(
+                    [ imap, submission ] as Set )
+            !CompletionPredicates.containsEach( SocketType.values() as Set, DiscoveryScope.RECEPTION ).test(
+                    [ imap ] as Set )
+    }
+
+
+    private MailserverService service( Protocol protocol, SocketType socketType, String host ) {
+
+        def mailserverService = Mock( MailserverService )
+        mailserverService.protocol >> protocol
+        mailserverService.socketType >> socketType
+        mailserverService.host >> host
+        return mailserverService
+    }
+}
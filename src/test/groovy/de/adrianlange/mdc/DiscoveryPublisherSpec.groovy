@@ -0,0 +1,155 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.DiscoveryPublisher
+import de.adrianlange.mcd.model.MailserverService
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Flow
+import java.util.concurrent.TimeUnit
+
+class DiscoveryPublisherSpec extends Specification {
+
+    def "test publisher emits services as requested and de-duplicates them"() {
+
+        given:
+            def serviceA = Mock( MailserverService )
+            def serviceB = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def completeResult = null
+            def publisher = new DiscoveryPublisher( { [ CompletableFuture.completedFuture( [ serviceA ] ), slowLookup ] },
+                    null, { r -> completeResult = r }, null )
+            def subscriber = new TestSubscriber()
+
+        when:
+            publisher.subscribe( subscriber )
+
+        then:
+            subscriber.items.isEmpty()
+
+        when:
+            subscriber.subscription.request( 1 )
+
+        then:
+            subscriber.items == [ serviceA ]
+            !subscriber.completed
+
+        when:
+            slowLookup.complete( [ serviceA, serviceB ] )
+
+        then:
+            subscriber.items == [ serviceA ]
+            completeResult == [ serviceA, serviceB ] as Set
+
+        when:
+            subscriber.subscription.request( 5 )
+
+        then:
+            subscriber.items == [ serviceA, serviceB ]
+            subscriber.completed
+    }
+
+
+    def "test cancelling subscription cancels remaining lookups"() {
+
+        given:
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def terminated = false
+            def publisher = new DiscoveryPublisher( { [ slowLookup ] }, null, null, { terminated = true } )
+            def subscriber = new TestSubscriber()
+
+        when:
+            publisher.subscribe( subscriber )
+            subscriber.subscription.cancel()
+
+        then:
+            slowLookup.isCancelled()
+            terminated
+            !subscriber.completed
+    }
+
+
+    def "test publisher completes with found services when timeout is reached"() {
+
+        given:
+            def service = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def completeResult = null
+            def publisher = new DiscoveryPublisher( { [ CompletableFuture.completedFuture( [ service ] ), slowLookup ] },
+                    Duration.ofMillis( 50 ), { r -> completeResult = r }, null )
+            def subscriber = new TestSubscriber()
+
+        when:
+            publisher.subscribe( subscriber )
+            subscriber.subscription.request( Long.MAX_VALUE )
+
+        then:
+            subscriber.done.await( 5, TimeUnit.SECONDS )
+            subscriber.items == [ service ]
+            subscriber.completed
+            slowLookup.isCancelled()
+            completeResult == null
+    }
+
+
+    def "test non-positive request signals error"() {
+
+        given:
+            def publisher = new DiscoveryPublisher( { [ new CompletableFuture<List<MailserverService>>() ] }, null, null,
+                    null )
+            def subscriber = new TestSubscriber()
+
+        when:
+            publisher.subscribe( subscriber )
+            subscriber.subscription.request( 0 )
+
+        then:
+            subscriber.error instanceof IllegalArgumentException
+    }
+
+
+    private static class TestSubscriber implements Flow.Subscriber<MailserverService> {
+
+        Flow.Subscription subscription
+
+        List<MailserverService> items = Collections.synchronizedList( [] )
+
+        volatile boolean completed = false
+
+        volatile Throwable error
+
+        CountDownLatch done = new CountDownLatch( 1 )
+
+
+        @Override
+        void onSubscribe( Flow.Subscription subscription ) {
+
+            this.subscription = subscription
+        }
+
+
+        @Override
+        void onNext( MailserverService item ) {
+
+            items.add( item )
+        }
+
+
+        @Override
+        void onError( Throwable throwable ) {
+
+            error = throwable
+            done.countDown()
+        }
+
+
+        @Override
+        void onComplete() {
+
+            completed = true
+            done.countDown()
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryEngine
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolverImpl
+import de.adrianlange.mcd.infrastructure.metrics.DefaultDiscoveryMetrics
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.strategy.EmailAddress
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabaseCompiler
+import de.adrianlange.mcd.testsupport.FakeDnsServer
+import de.adrianlange.mcd.testsupport.FakeHttpServer
+import org.xbill.DNS.DClass
+import org.xbill.DNS.MXRecord
+import org.xbill.DNS.Name
+import org.xbill.DNS.SRVRecord
+import org.xbill.DNS.TXTRecord
+import org.xbill.DNS.Type
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Discoveries against in-process DNS and HTTP servers, which run without network access.
+ */
+class FakeServerDiscoverySpec extends Specification {
+
+    private static final String AUTOCONF_DOCUMENT = """<?xml version="1.0"?>
+        <clientConfig version="1.1">
+            <emailProvider id="example.com">
+                <incomingServer type="imap">
+                    <hostname>imap.example.com</hostname>
+                    <port>993</port>
+                    <socketType>SSL</socketType>
+                    <username>%EMAILLOCALPART%</username>
+                    <authentication>password-cleartext</authentication>
+                </incomingServer>
+                <outgoingServer type="smtp">
+                    <hostname>smtp.example.com</hostname>
+                    <port>465</port>
+                    <socketType>SSL</socketType>
+                    <username>%EMAILADDRESS%</username>
+                    <authentication>password-cleartext</authentication>
+                </outgoingServer>
+            </emailProvider>
+        </clientConfig>"""
+
+    private FakeDnsServer dnsServer
+
+    private FakeHttpServer httpServer
+
+
+    def setup() {
+
+        dnsServer = new FakeDnsServer()
+        dnsServer.addRecord( new SRVRecord( Name.fromString( "_imaps._tcp.example.com." ), DClass.IN, 3600, 0, 1, 993,
+                Name.fromString( "imap.example.com." ) ) )
+        dnsServer.addRecord( new SRVRecord( Name.fromString( "_submission._tcp.example.com." ), DClass.IN, 3600, 0, 1,
+                587, Name.fromString( "smtp.example.com." ) ) )
+        dnsServer.addRecord( new TXTRecord( Name.fromString( "example.com." ), DClass.IN, 3600, "v=spf1 -all" ) )
+
+        httpServer = new FakeHttpServer()
+        httpServer.addDocument( "autoconfig.example.com", "/mail/config-v1.1.xml", AUTOCONF_DOCUMENT )
+    }
+
+
+    def cleanup() {
+
+        dnsServer.close()
+        httpServer.close()
+    }
+
+
+    private MailserverConfigurationDiscoveryContextBuilder createContextBuilder( ConfigurationMethod... methods ) {
+
+        return new MailserverConfigurationDiscoveryContextBuilder()
+                .withConfigurationMethods( methods )
+                .withDnsServer( dnsServer.host, dnsServer.port )
+                .withDnsCacheSize( 0 )
+                .withHttpProxy( httpServer.proxySelector )
+    }
+
+
+    def "test SRV records are discovered over UDP"() {
+
+        given:
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.RFC_61186 ).build() )
+
+        when:
+            def services = engine.discover( "example.com" )
+
+        then:
+            services*.host as Set == [ "imap.example.com", "smtp.example.com" ] as Set
+            services*.port as Set == [ 993, 587 ] as Set
+            dnsServer.udpQueryCount == 5
+            dnsServer.tcpQueryCount == 0
+    }
+
+
+    def "test truncated answers are retried over TCP"() {
+
+        given:
+            dnsServer.truncateUdp = true
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.RFC_61186 ).build() )
+
+        when:
+            def services = engine.discover( "example.com" )
+
+        then:
+            services.size() == 2
+            dnsServer.udpQueryCount == 5
+            dnsServer.tcpQueryCount == 5
+    }
+
+
+    def "test TCP is used if configured"() {
+
+        given:
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.RFC_61186 ).useTcpForDnsLookups( true ).build() )
+
+        when:
+            def services = engine.discover( "example.com" )
+
+        then:
+            services.size() == 2
+            dnsServer.udpQueryCount == 0
+            dnsServer.tcpQueryCount == 5
+    }
+
+
+    def "test TXT records are resolved"() {
+
+        given:
+            def context = createContextBuilder().build()
+            def resolver = new TxtDnsResolverImpl( context.dnsLookupContext )
+
+        expect:
+            resolver.getTxtRecords( "example.com" )*.strings == [ [ "v=spf1 -all" ] ]
+            resolver.getTxtRecords( "unknown.example.com" ).isEmpty()
+    }
+
+
+    def "test autoconf documents are served for email addresses"() {
+
+        given:
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MOZILLA_AUTOCONF ).build() )
+
+        when:
+            def services = engine.discover( EmailAddress.of( "john.doe@example.com" ) )
+
+        then:
+            services.size() == 2
+            services.find { it.protocol == Protocol.IMAP }.username == "john.doe"
+            services.find { it.protocol == Protocol.SMTP }.username == "john.doe@example.com"
+            httpServer.requestCount == 2
+    }
+
+
+    def "test DNS latency beyond discovery timeout yields partial result"() {
+
+        given:
+            dnsServer.faultInjection.withLatency( Duration.ofSeconds( 2 ) )
+            def engine = new MailserverConfigurationDiscoveryEngine( createContextBuilder( ConfigurationMethod.values() )
+                    .withDnsLookupTimeout( Duration.ofSeconds( 5 ) )
+                    .build() )
+
+        when:
+            def start = System.nanoTime()
+            def result = engine.discover( "example.com", Duration.ofMillis( 300 ) )
+            def elapsed = Duration.ofNanos( System.nanoTime() - start )
+
+        then:
+            elapsed < Duration.ofSeconds( 2 )
+            !result.complete
+            ConfigurationMethod.RFC_61186 in result.timedOutConfigurationMethods
+            result.mailserverServices.size() == 2
+            result.mailserverServices.every { it.configurationMethod == ConfigurationMethod.MOZILLA_AUTOCONF }
+    }
+
+
+    def "test lost DNS queries are retried"() {
+
+        given:
+            dnsServer.faultInjection.withLossRate( 1 )
+            def engine = new MailserverConfigurationDiscoveryEngine( createContextBuilder( ConfigurationMethod.RFC_61186 )
+                    .withDnsLookupTimeout( Duration.ofMillis( 500 ) )
+                    .withDnsLookupRetries( 3 )
+                    .build() )
+
+        when:
+            def services = engine.discover( "example.com" )
+
+        then:
+            services.isEmpty()
+            dnsServer.udpQueryCount > 5
+    }
+
+
+    def "test DNS errors yield empty results"() {
+
+        given:
+            dnsServer.faultInjection.withErrorRate( 1 )
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.RFC_61186 ).build() )
+
+        expect:
+            engine.discover( "example.com" ).isEmpty()
+    }
+
+
+    def "test HTTP errors yield empty results"() {
+
+        given:
+            httpServer.faultInjection.withErrorRate( 1 )
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MOZILLA_AUTOCONF ).build() )
+
+        expect:
+            engine.discover( "example.com" ).isEmpty()
+            httpServer.requestCount == 2
+    }
+
+
+    def "test lost HTTP requests run into the request timeout"() {
+
+        given:
+            httpServer.faultInjection.withLossRate( 1 )
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MOZILLA_AUTOCONF )
+                            .withHttpRequestTimeout( Duration.ofMillis( 300 ) )
+                            .build() )
+
+        when:
+            def start = System.nanoTime()
+            def services = engine.discover( "example.com" )
+            def elapsed = Duration.ofNanos( System.nanoTime() - start )
+
+        then:
+            services.isEmpty()
+            elapsed >= Duration.ofMillis( 300 )
+            elapsed < Duration.ofSeconds( 5 )
+    }
+
+
+    def "test concurrent discoveries with latency and jitter complete"() {
+
+        given:
+            dnsServer.faultInjection.withLatency( Duration.ofMillis( 10 ), Duration.ofMillis( 20 ) )
+            httpServer.faultInjection.withLatency( Duration.ofMillis( 10 ), Duration.ofMillis( 20 ) )
+            def engine = new MailserverConfigurationDiscoveryEngine( createContextBuilder( ConfigurationMethod.values() )
+                    .withDiscoveryTimeout( Duration.ofSeconds( 10 ) )
+                    .build() )
+            def emailAddresses = ( 1..100 ).collect { EmailAddress.of( "user${ it }@example.com" ) }
+
+        when:
+            def futures = emailAddresses.collect { engine.discoverAsync( it ) }
+            CompletableFuture.allOf( futures as CompletableFuture[] ).get( 30, TimeUnit.SECONDS )
+
+        then:
+            futures.every { it.join().size() == 4 }
+            httpServer.requestCount == 100 * 2
+    }
+
+
+    def "test requests exceeding the host limits wait and complete"() {
+
+        given:
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MOZILLA_AUTOCONF )
+                            .withHttpHostLimits( 1, 50, 1 )
+                            .withDiscoveryTimeout( Duration.ofSeconds( 10 ) )
+                            .build() )
+            def emailAddresses = ( 1..10 ).collect { EmailAddress.of( "user${ it }@example.com" ) }
+
+        when:
+            def start = System.nanoTime()
+            def futures = emailAddresses.collect { engine.discoverAsync( it ) }
+            CompletableFuture.allOf( futures as CompletableFuture[] ).get( 30, TimeUnit.SECONDS )
+            def elapsed = Duration.ofNanos( System.nanoTime() - start )
+
+        then:
+            futures.every { it.join().size() == 2 }
+            httpServer.requestCount == 10 * 2
+            elapsed >= Duration.ofMillis( 9 * 20 )
+    }
+
+
+    def "test metrics record DNS queries, HTTP fetches and strategies"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.RFC_61186, ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .withMetrics( metrics )
+                    .build() )
+
+        when:
+            def services = engine.discover( EmailAddress.of( "john.doe@example.com" ) )
+
+        then:
+            services.size() == 4
+            metrics.getDnsQueryCount( Type.SRV, DiscoveryMetrics.Outcome.SUCCESS ) == 5
+            metrics.getHttpStatusCount( 200 ) == 1
+            metrics.getHttpStatusCount( 404 ) == 1
+            metrics.httpBytes == AUTOCONF_DOCUMENT.bytes.length
+            metrics.discoveryLatency.count == 1
+            metrics.incompleteDiscoveryCount == 0
+            metrics.executorQueueLatency.count > 0
+            new PollingConditions( timeout: 5 ).eventually {
+                assert metrics.getStrategyCount( ConfigurationMethod.RFC_61186, DiscoveryMetrics.Outcome.SUCCESS ) == 1
+                assert metrics.getStrategyCount( ConfigurationMethod.MOZILLA_AUTOCONF,
+                        DiscoveryMetrics.Outcome.SUCCESS ) == 1
+                assert metrics.executorQueueDepth == 0
+            }
+    }
+
+
+    def "test metrics record HTTP timeouts"() {
+
+        given:
+            httpServer.faultInjection.withLossRate( 1 )
+            def metrics = new DefaultDiscoveryMetrics()
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MOZILLA_AUTOCONF )
+                            .withHttpRequestTimeout( Duration.ofMillis( 300 ) )
+                            .withMetrics( metrics )
+                            .build() )
+
+        when:
+            engine.discover( "example.com" )
+
+        then:
+            metrics.getHttpFetchCount( DiscoveryMetrics.Outcome.TIMEOUT ) == 2
+            metrics.getHttpStatusCount( 200 ) == 0
+            metrics.timeoutCount >= 2
+    }
+
+
+    def "test metrics record cache hits and misses"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    new MailserverConfigurationDiscoveryContextBuilder()
+                            .withConfigurationMethods( ConfigurationMethod.RFC_61186 )
+                            .withDnsServer( dnsServer.host, dnsServer.port )
+                            .withResultCache( 100, Duration.ofMinutes( 1 ), Duration.ofMinutes( 1 ) )
+                            .withMetrics( metrics )
+                            .build() )
+
+        when:
+            engine.discover( "example.com" )
+            engine.discover( "example.com" )
+            engine.discover( "example.org" )
+
+        then:
+            metrics.getCacheHitCount( DiscoveryMetrics.Cache.RESULT ) == 1
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.RESULT ) == 2
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.DNS ) == 10
+            metrics.getCacheHitCount( DiscoveryMetrics.Cache.DNS ) == 0
+            metrics.discoveryLatency.count == 3
+    }
+
+
+    def "test provider database answers without network lookups"() {
+
+        given:
+            def compiler = new ProviderDatabaseCompiler()
+            def document = AUTOCONF_DOCUMENT.replace( "<emailProvider id=\"example.com\">",
+                    "<emailProvider id=\"example.com\"><domain>example.com</domain>" )
+            compiler.addDocument( new ByteArrayInputStream( document.bytes ) )
+            def bytes = new ByteArrayOutputStream()
+            compiler.write( bytes )
+            def engine = new MailserverConfigurationDiscoveryEngine( createContextBuilder( ConfigurationMethod.values() )
+                    .withProviderDatabase( ProviderDatabase.read( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+                    .build() )
+
+        when:
+            def services = engine.discover( EmailAddress.of( "john.doe@example.com" ) )
+            def batchServices = engine.discoverAll( [ EmailAddress.of( "jane.doe@example.com" ) ] )
+
+        then:
+            services.size() == 2
+            services.find { it.protocol == Protocol.IMAP }.username == "john.doe"
+            batchServices[EmailAddress.of( "jane.doe@example.com" )].find { it.protocol == Protocol.IMAP }.username ==
+                    "jane.doe"
+            dnsServer.queryCount == 0
+            httpServer.requestCount == 0
+    }
+
+
+    def "test unknown domains are looked up by the network strategies"() {
+
+        given:
+            def bytes = new ByteArrayOutputStream()
+            new ProviderDatabaseCompiler().write( bytes )
+            def engine = new MailserverConfigurationDiscoveryEngine( createContextBuilder( ConfigurationMethod.values() )
+                    .withProviderDatabase( ProviderDatabase.read( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+                    .build() )
+
+        when:
+            def services = engine.discover( "example.com" )
+
+        then:
+            !services.isEmpty()
+            dnsServer.queryCount > 0
+    }
+
+
+    def "test providers found by MX records are looked up once for all their domains"() {
+
+        given:
+            [ "customer1.com", "customer2.net" ].each {
+                dnsServer.addRecord( new MXRecord( Name.fromString( "${ it }." ), DClass.IN, 3600, 10,
+                        Name.fromString( "mx1.provider.net." ) ) )
+                dnsServer.addRecord( new MXRecord( Name.fromString( "${ it }." ), DClass.IN, 3600, 20,
+                        Name.fromString( "backup.other.org." ) ) )
+            }
+            httpServer.addDocument( "autoconfig.provider.net", "/mail/config-v1.1.xml", AUTOCONF_DOCUMENT )
+            def metrics = new DefaultDiscoveryMetrics()
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MX_PROVIDER ).withMetrics( metrics ).build() )
+
+        when:
+            def services = engine.discover( EmailAddress.of( "john.doe@customer1.com" ) )
+            def requestCount = httpServer.requestCount
+            def otherServices = engine.discover( EmailAddress.of( "jane.doe@customer2.net" ) )
+
+        then:
+            services*.host as Set == [ "imap.example.com", "smtp.example.com" ] as Set
+            services.every { it.configurationMethod == ConfigurationMethod.MOZILLA_AUTOCONF }
+            services.find { it.protocol == Protocol.IMAP }.username == "john.doe"
+            otherServices.find { it.protocol == Protocol.IMAP }.username == "jane.doe"
+            requestCount > 0
+            httpServer.requestCount == requestCount
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.PROVIDER ) == 1
+            metrics.getCacheHitCount( DiscoveryMetrics.Cache.PROVIDER ) == 1
+    }
+
+
+    def "test providers in the own domain are skipped"() {
+
+        given:
+            dnsServer.addRecord( new MXRecord( Name.fromString( "example.com." ), DClass.IN, 3600, 10,
+                    Name.fromString( "mx.example.com." ) ) )
+            def engine = new MailserverConfigurationDiscoveryEngine(
+                    createContextBuilder( ConfigurationMethod.MX_PROVIDER ).build() )
+
+        expect:
+            engine.discover( "example.com" ).isEmpty()
+            httpServer.requestCount == 0
+    }
+
+
+    def "test MX provider lookups are disabled by default"() {
+
+        expect:
+            !new MailserverConfigurationDiscoveryContextBuilder().build().configurationMethods.contains(
+                    ConfigurationMethod.MX_PROVIDER )
+    }
+
+
+    def "test metrics must not be null"() {
+
+        when:
+            new MailserverConfigurationDiscoveryContextBuilder().withMetrics( null )
+
+        then:
+            thrown( IllegalArgumentException )
+    }
+}
@@ -0,0 +1,146 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.InFlightDiscoveries
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext.DiscoveryScope
+import de.adrianlange.mcd.PendingDiscovery
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.model.MailserverService
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class InFlightDiscoveriesSpec extends Specification {
+
+    private static final DiscoveryResultCache.Key KEY = new DiscoveryResultCache.Key( "example.com",
+            ConfigurationMethod.values() as Set, DiscoveryScope.values() as Set )
+
+
+    def "test concurrent callers share lookups"() {
+
+        given:
+            def inFlightDiscoveries = new InFlightDiscoveries()
+            def lookup = new CompletableFuture<List<MailserverService>>()
+            def starts = 0
+            def start = {
+                starts++
+                def pendingDiscovery = new PendingDiscovery()
+                pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ lookup ] )
+                return pendingDiscovery
+            }
+
+        when:
+            def attachmentA = inFlightDiscoveries.attach( KEY, start )
+            def attachmentB = inFlightDiscoveries.attach( KEY, start )
+            lookup.complete( [ Mock( MailserverService ) ] )
+
+        then:
+            starts == 1
+            inFlightDiscoveries.size == 1
+            attachmentA.pendingDiscovery.await( null ).mailserverServices.size() == 1
+            attachmentB.pendingDiscovery.await( null ).mailserverServices.size() == 1
+
+        when:
+            attachmentA.close()
+            attachmentB.close()
+            inFlightDiscoveries.attach( KEY, start )
+
+        then:
+            starts == 2
+    }
+
+
+    def "test shared lookups are cancelled when last caller detaches"() {
+
+        given:
+            def inFlightDiscoveries = new InFlightDiscoveries()
+            def lookup = new CompletableFuture<List<MailserverService>>()
+            def start = {
+                def pendingDiscovery = new PendingDiscovery()
+                pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF, [ lookup ] )
+                return pendingDiscovery
+            }
+            def attachmentA = inFlightDiscoveries.attach( KEY, start )
+            def attachmentB = inFlightDiscoveries.attach( KEY, start )
+
+        when:
+            attachmentA.close()
+
+        then:
+            !lookup.isCancelled()
+            attachmentA.pendingDiscovery.completableFutures.every { it.isCancelled() }
+            !attachmentB.pendingDiscovery.completableFutures.any { it.isCancelled() }
+
+        when:
+            attachmentB.close()
+
+        then:
+            lookup.isCancelled()
+            inFlightDiscoveries.size == 0
+    }
+
+
+    def "test finished discoveries are not attached to"() {
+
+        given:
+            def inFlightDiscoveries = new InFlightDiscoveries()
+            def lookups = []
+            def start = {
+                def lookup = new CompletableFuture<List<MailserverService>>()
+                lookups << lookup
+                def pendingDiscovery = new PendingDiscovery()
+                pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ lookup ] )
+                return pendingDiscovery
+            }
+            def attachmentA = inFlightDiscoveries.attach( KEY, start )
+            lookups[0].complete( [] )
+
+        when:
+            def attachmentB = inFlightDiscoveries.attach( KEY, start )
+
+        then:
+            lookups.size() == 2
+            !attachmentB.pendingDiscovery.isDone()
+
+        when:
+            attachmentA.close()
+
+        then:
+            !lookups[1].isCancelled()
+            inFlightDiscoveries.size == 1
+
+        when:
+            attachmentB.close()
+
+        then:
+            lookups[1].isCancelled()
+            inFlightDiscoveries.size == 0
+    }
+
+
+    def "test discovery is removed when its lookups fail to start"() {
+
+        given:
+            def inFlightDiscoveries = new InFlightDiscoveries()
+            def lookup = new CompletableFuture<List<MailserverService>>()
+            def start = {
+                def pendingDiscovery = new PendingDiscovery()
+                pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ lookup ] )
+                return pendingDiscovery
+            }
+
+        when:
+            inFlightDiscoveries.attach( KEY, { throw new IllegalStateException( "failed" ) } )
+
+        then:
+            thrown( IllegalStateException )
+            inFlightDiscoveries.size == 0
+
+        when:
+            def attachment = inFlightDiscoveries.attach( KEY, start )
+
+        then:
+            inFlightDiscoveries.size == 1
+            !attachment.pendingDiscovery.isDone()
+    }
+}
@@ -0,0 +1,246 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryEngine
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache
+import de.adrianlange.mcd.infrastructure.concurrent.VirtualThreadExecutor
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.strategy.EmailAddress
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class MailserverConfigurationDiscoveryEngineSpec extends Specification {
+
+    def "test built context is not affected by later builder changes"() {
+
+        given:
+            def builder = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.RFC_61186 )
+
+        when:
+            def context = builder.build()
+            builder.withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .withDiscoveryScopes( MailserverConfigurationDiscoveryContext.DiscoveryScope.SUBMISSION )
+
+        then:
+            context.configurationMethods == [ ConfigurationMethod.RFC_61186 ] as Set
+            context.discoveryScopes == MailserverConfigurationDiscoveryContext.DiscoveryScope.values() as Set
+    }
+
+
+    def "test deprecated setters reject changes to built contexts"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.RFC_61186 )
+                    .withDnsLookupTimeout( Duration.ofSeconds( 5 ) )
+                    .build()
+
+        when:
+            context.configurationMethods = EnumSet.of( ConfigurationMethod.MOZILLA_AUTOCONF )
+
+        then:
+            thrown( IllegalStateException )
+            context.configurationMethods == [ ConfigurationMethod.RFC_61186 ] as Set
+
+        when:
+            context.dnsLookupContext.timeout = Duration.ofSeconds( 1 )
+
+        then:
+            thrown( IllegalStateException )
+            context.dnsLookupContext.timeout == Duration.ofSeconds( 5 )
+    }
+
+
+    def "test contexts share default executor with named daemon threads"() {
+
+        given:
+            def contextA = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def contextB = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def engine = new MailserverConfigurationDiscoveryEngine( contextA )
+            def thread = CompletableFuture.supplyAsync( { Thread.currentThread() }, contextA.executor ).join()
+
+        when:
+            engine.close()
+            contextA.close()
+
+        then:
+            contextA.executor.is( contextB.executor )
+            engine.context.is( contextA )
+            thread.daemon
+            thread.name.startsWith( "mcd-worker-" )
+            CompletableFuture.supplyAsync( { "running" }, contextB.executor ).join() == "running"
+    }
+
+
+    def "test virtual threads are used if supported"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withVirtualThreads( true )
+                    .build()
+
+        when:
+            def thread = CompletableFuture.supplyAsync( { Thread.currentThread() }, context.executor ).join()
+
+        then:
+            VirtualThreadExecutor.isSupported() ? thread.name.startsWith( "mcd-virtual-" ) :
+                    thread.name.startsWith( "mcd-worker-" )
+    }
+
+
+    def "test closing context releases its caches"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withResultCache( 100, Duration.ofMinutes( 10 ), Duration.ofMinutes( 1 ) )
+                    .build()
+            context.resultCache.put( new DiscoveryResultCache.Key( "example.com", context.configurationMethods,
+                    context.discoveryScopes ), [] as Set )
+
+        when:
+            context.close()
+
+        then:
+            context.resultCache.size == 0
+    }
+
+
+    def "test context shares its HTTP client and DNS resolver until it is closed"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def httpClient = context.httpLookupContext.httpClient
+            def resolver = context.dnsLookupContext.resolver
+
+        expect:
+            context.httpLookupContext.httpClient.is( httpClient )
+            context.dnsLookupContext.resolver.is( resolver )
+
+        when:
+            context.close()
+
+        then:
+            !context.httpLookupContext.httpClient.is( httpClient )
+            !context.dnsLookupContext.resolver.is( resolver )
+    }
+
+
+    def "test engine does not shut down custom executor"() {
+
+        given:
+            def executor = Executors.newSingleThreadExecutor()
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withExecutor( executor )
+                    .build()
+            def engine = new MailserverConfigurationDiscoveryEngine( context )
+
+        when:
+            engine.close()
+
+        then:
+            !executor.isShutdown()
+            engine.context.is( context )
+
+        cleanup:
+            executor.shutdown()
+    }
+
+
+    def "test host request limiter starts delayed requests on the executor of the context"() {
+
+        given:
+            def executions = 0
+            def executor = { Runnable r -> executions++; r.run() } as Executor
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withExecutor( executor )
+                    .withHttpHostLimits( 0, 20, 1 )
+                    .build()
+            def limiter = context.httpLookupContext.hostRequestLimiter
+
+        when:
+            limiter.acquire( "example.com" )
+            def delayed = limiter.acquire( "example.com" )
+
+        then:
+            delayed.get( 2, TimeUnit.SECONDS ) != null
+            executions > 0
+    }
+
+
+    def "test closed engine rejects lookups"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods()
+                    .build()
+            def engine = new MailserverConfigurationDiscoveryEngine( context )
+
+        expect:
+            engine.discover( "example.com" ).isEmpty()
+
+        when:
+            engine.close()
+            engine.discover( "example.com" )
+
+        then:
+            thrown( IllegalStateException )
+    }
+
+
+    def "test engine answers repeated lookups from result cache"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods()
+                    .withResultCache( 100, Duration.ofMinutes( 10 ), Duration.ofMinutes( 1 ) )
+                    .build()
+            def engine = new MailserverConfigurationDiscoveryEngine( context )
+            def emailAddress = EmailAddress.of( "user@example.com" )
+
+        when:
+            engine.discover( "example.com" )
+            engine.discover( "example.com" )
+            engine.discoverAll( [ emailAddress, emailAddress ] )
+            engine.discover( emailAddress )
+
+        then:
+            engine.context.resultCache.is( context.resultCache )
+            context.resultCache.hitCount == 2
+            context.resultCache.missCount == 2
+            context.resultCache.size == 2
+
+        cleanup:
+            engine.close()
+    }
+
+
+    def "test asynchronous lookup is answered from result cache"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods()
+                    .withResultCache( 100, Duration.ofMinutes( 10 ), Duration.ofMinutes( 1 ) )
+                    .build()
+            def engine = new MailserverConfigurationDiscoveryEngine( context )
+
+        when:
+            def first = engine.discoverAsync( "example.com" ).get( 5, TimeUnit.SECONDS )
+            def second = engine.discoverAsync( "example.com" )
+
+        then:
+            first.isEmpty()
+            second.isDone()
+            second.join().isEmpty()
+            context.resultCache.hitCount == 1
+
+        cleanup:
+            engine.close()
+    }
+}
@@ -0,0 +1,184 @@
+package de.adrianlange.mdc
+
+import de.adrianlange.mcd.PendingDiscovery
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.model.MailserverService
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class PendingDiscoverySpec extends Specification {
+
+    def "test pending discovery returns partial result when deadline is reached"() {
+
+        given:
+            def mailserverService = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186,
+                    [ CompletableFuture.completedFuture( [ mailserverService ] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF, [ slowLookup ] )
+
+        when:
+            def result = pendingDiscovery.await( PendingDiscovery.getDeadlineNanos( Duration.ofMillis( 50 ) ) )
+            pendingDiscovery.cancel()
+
+        then:
+            result.mailserverServices == [ mailserverService ] as Set
+            result.timedOutConfigurationMethods == [ ConfigurationMethod.MOZILLA_AUTOCONF ] as Set
+            !result.complete
+            slowLookup.isCancelled()
+    }
+
+
+    def "test pending discovery without deadline waits for all lookups"() {
+
+        given:
+            def mailserverService = Mock( MailserverService )
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF,
+                    [ CompletableFuture.supplyAsync( { [ mailserverService ] } ) ] )
+
+        when:
+            def result = pendingDiscovery.await( PendingDiscovery.getDeadlineNanos( null ) )
+
+        then:
+            result.mailserverServices == [ mailserverService ] as Set
+            result.complete
+    }
+
+
+    def "test pending discovery returns as soon as completion predicate is met"() {
+
+        given:
+            def mailserverService = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186,
+                    [ CompletableFuture.completedFuture( [ mailserverService ] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF, [ slowLookup ] )
+
+        when:
+            def result = pendingDiscovery.await( null, { s -> !s.isEmpty() } )
+            pendingDiscovery.cancel()
+
+        then:
+            result.mailserverServices == [ mailserverService ] as Set
+            result.timedOutConfigurationMethods.isEmpty()
+            result.completionPredicateMet
+            !result.complete
+            slowLookup.isCancelled()
+    }
+
+
+    def "test pending discovery is complete if the last lookup meets the completion predicate"() {
+
+        given:
+            def mailserverService = Mock( MailserverService )
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ CompletableFuture.completedFuture( [] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF,
+                    [ CompletableFuture.completedFuture( [ mailserverService ] ) ] )
+
+        when:
+            def result = pendingDiscovery.await( null, { s -> !s.isEmpty() } )
+
+        then:
+            result.mailserverServices == [ mailserverService ] as Set
+            !result.completionPredicateMet
+            result.complete
+    }
+
+
+    def "test pending discovery waits for all lookups if completion predicate is not met"() {
+
+        given:
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ CompletableFuture.completedFuture( [] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF,
+                    [ CompletableFuture.supplyAsync( { [] } ) ] )
+
+        when:
+            def result = pendingDiscovery.await( null, { s -> !s.isEmpty() } )
+
+        then:
+            result.mailserverServices.isEmpty()
+            !result.completionPredicateMet
+            result.complete
+    }
+
+
+    def "test asynchronous pending discovery completes when last lookup finishes"() {
+
+        given:
+            def serviceA = Mock( MailserverService )
+            def serviceB = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ CompletableFuture.completedFuture( [ serviceA ] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF, [ slowLookup ] )
+
+        when:
+            def result = pendingDiscovery.awaitAsync( null, ForkJoinPool.commonPool() )
+
+        then:
+            !result.isDone()
+
+        when:
+            slowLookup.complete( [ serviceB ] )
+
+        then:
+            result.isDone()
+            result.join().mailserverServices == [ serviceA, serviceB ] as Set
+            result.join().complete
+    }
+
+
+    def "test asynchronous pending discovery completes with partial result when timeout is reached"() {
+
+        given:
+            def service = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ CompletableFuture.completedFuture( [ service ] ) ] )
+            pendingDiscovery.add( ConfigurationMethod.MOZILLA_AUTOCONF, [ slowLookup ] )
+            def executions = new AtomicInteger()
+            def executor = { executions.incrementAndGet(); it.run() } as Executor
+
+        when:
+            def result = pendingDiscovery.awaitAsync( Duration.ofMillis( 50 ), executor ).get( 5, TimeUnit.SECONDS )
+
+        then:
+            result.mailserverServices == [ service ] as Set
+            result.timedOutConfigurationMethods == [ ConfigurationMethod.MOZILLA_AUTOCONF ] as Set
+            slowLookup.isCancelled()
+            executions.get() == 1
+    }
+
+
+    def "test asynchronous pending discovery does not run the timeout after the last lookup finishes"() {
+
+        given:
+            def service = Mock( MailserverService )
+            def slowLookup = new CompletableFuture<List<MailserverService>>()
+            def pendingDiscovery = new PendingDiscovery()
+            pendingDiscovery.add( ConfigurationMethod.RFC_61186, [ slowLookup ] )
+            def executions = new AtomicInteger()
+            def executor = { executions.incrementAndGet(); it.run() } as Executor
+
+        when:
+            def result = pendingDiscovery.awaitAsync( Duration.ofMillis( 50 ), executor )
+            slowLookup.complete( [ service ] )
+            Thread.sleep( 200 )
+
+        then:
+            result.join().mailserverServices == [ service ] as Set
+            result.join().complete
+            executions.get() == 0
+    }
+}
@@ -0,0 +1,187 @@
+package de.adrianlange.mdc.infrastructure.cache
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContext
+import de.adrianlange.mcd.infrastructure.cache.DiscoveryResultCache
+import de.adrianlange.mcd.model.Authentication
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.model.SocketType
+import de.adrianlange.mcd.model.impl.MozillaAutoconfMailserverServiceImpl
+import de.adrianlange.mcd.model.impl.MsAutodiscoverMailserverServiceImpl
+import de.adrianlange.mcd.model.impl.OAuth2Impl
+import de.adrianlange.mcd.model.impl.SrvRecordMailserverServiceImpl
+import spock.lang.Specification
+
+import java.time.Duration
+
+class DiscoveryResultCacheSpec extends Specification {
+
+    private static final Duration TTL = Duration.ofMinutes( 10 )
+
+
+    def "test cached result is returned until it is evicted as least recently used"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 4, TTL, TTL )
+            def a = key( "a.example" )
+            def b = key( "b.example" )
+            def c = key( "c.example" )
+
+        when:
+            cache.put( a, [ service( "imap.a.example" ) ] as Set )
+            cache.put( b, [ service( "imap.b.example" ) ] as Set )
+            def hit = cache.get( a )
+            cache.put( c, [ service( "imap.c.example" ) ] as Set )
+
+        then:
+            hit.get()*.host == [ "imap.a.example" ]
+            cache.get( a ).isPresent()
+            !cache.get( b ).isPresent()
+            cache.get( c ).isPresent()
+            cache.size == 2
+            cache.weight == 4
+            cache.hitCount == 3
+            cache.missCount == 1
+    }
+
+
+    def "test entries exceeding the maximum weight are not cached"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 2, TTL, TTL )
+
+        when:
+            cache.put( key( "example.com" ), [ service( "imap.example.com" ), service( "smtp.example.com" ) ] as Set )
+
+        then:
+            cache.size == 0
+            cache.weight == 0
+    }
+
+
+    def "test empty results are cached for negative TTL"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 10, TTL, negativeTtl )
+
+        when:
+            cache.put( key( "example.com" ), [] as Set )
+
+        then:
+            cache.get( key( "example.com" ) ).isPresent() == cached
+
+        where:
+            negativeTtl           | cached
+            TTL                   | true
+            Duration.ZERO         | false
+            Duration.ofNanos( 1 ) | false
+    }
+
+
+    def "test keys differ by configuration methods and discovery scopes"() {
+
+        expect:
+            key( "example.com" ) == key( "example.com" )
+            key( "example.com" ) != new DiscoveryResultCache.Key( "example.com", [ ConfigurationMethod.RFC_61186 ] as Set,
+                    MailserverConfigurationDiscoveryContext.DiscoveryScope.values() as Set )
+            key( "example.com" ) != new DiscoveryResultCache.Key( "example.com", ConfigurationMethod.values() as Set,
+                    [] as Set )
+    }
+
+
+    def "test snapshot restores entries with their remaining TTLs"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 100, TTL, Duration.ofMillis( 1 ) )
+            def autoconfService = new MozillaAutoconfMailserverServiceImpl()
+            autoconfService.protocol = Protocol.SMTP
+            autoconfService.socketType = SocketType.STARTTLS
+            autoconfService.host = "smtp.b.example"
+            autoconfService.port = 587
+            autoconfService.username = "%EMAILADDRESS%"
+            autoconfService.addAuthentication( Authentication.PASSWORD_CLEARTEXT )
+            autoconfService.addAuthentication( Authentication.OAUTH2 )
+            def oAuth2 = new OAuth2Impl()
+            oAuth2.issuer = "b.example"
+            oAuth2.scope = "mail"
+            autoconfService.addAllOAuth2s( [ oAuth2 ] )
+            def srvService = service( "imap.a.example" )
+            srvService.priority = 10
+            def scopedKey = new DiscoveryResultCache.Key( "b.example", [ ConfigurationMethod.MOZILLA_AUTOCONF ] as Set,
+                    [ MailserverConfigurationDiscoveryContext.DiscoveryScope.SUBMISSION ] as Set )
+
+        when:
+            cache.put( key( "a.example" ), [ srvService ] as Set )
+            cache.put( scopedKey, [ autoconfService ] as Set )
+            cache.put( key( "empty.example" ), [] as Set )
+            Thread.sleep( 10 )
+            def bytes = new ByteArrayOutputStream()
+            cache.writeSnapshot( new DataOutputStream( bytes ) )
+            def restored = new DiscoveryResultCache( 100, Duration.ofMillis( 1 ), Duration.ofMillis( 1 ) )
+            def added = restored.readSnapshot( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+            Thread.sleep( 10 )
+
+        then:
+            added == 2
+            restored.get( key( "a.example" ) ).get() == [ srvService ] as Set
+            restored.get( key( "a.example" ) ).get().first().priority == 10
+            restored.get( scopedKey ).get() == [ autoconfService ] as Set
+            !restored.get( key( "empty.example" ) ).isPresent()
+            restored.weight == 4
+    }
+
+
+    def "test Autodiscover services are written to snapshots"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 100, TTL, TTL )
+            def autodiscoverService = new MsAutodiscoverMailserverServiceImpl()
+            autodiscoverService.protocol = Protocol.IMAP
+            autodiscoverService.socketType = SocketType.SSL
+            autodiscoverService.host = "imap.a.example"
+            autodiscoverService.port = 993
+            autodiscoverService.username = "alan"
+            autodiscoverService.domainRequired = true
+            autodiscoverService.addAuthentication( Authentication.NTLM )
+            cache.put( key( "a.example" ), [ autodiscoverService ] as Set )
+
+        when:
+            def bytes = new ByteArrayOutputStream()
+            cache.writeSnapshot( new DataOutputStream( bytes ) )
+            def restored = new DiscoveryResultCache( 100, TTL, TTL )
+            restored.readSnapshot( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+
+        then:
+            restored.get( key( "a.example" ) ).get() == [ autodiscoverService ] as Set
+    }
+
+
+    def "test expired snapshot entries are skipped"() {
+
+        given:
+            def cache = new DiscoveryResultCache( 100, Duration.ofMillis( 200 ), TTL )
+            cache.put( key( "a.example" ), [ service( "imap.a.example" ) ] as Set )
+            def bytes = new ByteArrayOutputStream()
+            cache.writeSnapshot( new DataOutputStream( bytes ) )
+
+        when:
+            Thread.sleep( 300 )
+            def restored = new DiscoveryResultCache( 100, TTL, TTL )
+            def added = restored.readSnapshot( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+
+        then:
+            added == 0
+            restored.size == 0
+    }
+
+
+    private static DiscoveryResultCache.Key key( String subject ) {
+        return new DiscoveryResultCache.Key( subject, ConfigurationMethod.values() as Set,
+                MailserverConfigurationDiscoveryContext.DiscoveryScope.values() as Set )
+    }
+
+
+    private static SrvRecordMailserverServiceImpl service( String host ) {
+        return new SrvRecordMailserverServiceImpl( Protocol.IMAP, SocketType.SSL, host, 993, 1 )
+    }
+}
@@ -0,0 +1,109 @@
+package de.adrianlange.mdc.infrastructure.cache
+
+import de.adrianlange.mcd.infrastructure.cache.ProviderResultCache
+import de.adrianlange.mcd.infrastructure.metrics.DefaultDiscoveryMetrics
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.model.SocketType
+import de.adrianlange.mcd.model.impl.SrvRecordMailserverServiceImpl
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class ProviderResultCacheSpec extends Specification {
+
+    private static final Duration TTL = Duration.ofMinutes( 10 )
+
+
+    def "test running lookups are shared"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+            def cache = new ProviderResultCache( 10, TTL, TTL, metrics )
+            def lookup = new CompletableFuture()
+            def lookupCount = 0
+
+        when:
+            def first = cache.get( "provider.example" ) { lookupCount++; lookup }
+            def second = cache.get( "provider.example" ) { lookupCount++; lookup }
+            first.cancel( true )
+            lookup.complete( [ service( "imap.provider.example" ) ] )
+
+        then:
+            lookupCount == 1
+            first.isCancelled()
+            second.join()*.host == [ "imap.provider.example" ]
+            cache.get( "provider.example" ) { lookupCount++; lookup }.join()*.host == [ "imap.provider.example" ]
+            lookupCount == 1
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.PROVIDER ) == 1
+            metrics.getCacheHitCount( DiscoveryMetrics.Cache.PROVIDER ) == 2
+    }
+
+
+    def "test empty results expire after the negative TTL and failures are not cached"() {
+
+        given:
+            def cache = new ProviderResultCache( 10, TTL, Duration.ofMillis( 100 ), null )
+            def lookupCount = 0
+
+        when:
+            cache.get( "empty.example" ) { lookupCount++; CompletableFuture.completedFuture( [] ) }.join()
+            cache.get( "empty.example" ) { lookupCount++; CompletableFuture.completedFuture( [] ) }.join()
+            Thread.sleep( 200 )
+            cache.get( "empty.example" ) { lookupCount++; CompletableFuture.completedFuture( [] ) }.join()
+            cache.get( "failed.example" ) { lookupCount++; CompletableFuture.failedFuture( new IOException() ) }
+            cache.get( "failed.example" ) { lookupCount++; CompletableFuture.failedFuture( new IOException() ) }
+
+        then:
+            lookupCount == 4
+            cache.size == 1
+    }
+
+
+    def "test lookups are started after the cache is unlocked"() {
+
+        given:
+            def cache = new ProviderResultCache( 10, TTL, TTL, null )
+            def lookup = {
+                CompletableFuture.supplyAsync { cache.size }.get( 5, TimeUnit.SECONDS )
+                CompletableFuture.completedFuture( [ service( "imap.provider.example" ) ] )
+            }
+
+        when:
+            def result = cache.get( "provider.example", lookup )
+            cache.get( "failed.example" ) { throw new IllegalStateException() }
+
+        then:
+            thrown( IllegalStateException )
+            result.join()*.host == [ "imap.provider.example" ]
+            cache.size == 1
+    }
+
+
+    def "test least recently used providers are evicted"() {
+
+        given:
+            def cache = new ProviderResultCache( 2, TTL, TTL, null )
+            def lookupCount = 0
+            def lookup = { lookupCount++; CompletableFuture.completedFuture( [ service( "imap.example" ) ] ) }
+
+        when:
+            cache.get( "a.example", lookup )
+            cache.get( "b.example", lookup )
+            cache.get( "a.example", lookup )
+            cache.get( "c.example", lookup )
+            cache.get( "a.example", lookup )
+            cache.get( "b.example", lookup )
+
+        then:
+            lookupCount == 4
+            cache.size == 2
+    }
+
+
+    private static SrvRecordMailserverServiceImpl service( String host ) {
+        return new SrvRecordMailserverServiceImpl( Protocol.IMAP, SocketType.SSL, host, 993, 1 )
+    }
+}
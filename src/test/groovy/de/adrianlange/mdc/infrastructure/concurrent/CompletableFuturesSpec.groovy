@@ -0,0 +1,120 @@
+package de.adrianlange.mdc.infrastructure.concurrent
+
+import de.adrianlange.mcd.infrastructure.concurrent.CompletableFutures
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class CompletableFuturesSpec extends Specification {
+
+    def "test cancelling dependent future cancels source future"() {
+
+        given:
+            def source = new CompletableFuture<String>()
+            def dependent = CompletableFutures.propagateCancellation( source, source.thenApply( { s -> s.length() } ) )
+
+        when:
+            dependent.cancel( false )
+
+        then:
+            source.isCancelled()
+    }
+
+
+    def "test completed dependent future does not cancel source future"() {
+
+        given:
+            def source = new CompletableFuture<String>()
+            def dependent = CompletableFutures.propagateCancellation( source, source.thenApply( { s -> s.length() } ) )
+
+        when:
+            source.complete( "value" )
+
+        then:
+            dependent.join() == 5
+            !source.isCancelled()
+    }
+
+
+    def "test first matching result wins and the other futures are cancelled"() {
+
+        given:
+            def failing = new CompletableFuture<String>()
+            def empty = new CompletableFuture<String>()
+            def matching = new CompletableFuture<String>()
+            def slow = new CompletableFuture<String>()
+            def result = CompletableFutures.firstMatching( [ failing, empty, matching, slow ], { !it.isEmpty() }, "none" )
+
+        when:
+            failing.completeExceptionally( new IOException() )
+            empty.complete( "" )
+            matching.complete( "value" )
+
+        then:
+            result.join() == "value"
+            slow.isCancelled()
+    }
+
+
+    def "test default value is returned if no result matches"() {
+
+        given:
+            def first = new CompletableFuture<String>()
+            def second = new CompletableFuture<String>()
+            def result = CompletableFutures.firstMatching( [ first, second ], { !it.isEmpty() }, "none" )
+
+        when:
+            first.complete( "" )
+            second.completeExceptionally( new IOException() )
+
+        then:
+            result.join() == "none"
+            CompletableFutures.firstMatching( [], { true }, "none" ).join() == "none"
+    }
+
+
+    def "test cancelling the race cancels all futures"() {
+
+        given:
+            def first = new CompletableFuture<String>()
+            def second = new CompletableFuture<String>()
+
+        when:
+            CompletableFutures.firstMatching( [ first, second ], { true }, "none" ).cancel( true )
+
+        then:
+            first.isCancelled()
+            second.isCancelled()
+    }
+
+
+    def "test cancelling composed future cancels the future it is composed with"() {
+
+        given:
+            def source = new CompletableFuture<String>()
+            def composed = new CompletableFuture<Integer>()
+            def result = CompletableFutures.thenCompose( source, { s -> composed } )
+
+        when:
+            source.complete( "value" )
+            result.cancel( true )
+
+        then:
+            composed.isCancelled()
+            !source.isCancelled()
+    }
+
+
+    def "test composed future completes with the result of the composed future"() {
+
+        given:
+            def source = new CompletableFuture<String>()
+            def result = CompletableFutures.thenCompose( source, { s -> CompletableFuture.completedFuture( s.length() ) } )
+
+        when:
+            source.complete( "value" )
+
+        then:
+            result.join() == 5
+    }
+}
@@ -0,0 +1,100 @@
+package de.adrianlange.mdc.infrastructure.concurrent
+
+import de.adrianlange.mcd.infrastructure.concurrent.HostRequestLimiter
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+class HostRequestLimiterSpec extends Specification {
+
+    private static final Executor DIRECT = { Runnable r -> r.run() } as Executor
+
+
+    def "test requests exceeding the concurrency limit wait for a released permit"() {
+
+        given:
+            def limiter = new HostRequestLimiter( 1, 0, 0, DIRECT )
+            def first = limiter.acquire( "example.com" )
+            def second = limiter.acquire( "EXAMPLE.com" )
+            def other = limiter.acquire( "example.net" )
+
+        expect:
+            first.isDone()
+            !second.isDone()
+            other.isDone()
+
+        when:
+            first.join().release()
+            first.join().release()
+
+        then:
+            second.isDone()
+            !limiter.acquire( "example.com" ).isDone()
+    }
+
+
+    def "test requests exceeding the rate limit are delayed"() {
+
+        given:
+            def limiter = new HostRequestLimiter( 0, 20, 1, DIRECT )
+            def start = System.nanoTime()
+
+        when:
+            def first = limiter.acquire( "example.com" )
+            def second = limiter.acquire( "example.com" )
+
+        then:
+            first.isDone()
+            !second.isDone()
+            second.get( 2, TimeUnit.SECONDS ) != null
+            System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 40 )
+    }
+
+
+    def "test cancelled requests are skipped"() {
+
+        given:
+            def limiter = new HostRequestLimiter( 1, 0, 0, DIRECT )
+            def first = limiter.acquire( "example.com" )
+            def cancelled = limiter.acquire( "example.com" )
+            def waiting = limiter.acquire( "example.com" )
+
+        when:
+            cancelled.cancel( false )
+            first.join().release()
+
+        then:
+            waiting.isDone()
+    }
+
+
+    def "test idle hosts are removed"() {
+
+        given:
+            def limiter = new HostRequestLimiter( 1, 0, 0, DIRECT )
+
+        when:
+            2000.times { limiter.acquire( "host${ it }.example.com" ).join().release() }
+
+        then:
+            limiter.hostCount < 1024
+    }
+
+
+    def "test negative limits are rejected"() {
+
+        when:
+            new HostRequestLimiter( maxConcurrentRequests, requestsPerSecond, burst, DIRECT )
+
+        then:
+            thrown( IllegalArgumentException )
+
+        where:
+            maxConcurrentRequests | requestsPerSecond | burst
+            -1                    | 0                 | 0
+            0                     | -1                | 1
+            0                     | 1                 | -1
+            0                     | 1                 | 0
+    }
+}
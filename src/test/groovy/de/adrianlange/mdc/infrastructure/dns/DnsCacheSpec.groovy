@@ -0,0 +1,234 @@
+package de.adrianlange.mdc.infrastructure.dns
+
+import de.adrianlange.mcd.DnsLookupContext
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.infrastructure.dns.DnsCache
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolverImpl
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics
+import de.adrianlange.mdc.util.DnsHelper
+import org.xbill.DNS.Credibility
+import org.xbill.DNS.Message
+import org.xbill.DNS.Name
+import org.xbill.DNS.Rcode
+import org.xbill.DNS.Resolver
+import org.xbill.DNS.SetResponse
+import org.xbill.DNS.Type
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+class DnsCacheSpec extends Specification {
+
+    private static final String DOMAIN = "example.com"
+
+
+    def "test repeated lookup is answered from cache"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def resolver = Mock( Resolver )
+            def srvDnsResolver = new SrvDnsResolverImpl( context.dnsLookupContext, resolver )
+
+        when:
+            def first = srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            def second = srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+
+        then:
+            1 * resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                CompletableFuture.completedFuture( DnsHelper.createResponse( query,
+                        DnsHelper.createSRVRecord( "_imaps._tcp." + DOMAIN, 993, "imap.example.com" ) ) )
+            }
+            0 * resolver.sendAsync( _, _ )
+        and:
+            first.size() == 1
+            second == first
+            context.dnsLookupContext.cache.hitCount == 1
+            context.dnsLookupContext.cache.missCount == 1
+    }
+
+
+    def "test negative answer is cached"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def resolver = Mock( Resolver )
+            def srvDnsResolver = new SrvDnsResolverImpl( context.dnsLookupContext, resolver )
+
+        when:
+            def first = srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" )
+            def second = srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" )
+
+        then:
+            1 * resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                CompletableFuture.completedFuture( DnsHelper.createNegativeResponse( query, DOMAIN, Rcode.NXDOMAIN ) )
+            }
+            0 * resolver.sendAsync( _, _ )
+        and:
+            first.isEmpty()
+            second.isEmpty()
+            context.dnsLookupContext.cache.hitCount == 1
+            context.dnsLookupContext.cache.missCount == 1
+    }
+
+
+    def "test cache is shared by SRV and TXT resolvers"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def resolver = Mock( Resolver )
+            def srvDnsResolver = new SrvDnsResolverImpl( context.dnsLookupContext, resolver )
+            def txtDnsResolver = new TxtDnsResolverImpl( context.dnsLookupContext, resolver )
+
+        when:
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            txtDnsResolver.getTxtRecords( DOMAIN )
+
+        then:
+            2 * resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                CompletableFuture.completedFuture( DnsHelper.createNegativeResponse( query, DOMAIN, Rcode.NOERROR ) )
+            }
+        and:
+            context.dnsLookupContext.cache.missCount == 2
+            context.dnsLookupContext.cache.size > 0
+    }
+
+
+    def "test disabled cache sends every lookup"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withDnsCacheSize( 0 )
+                    .build()
+            def resolver = Mock( Resolver )
+            def srvDnsResolver = new SrvDnsResolverImpl( context.dnsLookupContext, resolver )
+
+        when:
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+
+        then:
+            2 * resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                CompletableFuture.completedFuture( DnsHelper.createResponse( query,
+                        DnsHelper.createSRVRecord( "_imaps._tcp." + DOMAIN, 993, "imap.example.com" ) ) )
+            }
+        and:
+            context.dnsLookupContext.cache == null
+    }
+
+
+    def "test retained answers are restored from snapshot with reduced TTLs"() {
+
+        given:
+            def cache = new DnsCache( 100, true )
+            def dnsLookupContext = [ getCache: { cache }, getMetrics: { DiscoveryMetrics.NONE } ] as DnsLookupContext
+            def resolver = Mock( Resolver )
+            resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                def response = query.question.name.toString().startsWith( "_imaps" ) ?
+                        DnsHelper.createResponse( query,
+                                DnsHelper.createSRVRecord( "_imaps._tcp." + DOMAIN, 993, "imap.example.com" ) ) :
+                        DnsHelper.createNegativeResponse( query, DOMAIN, Rcode.NXDOMAIN )
+                CompletableFuture.completedFuture( response )
+            }
+            def srvDnsResolver = new SrvDnsResolverImpl( dnsLookupContext, resolver )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" )
+
+        when:
+            def bytes = new ByteArrayOutputStream()
+            cache.writeSnapshot( new DataOutputStream( bytes ) )
+            def snapshot = ByteBuffer.wrap( bytes.toByteArray() )
+            // the answers have been received 3500 seconds ago: the SRV record has 100 seconds left, while the
+            // negative answer with a minimum TTL of 300 seconds has expired
+            def first = 4
+            snapshot.putLong( first, snapshot.getLong( first ) - 3_500_000 )
+            def second = first + 8 + 4 + snapshot.getInt( first + 8 )
+            snapshot.putLong( second, snapshot.getLong( second ) - 3_500_000 )
+            def restored = new DnsCache( 100, true )
+            def added = restored.readSnapshot( new DataInputStream( new ByteArrayInputStream( snapshot.array() ) ) )
+
+        then:
+            added == 1
+            def imaps = lookup( restored, "_imaps._tcp." + DOMAIN + "." )
+            imaps.isSuccessful()
+            def records = imaps.answers()*.rrs().flatten()
+            records.size() == 1
+            records.first().TTL > 90
+            records.first().TTL <= 100
+            lookup( restored, "_pop3._tcp." + DOMAIN + "." ).isUnknown()
+    }
+
+
+    def "test least recently used answers are evicted from the retained answers"() {
+
+        given:
+            def cache = new DnsCache( 2, true )
+            def dnsLookupContext = [ getCache: { cache }, getMetrics: { DiscoveryMetrics.NONE } ] as DnsLookupContext
+            def resolver = Stub( Resolver )
+            resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                def name = query.question.name.toString( true )
+                CompletableFuture.completedFuture( DnsHelper.createResponse( query,
+                        DnsHelper.createSRVRecord( name, 993, "imap.example.com" ) ) )
+            }
+            def srvDnsResolver = new SrvDnsResolverImpl( dnsLookupContext, resolver )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_pop3s" )
+
+        when:
+            srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" )
+            srvDnsResolver.getSrvRecords( DOMAIN, "_submissions" )
+            def bytes = new ByteArrayOutputStream()
+            cache.writeSnapshot( new DataOutputStream( bytes ) )
+            def restored = new DnsCache( 100, true )
+            restored.readSnapshot( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+
+        then:
+            cache.hitCount == 1
+            lookup( restored, "_imaps._tcp." + DOMAIN + "." ).isSuccessful()
+            lookup( restored, "_submissions._tcp." + DOMAIN + "." ).isSuccessful()
+            lookup( restored, "_pop3s._tcp." + DOMAIN + "." ).isUnknown()
+    }
+
+
+    def "test DNS cache is restored when the context is built"() {
+
+        given:
+            def file = Files.createTempFile( "mcd", ".snapshot" )
+            Files.delete( file )
+            def builder = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withCacheSnapshot( file, Duration.ofHours( 1 ), true )
+            def resolver = Stub( Resolver )
+            resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                CompletableFuture.completedFuture( DnsHelper.createResponse( query,
+                        DnsHelper.createSRVRecord( "_imaps._tcp." + DOMAIN, 993, "imap.example.com" ) ) )
+            }
+            def context = builder.build()
+            new SrvDnsResolverImpl( context.dnsLookupContext, resolver ).getSrvRecords( DOMAIN, "_imaps" )
+            context.close()
+            def restoredResolver = Mock( Resolver )
+
+        when:
+            def restoredContext = builder.build()
+            def records = new SrvDnsResolverImpl( restoredContext.dnsLookupContext, restoredResolver )
+                    .getSrvRecords( DOMAIN, "_imaps" )
+
+        then:
+            0 * restoredResolver.sendAsync( _, _ )
+            records*.port == [ 993 ]
+            restoredContext.dnsLookupContext.cache.hitCount == 1
+
+        cleanup:
+            restoredContext?.close()
+            Files.deleteIfExists( file )
+    }
+
+
+    private static SetResponse lookup( DnsCache cache, String name ) {
+
+        return cache.cache.lookupRecords( Name.fromString( name ), Type.SRV, Credibility.NORMAL )
+    }
+}
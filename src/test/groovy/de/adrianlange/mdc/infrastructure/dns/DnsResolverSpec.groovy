@@ -0,0 +1,65 @@
+package de.adrianlange.mdc.infrastructure.dns
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolverImpl
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolverImpl
+import de.adrianlange.mdc.util.DnsHelper
+import org.xbill.DNS.Message
+import org.xbill.DNS.Resolver
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+class DnsResolverSpec extends Specification {
+
+    private static final String DOMAIN = "example.com"
+
+
+    def "test lookups do not block while answers are pending"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def resolver = Mock( Resolver )
+            def srvDnsResolver = new SrvDnsResolverImpl( context.dnsLookupContext, resolver )
+            def pending = [ ]
+
+        when:
+            def stages = ( 1..100 ).collect { srvDnsResolver.getSrvRecordsAsync( "d" + it + "." + DOMAIN, "_imaps" ) }
+
+        then:
+            100 * resolver.sendAsync( _, _ ) >> { Message query, Executor executor ->
+                def future = new CompletableFuture<Message>()
+                pending << [ query, future ]
+                return future
+            }
+        and:
+            stages.every { !it.toCompletableFuture().isDone() }
+
+        when:
+            pending.each { Message query, CompletableFuture<Message> future ->
+                future.complete( DnsHelper.createResponse( query,
+                        DnsHelper.createSRVRecord( query.question.name.toString( true ), 993, "imap.example.com" ) ) )
+            }
+
+        then:
+            stages.every { it.toCompletableFuture().join().size() == 1 }
+    }
+
+
+    def "test failed lookup results in empty records"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder().build()
+            def resolver = Mock( Resolver )
+            def txtDnsResolver = new TxtDnsResolverImpl( context.dnsLookupContext, resolver )
+
+        when:
+            def records = txtDnsResolver.getTxtRecordsAsync( DOMAIN ).toCompletableFuture().join()
+
+        then:
+            1 * resolver.sendAsync( _, _ ) >> CompletableFuture.failedFuture( new IOException( "Timed out" ) )
+        and:
+            records.isEmpty()
+    }
+}
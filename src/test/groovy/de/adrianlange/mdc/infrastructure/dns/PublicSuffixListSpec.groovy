@@ -0,0 +1,49 @@
+package de.adrianlange.mdc.infrastructure.dns
+
+import de.adrianlange.mcd.infrastructure.dns.PublicSuffixList
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class PublicSuffixListSpec extends Specification {
+
+    def "test registrable domains are derived by the default list"() {
+
+        expect:
+            PublicSuffixList.default.getRegistrableDomain( hostName ) == registrableDomain
+
+        where:
+            hostName                      | registrableDomain
+            "aspmx.l.google.com"          | "google.com"
+            "mx.mail.example.co.uk"       | "example.co.uk"
+            "example.co.uk"               | "example.co.uk"
+            "MX01.Example.COM.AU."        | "example.com.au"
+            "mx.example.unlisted"         | "example.unlisted"
+            "mx.bücher.example"           | "xn--bcher-kva.example"
+            "co.uk"                       | null
+            "com"                         | null
+    }
+
+
+    def "test wildcard and exception rules are applied"() {
+
+        given:
+            def list = read( """// comment
+                com
+                *.ck
+                !www.ck
+                """ )
+
+        expect:
+            list.getRegistrableDomain( "mx.example.com" ) == "example.com"
+            list.getRegistrableDomain( "mx.example.foo.ck" ) == "example.foo.ck"
+            list.getRegistrableDomain( "foo.ck" ) == null
+            list.getRegistrableDomain( "mx.www.ck" ) == "www.ck"
+    }
+
+
+    private static PublicSuffixList read( String rules ) {
+
+        return PublicSuffixList.read( new ByteArrayInputStream( rules.getBytes( StandardCharsets.UTF_8 ) ) )
+    }
+}
@@ -0,0 +1,141 @@
+package de.adrianlange.mdc.infrastructure.jfr
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryEngine
+import de.adrianlange.mcd.infrastructure.metrics.DefaultDiscoveryMetrics
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.testsupport.FakeDnsServer
+import de.adrianlange.mcd.testsupport.FakeHttpServer
+import jdk.jfr.Configuration
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordedEvent
+import jdk.jfr.consumer.RecordingFile
+import org.xbill.DNS.DClass
+import org.xbill.DNS.Name
+import org.xbill.DNS.SRVRecord
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+
+class FlightRecorderEventsSpec extends Specification {
+
+    private static final String AUTOCONF_DOCUMENT = """<?xml version="1.0"?>
+        <clientConfig version="1.1">
+            <emailProvider id="example.com">
+                <incomingServer type="imap">
+                    <hostname>imap.example.com</hostname>
+                    <port>993</port>
+                    <socketType>SSL</socketType>
+                </incomingServer>
+            </emailProvider>
+        </clientConfig>"""
+
+    private static final List<ConfigurationMethod> STRATEGIES = [ ConfigurationMethod.RFC_61186,
+                                                                   ConfigurationMethod.MOZILLA_AUTOCONF ]
+
+    private FakeDnsServer dnsServer
+
+    private FakeHttpServer httpServer
+
+    private DefaultDiscoveryMetrics metrics
+
+    private MailserverConfigurationDiscoveryEngine engine
+
+
+    def setup() {
+
+        dnsServer = new FakeDnsServer()
+        dnsServer.addRecord( new SRVRecord( Name.fromString( "_imaps._tcp.example.com." ), DClass.IN, 3600, 0, 1, 993,
+                Name.fromString( "imap.example.com." ) ) )
+        httpServer = new FakeHttpServer()
+        httpServer.addDocument( "autoconfig.example.com", "/mail/config-v1.1.xml", AUTOCONF_DOCUMENT )
+
+        metrics = new DefaultDiscoveryMetrics()
+        engine = new MailserverConfigurationDiscoveryEngine( new MailserverConfigurationDiscoveryContextBuilder()
+                .withConfigurationMethods( STRATEGIES as ConfigurationMethod[] )
+                .withDnsServer( dnsServer.host, dnsServer.port )
+                .withDnsCacheSize( 0 )
+                .withHttpProxy( httpServer.proxySelector )
+                .withMetrics( metrics )
+                .build() )
+    }
+
+
+    def cleanup() {
+
+        dnsServer.close()
+        httpServer.close()
+    }
+
+
+    private List<RecordedEvent> record( Recording recording, Closure discovery ) {
+
+        recording.start()
+        try {
+            discovery()
+            // strategy events are committed once the last lookup of a strategy has finished
+            new PollingConditions( timeout: 5 ).eventually {
+                assert STRATEGIES.every { metrics.getStrategyLatency( it ).count > 0 }
+            }
+        } finally {
+            recording.stop()
+        }
+
+        def file = Files.createTempFile( "mcd", ".jfr" )
+        try {
+            recording.dump( file )
+            return RecordingFile.readAllEvents( file ).findAll { it.eventType.name.startsWith( "de.adrianlange.mcd." ) }
+        } finally {
+            recording.close()
+            Files.delete( file )
+        }
+    }
+
+
+    def "test events are recorded if enabled"() {
+
+        given:
+            def recording = new Recording()
+            recording.enable( "de.adrianlange.mcd.DnsQuery" )
+            recording.enable( "de.adrianlange.mcd.HttpFetch" )
+            recording.enable( "de.adrianlange.mcd.Strategy" )
+
+        when:
+            def events = record( recording ) { engine.discover( "example.com" ) }
+            def dnsQueries = events.findAll { it.eventType.name == "de.adrianlange.mcd.DnsQuery" }
+            def httpFetches = events.findAll { it.eventType.name == "de.adrianlange.mcd.HttpFetch" }
+            def strategies = events.findAll { it.eventType.name == "de.adrianlange.mcd.Strategy" }
+
+        then:
+            dnsQueries.size() == dnsServer.queryCount
+            dnsQueries.find { it.getString( "name" ) == "_imaps._tcp.example.com." && it.getString( "type" ) == "SRV" }
+                    .getString( "rcode" ) == "NOERROR"
+            dnsQueries.find { it.getString( "name" ) == "_pop3s._tcp.example.com." }.getString( "rcode" ) == "NXDOMAIN"
+            dnsQueries.every { it.getString( "server" ).endsWith( ":${ dnsServer.port }" ) }
+            dnsQueries.every { it.getString( "outcome" ) == DiscoveryMetrics.Outcome.SUCCESS.name() }
+
+            httpFetches.size() == httpServer.requestCount
+            def fetch = httpFetches.find { it.getInt( "statusCode" ) == 200 }
+            fetch.getString( "url" ) == "http://autoconfig.example.com/mail/config-v1.1.xml"
+            fetch.getLong( "bytes" ) == AUTOCONF_DOCUMENT.bytes.length
+            fetch.duration.toNanos() > 0
+
+            strategies*.getString( "configurationMethod" ) as Set == STRATEGIES*.name() as Set
+            strategies.every { it.getString( "subject" ) == "example.com" && it.getInt( "lookups" ) > 0 }
+    }
+
+
+    def "test events are disabled by default"() {
+
+        given:
+            def recording = new Recording( Configuration.getConfiguration( "profile" ) )
+
+        when:
+            def events = record( recording ) { engine.discover( "example.com" ) }
+
+        then:
+            events.isEmpty()
+    }
+}
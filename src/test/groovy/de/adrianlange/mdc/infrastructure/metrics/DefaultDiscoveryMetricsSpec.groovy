@@ -0,0 +1,141 @@
+package de.adrianlange.mdc.infrastructure.metrics
+
+import de.adrianlange.mcd.infrastructure.metrics.DefaultDiscoveryMetrics
+import de.adrianlange.mcd.infrastructure.metrics.DiscoveryMetrics
+import de.adrianlange.mcd.infrastructure.metrics.MeteredExecutor
+import de.adrianlange.mcd.model.ConfigurationMethod
+import org.xbill.DNS.Type
+import spock.lang.Specification
+
+import java.net.http.HttpTimeoutException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class DefaultDiscoveryMetricsSpec extends Specification {
+
+    def "test outcome of exceptions"() {
+
+        expect:
+            DiscoveryMetrics.Outcome.of( throwable ) == outcome
+
+        where:
+            throwable                                                          | outcome
+            null                                                               | DiscoveryMetrics.Outcome.SUCCESS
+            new CancellationException()                                        | DiscoveryMetrics.Outcome.CANCELLED
+            new CompletionException( new CancellationException() )             | DiscoveryMetrics.Outcome.CANCELLED
+            new CompletionException( new HttpTimeoutException( "timed out" ) ) | DiscoveryMetrics.Outcome.TIMEOUT
+            new IOException( "Timed out while trying to resolve example.com" ) | DiscoveryMetrics.Outcome.TIMEOUT
+            new IOException( "Connection refused" )                            | DiscoveryMetrics.Outcome.ERROR
+            new IllegalStateException()                                        | DiscoveryMetrics.Outcome.ERROR
+    }
+
+
+    def "test DNS queries are recorded per type and outcome"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+
+        when:
+            metrics.recordDnsQuery( Type.SRV, 1_000, DiscoveryMetrics.Outcome.SUCCESS )
+            metrics.recordDnsQuery( Type.SRV, 2_000, DiscoveryMetrics.Outcome.TIMEOUT )
+            metrics.recordDnsQuery( Type.TXT, 3_000, DiscoveryMetrics.Outcome.ERROR )
+
+        then:
+            metrics.getDnsQueryCount( Type.SRV, DiscoveryMetrics.Outcome.SUCCESS ) == 1
+            metrics.getDnsQueryCount( Type.SRV, DiscoveryMetrics.Outcome.TIMEOUT ) == 1
+            metrics.getDnsQueryCount( Type.TXT, DiscoveryMetrics.Outcome.ERROR ) == 1
+            metrics.getDnsQueryCount( Type.MX, DiscoveryMetrics.Outcome.SUCCESS ) == 0
+            metrics.getDnsQueryLatency( Type.SRV ).count == 2
+            metrics.getDnsQueryLatency( Type.MX ).count == 0
+            metrics.timeoutCount == 1
+            metrics.errorCount == 1
+    }
+
+
+    def "test HTTP fetches are recorded per status code"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+
+        when:
+            metrics.recordHttpFetch( 200, 1_024, 1_000, DiscoveryMetrics.Outcome.SUCCESS )
+            metrics.recordHttpFetch( 404, 0, 1_000, DiscoveryMetrics.Outcome.SUCCESS )
+            metrics.recordHttpFetch( -1, 0, 1_000, DiscoveryMetrics.Outcome.TIMEOUT )
+
+        then:
+            metrics.getHttpStatusCount( 200 ) == 1
+            metrics.getHttpStatusCount( 404 ) == 1
+            metrics.getHttpStatusCount( 500 ) == 0
+            metrics.httpBytes == 1_024
+            metrics.getHttpFetchCount( DiscoveryMetrics.Outcome.SUCCESS ) == 2
+            metrics.getHttpFetchCount( DiscoveryMetrics.Outcome.TIMEOUT ) == 1
+            metrics.httpFetchLatency.count == 3
+    }
+
+
+    def "test strategies, discoveries and caches are recorded"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+
+        when:
+            metrics.recordStrategy( ConfigurationMethod.RFC_61186, 1_000, DiscoveryMetrics.Outcome.SUCCESS )
+            metrics.recordStrategy( ConfigurationMethod.MOZILLA_AUTOCONF, 1_000, DiscoveryMetrics.Outcome.CANCELLED )
+            metrics.recordDiscovery( 2_000, true )
+            metrics.recordDiscovery( 3_000, false )
+            metrics.recordCacheLookup( DiscoveryMetrics.Cache.RESULT, true )
+            metrics.recordCacheLookup( DiscoveryMetrics.Cache.DNS, false )
+
+        then:
+            metrics.getStrategyCount( ConfigurationMethod.RFC_61186, DiscoveryMetrics.Outcome.SUCCESS ) == 1
+            metrics.getStrategyCount( ConfigurationMethod.MOZILLA_AUTOCONF, DiscoveryMetrics.Outcome.CANCELLED ) == 1
+            metrics.getStrategyLatency( ConfigurationMethod.RFC_61186 ).count == 1
+            metrics.discoveryLatency.count == 2
+            metrics.incompleteDiscoveryCount == 1
+            metrics.getCacheHitCount( DiscoveryMetrics.Cache.RESULT ) == 1
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.RESULT ) == 0
+            metrics.getCacheMissCount( DiscoveryMetrics.Cache.DNS ) == 1
+            metrics.toString().contains( "RFC_61186" )
+    }
+
+
+    def "test metered executor records queue depth and waiting time"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+            List<Runnable> queue = []
+            def executor = new MeteredExecutor( { Runnable r -> queue << r } as Executor, metrics )
+
+        when:
+            3.times { executor.execute( {} ) }
+
+        then:
+            metrics.executorQueueDepth == 3
+            metrics.executorQueueLatency.count == 0
+
+        when:
+            queue.each { it.run() }
+
+        then:
+            metrics.executorQueueDepth == 0
+            metrics.executorQueueLatency.count == 3
+    }
+
+
+    def "test rejected tasks do not remain queued"() {
+
+        given:
+            def metrics = new DefaultDiscoveryMetrics()
+            def executor = new MeteredExecutor( { Runnable r -> throw new RejectedExecutionException() } as Executor,
+                    metrics )
+
+        when:
+            executor.execute( {} )
+
+        then:
+            thrown( RejectedExecutionException )
+            metrics.executorQueueDepth == 0
+    }
+}
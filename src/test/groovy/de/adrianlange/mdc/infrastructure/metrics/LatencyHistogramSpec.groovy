@@ -0,0 +1,119 @@
+package de.adrianlange.mdc.infrastructure.metrics
+
+import de.adrianlange.mcd.infrastructure.metrics.LatencyHistogram
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+
+class LatencyHistogramSpec extends Specification {
+
+    def "test empty histogram"() {
+
+        given:
+            def histogram = new LatencyHistogram()
+
+        expect:
+            histogram.count == 0
+            histogram.mean == 0
+            histogram.max == 0
+            histogram.getValueAtPercentile( 50 ) == 0
+    }
+
+
+    def "test small durations are recorded exactly"() {
+
+        given:
+            def histogram = new LatencyHistogram()
+
+        when:
+            ( 1..10 ).each { histogram.record( it ) }
+
+        then:
+            histogram.count == 10
+            histogram.mean == 5
+            histogram.max == 10
+            histogram.getValueAtPercentile( 50 ) == 5
+            histogram.getValueAtPercentile( 100 ) == 10
+    }
+
+
+    def "test percentiles have a bounded relative error"() {
+
+        given:
+            def histogram = new LatencyHistogram()
+
+        when:
+            ( 1..100_000 ).each { histogram.record( it * 1_000L ) }
+
+        then:
+            histogram.count == 100_000
+            Math.abs( histogram.getValueAtPercentile( 50 ) - 50_000_000 ) <= 50_000_000 * 0.04
+            Math.abs( histogram.getValueAtPercentile( 99 ) - 99_000_000 ) <= 99_000_000 * 0.04
+            histogram.getValueAtPercentile( 100 ) == 100_000_000
+    }
+
+
+    def "test bucket of each value contains it"() {
+
+        expect:
+            LatencyHistogram.getIndex( value ) < LatencyHistogram.getIndex( LatencyHistogram.getUpperBound(
+                    LatencyHistogram.getIndex( value ) ) + 1 )
+            LatencyHistogram.getUpperBound( LatencyHistogram.getIndex( value ) ) >= value
+            LatencyHistogram.getIndex( LatencyHistogram.getUpperBound( LatencyHistogram.getIndex( value ) ) ) ==
+                    LatencyHistogram.getIndex( value )
+
+        where:
+            value << [ 0L, 31L, 32L, 63L, 64L, 1_000L, 123_456_789L, 1L << 40 ]
+    }
+
+
+    def "test negative and huge durations are clamped"() {
+
+        given:
+            def histogram = new LatencyHistogram()
+
+        when:
+            histogram.record( -5 )
+            histogram.record( Long.MAX_VALUE )
+
+        then:
+            histogram.count == 2
+            histogram.getValueAtPercentile( 50 ) == 0
+            histogram.max == ( 1L << 43 ) - 1
+    }
+
+
+    def "test invalid percentiles are rejected"() {
+
+        when:
+            new LatencyHistogram().getValueAtPercentile( percentile )
+
+        then:
+            thrown( IllegalArgumentException )
+
+        where:
+            percentile << [ -1d, 100.5d ]
+    }
+
+
+    def "test concurrent recording"() {
+
+        given:
+            def histogram = new LatencyHistogram()
+            def executor = Executors.newFixedThreadPool( 8 )
+
+        when:
+            def futures = ( 1..8 ).collect {
+                CompletableFuture.runAsync( { ( 1..10_000 ).each { histogram.record( it ) } }, executor )
+            }
+            CompletableFuture.allOf( futures as CompletableFuture[] ).join()
+
+        then:
+            histogram.count == 80_000
+            histogram.max == 10_000
+
+        cleanup:
+            executor.shutdown()
+    }
+}
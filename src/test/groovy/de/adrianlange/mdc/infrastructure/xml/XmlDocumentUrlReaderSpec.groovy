@@ -0,0 +1,108 @@
+package de.adrianlange.mdc.infrastructure.xml
+
+import com.sun.net.httpserver.HttpServer
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReaderImpl
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfDocumentParser
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ForkJoinPool
+
+class XmlDocumentUrlReaderSpec extends Specification {
+
+    @Shared
+    private HttpServer server
+
+    @Shared
+    private String baseUrl
+
+    @Shared
+    @AutoCleanup( "shutdown" )
+    private ForkJoinPool executor = new ForkJoinPool( 2 )
+
+
+    def setupSpec() {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 )
+        server.createContext( "/mail/config-v1.1.xml" ) { exchange ->
+            def body = XmlDocumentUrlReaderSpec.getResourceAsStream( "/autoconf/simple.xml" ).bytes
+            exchange.responseHeaders.add( "Content-Type", "text/xml" )
+            exchange.sendResponseHeaders( 200, body.length )
+            exchange.responseBody.withCloseable { it.write( body ) }
+        }
+        server.createContext( "/missing.xml" ) { exchange ->
+            exchange.sendResponseHeaders( 404, -1 )
+            exchange.close()
+        }
+        server.createContext( "/doctype.xml" ) { exchange ->
+            def body = '<?xml version="1.0"?><!DOCTYPE foo [<!ENTITY xxe SYSTEM "file:///etc/passwd">]><foo>&xxe;</foo>'.bytes
+            exchange.sendResponseHeaders( 200, body.length )
+            exchange.responseBody.withCloseable { it.write( body ) }
+        }
+        server.start()
+        baseUrl = "http://127.0.0.1:" + server.address.port
+    }
+
+
+    def cleanupSpec() {
+        server.stop( 0 )
+    }
+
+
+    def "test documents are fetched concurrently with a shared client"() {
+
+        given:
+            def reader = new XmlDocumentUrlReaderImpl( XmlDocumentUrlReaderImpl.createHttpClient( null ),
+                    Duration.ofSeconds( 5 ), executor )
+
+        when:
+            def futures = ( 1..20 ).collect { reader.getDocumentAsync( baseUrl + "/mail/config-v1.1.xml" ) }
+            CompletableFuture.allOf( futures as CompletableFuture[] ).join()
+
+        then:
+            futures.every { it.join().get().documentElement.nodeName == "clientConfig" }
+    }
+
+
+    def "test documents are parsed in a single pass"() {
+
+        given:
+            def reader = new XmlDocumentUrlReaderImpl( XmlDocumentUrlReaderImpl.createHttpClient( null ),
+                    Duration.ofSeconds( 5 ), executor )
+
+        when:
+            def services = reader.parseDocumentAsync( baseUrl + "/mail/config-v1.1.xml",
+                    new MozillaAutoconfDocumentParser() ).join()
+
+        then:
+            services.isPresent()
+            !services.get().isEmpty()
+    }
+
+
+    def "test documents with document type declaration are rejected by stream parser"() {
+
+        given:
+            def reader = new XmlDocumentUrlReaderImpl( XmlDocumentUrlReaderImpl.createHttpClient( null ),
+                    Duration.ofSeconds( 5 ), executor )
+
+        expect:
+            !reader.parseDocumentAsync( baseUrl + "/doctype.xml", new MozillaAutoconfDocumentParser() ).join().isPresent()
+    }
+
+
+    def "test unreadable documents result in empty optional"() {
+
+        given:
+            def reader = new XmlDocumentUrlReaderImpl( XmlDocumentUrlReaderImpl.createHttpClient( null ),
+                    Duration.ofSeconds( 5 ), executor )
+
+        expect:
+            !reader.getDocument( url.startsWith( "/" ) ? baseUrl + url : url ).isPresent()
+
+        where:
+            url << [ "/missing.xml", "/doctype.xml", "ftp://example.com/config.xml" ]
+    }
+}
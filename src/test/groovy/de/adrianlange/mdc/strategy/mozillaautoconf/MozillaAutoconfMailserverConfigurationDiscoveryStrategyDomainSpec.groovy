@@ -1,8 +1,10 @@
 package de.adrianlange.mdc.strategy.mozillaautoconf
 
+import de.adrianlange.mcd.HttpLookupContext
 import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
 import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolver
 import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser
 import de.adrianlange.mcd.model.Authentication
 import de.adrianlange.mcd.model.ConfigurationMethod
 import de.adrianlange.mcd.model.MozillaAutoconfMailserverService
@@ -14,6 +16,9 @@ import de.adrianlange.mdc.util.DnsHelper
 import de.adrianlange.mdc.util.TestHelper
 import spock.lang.Specification
 
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
 class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends Specification {
 
     private static final String DOMAIN = "example.com"
@@ -44,10 +49,10 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.empty()
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.isEmpty()
@@ -69,10 +74,12 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -106,10 +113,12 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.empty()
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -143,11 +152,13 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.empty()
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ] )
             0 * _
         and:
             configs.size() == 2
@@ -181,11 +192,15 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ] )
             0 * _
         and:
             configs.size() == 2
@@ -222,11 +237,15 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_SIMPLE ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 4
@@ -273,11 +292,13 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) ) >> Optional.empty()
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, "" ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_OAUTH2 ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, "" ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_OAUTH2, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -386,4 +407,133 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyDomainSpec extends
                 && imap.getOAuth2s()[0].authUrl == "https://api.login.yahoo.com/oauth2/request_auth"
                 && imap.getOAuth2s()[0].tokenUrl == "https://api.login.yahoo.com/oauth2/get_token"
     }
+
+
+    def "test cancelling the lookups cancels the TXT lookup and the fetches of the published URLs"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .build()
+            def strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context )
+            def txtDnsResolver = Mock( TxtDnsResolver )
+            strategy.txtDnsResolver = txtDnsResolver
+            def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+            strategy.xmlDocumentUrlReader = xmlDocumentUrlReader
+            xmlDocumentUrlReader.parseDocumentAsync( _, _ ) >> { new CompletableFuture() }
+            def txtLookup = new CompletableFuture()
+            def publishedUrlFetch = new CompletableFuture()
+
+        when:
+            strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ).each { it.cancel( true ) }
+
+        then:
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> txtLookup
+            txtLookup.isCancelled()
+
+        when:
+            strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ).each { it.cancel( true ) }
+
+        then:
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture(
+                    [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ] )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( AUTOCONF_URL_3, _ ) >> publishedUrlFetch
+            publishedUrlFetch.isCancelled()
+    }
+
+
+    def "test HTTPS and HTTP are raced"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .withHttpFetchPolicy( HttpLookupContext.FetchPolicy.RACE )
+                    .build()
+            def strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context )
+            def txtDnsResolver = Mock( TxtDnsResolver )
+            strategy.txtDnsResolver = txtDnsResolver
+            def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+            strategy.xmlDocumentUrlReader = xmlDocumentUrlReader
+            def httpRequest = new CompletableFuture()
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ).replace( "http:", "https:" ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> httpRequest
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ).replace( "http:", "https:" ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
+            0 * _
+        and:
+            !configs.isEmpty()
+            httpRequest.isCancelled()
+    }
+
+
+    def "test HTTP is requested after HTTPS failed"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .withHttpFetchPolicy( HttpLookupContext.FetchPolicy.HTTPS_FIRST, Duration.ofMinutes( 1 ) )
+                    .build()
+            def strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context )
+            def txtDnsResolver = Mock( TxtDnsResolver )
+            strategy.txtDnsResolver = txtDnsResolver
+            def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+            strategy.xmlDocumentUrlReader = xmlDocumentUrlReader
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ).replace( "http:", "https:" ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ).replace( "http:", "https:" ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
+            0 * _
+        and:
+            !configs.isEmpty()
+    }
+
+
+    def "test HTTP is requested after the fallback delay"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .withHttpFetchPolicy( HttpLookupContext.FetchPolicy.HTTPS_FIRST, Duration.ofMillis( 50 ) )
+                    .build()
+            def strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context )
+            def txtDnsResolver = Mock( TxtDnsResolver )
+            strategy.txtDnsResolver = txtDnsResolver
+            def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+            strategy.xmlDocumentUrlReader = xmlDocumentUrlReader
+            def httpsRequest = new CompletableFuture()
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ).replace( "http:", "https:" ), _ ) >> httpsRequest
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ).replace( "http:", "https:" ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
+            0 * _
+        and:
+            !configs.isEmpty()
+            httpsRequest.isCancelled()
+    }
 }
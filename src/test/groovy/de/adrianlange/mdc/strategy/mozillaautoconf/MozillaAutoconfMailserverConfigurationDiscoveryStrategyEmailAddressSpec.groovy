@@ -3,6 +3,7 @@ package de.adrianlange.mdc.strategy.mozillaautoconf
 import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
 import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolver
 import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser
 import de.adrianlange.mcd.model.Authentication
 import de.adrianlange.mcd.model.ConfigurationMethod
 import de.adrianlange.mcd.model.MozillaAutoconfMailserverService
@@ -14,6 +15,8 @@ import de.adrianlange.mdc.util.DnsHelper
 import de.adrianlange.mdc.util.TestHelper
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+
 class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec extends Specification {
 
     private static final String EMAIL_ADDRESS = "alan@example.com"
@@ -45,10 +48,10 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.isEmpty()
@@ -70,10 +73,12 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -107,10 +112,12 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -144,11 +151,13 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ] )
             0 * _
         and:
             configs.size() == 2
@@ -182,11 +191,15 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ DnsHelper.createTXTRecord( DOMAIN, AUTOCONF_URL_3 ) ] )
             0 * _
         and:
             configs.size() == 2
@@ -223,11 +236,15 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_MOZILLA_EXAMPLE ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_SIMPLE ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_MOZILLA_EXAMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_SIMPLE, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 4
@@ -274,11 +291,13 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
 
         then:
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1A, DOMAIN ) )
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ) ) >> Optional.empty()
-            1 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_2, DOMAIN ) ) >> Optional.of( TestHelper.readDocumentFromFile( MOCK_OAUTH2 ) )
-            0 * xmlDocumentUrlReader.getDocument( String.format( AUTOCONF_URL_3 ) )
-            1 * txtDnsResolver.getTxtRecords( DOMAIN ) >> [ ]
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1A, DOMAIN ), _ )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_OAUTH2, parser ) )
+            }
+            0 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_3 ), _ )
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -297,6 +316,44 @@ class MozillaAutoconfMailserverConfigurationDiscoveryStrategyEmailAddressSpec ex
     }
 
 
+    def "test domain documents are read once for multiple email addresses"() {
+
+        given:
+            def otherEmailAddress = "bob@example.com"
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MOZILLA_AUTOCONF )
+                    .build()
+            def strategy = new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context )
+            def txtDnsResolver = Mock( TxtDnsResolver )
+            strategy.txtDnsResolver = txtDnsResolver
+            def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+            strategy.xmlDocumentUrlReader = xmlDocumentUrlReader
+
+        when:
+            def result = strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ),
+                    [ EmailAddress.of( EMAIL_ADDRESS ), EmailAddress.of( otherEmailAddress ) ] )
+            def configs = TestHelper.getResultList( result[EmailAddress.of( EMAIL_ADDRESS )] )
+            def otherConfigs = TestHelper.getResultList( result[EmailAddress.of( otherEmailAddress )] )
+
+        then:
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, EMAIL_ADDRESS ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_1B, DOMAIN, otherEmailAddress ), _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.parseDocumentAsync( String.format( AUTOCONF_URL_2, DOMAIN ), _ ) >> { String url, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_OAUTH2, parser ) )
+            }
+            1 * txtDnsResolver.getTxtRecordsAsync( DOMAIN ) >> CompletableFuture.completedFuture( [ ] )
+            0 * _
+        and:
+            result.size() == 2
+            configs.size() == 2
+            otherConfigs.size() == 2
+        and:
+            isOAuth2Smtp( configs.find { it.protocol == Protocol.SMTP } as MozillaAutoconfMailserverService )
+            isOAuth2Imap( configs.find { it.protocol == Protocol.IMAP } as MozillaAutoconfMailserverService )
+            otherConfigs.every { ( it as MozillaAutoconfMailserverService ).username == otherEmailAddress }
+    }
+
+
     private static boolean isMozillaDefaultSmtp( MozillaAutoconfMailserverService smtp ) {
         return smtp.configurationMethod == ConfigurationMethod.MOZILLA_AUTOCONF
                 && smtp.protocol == Protocol.SMTP
@@ -0,0 +1,156 @@
+package de.adrianlange.mdc.strategy.mozillaautoconf
+
+import de.adrianlange.mcd.model.MozillaAutoconfMailserverService
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabase
+import de.adrianlange.mcd.strategy.mozillaautoconf.ProviderDatabaseCompiler
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+class ProviderDatabaseSpec extends Specification {
+
+    private static final String MOCK_MOZILLA_EXAMPLE = "/autoconf/mozilla-example.xml"
+
+
+    def "test all domains of a provider are found"() {
+
+        given:
+            def compiler = new ProviderDatabaseCompiler()
+            def added = getClass().getResourceAsStream( MOCK_MOZILLA_EXAMPLE ).withCloseable {
+                compiler.addDocument( it )
+            }
+            def database = read( compiler )
+
+        expect:
+            added == 2
+            database.domainCount == 2
+            database.providerCount == 1
+            [ "example.com", "example.net", "EXAMPLE.com", "example.com." ].every {
+                database.getMailserverServices( it )*.protocol as Set == [ Protocol.POP3, Protocol.SMTP ] as Set
+            }
+            database.getMailserverServices( "example.com" ).every { it instanceof MozillaAutoconfMailserverService }
+            database.getMailserverServices( "example.com" ).find { it.protocol == Protocol.POP3 }.username ==
+                    "%EMAILLOCALPART%"
+            database.getMailserverServices( "example.org" ).isEmpty()
+            database.getMailserverServices( "sub.example.com" ).isEmpty()
+    }
+
+
+    def "test many providers are found"() {
+
+        given:
+            def compiler = new ProviderDatabaseCompiler()
+            1000.times { compiler.addDocument( document( "provider${ it }.example", "imap.provider${ it }.example" ) ) }
+            def database = read( compiler )
+
+        expect:
+            database.domainCount == 1000
+            ( 0..<1000 ).every {
+                database.getMailserverServices( "provider${ it }.example" )*.host == [ "imap.provider${ it }.example" ]
+            }
+            database.getMailserverServices( "provider1000.example" ).isEmpty()
+    }
+
+
+    def "test unicode domains are found by their IDN"() {
+
+        given:
+            def compiler = new ProviderDatabaseCompiler()
+            compiler.addDocument( document( "bücher.example", "imap.xn--bcher-kva.example" ) )
+            def database = read( compiler )
+
+        expect:
+            database.getMailserverServices( "xn--bcher-kva.example" ).size() == 1
+            database.getMailserverServices( "bücher.example" ).size() == 1
+    }
+
+
+    def "test first document declaring a domain wins"() {
+
+        given:
+            def compiler = new ProviderDatabaseCompiler()
+
+        when:
+            def first = compiler.addDocument( document( "example.com", "imap.first.example" ) )
+            def second = compiler.addDocument( document( "example.com", "imap.second.example" ) )
+
+        then:
+            first == 1
+            second == 0
+            read( compiler ).getMailserverServices( "example.com" )*.host == [ "imap.first.example" ]
+    }
+
+
+    def "test database files are compiled from directories and opened"() {
+
+        given:
+            def directory = Files.createTempDirectory( "ispdb" )
+            Files.writeString( directory.resolve( "example.com" ), documentString( "example.com", "imap.example.com" ) )
+            Files.writeString( directory.resolve( "invalid.xml" ), "<clientConfig>" )
+            def file = Files.createTempFile( "providers", ".db" )
+            def compiler = new ProviderDatabaseCompiler()
+
+        when:
+            def added = compiler.addDirectory( directory )
+            compiler.write( file )
+            def database = ProviderDatabase.open( file )
+
+        then:
+            added == 1
+            database.getMailserverServices( "example.com" )*.host == [ "imap.example.com" ]
+
+        cleanup:
+            directory.toFile().deleteDir()
+            Files.deleteIfExists( file )
+    }
+
+
+    def "test empty databases are valid"() {
+
+        expect:
+            read( new ProviderDatabaseCompiler() ).getMailserverServices( "example.com" ).isEmpty()
+    }
+
+
+    def "test files which are no provider database are rejected"() {
+
+        when:
+            ProviderDatabase.read( new ByteArrayInputStream( "no provider database".bytes ) )
+
+        then:
+            thrown( IOException )
+    }
+
+
+    private static ProviderDatabase read( ProviderDatabaseCompiler compiler ) {
+
+        def bytes = new ByteArrayOutputStream()
+        compiler.write( bytes )
+        return ProviderDatabase.read( new ByteArrayInputStream( bytes.toByteArray() ) )
+    }
+
+
+    private static InputStream document( String domain, String host ) {
+
+        return new ByteArrayInputStream( documentString( domain, host ).getBytes( StandardCharsets.UTF_8 ) )
+    }
+
+
+    private static String documentString( String domain, String host ) {
+
+        return """<?xml version="1.0" encoding="UTF-8"?>
+            <clientConfig version="1.1">
+                <emailProvider id="${ domain }">
+                    <domain>${ domain }</domain>
+                    <incomingServer type="imap">
+                        <hostname>${ host }</hostname>
+                        <port>993</port>
+                        <socketType>SSL</socketType>
+                        <username>%EMAILADDRESS%</username>
+                    </incomingServer>
+                </emailProvider>
+            </clientConfig>"""
+    }
+}
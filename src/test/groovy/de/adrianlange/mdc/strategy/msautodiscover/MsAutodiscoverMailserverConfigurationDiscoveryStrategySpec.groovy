@@ -0,0 +1,142 @@
+package de.adrianlange.mdc.strategy.msautodiscover
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolver
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser
+import de.adrianlange.mcd.model.Authentication
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.model.MsAutodiscoverMailserverService
+import de.adrianlange.mcd.model.Protocol
+import de.adrianlange.mcd.model.SocketType
+import de.adrianlange.mcd.strategy.EmailAddress
+import de.adrianlange.mcd.strategy.msautodiscover.MsAutodiscoverMailserverConfigurationDiscoveryStrategy
+import de.adrianlange.mdc.util.DnsHelper
+import de.adrianlange.mdc.util.TestHelper
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class MsAutodiscoverMailserverConfigurationDiscoveryStrategySpec extends Specification {
+
+    private static final String EMAIL_ADDRESS = "alan@example.com"
+
+    private static final String URL_DOMAIN = "https://example.com/autodiscover/autodiscover.xml"
+    private static final String URL_AUTODISCOVER = "https://autodiscover.example.com/autodiscover/autodiscover.xml"
+
+    private static final String MOCK_POX_EXAMPLE = "/autodiscover/pox-example.xml"
+    private static final String MOCK_REDIRECT_ADDR = "/autodiscover/redirect-addr.xml"
+
+    private def context = new MailserverConfigurationDiscoveryContextBuilder()
+            .withConfigurationMethods( ConfigurationMethod.MS_AUTODISCOVER_V1 )
+            .build()
+
+    private def srvDnsResolver = Mock( SrvDnsResolver )
+
+    private def xmlDocumentUrlReader = Mock( XmlDocumentUrlReader )
+
+    private def strategy = new MsAutodiscoverMailserverConfigurationDiscoveryStrategy( context, srvDnsResolver,
+            xmlDocumentUrlReader )
+
+
+    def "test first valid response wins and the other requests are cancelled"() {
+
+        given:
+            def slowRequest = new CompletableFuture()
+            def srvLookup = new CompletableFuture()
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_DOMAIN, { it.contains( EMAIL_ADDRESS ) }, _ ) >> slowRequest
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_AUTODISCOVER, _, _ ) >> { String url, String body, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_POX_EXAMPLE, parser ) )
+            }
+            1 * srvDnsResolver.getSrvRecordsAsync( "example.com", "_autodiscover" ) >> srvLookup
+            0 * _
+        and:
+            configs.size() == 2
+            configs.every { it instanceof MsAutodiscoverMailserverService }
+            configs.every { it.configurationMethod == ConfigurationMethod.MS_AUTODISCOVER_V1 }
+            def imap = configs.find { it.protocol == Protocol.IMAP } as MsAutodiscoverMailserverService
+            imap.host == "imap.example.com"
+            imap.port == 993
+            imap.socketType == SocketType.SSL
+            imap.username == "alan"
+            imap.authentications == [ Authentication.PASSWORD_CLEARTEXT ] as Set
+            def smtp = configs.find { it.protocol == Protocol.SMTP } as MsAutodiscoverMailserverService
+            smtp.socketType == SocketType.STARTTLS
+            smtp.authentications == [ Authentication.NTLM ] as Set
+            slowRequest.isCancelled()
+            srvLookup.isCancelled()
+    }
+
+
+    def "test endpoint of SRV record is requested"() {
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_DOMAIN, _, _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_AUTODISCOVER, _, _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * srvDnsResolver.getSrvRecordsAsync( "example.com", "_autodiscover" ) >> CompletableFuture.completedFuture(
+                    [ DnsHelper.createSRVRecord( "_autodiscover._tcp.example.com", 8443, "mail.example.net" ) ] )
+            1 * xmlDocumentUrlReader.postDocumentAsync( "https://mail.example.net:8443/autodiscover/autodiscover.xml", _, _ ) >> { String url, String body, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_POX_EXAMPLE, parser ) )
+            }
+            0 * _
+        and:
+            configs.size() == 2
+    }
+
+
+    def "test redirect to other email address is followed"() {
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
+
+        then:
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_DOMAIN, _, _ ) >> { String url, String body, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_REDIRECT_ADDR, parser ) )
+            }
+            1 * xmlDocumentUrlReader.postDocumentAsync( URL_AUTODISCOVER, _, _ ) >> new CompletableFuture()
+            1 * srvDnsResolver.getSrvRecordsAsync( "example.com", "_autodiscover" ) >> CompletableFuture.completedFuture( [] )
+            1 * xmlDocumentUrlReader.postDocumentAsync( "https://example.net/autodiscover/autodiscover.xml",
+                    { it.contains( "alan@example.net" ) }, _ ) >> { String url, String body, XmlStreamParser parser ->
+                CompletableFuture.completedFuture( TestHelper.parseFile( MOCK_POX_EXAMPLE, parser ) )
+            }
+            1 * xmlDocumentUrlReader.postDocumentAsync( "https://autodiscover.example.net/autodiscover/autodiscover.xml", _, _ ) >> new CompletableFuture()
+            1 * srvDnsResolver.getSrvRecordsAsync( "example.net", "_autodiscover" ) >> new CompletableFuture()
+            0 * _
+        and:
+            configs.size() == 2
+    }
+
+
+    def "test no endpoint answers"() {
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.of( EMAIL_ADDRESS ) ) )
+
+        then:
+            2 * xmlDocumentUrlReader.postDocumentAsync( _, _, _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            1 * srvDnsResolver.getSrvRecordsAsync( "example.com", "_autodiscover" ) >> CompletableFuture.completedFuture( [] )
+            0 * _
+        and:
+            configs.isEmpty()
+    }
+
+
+    def "test nothing is discovered for domain parts"() {
+
+        when:
+            def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( "example.com" ) ) )
+
+        then:
+            0 * _
+        and:
+            configs.isEmpty()
+    }
+}
@@ -0,0 +1,76 @@
+package de.adrianlange.mdc.strategy.mxprovider
+
+import de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder
+import de.adrianlange.mcd.infrastructure.dns.MxDnsResolver
+import de.adrianlange.mcd.infrastructure.dns.SrvDnsResolver
+import de.adrianlange.mcd.infrastructure.dns.TxtDnsResolver
+import de.adrianlange.mcd.infrastructure.xml.XmlDocumentUrlReader
+import de.adrianlange.mcd.model.ConfigurationMethod
+import de.adrianlange.mcd.strategy.EmailAddress
+import de.adrianlange.mcd.strategy.mozillaautoconf.MozillaAutoconfMailserverConfigurationDiscoveryStrategy
+import de.adrianlange.mcd.strategy.mxprovider.MxProviderMailserverConfigurationDiscoveryStrategy
+import de.adrianlange.mcd.strategy.srvrecord.SrvRecordMailserverConfigurationDiscoveryStrategy
+import de.adrianlange.mdc.util.TestHelper
+import org.xbill.DNS.DClass
+import org.xbill.DNS.MXRecord
+import org.xbill.DNS.Name
+import org.xbill.DNS.SRVRecord
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class MxProviderMailserverConfigurationDiscoveryStrategySpec extends Specification {
+
+    def "test failed provider lookups are not cached"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.MX_PROVIDER )
+                    .build()
+            def mxDnsResolver = Stub( MxDnsResolver ) {
+                getMxRecordsAsync( _ ) >> { String domain ->
+                    CompletableFuture.completedFuture( [ new MXRecord( Name.fromString( "${ domain }." ), DClass.IN,
+                            3600, 10, Name.fromString( "mx.provider.net." ) ) ] )
+                }
+            }
+            def txtDnsResolver = Stub( TxtDnsResolver ) {
+                getTxtRecordsAsync( _ ) >> CompletableFuture.completedFuture( [] )
+            }
+            def xmlDocumentUrlReader = Stub( XmlDocumentUrlReader ) {
+                parseDocumentAsync( _, _ ) >> CompletableFuture.completedFuture( Optional.empty() )
+            }
+            def srvLookups = 0
+            def srvDnsResolver = Stub( SrvDnsResolver ) {
+                getSrvRecordsAsync( "provider.net", _ ) >> { String domain, String protocolPrefix ->
+                    srvLookups++
+                    if( srvLookups == 1 )
+                        return CompletableFuture.failedFuture( new IllegalStateException( "failed" ) )
+                    if( protocolPrefix != "_imaps" )
+                        return CompletableFuture.completedFuture( [] )
+                    return CompletableFuture.completedFuture( [ new SRVRecord( Name.fromString(
+                            "_imaps._tcp.provider.net." ), DClass.IN, 3600, 0, 10, 993,
+                            Name.fromString( "imap.provider.net." ) ) ] )
+                }
+            }
+            def strategy = new MxProviderMailserverConfigurationDiscoveryStrategy( context, mxDnsResolver,
+                    new MozillaAutoconfMailserverConfigurationDiscoveryStrategy( context, txtDnsResolver,
+                            xmlDocumentUrlReader ),
+                    new SrvRecordMailserverConfigurationDiscoveryStrategy( context, srvDnsResolver ) )
+
+        when:
+            def failed = TestHelper.getResultList( strategy.getMailserverServices(
+                    EmailAddress.DomainPart.of( "customer1.com" ) ) )
+
+        then:
+            failed.isEmpty()
+            context.providerResultCache.size == 0
+
+        when:
+            def services = TestHelper.getResultList( strategy.getMailserverServices(
+                    EmailAddress.DomainPart.of( "customer2.com" ) ) )
+
+        then:
+            services*.host == [ "imap.provider.net" ]
+            context.providerResultCache.size == 1
+    }
+}
@@ -14,6 +14,8 @@ import org.xbill.DNS.Name
 import org.xbill.DNS.SRVRecord
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+
 class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specification {
 
     private static final String DOMAIN = "example.com"
@@ -33,11 +35,11 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_submission" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imap" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3s" ) >> [ ]
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_submission" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imap" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imaps" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3s" ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.isEmpty()
@@ -58,9 +60,9 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_submission" ) >> [
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_submission" ) >> CompletableFuture.completedFuture( [
                     new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 3600, 0, 1, 465, Name.fromString( "smtp.example.com." ) )
-            ]
+            ] )
             0 * _
         and:
             configs.size() == 1
@@ -90,7 +92,7 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_submission" ) >> [ ]
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_submission" ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.isEmpty()
@@ -112,10 +114,10 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imap" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3s" ) >> [ ]
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imap" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imaps" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3s" ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.isEmpty()
@@ -137,13 +139,13 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imap" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" ) >> [
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imap" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imaps" ) >> CompletableFuture.completedFuture( [
                     new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 300, 0, 1, 993, Name.fromString( "imap.example.com." ) ),
                     new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 300, 10, 1, 19993, Name.fromString( "imap2.example.com." ) )
-            ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3s" ) >> [ ]
+            ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3s" ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 2
@@ -171,13 +173,40 @@ class SrvRecordMailserverConfigurationDiscoveryStrategySpec extends Specificatio
             def configs = TestHelper.getResultList( strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ) ) )
 
         then:
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imap" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_imaps" ) >> [ ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3" ) >> [
-                    new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 300, 0, 1, 110, Name.fromString( "." ) ) ]
-            1 * srvDnsResolver.getSrvRecords( DOMAIN, "_pop3s" ) >> [ ]
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imap" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_imaps" ) >> CompletableFuture.completedFuture( [ ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3" ) >> CompletableFuture.completedFuture( [
+                    new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 300, 0, 1, 110, Name.fromString( "." ) ) ] )
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_pop3s" ) >> CompletableFuture.completedFuture( [ ] )
             0 * _
         and:
             configs.size() == 0
     }
+
+
+    def "test SRV records are looked up once for multiple email addresses"() {
+
+        given:
+            def context = new MailserverConfigurationDiscoveryContextBuilder()
+                    .withConfigurationMethods( ConfigurationMethod.RFC_61186 )
+                    .withDiscoveryScopes( MailserverConfigurationDiscoveryContext.DiscoveryScope.SUBMISSION )
+                    .build()
+            def srvDnsResolver = Mock( SrvDnsResolver )
+            def strategy = new SrvRecordMailserverConfigurationDiscoveryStrategy( context )
+            strategy.srvDnsResolver = srvDnsResolver
+            def emailAddresses = [ EmailAddress.of( "alan@" + DOMAIN ), EmailAddress.of( "bob@" + DOMAIN ) ]
+
+        when:
+            def result = strategy.getMailserverServices( EmailAddress.DomainPart.of( DOMAIN ), emailAddresses )
+            def configs = emailAddresses.collect { TestHelper.getResultList( result[it] ) }
+
+        then:
+            1 * srvDnsResolver.getSrvRecordsAsync( DOMAIN, "_submission" ) >> CompletableFuture.completedFuture( [
+                    new SRVRecord( Name.fromString( DOMAIN + "." ), DClass.IN, 3600, 0, 1, 465, Name.fromString( "smtp.example.com." ) )
+            ] )
+            0 * _
+        and:
+            result.keySet() == emailAddresses as Set
+            configs.every { it.size() == 1 && it[0].host == "smtp.example.com" }
+    }
 }
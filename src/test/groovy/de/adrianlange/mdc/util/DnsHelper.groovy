@@ -1,7 +1,13 @@
 package de.adrianlange.mdc.util
 
 import org.xbill.DNS.DClass
+import org.xbill.DNS.Flags
+import org.xbill.DNS.Message
 import org.xbill.DNS.Name
+import org.xbill.DNS.Record
+import org.xbill.DNS.SOARecord
+import org.xbill.DNS.SRVRecord
+import org.xbill.DNS.Section
 import org.xbill.DNS.TXTRecord
 
 class DnsHelper {
@@ -9,4 +15,35 @@ class DnsHelper {
     static TXTRecord createTXTRecord( String domain, String value ) {
         return new TXTRecord( Name.fromString( domain + "." ), DClass.IN, 3600, [ "mailconf=", value ] )
     }
+
+
+    static SRVRecord createSRVRecord( String name, int port, String target ) {
+        return new SRVRecord( Name.fromString( name + "." ), DClass.IN, 3600, 0, 1, port, Name.fromString( target + "." ) )
+    }
+
+
+    /**
+     * Creates an authoritative response for the given query containing the given answers.
+     */
+    static Message createResponse( Message query, Record... answers ) {
+        def response = new Message( query.header.getID() )
+        response.header.setFlag( Flags.QR )
+        response.header.setFlag( Flags.AA )
+        response.addRecord( query.question, Section.QUESTION )
+        answers.each { response.addRecord( it, Section.ANSWER ) }
+        return response
+    }
+
+
+    /**
+     * Creates an authoritative negative response (NXDOMAIN or NODATA, if rcode is NOERROR) for the given query.
+     */
+    static Message createNegativeResponse( Message query, String zone, int rcode ) {
+        def response = createResponse( query )
+        response.header.setRcode( rcode )
+        def zoneName = Name.fromString( zone + "." )
+        response.addRecord( new SOARecord( zoneName, DClass.IN, 3600, Name.fromString( "ns." + zone + "." ),
+                Name.fromString( "hostmaster." + zone + "." ), 1, 3600, 600, 86400, 300 ), Section.AUTHORITY )
+        return response
+    }
 }
@@ -1,6 +1,7 @@
 package de.adrianlange.mdc.util
 
-import de.adrianlange.mcd.MailserverConfigurationDiscovery
+import de.adrianlange.mcd.infrastructure.xml.XmlParsers
+import de.adrianlange.mcd.infrastructure.xml.XmlStreamParser
 import de.adrianlange.mcd.model.MailserverService
 import org.w3c.dom.Document
 
@@ -19,7 +20,7 @@ class TestHelper {
      */
     static <T extends MailserverService> List<T> getResultList( List<CompletableFuture<List<T>>> strategyResult ) {
 
-        return MailserverConfigurationDiscovery.waitForAllAndMerge( [ strategyResult ].stream() ) as List<T>
+        return strategyResult.collectMany { it.join() }.toSet() as List<T>
     }
 
 
@@ -34,4 +35,24 @@ class TestHelper {
         DocumentBuilder db = dbf.newDocumentBuilder()
         return db.parse( TestHelper.class.getResource( path ).getFile() )
     }
+
+
+    /**
+     * Parses a resource with the given {@link XmlStreamParser}.
+     *
+     * @param path Path to file in resource directory, e.g. <code>/foo/bar.xml</code>
+     * @param parser Parser to use
+     * @return Optional of the parsed object
+     */
+    static <T> Optional<T> parseFile( String path, XmlStreamParser<T> parser ) {
+
+        TestHelper.class.getResourceAsStream( path ).withCloseable {
+            def reader = XmlParsers.createXmlStreamReader( it )
+            try {
+                return Optional.ofNullable( parser.parse( reader ) )
+            } finally {
+                reader.close()
+            }
+        }
+    }
 }
@@ -0,0 +1,372 @@
+package de.adrianlange.mcd.testsupport;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * In-process DNS server answering queries over UDP and TCP on the same port of the loopback address from records
+ * added to it. Names without any record are answered with NXDOMAIN.<p>Faults are injected according to
+ * {@link #getFaultInjection()}: answers are delayed, lost queries are not answered at all and erroneous answers carry
+ * the response code set by {@link #setErrorRcode(int)}. With {@link #setTruncateUdp(boolean)} UDP answers are
+ * truncated, s.th. clients have to retry over TCP.
+ *
+ * @author Adrian Lange
+ */
+public class FakeDnsServer implements AutoCloseable {
+
+  private static final int BIND_ATTEMPTS = 10;
+
+  private final Map<Name, List<Record>> records = new ConcurrentHashMap<>();
+
+  private final FaultInjection faultInjection = new FaultInjection();
+
+  private final DatagramSocket udpSocket;
+
+  private final ServerSocket tcpSocket;
+
+  private final Set<Socket> tcpConnections = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService executor;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final AtomicLong udpQueryCount = new AtomicLong();
+
+  private final AtomicLong tcpQueryCount = new AtomicLong();
+
+  private volatile int errorRcode = Rcode.SERVFAIL;
+
+  private volatile boolean truncateUdp = false;
+
+  private volatile boolean closed = false;
+
+
+  /**
+   * Starts a new DNS server on a port of the loopback address, which is free for UDP and TCP.
+   *
+   * @throws IOException if the sockets cannot be opened
+   */
+  public FakeDnsServer() throws IOException {
+
+    DatagramSocket udp = null;
+    ServerSocket tcp = null;
+    for( int attempt = 0; tcp == null; attempt++ ) {
+      udp = new DatagramSocket( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ) );
+      try {
+        tcp = new ServerSocket( udp.getLocalPort(), 50, InetAddress.getLoopbackAddress() );
+      } catch( BindException e ) {
+        udp.close();
+        if( attempt + 1 == BIND_ATTEMPTS )
+          throw e;
+      }
+    }
+    udpSocket = udp;
+    tcpSocket = tcp;
+
+    var threadNumber = new AtomicInteger();
+    executor = Executors.newCachedThreadPool( r -> createThread( r, "fake-dns-" + threadNumber.incrementAndGet() ) );
+    scheduler = Executors.newSingleThreadScheduledExecutor( r -> createThread( r, "fake-dns-scheduler" ) );
+    executor.execute( this::serveUdp );
+    executor.execute( this::serveTcp );
+  }
+
+
+  /**
+   * Adds a record, which is returned for queries of its name and type.
+   *
+   * @param record Record
+   * @return this server
+   */
+  public FakeDnsServer addRecord( Record record ) {
+
+    records.computeIfAbsent( record.getName(), n -> new CopyOnWriteArrayList<>() ).add( record );
+    return this;
+  }
+
+
+  /**
+   * Removes all records.
+   *
+   * @return this server
+   */
+  public FakeDnsServer clearRecords() {
+
+    records.clear();
+    return this;
+  }
+
+
+  /**
+   * Returns the faults injected into the answers of this server.
+   *
+   * @return Fault injection
+   */
+  public FaultInjection getFaultInjection() {
+
+    return faultInjection;
+  }
+
+
+  /**
+   * Sets the response code of erroneous answers, {@link Rcode#SERVFAIL} by default.
+   *
+   * @param errorRcode Response code
+   */
+  public void setErrorRcode( int errorRcode ) {
+
+    this.errorRcode = errorRcode;
+  }
+
+
+  /**
+   * Sets whether UDP answers are truncated, s.th. clients have to retry over TCP.
+   *
+   * @param truncateUdp True to truncate all UDP answers
+   */
+  public void setTruncateUdp( boolean truncateUdp ) {
+
+    this.truncateUdp = truncateUdp;
+  }
+
+
+  /**
+   * Returns the host name to be used with
+   * {@link de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder#withDnsServer(String, int)}.
+   *
+   * @return Host name
+   */
+  public String getHost() {
+
+    return udpSocket.getLocalAddress().getHostAddress();
+  }
+
+
+  public int getPort() {
+
+    return udpSocket.getLocalPort();
+  }
+
+
+  /**
+   * Returns the number of queries received over UDP and TCP.
+   *
+   * @return Number of queries
+   */
+  public long getQueryCount() {
+
+    return udpQueryCount.get() + tcpQueryCount.get();
+  }
+
+
+  public long getUdpQueryCount() {
+
+    return udpQueryCount.get();
+  }
+
+
+  public long getTcpQueryCount() {
+
+    return tcpQueryCount.get();
+  }
+
+
+  /**
+   * Creates the response to the given query.
+   *
+   * @param query Query
+   * @return Response
+   */
+  protected Message answer( Message query ) {
+
+    var response = new Message( query.getHeader().getID() );
+    response.getHeader().setFlag( Flags.QR );
+    response.getHeader().setFlag( Flags.AA );
+    if( query.getHeader().getFlag( Flags.RD ) )
+      response.getHeader().setFlag( Flags.RD );
+    response.getHeader().setFlag( Flags.RA );
+
+    var question = query.getQuestion();
+    if( question == null ) {
+      response.getHeader().setRcode( Rcode.FORMERR );
+      return response;
+    }
+    response.addRecord( question, Section.QUESTION );
+
+    var nameRecords = records.get( question.getName() );
+    if( nameRecords == null ) {
+      response.getHeader().setRcode( Rcode.NXDOMAIN );
+      return response;
+    }
+    for( var record : nameRecords ) {
+      if( record.getType() == question.getType() )
+        response.addRecord( record, Section.ANSWER );
+    }
+    return response;
+  }
+
+
+  /**
+   * Creates the response to the given query with faults injected, <code>null</code> if the query is lost.
+   */
+  private Message answerWithFaults( Message query ) {
+
+    if( faultInjection.nextLoss() )
+      return null;
+    if( !faultInjection.nextError() )
+      return answer( query );
+
+    var response = new Message( query.getHeader().getID() );
+    response.getHeader().setFlag( Flags.QR );
+    response.getHeader().setRcode( errorRcode );
+    if( query.getQuestion() != null )
+      response.addRecord( query.getQuestion(), Section.QUESTION );
+    return response;
+  }
+
+
+  private void serveUdp() {
+
+    var buffer = new byte[65535];
+    while( !closed ) {
+      var packet = new DatagramPacket( buffer, buffer.length );
+      try {
+        udpSocket.receive( packet );
+        udpQueryCount.incrementAndGet();
+        var query = new Message( Arrays.copyOf( packet.getData(), packet.getLength() ) );
+        var response = answerWithFaults( query );
+        if( response == null )
+          continue;
+        var maxLength = query.getOPT() == null ? 512 : Math.max( 512, query.getOPT().getPayloadSize() );
+        if( truncateUdp ) {
+          response.removeAllRecords( Section.ANSWER );
+          response.getHeader().setFlag( Flags.TC );
+        }
+        sendUdp( response.toWire( maxLength ), packet.getSocketAddress(), faultInjection.nextDelayNanos() );
+      } catch( IOException e ) {
+        // socket closed or malformed query, which is ignored
+      }
+    }
+  }
+
+
+  private void sendUdp( byte[] response, SocketAddress address, long delayNanos ) {
+
+    Runnable send = () -> {
+      try {
+        udpSocket.send( new DatagramPacket( response, response.length, address ) );
+      } catch( IOException e ) {
+        // socket closed
+      }
+    };
+    if( delayNanos > 0 )
+      scheduler.schedule( send, delayNanos, TimeUnit.NANOSECONDS );
+    else
+      send.run();
+  }
+
+
+  private void serveTcp() {
+
+    while( !closed ) {
+      try {
+        var connection = tcpSocket.accept();
+        tcpConnections.add( connection );
+        executor.execute( () -> serveTcpConnection( connection ) );
+      } catch( IOException e ) {
+        // socket closed
+      }
+    }
+  }
+
+
+  private void serveTcpConnection( Socket connection ) {
+
+    try( connection ) {
+      var in = new DataInputStream( connection.getInputStream() );
+      var out = new DataOutputStream( connection.getOutputStream() );
+      while( !closed ) {
+        var query = new byte[in.readUnsignedShort()];
+        in.readFully( query );
+        tcpQueryCount.incrementAndGet();
+        var response = answerWithFaults( new Message( query ) );
+        if( response == null )
+          continue;
+        var delayNanos = faultInjection.nextDelayNanos();
+        if( delayNanos > 0 )
+          TimeUnit.NANOSECONDS.sleep( delayNanos );
+        var wire = response.toWire();
+        out.writeShort( wire.length );
+        out.write( wire );
+        out.flush();
+      }
+    } catch( EOFException e ) {
+      // connection closed by the client
+    } catch( IOException e ) {
+      // connection or socket closed or malformed query
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } finally {
+      tcpConnections.remove( connection );
+    }
+  }
+
+
+  private static Thread createThread( Runnable runnable, String name ) {
+
+    var thread = new Thread( runnable, name );
+    thread.setDaemon( true );
+    return thread;
+  }
+
+
+  @Override
+  public void close() {
+
+    closed = true;
+    udpSocket.close();
+    try {
+      tcpSocket.close();
+    } catch( IOException e ) {
+      // already closed
+    }
+    for( var connection : tcpConnections ) {
+      try {
+        connection.close();
+      } catch( IOException e ) {
+        // already closed
+      }
+    }
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,199 @@
+package de.adrianlange.mcd.testsupport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * In-process HTTP server serving documents added to it for arbitrary host names. Clients reach it as HTTP proxy, see
+ * {@link #getProxySelector()}, s.th. autoconfig URLs of any domain are served by this server. Unknown documents are
+ * answered with status 404.<p>Faults are injected according to {@link #getFaultInjection()}: responses are delayed,
+ * lost requests are not answered until the server is closed and erroneous responses carry the status set by
+ * {@link #setErrorStatus(int)}.
+ *
+ * @author Adrian Lange
+ */
+public class FakeHttpServer implements AutoCloseable {
+
+  static {
+    // responses are written in several packets, which Nagle's algorithm would delay by the client's delayed ACK
+    if( System.getProperty( "sun.net.httpserver.nodelay" ) == null )
+      System.setProperty( "sun.net.httpserver.nodelay", "true" );
+  }
+
+  private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+
+  private final FaultInjection faultInjection = new FaultInjection();
+
+  private final Set<HttpExchange> stalledExchanges = ConcurrentHashMap.newKeySet();
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final AtomicLong requestCount = new AtomicLong();
+
+  private volatile int errorStatus = 503;
+
+
+  /**
+   * Starts a new HTTP server on a free port of the loopback address.
+   *
+   * @throws IOException if the server cannot be started
+   */
+  public FakeHttpServer() throws IOException {
+
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+    executor = Executors.newCachedThreadPool( r -> createThread( r, "fake-http" ) );
+    scheduler = Executors.newSingleThreadScheduledExecutor( r -> createThread( r, "fake-http-scheduler" ) );
+    server.setExecutor( executor );
+    server.createContext( "/", this::handle );
+    server.start();
+  }
+
+
+  /**
+   * Adds a document, which is served for the given host and path. Query parameters are ignored.
+   *
+   * @param host     Host name
+   * @param path     Path of the document
+   * @param document Document
+   * @return this server
+   */
+  public FakeHttpServer addDocument( String host, String path, String document ) {
+
+    documents.put( getKey( host, path ), document.getBytes( StandardCharsets.UTF_8 ) );
+    return this;
+  }
+
+
+  /**
+   * Returns the faults injected into the responses of this server.
+   *
+   * @return Fault injection
+   */
+  public FaultInjection getFaultInjection() {
+
+    return faultInjection;
+  }
+
+
+  /**
+   * Sets the status of erroneous responses, 503 by default.
+   *
+   * @param errorStatus HTTP status
+   */
+  public void setErrorStatus( int errorStatus ) {
+
+    this.errorStatus = errorStatus;
+  }
+
+
+  /**
+   * Returns a proxy selector routing all requests to this server, to be used with
+   * {@link de.adrianlange.mcd.MailserverConfigurationDiscoveryContextBuilder#withHttpProxy(ProxySelector)}.
+   *
+   * @return Proxy selector
+   */
+  public ProxySelector getProxySelector() {
+
+    return ProxySelector.of( server.getAddress() );
+  }
+
+
+  /**
+   * Returns the number of received requests.
+   *
+   * @return Number of requests
+   */
+  public long getRequestCount() {
+
+    return requestCount.get();
+  }
+
+
+  private void handle( HttpExchange exchange ) {
+
+    requestCount.incrementAndGet();
+    if( faultInjection.nextLoss() ) {
+      stalledExchanges.add( exchange );
+      return;
+    }
+
+    var error = faultInjection.nextError();
+    var delayNanos = faultInjection.nextDelayNanos();
+    if( delayNanos > 0 )
+      scheduler.schedule( () -> respond( exchange, error ), delayNanos, TimeUnit.NANOSECONDS );
+    else
+      respond( exchange, error );
+  }
+
+
+  /**
+   * Sends the response. The host is taken from the absolute request URI sent to proxies or from the host header.
+   */
+  private void respond( HttpExchange exchange, boolean error ) {
+
+    try {
+      if( error ) {
+        exchange.sendResponseHeaders( errorStatus, -1 );
+        return;
+      }
+
+      var uri = exchange.getRequestURI();
+      var host = uri.getHost() != null ? uri.getHost() : exchange.getRequestHeaders().getFirst( "Host" );
+      var document = host == null ? null : documents.get( getKey( host.replaceFirst( ":\\d+$", "" ), uri.getPath() ) );
+      if( document == null ) {
+        exchange.sendResponseHeaders( 404, -1 );
+        return;
+      }
+      exchange.getResponseHeaders().set( "Content-Type", "text/xml" );
+      exchange.sendResponseHeaders( 200, document.length );
+      exchange.getResponseBody().write( document );
+    } catch( IOException e ) {
+      // connection closed by the client
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  private static String getKey( String host, String path ) {
+
+    return host.toLowerCase() + path;
+  }
+
+
+  private static Thread createThread( Runnable runnable, String name ) {
+
+    var thread = new Thread( runnable, name );
+    thread.setDaemon( true );
+    return thread;
+  }
+
+
+  @Override
+  public void close() {
+
+    stalledExchanges.forEach( HttpExchange::close );
+    server.stop( 0 );
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+}
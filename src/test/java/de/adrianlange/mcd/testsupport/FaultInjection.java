@@ -0,0 +1,158 @@
+package de.adrianlange.mcd.testsupport;
+
+import java.time.Duration;
+import java.util.Random;
+
+
+/**
+ * Faults injected into the answers of a fake server: latency with optional jitter, lost requests, which are never
+ * answered, and erroneous answers. Random decisions are taken from a seeded generator, s.th. a test run is
+ * reproducible as long as requests arrive in the same order.
+ *
+ * @author Adrian Lange
+ */
+public class FaultInjection {
+
+  private final Random random;
+
+  private volatile Duration latency = Duration.ZERO;
+
+  private volatile Duration jitter = Duration.ZERO;
+
+  private volatile double lossRate = 0;
+
+  private volatile double errorRate = 0;
+
+
+  /**
+   * Creates a fault injection without any faults and a fixed seed.
+   */
+  public FaultInjection() {
+
+    this( 0 );
+  }
+
+
+  /**
+   * Creates a fault injection without any faults.
+   *
+   * @param seed Seed of the random decisions
+   */
+  public FaultInjection( long seed ) {
+
+    this.random = new Random( seed );
+  }
+
+
+  /**
+   * Delays every answer by the given latency.
+   *
+   * @param latency Latency
+   * @return this fault injection
+   */
+  public FaultInjection withLatency( Duration latency ) {
+
+    return withLatency( latency, Duration.ZERO );
+  }
+
+
+  /**
+   * Delays every answer by the given latency plus a uniformly distributed random jitter.
+   *
+   * @param latency Latency
+   * @param jitter  Maximum jitter added to the latency
+   * @return this fault injection
+   */
+  public FaultInjection withLatency( Duration latency, Duration jitter ) {
+
+    if( latency == null || latency.isNegative() || jitter == null || jitter.isNegative() )
+      throw new IllegalArgumentException( "Latency and jitter must not be null or negative!" );
+
+    this.latency = latency;
+    this.jitter = jitter;
+    return this;
+  }
+
+
+  /**
+   * Leaves the given fraction of requests unanswered.
+   *
+   * @param lossRate Rate between 0 and 1
+   * @return this fault injection
+   */
+  public FaultInjection withLossRate( double lossRate ) {
+
+    this.lossRate = checkRate( lossRate );
+    return this;
+  }
+
+
+  /**
+   * Answers the given fraction of requests with an error, see the fake servers for the kind of error.
+   *
+   * @param errorRate Rate between 0 and 1
+   * @return this fault injection
+   */
+  public FaultInjection withErrorRate( double errorRate ) {
+
+    this.errorRate = checkRate( errorRate );
+    return this;
+  }
+
+
+  /**
+   * Removes all faults.
+   *
+   * @return this fault injection
+   */
+  public FaultInjection reset() {
+
+    latency = Duration.ZERO;
+    jitter = Duration.ZERO;
+    lossRate = 0;
+    errorRate = 0;
+    return this;
+  }
+
+
+  /**
+   * Returns the delay of the next answer.
+   *
+   * @return Delay in nanoseconds
+   */
+  public long nextDelayNanos() {
+
+    var jitterNanos = jitter.toNanos();
+    return latency.toNanos() + ( jitterNanos == 0 ? 0 : ( long ) ( random.nextDouble() * jitterNanos ) );
+  }
+
+
+  /**
+   * Decides whether the next request is lost.
+   *
+   * @return True if the request must not be answered
+   */
+  public boolean nextLoss() {
+
+    return lossRate > 0 && random.nextDouble() < lossRate;
+  }
+
+
+  /**
+   * Decides whether the next request is answered with an error.
+   *
+   * @return True if the request has to be answered with an error
+   */
+  public boolean nextError() {
+
+    return errorRate > 0 && random.nextDouble() < errorRate;
+  }
+
+
+  private static double checkRate( double rate ) {
+
+    if( rate < 0 || rate > 1 )
+      throw new IllegalArgumentException( "Rate must be between 0 and 1!" );
+    return rate;
+  }
+}